@@ -0,0 +1,210 @@
+package com.azcord.broker;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.MimeType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fans broker traffic out across the cluster. Sits on the broker channel, so everything
+ * the application publishes to /topic and /queue (and user messages no local session
+ * could take) is also sent to the peers that have subscribers for it. Frames from peers
+ * are fed into the local simple broker, which delivers them to this node's sessions.
+ * Cache invalidations from peers are handed to {@link ClusterInvalidations}.
+ */
+@Component
+public class ClusterBrokerRelay implements ChannelInterceptor, ClusterBus.Listener, LocalSubscriptionRegistry.Listener {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterBrokerRelay.class);
+
+    /** Where user messages go when the user has no session on the sending node. */
+    public static final String USER_BROADCAST_DESTINATION = "/topic/unresolved-user-destination";
+
+    // Marks messages that came from a peer, so they are not sent around again
+    static final String ORIGIN_NODE_HEADER = "azcordClusterOrigin";
+    private static final String CONTENT_TYPE_KEY = ":content-type";
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final ClusterBus bus;
+    private final LocalSubscriptionRegistry subscriptions;
+    private final MessageChannel brokerChannel;
+    private final ClusterInvalidations invalidations;
+
+    // peer node id -> destinations its sessions subscribe to
+    private final Map<String, Set<String>> remoteInterest = new ConcurrentHashMap<>();
+
+    public ClusterBrokerRelay(ClusterBus bus, LocalSubscriptionRegistry subscriptions,
+                              @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                              ClusterInvalidations invalidations) {
+        this.bus = bus;
+        this.subscriptions = subscriptions;
+        this.brokerChannel = brokerChannel;
+        this.invalidations = invalidations;
+    }
+
+    @PostConstruct
+    public void start() {
+        subscriptions.addListener(this);
+        bus.start(this);
+    }
+
+    @PreDestroy
+    public void stop() {
+        bus.stop();
+    }
+
+    public boolean isInterested(String nodeId, String destination) {
+        Set<String> interest = remoteInterest.get(nodeId);
+        if (interest == null) return false;
+        if (interest.contains(destination)) return true;
+        for (String subscribed : interest) {
+            if (PATH_MATCHER.isPattern(subscribed) && PATH_MATCHER.match(subscribed, destination)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- outgoing: local broker traffic -> interested peers
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (message.getHeaders().containsKey(ORIGIN_NODE_HEADER)
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        Set<String> peers = bus.getPeers();
+        if (destination == null || peers.isEmpty()) {
+            return message;
+        }
+
+        boolean toEveryone = USER_BROADCAST_DESTINATION.equals(destination);
+        ClusterFrame frame = null;
+        for (String peer : peers) {
+            if (toEveryone || isInterested(peer, destination)) {
+                if (frame == null) {
+                    frame = toFrame(destination, message);
+                    if (frame == null) return message;
+                }
+                bus.send(peer, frame);
+            }
+        }
+        return message;
+    }
+
+    private ClusterFrame toFrame(String destination, Message<?> message) {
+        byte[] payload;
+        if (message.getPayload() instanceof byte[] bytes) {
+            payload = bytes;
+        } else if (message.getPayload() instanceof String text) {
+            payload = text.getBytes(StandardCharsets.UTF_8);
+        } else {
+            logger.debug("Not relaying {} payload to {}", message.getPayload().getClass().getSimpleName(), destination);
+            return null;
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        Object contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        if (contentType != null) {
+            headers.put(CONTENT_TYPE_KEY, contentType.toString());
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> nativeHeaders =
+                message.getHeaders().get(NativeMessageHeaderAccessor.NATIVE_HEADERS, Map.class);
+        if (nativeHeaders != null) {
+            nativeHeaders.forEach((name, values) -> {
+                if (!values.isEmpty() && values.get(0) != null) headers.put(name, values.get(0));
+            });
+        }
+        return ClusterFrame.message(destination, headers, payload);
+    }
+
+    // ---- incoming: peer frames -> local broker
+
+    @Override
+    public void onFrame(String fromNodeId, ClusterFrame frame) {
+        switch (frame.type()) {
+            case INTEREST_RESET -> remoteInterest.put(fromNodeId, ConcurrentHashMap.newKeySet());
+            case INTEREST_ADD -> remoteInterest.computeIfAbsent(fromNodeId, id -> ConcurrentHashMap.newKeySet())
+                    .add(frame.destination());
+            case INTEREST_REMOVE -> {
+                Set<String> interest = remoteInterest.get(fromNodeId);
+                if (interest != null) interest.remove(frame.destination());
+            }
+            case MESSAGE -> deliverLocally(fromNodeId, frame);
+            case INVALIDATE -> invalidations.received(fromNodeId, frame);
+            case HELLO, AUTH -> { }
+        }
+    }
+
+    private void deliverLocally(String fromNodeId, ClusterFrame frame) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(frame.destination());
+        // The user-destination handler only re-resolves broadcasts that carry a session id
+        accessor.setSessionId("cluster-" + fromNodeId);
+        accessor.setHeader(ORIGIN_NODE_HEADER, fromNodeId);
+        frame.headers().forEach((name, value) -> {
+            if (CONTENT_TYPE_KEY.equals(name)) {
+                accessor.setContentType(MimeType.valueOf(value));
+            } else {
+                accessor.setNativeHeader(name, value);
+            }
+        });
+        brokerChannel.send(MessageBuilder.createMessage(frame.payload(), accessor.getMessageHeaders()));
+    }
+
+    @Override
+    public void peerConnected(String nodeId) {
+        invalidations.peerConnected(nodeId);
+        // Replay our subscriptions; holding the registry lock keeps later changes behind them
+        subscriptions.withDestinations(destinations -> {
+            bus.send(nodeId, ClusterFrame.interest(ClusterFrame.Type.INTEREST_RESET, null));
+            for (String destination : destinations) {
+                bus.send(nodeId, ClusterFrame.interest(ClusterFrame.Type.INTEREST_ADD, destination));
+            }
+        });
+    }
+
+    @Override
+    public void peerDisconnected(String nodeId) {
+        remoteInterest.remove(nodeId);
+    }
+
+    // ---- local subscription changes -> every peer (called under the registry lock)
+
+    @Override
+    public void destinationAdded(String destination) {
+        announce(ClusterFrame.Type.INTEREST_ADD, destination);
+    }
+
+    @Override
+    public void destinationRemoved(String destination) {
+        announce(ClusterFrame.Type.INTEREST_REMOVE, destination);
+    }
+
+    private void announce(ClusterFrame.Type type, String destination) {
+        ClusterFrame frame = ClusterFrame.interest(type, destination);
+        for (String peer : bus.getPeers()) {
+            bus.send(peer, frame);
+        }
+    }
+}
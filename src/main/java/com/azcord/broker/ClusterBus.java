@@ -0,0 +1,33 @@
+package com.azcord.broker;
+
+import java.util.Set;
+
+/**
+ * Point-to-point transport between the nodes of a cluster. The bus only moves frames;
+ * which destinations a peer cares about is decided by {@link ClusterBrokerRelay}.
+ */
+public interface ClusterBus {
+
+    String getNodeId();
+
+    void start(Listener listener);
+
+    void stop();
+
+    /** Peers a frame can currently be sent to. */
+    Set<String> getPeers();
+
+    /** Queues a frame for one peer; frames to the same peer arrive in order. */
+    void send(String nodeId, ClusterFrame frame);
+
+    interface Listener {
+
+        void onFrame(String fromNodeId, ClusterFrame frame);
+
+        /** We can now send to this peer, which knows nothing about our subscriptions yet. */
+        void peerConnected(String nodeId);
+
+        /** This peer stopped talking to us; its subscriptions are gone with it. */
+        void peerDisconnected(String nodeId);
+    }
+}
@@ -0,0 +1,101 @@
+package com.azcord.broker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unit of traffic between nodes. MESSAGE frames carry a broker message; the INTEREST_*
+ * frames tell a peer which destinations the sender has local subscribers for; INVALIDATE
+ * frames tell it which cached entries a committed change made stale.
+ */
+public record ClusterFrame(Type type, String destination, Map<String, String> headers, byte[] payload) {
+
+    public enum Type {
+        HELLO,            // destination holds the sender's node id, the nonce header a fresh challenge
+        INTEREST_RESET,   // forget everything the sender subscribed to so far
+        INTEREST_ADD,
+        INTEREST_REMOVE,
+        MESSAGE,
+        AUTH,             // the proof header answers the peer's HELLO nonce
+        INVALIDATE        // destination names the cache, the key header what changed in it
+    }
+
+    public static final String NONCE_HEADER = "nonce";
+    public static final String PROOF_HEADER = "proof";
+    public static final String KEY_HEADER = "key";
+
+    private static final int MAX_HEADERS = 65_535;
+    private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    // Before AUTH the sender is a stranger: HELLO and AUTH carry one header and no payload
+    private static final int HANDSHAKE_MAX_HEADERS = 4;
+    private static final byte[] EMPTY = new byte[0];
+
+    public static ClusterFrame hello(String nodeId, String nonce) {
+        return new ClusterFrame(Type.HELLO, nodeId, Map.of(NONCE_HEADER, nonce), EMPTY);
+    }
+
+    public static ClusterFrame auth(String proof) {
+        return new ClusterFrame(Type.AUTH, "", Map.of(PROOF_HEADER, proof), EMPTY);
+    }
+
+    public static ClusterFrame invalidate(String cache, String key) {
+        return new ClusterFrame(Type.INVALIDATE, cache, Map.of(KEY_HEADER, key), EMPTY);
+    }
+
+    public static ClusterFrame interest(Type type, String destination) {
+        return new ClusterFrame(type, destination, Collections.emptyMap(), EMPTY);
+    }
+
+    public static ClusterFrame message(String destination, Map<String, String> headers, byte[] payload) {
+        return new ClusterFrame(Type.MESSAGE, destination, headers, payload);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeUTF(destination == null ? "" : destination);
+        out.writeShort(headers.size());
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeUTF(header.getValue());
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    public static ClusterFrame readFrom(DataInputStream in) throws IOException {
+        return readFrom(in, MAX_HEADERS, MAX_PAYLOAD_BYTES);
+    }
+
+    /** Reads a frame from a peer that has not authenticated yet, with much smaller limits. */
+    public static ClusterFrame readHandshakeFrom(DataInputStream in) throws IOException {
+        return readFrom(in, HANDSHAKE_MAX_HEADERS, 0);
+    }
+
+    private static ClusterFrame readFrom(DataInputStream in, int maxHeaders, int maxPayloadBytes) throws IOException {
+        int typeIndex = in.readUnsignedByte();
+        if (typeIndex >= Type.values().length) {
+            throw new IOException("Unknown cluster frame type " + typeIndex);
+        }
+        Type type = Type.values()[typeIndex];
+        String destination = in.readUTF();
+        int headerCount = in.readUnsignedShort();
+        if (headerCount > maxHeaders) {
+            throw new IOException("Too many cluster frame headers: " + headerCount);
+        }
+        Map<String, String> headers = headerCount == 0 ? Collections.emptyMap() : new LinkedHashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(in.readUTF(), in.readUTF());
+        }
+        int length = in.readInt();
+        if (length < 0 || length > maxPayloadBytes) {
+            throw new IOException("Cluster frame payload too large: " + length);
+        }
+        byte[] payload = length == 0 ? EMPTY : new byte[length];
+        in.readFully(payload);
+        return new ClusterFrame(type, destination, headers, payload);
+    }
+}
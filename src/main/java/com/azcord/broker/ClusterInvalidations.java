@@ -0,0 +1,70 @@
+package com.azcord.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the node-local caches (permissions, message tails, subscription access, the
+ * username index) coherent across a cluster. Each cache registers under a name; once a
+ * change commits on this node, the cache applies it locally and {@link #publish}es a key
+ * that every peer hands to its own copy. Handlers only touch local state, so nothing is
+ * sent around twice.
+ *
+ * A node that was cut off from a peer may have missed its invalidations, so whenever a
+ * peer (re)connects every cache is reset and reloads from the database on demand.
+ */
+@Component
+public class ClusterInvalidations {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterInvalidations.class);
+
+    private record Handler(Consumer<String> invalidate, Runnable reset) {
+    }
+
+    private final ClusterBus bus;
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+
+    public ClusterInvalidations(ClusterBus bus) {
+        this.bus = bus;
+    }
+
+    /** {@code invalidate} gets each key a peer published for this cache; {@code reset} drops everything. */
+    public void register(String cache, Consumer<String> invalidate, Runnable reset) {
+        handlers.put(cache, new Handler(invalidate, reset));
+    }
+
+    /** Tells every peer that {@code key} changed; call it after the change committed. */
+    public void publish(String cache, String key) {
+        ClusterFrame frame = null;
+        for (String peer : bus.getPeers()) {
+            if (frame == null) frame = ClusterFrame.invalidate(cache, key);
+            bus.send(peer, frame);
+        }
+    }
+
+    void received(String fromNodeId, ClusterFrame frame) {
+        Handler handler = handlers.get(frame.destination());
+        String key = frame.headers().get(ClusterFrame.KEY_HEADER);
+        if (handler == null || key == null) {
+            logger.debug("Ignoring invalidation of {} from {}", frame.destination(), fromNodeId);
+            return;
+        }
+        try {
+            handler.invalidate().accept(key);
+        } catch (RuntimeException e) {
+            // A key we cannot apply precisely still must not leave stale entries behind
+            logger.warn("Could not apply invalidation {} of {} from {}, resetting it: {}",
+                    key, frame.destination(), fromNodeId, e.getMessage());
+            handler.reset().run();
+        }
+    }
+
+    void peerConnected(String nodeId) {
+        logger.info("Cluster peer {} connected, resetting {} node-local caches", nodeId, handlers.size());
+        handlers.values().forEach(handler -> handler.reset().run());
+    }
+}
@@ -0,0 +1,36 @@
+package com.azcord.broker;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * In-process stand-in used when clustering is off: a single node with no peers,
+ * so every broadcast stays in the local simple broker.
+ */
+public class LocalClusterBus implements ClusterBus {
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void start(Listener listener) {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public Set<String> getPeers() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void send(String nodeId, ClusterFrame frame) {
+    }
+}
@@ -0,0 +1,107 @@
+package com.azcord.broker;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Which broker destinations the STOMP sessions on this node are subscribed to.
+ * Listeners hear about a destination when its first local subscriber arrives and
+ * when its last one leaves. User destinations are left out: they are resolved per node.
+ */
+@Component
+public class LocalSubscriptionRegistry {
+
+    private static final String USER_DESTINATION_PREFIX = "/user/";
+
+    public interface Listener {
+        void destinationAdded(String destination);
+
+        void destinationRemoved(String destination);
+    }
+
+    // sessionId -> subscriptionId -> destination; all state guarded by this
+    private final Map<String, Map<String, String>> sessions = new HashMap<>();
+    private final Map<String, Integer> subscriberCounts = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        subscribe(accessor.getSessionId(), accessor.getSubscriptionId(), accessor.getDestination());
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        unsubscribe(accessor.getSessionId(), accessor.getSubscriptionId());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        removeSession(event.getSessionId());
+    }
+
+    public synchronized void subscribe(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null || destination == null
+                || destination.startsWith(USER_DESTINATION_PREFIX)) {
+            return;
+        }
+        String previous = sessions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(subscriptionId, destination);
+        if (previous != null) {
+            release(previous);
+        }
+        if (subscriberCounts.merge(destination, 1, Integer::sum) == 1) {
+            listeners.forEach(l -> l.destinationAdded(destination));
+        }
+    }
+
+    public synchronized void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = sessions.get(sessionId);
+        if (subscriptions == null) return;
+        String destination = subscriptions.remove(subscriptionId);
+        if (subscriptions.isEmpty()) {
+            sessions.remove(sessionId);
+        }
+        if (destination != null) {
+            release(destination);
+        }
+    }
+
+    public synchronized void removeSession(String sessionId) {
+        Map<String, String> subscriptions = sessions.remove(sessionId);
+        if (subscriptions == null) return;
+        subscriptions.values().forEach(this::release);
+    }
+
+    /** Runs the action on a snapshot of the destinations, atomically with respect to changes. */
+    public synchronized void withDestinations(Consumer<Set<String>> action) {
+        action.accept(new LinkedHashSet<>(subscriberCounts.keySet()));
+    }
+
+    public synchronized boolean hasSubscribers(String destination) {
+        return subscriberCounts.containsKey(destination);
+    }
+
+    private void release(String destination) {
+        Integer remaining = subscriberCounts.computeIfPresent(destination, (d, count) -> count > 1 ? count - 1 : null);
+        if (remaining == null) {
+            listeners.forEach(l -> l.destinationRemoved(destination));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.azcord.broker;
+
+/**
+ * Priority of a frame on its way to one client, highest first. Frames are classified by
+ * destination; anything unknown, and every frame that is not a MESSAGE, goes first.
+ *
+ * Only typing snapshots are ever dropped. Reaction deltas and profile updates are state a
+ * client keeps, so instead a newer frame replaces a queued one for the same thing: the
+ * publisher names that thing in the {@value #COALESCE_HEADER} header.
+ */
+public enum OutboundLane {
+    /** New messages, user queues, signaling and protocol frames. Never dropped. */
+    MESSAGES,
+    /** Edits and deletes. Never dropped. */
+    EDITS,
+    /** Reaction deltas; only the latest per (message, emoji) is kept, since each carries the new total. */
+    REACTIONS,
+    /** Typing snapshots (only the latest per chat is kept) and profile updates (the latest per user). */
+    EPHEMERAL;
+
+    /** Frames on the same destination with the same value of this header replace one another. */
+    public static final String COALESCE_HEADER = "coalesce-key";
+
+    public static OutboundLane of(String destination) {
+        if (destination == null) return MESSAGES;
+        if (destination.endsWith("/typing") || destination.equals("/topic/users/updated")) return EPHEMERAL;
+        if (destination.endsWith("/messages/reactions/updated")) return REACTIONS;
+        if (destination.endsWith("/messages/updated") || destination.endsWith("/messages/deleted")) return EDITS;
+        return MESSAGES;
+    }
+
+    /**
+     * What a newer frame must match to replace a queued one, or null if it replaces nothing.
+     * A typing snapshot is the whole state of its chat, so the destination alone is enough.
+     */
+    public static String coalescingKey(String destination, String coalesceHeader) {
+        if (destination == null) return null;
+        if (droppable(destination)) return destination;
+        return coalesceHeader == null ? null : destination + '\n' + coalesceHeader;
+    }
+
+    /** Whether a frame may be shed to make room; the next snapshot for the chat restores it. */
+    public static boolean droppable(String destination) {
+        return destination != null && destination.endsWith("/typing");
+    }
+}
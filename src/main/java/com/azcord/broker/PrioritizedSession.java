@@ -0,0 +1,290 @@
+package com.azcord.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One client's outbound frames, queued per {@link OutboundLane} and written by a sender
+ * thread, highest lane first. Sending never blocks the caller, so a slow client only
+ * delays itself: newer reaction and profile frames replace queued ones, typing snapshots
+ * are shed, and messages keep flowing. What is queued is bounded per lane by frame count
+ * and per session by the send buffer size limit in bytes. The session is closed if either
+ * bound is reached with nothing left to shed, or a single write stalls past the send time
+ * limit; the client then reconnects and replays what it missed. A failed write closes the
+ * underlying socket right away.
+ */
+public class PrioritizedSession extends WebSocketSessionDecorator {
+    private static final Logger logger = LoggerFactory.getLogger(PrioritizedSession.class);
+    private static final String DESTINATION_HEADER = "destination";
+    // Frames written per turn before the sender thread moves on to other sessions
+    private static final int MAX_BATCH = 32;
+
+    private record Frame(String destination, String key, WebSocketMessage<?> message) {
+        int size() {
+            return message.getPayloadLength();
+        }
+    }
+
+    private final SessionOutboundQueues owner;
+    private final ArrayDeque<Frame>[] lanes;
+    private final ReentrantLock writeLock = new ReentrantLock(); // one write to the delegate at a time
+    private int queued; // guarded by lanes
+    private long queuedBytes; // guarded by lanes
+    private boolean scheduled; // guarded by lanes
+    private volatile long sendStartedAt; // 0 while no write is in progress
+    private volatile boolean closed;
+
+    @SuppressWarnings("unchecked")
+    PrioritizedSession(WebSocketSession delegate, SessionOutboundQueues owner) {
+        super(delegate);
+        this.owner = owner;
+        this.lanes = new ArrayDeque[OutboundLane.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (closed) return;
+        long started = sendStartedAt;
+        if (started != 0 && System.currentTimeMillis() - started > owner.sendTimeLimitMillis()) {
+            owner.overflowed();
+            throw new SessionLimitExceededException("Send time limit exceeded for session " + getId(),
+                    CloseStatus.SESSION_NOT_RELIABLE);
+        }
+        String head = headerBlock(message);
+        String destination = isMessage(head) ? header(head, DESTINATION_HEADER) : null;
+        String key = OutboundLane.coalescingKey(destination,
+                destination == null ? null : header(head, OutboundLane.COALESCE_HEADER));
+        OutboundLane lane = OutboundLane.of(destination);
+        boolean schedule;
+        synchronized (lanes) {
+            enqueue(lane, new Frame(destination, key, message));
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) owner.schedule(this::drain);
+    }
+
+    // Called with the lanes locked
+    private void enqueue(OutboundLane lane, Frame frame) throws SessionLimitExceededException {
+        ArrayDeque<Frame> queue = lanes[lane.ordinal()];
+        if (frame.key() != null) {
+            for (Iterator<Frame> it = queue.iterator(); it.hasNext(); ) {
+                Frame queuedFrame = it.next();
+                if (frame.key().equals(queuedFrame.key())) {
+                    it.remove();
+                    removed(queuedFrame);
+                    owner.coalesced();
+                    break;
+                }
+            }
+        }
+        if (queue.size() >= owner.capacity(lane) && !shed(queue)) {
+            throw overflow("Outbound " + lane + " lane full");
+        }
+        // Only typing snapshots can be shed, and they all wait on the lowest lane
+        while (queuedBytes + frame.size() > owner.sendBufferSizeLimit()) {
+            if (!shed(lanes[OutboundLane.EPHEMERAL.ordinal()])) {
+                throw overflow("Outbound buffer of " + owner.sendBufferSizeLimit() + " bytes full");
+            }
+        }
+        queue.addLast(frame);
+        queued++;
+        queuedBytes += frame.size();
+    }
+
+    // Drops the oldest droppable frame in the queue, if there is one
+    private boolean shed(ArrayDeque<Frame> queue) {
+        for (Iterator<Frame> it = queue.iterator(); it.hasNext(); ) {
+            Frame frame = it.next();
+            if (OutboundLane.droppable(frame.destination())) {
+                it.remove();
+                removed(frame);
+                owner.dropped(OutboundLane.of(frame.destination()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SessionLimitExceededException overflow(String reason) {
+        owner.overflowed();
+        return new SessionLimitExceededException(reason + " for session " + getId(), CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private void removed(Frame frame) {
+        queued--;
+        queuedBytes -= frame.size();
+    }
+
+    private void drain() {
+        for (int sent = 0; sent < MAX_BATCH; sent++) {
+            writeLock.lock();
+            try {
+                Frame next;
+                synchronized (lanes) {
+                    next = closed ? null : poll();
+                    if (next == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                if (!write(next)) {
+                    // Nothing more can reach this client; close now rather than wait for the next send
+                    discard();
+                    try {
+                        getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+                    } catch (IOException e) {
+                        logger.debug("Could not close session {}: {}", getId(), e.getMessage());
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        owner.schedule(this::drain); // still scheduled; give other sessions a turn
+    }
+
+    // Called holding the write lock
+    private boolean write(Frame frame) {
+        sendStartedAt = System.currentTimeMillis();
+        try {
+            getDelegate().sendMessage(frame.message());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Write to session {} failed: {}", getId(), e.getMessage());
+            return false;
+        } finally {
+            sendStartedAt = 0;
+        }
+    }
+
+    private Frame poll() {
+        for (ArrayDeque<Frame> lane : lanes) {
+            Frame frame = lane.pollFirst();
+            if (frame != null) {
+                removed(frame);
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    // STOMP queues an ERROR frame right before closing, so frames other than MESSAGE still
+    // waiting are written first. A write stuck on the client is waited for only up to the
+    // send time limit; after that the session closes without them.
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        boolean locked = false;
+        try {
+            locked = writeLock.tryLock(owner.sendTimeLimitMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (locked) {
+                for (Frame frame : takeControlFrames()) {
+                    if (!write(frame)) break;
+                }
+            }
+            discard();
+        } finally {
+            if (locked) writeLock.unlock();
+        }
+        super.close(status);
+    }
+
+    // Non-MESSAGE frames have no destination and all queue on the messages lane
+    private List<Frame> takeControlFrames() {
+        List<Frame> control = new ArrayList<>();
+        synchronized (lanes) {
+            if (closed) return control;
+            for (Iterator<Frame> it = lanes[OutboundLane.MESSAGES.ordinal()].iterator(); it.hasNext(); ) {
+                Frame frame = it.next();
+                if (frame.destination() == null) {
+                    control.add(frame);
+                    it.remove();
+                    removed(frame);
+                }
+            }
+        }
+        return control;
+    }
+
+    /** Frames queued across all lanes. */
+    public int queuedFrames() {
+        synchronized (lanes) {
+            return queued;
+        }
+    }
+
+    public int queuedFrames(OutboundLane lane) {
+        synchronized (lanes) {
+            return lanes[lane.ordinal()].size();
+        }
+    }
+
+    void discard() {
+        closed = true;
+        synchronized (lanes) {
+            for (ArrayDeque<Frame> lane : lanes) {
+                lane.clear();
+            }
+            queued = 0;
+            queuedBytes = 0;
+        }
+    }
+
+    private static boolean isMessage(String head) {
+        return head != null && head.startsWith("MESSAGE\n");
+    }
+
+    // The first value of a header as sent, still escaped; only ever compared for equality
+    private static String header(String head, String name) {
+        String prefix = "\n" + name + ":";
+        int start = head.indexOf(prefix);
+        if (start < 0) return null;
+        start += prefix.length();
+        int end = head.indexOf('\n', start);
+        return head.substring(start, end < 0 ? head.length() : end);
+    }
+
+    // Command and headers, up to the blank line before the body
+    private static String headerBlock(WebSocketMessage<?> message) {
+        if (message instanceof TextMessage text) {
+            String payload = text.getPayload();
+            int end = payload.indexOf("\n\n");
+            return end < 0 ? payload : payload.substring(0, end + 1);
+        }
+        if (message instanceof BinaryMessage binary) {
+            ByteBuffer buffer = binary.getPayload();
+            for (int i = buffer.position(); i + 1 < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n' && buffer.get(i + 1) == '\n') {
+                    byte[] head = new byte[i + 1 - buffer.position()];
+                    buffer.duplicate().get(head);
+                    return new String(head, StandardCharsets.ISO_8859_1);
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,218 @@
+package com.azcord.broker;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Numbers every event sent to a channel or DM topic (typing aside) and keeps the most
+ * recent ones, so a client that lost its connection can ask for what it missed instead
+ * of refetching the whole conversation.
+ *
+ * Sits on the broker channel after {@link ClusterBrokerRelay}, so frames are stamped where
+ * they are delivered, whether published here or relayed from a peer. Each MESSAGE gets a
+ * {@code seq} header, increasing by one per destination, and a {@code stream} header that
+ * names the numbering it belongs to. A stream ends when the node restarts or the
+ * destination's log is evicted; a client holding an older stream has to refetch.
+ *
+ * A destination's lock is held from stamping until the broker has handed the frame to the
+ * client outbound channel (the broker channel delivers on the sending thread), so frames
+ * reach that channel in seq order. The outbound channel preserves publish order per
+ * session, so each client sees them in that order too.
+ */
+@Component
+public class ReplayLog implements ChannelInterceptor {
+    public static final String SEQ_HEADER = "seq";
+    public static final String STREAM_HEADER = "stream";
+
+    private static final String[] SEQUENCED_PREFIXES = {"/topic/channels/", "/topic/dm/"};
+    // Stale by the time anyone could replay them
+    private static final String TYPING_SUFFIX = "/typing";
+
+    private final int maxEvents;
+    private final long maxBytes;
+    private final int maxDestinations;
+
+    // Differs per process, so numbering from before a restart is never taken as current
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong streams = new AtomicLong();
+
+    // Frames this thread stamped and is still sending, innermost last
+    private final ThreadLocal<ArrayDeque<Sending>> sending = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private record Sending(Message<?> message, Log log) {
+    }
+
+    // Access-ordered so the eldest entry is the coldest destination; guarded by itself
+    private final LinkedHashMap<String, Log> logs;
+
+    public ReplayLog(@Value("${azcord.replay.events-per-destination:100}") int maxEvents,
+                     @Value("${azcord.replay.bytes-per-destination:131072}") long maxBytes,
+                     @Value("${azcord.replay.max-destinations:2000}") int maxDestinations,
+                     MeterRegistry meterRegistry) {
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.maxDestinations = maxDestinations;
+        this.logs = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Log> eldest) {
+                return size() > ReplayLog.this.maxDestinations;
+            }
+        };
+        Gauge.builder("azcord.replay.destinations", logs, l -> {
+            synchronized (l) {
+                return l.size();
+            }
+        }).register(meterRegistry);
+    }
+
+    public static boolean isSequenced(String destination) {
+        if (destination == null || destination.endsWith(TYPING_SUFFIX)) return false;
+        for (String prefix : SEQUENCED_PREFIXES) {
+            if (destination.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (!isSequenced(destination)) {
+            return message;
+        }
+        byte[] payload;
+        if (message.getPayload() instanceof byte[] bytes) {
+            payload = bytes;
+        } else if (message.getPayload() instanceof String text) {
+            payload = text.getBytes(StandardCharsets.UTF_8);
+        } else {
+            return message;
+        }
+
+        Log log = logFor(destination);
+        // Released in afterSendCompletion, once the broker has passed the frame on
+        log.delivery.lock();
+        Message<?> stamped;
+        synchronized (log) {
+            long seq = log.append(payload);
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+            accessor.setNativeHeader(STREAM_HEADER, log.stream);
+            accessor.setNativeHeader(SEQ_HEADER, Long.toString(seq));
+            stamped = MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+        }
+        sending.get().addLast(new Sending(stamped, log));
+        return stamped;
+    }
+
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        ArrayDeque<Sending> stack = sending.get();
+        if (!stack.isEmpty() && stack.peekLast().message() == message) {
+            stack.removeLast().log().delivery.unlock();
+        }
+    }
+
+    /**
+     * The events of a destination after {@code afterSeq} of {@code stream}, or a refetch
+     * when the stream has ended or the oldest missed event is no longer kept.
+     */
+    public Replay since(String destination, String stream, long afterSeq) {
+        Log log;
+        synchronized (logs) {
+            log = logs.get(destination);
+        }
+        if (log == null) {
+            // Nothing sent here since this node started (or since it was evicted). A client
+            // that has never seen an event is up to date; one holding a stream is not.
+            return stream == null ? Replay.upToDate(null, 0) : Replay.refetch(null, 0);
+        }
+        synchronized (log) {
+            if (stream == null || !log.stream.equals(stream) || afterSeq > log.lastSeq) {
+                return Replay.refetch(log.stream, log.lastSeq);
+            }
+            if (afterSeq == log.lastSeq) {
+                return Replay.upToDate(log.stream, log.lastSeq);
+            }
+            if (log.events.isEmpty() || log.events.peekFirst().seq() > afterSeq + 1) {
+                return Replay.refetch(log.stream, log.lastSeq);
+            }
+            List<Event> missed = new ArrayList<>();
+            for (Event event : log.events) {
+                if (event.seq() > afterSeq) missed.add(event);
+            }
+            return new Replay(false, log.stream, log.lastSeq, missed);
+        }
+    }
+
+    public int destinationCount() {
+        synchronized (logs) {
+            return logs.size();
+        }
+    }
+
+    private Log logFor(String destination) {
+        synchronized (logs) {
+            return logs.computeIfAbsent(destination,
+                    d -> new Log(epoch + "." + Long.toString(streams.incrementAndGet(), 36)));
+        }
+    }
+
+    public record Event(long seq, byte[] payload) {
+    }
+
+    public record Replay(boolean refetch, String stream, long lastSeq, List<Event> events) {
+        static Replay upToDate(String stream, long lastSeq) {
+            return new Replay(false, stream, lastSeq, List.of());
+        }
+
+        static Replay refetch(String stream, long lastSeq) {
+            return new Replay(true, stream, lastSeq, List.of());
+        }
+    }
+
+    // Guarded by itself
+    private final class Log {
+        final String stream;
+        // Held across delivery, separate from the monitor so replays never wait on the broker
+        final ReentrantLock delivery = new ReentrantLock();
+        final ArrayDeque<Event> events = new ArrayDeque<>();
+        long lastSeq;
+        long bytes;
+
+        Log(String stream) {
+            this.stream = stream;
+        }
+
+        long append(byte[] payload) {
+            Event event = new Event(++lastSeq, payload);
+            events.addLast(event);
+            bytes += payload.length;
+            while (events.size() > maxEvents || (bytes > maxBytes && events.size() > 1)) {
+                bytes -= events.removeFirst().payload().length;
+            }
+            return event.seq();
+        }
+    }
+}
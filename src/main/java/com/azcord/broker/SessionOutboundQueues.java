@@ -0,0 +1,156 @@
+package com.azcord.broker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives every WebSocket session its own prioritized outbound queue (see
+ * {@link PrioritizedSession}), written by a shared pool of sender threads. The broker and
+ * the client outbound channel only ever enqueue, so one slow client cannot hold them up.
+ * Sessions are bounded by the send buffer size limit here, not by Spring's
+ * ConcurrentWebSocketSessionDecorator, which never sees a backlog since nothing blocks.
+ * Each session's queue depth is published as {@code azcord.websocket.session.queued},
+ * tagged with the session id, for as long as the session is open.
+ */
+@Component
+public class SessionOutboundQueues implements WebSocketHandlerDecoratorFactory {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<OutboundLane, Integer> capacities = new EnumMap<>(OutboundLane.class);
+    private final int sendBufferSizeLimit;
+    private final long sendTimeLimitMillis;
+    private final ThreadPoolExecutor senders;
+    private final Map<String, PrioritizedSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> depthGauges = new ConcurrentHashMap<>();
+    private final Map<OutboundLane, Counter> dropped = new EnumMap<>(OutboundLane.class);
+    private final Counter coalesced;
+    private final Counter overflowed;
+
+    public SessionOutboundQueues(MeterRegistry meterRegistry,
+                                 @Value("${azcord.websocket.outbound.messages-capacity:1000}") int messagesCapacity,
+                                 @Value("${azcord.websocket.outbound.edits-capacity:500}") int editsCapacity,
+                                 @Value("${azcord.websocket.outbound.reactions-capacity:200}") int reactionsCapacity,
+                                 @Value("${azcord.websocket.outbound.ephemeral-capacity:64}") int ephemeralCapacity,
+                                 @Value("${azcord.websocket.outbound.sender-threads:16}") int senderThreads,
+                                 @Value("${azcord.websocket.send-buffer-size-limit:262144}") int sendBufferSizeLimit,
+                                 @Value("${azcord.websocket.send-time-limit-ms:5000}") long sendTimeLimitMillis) {
+        this.meterRegistry = meterRegistry;
+        capacities.put(OutboundLane.MESSAGES, messagesCapacity);
+        capacities.put(OutboundLane.EDITS, editsCapacity);
+        capacities.put(OutboundLane.REACTIONS, reactionsCapacity);
+        capacities.put(OutboundLane.EPHEMERAL, ephemeralCapacity);
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        AtomicInteger count = new AtomicInteger();
+        // Unbounded: a session has at most one drain task queued at a time
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "ws-sender-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        for (OutboundLane lane : OutboundLane.values()) {
+            dropped.put(lane, Counter.builder("azcord.websocket.outbound.dropped")
+                    .tag("lane", lane.name().toLowerCase()).register(meterRegistry));
+        }
+        this.coalesced = Counter.builder("azcord.websocket.outbound.coalesced").register(meterRegistry);
+        this.overflowed = Counter.builder("azcord.websocket.outbound.overflowed").register(meterRegistry);
+        Gauge.builder("azcord.websocket.outbound.queued", sessions,
+                s -> s.values().stream().mapToInt(PrioritizedSession::queuedFrames).sum()).register(meterRegistry);
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                super.afterConnectionEstablished(opened(session));
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                PrioritizedSession prioritized = sessions.get(session.getId());
+                super.handleMessage(prioritized != null ? prioritized : session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                PrioritizedSession prioritized = closed(session.getId());
+                super.afterConnectionClosed(prioritized != null ? prioritized : session, closeStatus);
+            }
+        };
+    }
+
+    PrioritizedSession opened(WebSocketSession session) {
+        PrioritizedSession prioritized = new PrioritizedSession(session, this);
+        sessions.put(session.getId(), prioritized);
+        depthGauges.put(session.getId(), Gauge.builder("azcord.websocket.session.queued", prioritized,
+                PrioritizedSession::queuedFrames).tag("session", session.getId()).register(meterRegistry));
+        return prioritized;
+    }
+
+    PrioritizedSession closed(String sessionId) {
+        Gauge gauge = depthGauges.remove(sessionId);
+        if (gauge != null) meterRegistry.remove(gauge);
+        PrioritizedSession prioritized = sessions.remove(sessionId);
+        if (prioritized != null) prioritized.discard();
+        return prioritized;
+    }
+
+    /** The open session with this id, as the handlers see it. */
+    public PrioritizedSession session(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    int capacity(OutboundLane lane) {
+        return capacities.get(lane);
+    }
+
+    /** Bytes one session may have queued across all lanes. */
+    int sendBufferSizeLimit() {
+        return sendBufferSizeLimit;
+    }
+
+    long sendTimeLimitMillis() {
+        return sendTimeLimitMillis;
+    }
+
+    void schedule(Runnable drain) {
+        senders.execute(drain);
+    }
+
+    void dropped(OutboundLane lane) {
+        dropped.get(lane).increment();
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    void overflowed() {
+        overflowed.increment();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+}
@@ -0,0 +1,407 @@
+package com.azcord.broker;
+
+import com.azcord.dto.SubscriptionRevokedDTO;
+import com.azcord.security.JwtPrincipal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.AntPathMatcher;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * Authorizes STOMP SUBSCRIBEs on the client inbound channel: channel topics need
+ * membership of the channel's server, DM topics need participation in the chat. Clients
+ * may only SEND to /app, so nobody can publish onto a topic directly.
+ *
+ * Members and participants are cached per server / DM chat, so a subscribe that hits
+ * the cache never reaches the database. Grants are remembered per session; when a user
+ * leaves a server or group DM, or the server, channel or chat is deleted, their
+ * subscriptions are dropped from the broker and the session is told on /user/queue/revoked.
+ * Those changes reach every node of a cluster, since each one holds sessions of its own.
+ */
+@Component
+public class SubscriptionGuard implements ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionGuard.class);
+
+    public static final String REVOKED_QUEUE = "/queue/revoked";
+
+    private static final String CHANNEL_PREFIX = "/topic/channels/";
+    private static final String DM_PREFIX = "/topic/dm/";
+    private static final String APP_PREFIX = "/app/";
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private static final String CLUSTER_CACHE = "subscription-access";
+    private static final String MEMBER_ADDED = "member-added";
+    private static final String MEMBER_REMOVED = "member-removed";
+    private static final String SERVER_DELETED = "server-deleted";
+    private static final String CHANNEL_DELETED = "channel-deleted";
+    private static final String PARTICIPANT_ADDED = "participant-added";
+    private static final String PARTICIPANT_REMOVED = "participant-removed";
+    private static final String CHAT_DELETED = "chat-deleted";
+
+    private enum Kind { CHANNEL, DM }
+
+    /** A channel or DM chat topic; serverId is set for channels. */
+    private record Target(Kind kind, long id, long serverId) {
+    }
+
+    private record Grant(String destination, Target target) {
+    }
+
+    private static final class SessionGrants {
+        final long userId;
+        final String username;
+        // subscriptionId -> grant; guarded by this
+        final Map<String, Grant> subscriptions = new LinkedHashMap<>();
+
+        SessionGrants(long userId, String username) {
+            this.userId = userId;
+            this.username = username;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final LocalSubscriptionRegistry localSubscriptions;
+    private final MessageChannel brokerChannel;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ClusterInvalidations clusterInvalidations;
+    private final Counter denied;
+
+    // channelId -> serverId (channels never move between servers), and serverId / chatId ->
+    // user ids; access-ordered LRUs guarded by themselves
+    private final LinkedHashMap<Long, Long> channelServers;
+    private final LinkedHashMap<Long, Set<Long>> serverMembers;
+    private final LinkedHashMap<Long, Set<Long>> dmParticipants;
+    // Bumped by every invalidation, so a load that raced one is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Map<String, SessionGrants> sessions = new ConcurrentHashMap<>();
+
+    public SubscriptionGuard(JdbcTemplate jdbcTemplate, LocalSubscriptionRegistry localSubscriptions,
+                             @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                             @Lazy SimpMessagingTemplate messagingTemplate,
+                             MeterRegistry meterRegistry, ClusterInvalidations clusterInvalidations,
+                             @Value("${azcord.subscriptions.cached-conversations:10000}") int maxCached) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.localSubscriptions = localSubscriptions;
+        this.brokerChannel = brokerChannel;
+        this.messagingTemplate = messagingTemplate;
+        this.clusterInvalidations = clusterInvalidations;
+        this.channelServers = lru(maxCached);
+        this.serverMembers = lru(maxCached);
+        this.dmParticipants = lru(maxCached);
+        this.denied = Counter.builder("azcord.subscriptions.denied").register(meterRegistry);
+        Gauge.builder("azcord.subscriptions.granted", this, SubscriptionGuard::grantCount).register(meterRegistry);
+        clusterInvalidations.register(CLUSTER_CACHE, this::apply, this::reset);
+    }
+
+    private static <V> LinkedHashMap<Long, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // ---- inbound frames
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        if (type == null) return message;
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        switch (type) {
+            case SUBSCRIBE -> authorizeSubscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers),
+                    SimpMessageHeaderAccessor.getDestination(headers), SimpMessageHeaderAccessor.getUser(headers));
+            case MESSAGE -> {
+                String destination = SimpMessageHeaderAccessor.getDestination(headers);
+                if (destination == null || !destination.startsWith(APP_PREFIX)) {
+                    denied.increment();
+                    throw new AccessDeniedException("Clients may only send to " + APP_PREFIX);
+                }
+            }
+            case UNSUBSCRIBE -> forget(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers));
+            case DISCONNECT -> {
+                if (sessionId != null) sessions.remove(sessionId);
+            }
+            default -> { }
+        }
+        return message;
+    }
+
+    private void authorizeSubscribe(String sessionId, String subscriptionId, String destination, Principal user) {
+        if (destination == null || sessionId == null || subscriptionId == null) return;
+        // A pattern could match every channel's topic at once
+        if (PATH_MATCHER.isPattern(destination) || ClusterBrokerRelay.USER_BROADCAST_DESTINATION.equals(destination)) {
+            throw deny(user, destination);
+        }
+        Kind kind = destination.startsWith(CHANNEL_PREFIX) ? Kind.CHANNEL
+                : destination.startsWith(DM_PREFIX) ? Kind.DM : null;
+        if (kind == null) return;
+
+        JwtPrincipal principal = JwtPrincipal.from(user);
+        Long id = idIn(destination, kind == Kind.CHANNEL ? CHANNEL_PREFIX : DM_PREFIX);
+        if (principal == null || principal.userId() == null || id == null) {
+            throw deny(user, destination);
+        }
+        Target target = kind == Kind.CHANNEL ? channelTarget(id) : new Target(Kind.DM, id, 0);
+        if (target == null || !isAllowed(target, principal.userId())) {
+            throw deny(user, destination);
+        }
+        SessionGrants grants = sessions.computeIfAbsent(sessionId,
+                s -> new SessionGrants(principal.userId(), principal.username()));
+        synchronized (grants) {
+            grants.subscriptions.put(subscriptionId, new Grant(destination, target));
+        }
+    }
+
+    private AccessDeniedException deny(Principal user, String destination) {
+        denied.increment();
+        logger.warn("Refused subscription of {} to {}", user != null ? user.getName() : "anonymous", destination);
+        return new AccessDeniedException("Not allowed to subscribe to " + destination);
+    }
+
+    private void forget(String sessionId, String subscriptionId) {
+        SessionGrants grants = sessionId != null ? sessions.get(sessionId) : null;
+        if (grants == null || subscriptionId == null) return;
+        synchronized (grants) {
+            grants.subscriptions.remove(subscriptionId);
+        }
+    }
+
+    private static Long idIn(String destination, String prefix) {
+        int end = destination.indexOf('/', prefix.length());
+        String id = end < 0 ? destination.substring(prefix.length()) : destination.substring(prefix.length(), end);
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // ---- the access cache
+
+    private Target channelTarget(long channelId) {
+        Long serverId;
+        synchronized (channelServers) {
+            serverId = channelServers.get(channelId);
+        }
+        if (serverId == null) {
+            List<Long> found = jdbcTemplate.queryForList("SELECT server_id FROM channel WHERE id = ?", Long.class, channelId);
+            if (found.isEmpty() || found.get(0) == null) return null;
+            serverId = found.get(0);
+            synchronized (channelServers) {
+                channelServers.put(channelId, serverId);
+            }
+        }
+        return new Target(Kind.CHANNEL, channelId, serverId);
+    }
+
+    private boolean isAllowed(Target target, long userId) {
+        return target.kind() == Kind.CHANNEL
+                ? members(serverMembers, target.serverId(), "SELECT user_id FROM server_users WHERE server_id = ?").contains(userId)
+                : members(dmParticipants, target.id(), "SELECT user_id FROM direct_message_chat_participants WHERE chat_id = ?").contains(userId);
+    }
+
+    private Set<Long> members(LinkedHashMap<Long, Set<Long>> cache, long id, String sql) {
+        synchronized (cache) {
+            Set<Long> cached = cache.get(id);
+            if (cached != null) return cached;
+        }
+        long loadedAt = generation.get();
+        Set<Long> loaded = Set.copyOf(jdbcTemplate.queryForList(sql, Long.class, id));
+        // Nobody in it: not created yet, or already gone; either way nothing to remember
+        if (!loaded.isEmpty()) {
+            synchronized (cache) {
+                if (generation.get() == loadedAt) cache.put(id, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    private void invalidate(LinkedHashMap<Long, Set<Long>> cache, long id) {
+        synchronized (cache) {
+            generation.incrementAndGet();
+            cache.remove(id);
+        }
+    }
+
+    // ---- membership changes, applied once they commit, here and then on every peer
+
+    /** Someone joined; the next subscribe reloads the member list. */
+    public void memberAdded(long serverId) {
+        changed(MEMBER_ADDED, serverId);
+    }
+
+    public void memberRemoved(long serverId, long userId) {
+        changed(MEMBER_REMOVED, serverId, userId);
+    }
+
+    public void serverDeleted(long serverId) {
+        changed(SERVER_DELETED, serverId);
+    }
+
+    public void channelDeleted(long channelId) {
+        changed(CHANNEL_DELETED, channelId);
+    }
+
+    public void participantAdded(long chatId) {
+        changed(PARTICIPANT_ADDED, chatId);
+    }
+
+    public void participantRemoved(long chatId, long userId) {
+        changed(PARTICIPANT_REMOVED, chatId, userId);
+    }
+
+    public void directMessageChatDeleted(long chatId) {
+        changed(CHAT_DELETED, chatId);
+    }
+
+    // Peers hold sessions of the same users, so they revoke as well as invalidate
+    private void changed(String event, long... ids) {
+        StringBuilder key = new StringBuilder(event);
+        for (long id : ids) {
+            key.append(':').append(id);
+        }
+        afterCommit(() -> {
+            apply(key.toString());
+            clusterInvalidations.publish(CLUSTER_CACHE, key.toString());
+        });
+    }
+
+    private void apply(String key) {
+        String[] parts = key.split(":");
+        long id = Long.parseLong(parts[1]);
+        switch (parts[0]) {
+            case MEMBER_ADDED -> invalidate(serverMembers, id);
+            case MEMBER_REMOVED -> {
+                long userId = Long.parseLong(parts[2]);
+                invalidate(serverMembers, id);
+                revoke((grants, target) -> grants.userId == userId && target.kind() == Kind.CHANNEL && target.serverId() == id);
+            }
+            case SERVER_DELETED -> {
+                invalidate(serverMembers, id);
+                synchronized (channelServers) {
+                    channelServers.values().removeIf(serverId -> serverId == id);
+                }
+                revoke((grants, target) -> target.kind() == Kind.CHANNEL && target.serverId() == id);
+            }
+            case CHANNEL_DELETED -> {
+                synchronized (channelServers) {
+                    channelServers.remove(id);
+                }
+                revoke((grants, target) -> target.kind() == Kind.CHANNEL && target.id() == id);
+            }
+            case PARTICIPANT_ADDED -> invalidate(dmParticipants, id);
+            case PARTICIPANT_REMOVED -> {
+                long userId = Long.parseLong(parts[2]);
+                invalidate(dmParticipants, id);
+                revoke((grants, target) -> grants.userId == userId && target.kind() == Kind.DM && target.id() == id);
+            }
+            case CHAT_DELETED -> {
+                invalidate(dmParticipants, id);
+                revoke((grants, target) -> target.kind() == Kind.DM && target.id() == id);
+            }
+            default -> throw new IllegalArgumentException("Unknown subscription change " + key);
+        }
+    }
+
+    // Changes missed while cut off from a peer: forget everything and re-check every grant
+    private void reset() {
+        synchronized (channelServers) {
+            channelServers.clear();
+        }
+        for (LinkedHashMap<Long, Set<Long>> cache : List.of(serverMembers, dmParticipants)) {
+            synchronized (cache) {
+                generation.incrementAndGet();
+                cache.clear();
+            }
+        }
+        revoke((grants, target) -> {
+            Target current = target.kind() == Kind.CHANNEL ? channelTarget(target.id()) : target;
+            return current == null || !isAllowed(current, grants.userId);
+        });
+    }
+
+    /** Live channel and DM subscriptions granted on this node. */
+    public int grantCount() {
+        int count = 0;
+        for (SessionGrants grants : sessions.values()) {
+            synchronized (grants) {
+                count += grants.subscriptions.size();
+            }
+        }
+        return count;
+    }
+
+    private void revoke(BiPredicate<SessionGrants, Target> which) {
+        sessions.forEach((sessionId, grants) -> {
+            Map<String, Grant> revoked = new LinkedHashMap<>();
+            synchronized (grants) {
+                grants.subscriptions.entrySet().removeIf(entry -> {
+                    if (!which.test(grants, entry.getValue().target())) return false;
+                    revoked.put(entry.getKey(), entry.getValue());
+                    return true;
+                });
+            }
+            revoked.forEach((subscriptionId, grant) -> unsubscribe(sessionId, grants.username, subscriptionId, grant));
+        });
+    }
+
+    private void unsubscribe(String sessionId, String username, String subscriptionId, Grant grant) {
+        // The simple broker drops the subscription the same way as for a client UNSUBSCRIBE
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        brokerChannel.send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+        localSubscriptions.unsubscribe(sessionId, subscriptionId);
+
+        SimpMessageHeaderAccessor notice = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        notice.setSessionId(sessionId);
+        notice.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(username, REVOKED_QUEUE,
+                new SubscriptionRevokedDTO(grant.destination(), subscriptionId), notice.getMessageHeaders());
+        logger.info("Revoked subscription {} of {} to {}", subscriptionId, username, grant.destination());
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
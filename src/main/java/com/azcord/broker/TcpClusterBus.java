@@ -0,0 +1,373 @@
+package com.azcord.broker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cluster bus over plain TCP. Every node listens on one port and dials every configured
+ * peer; frames to a peer go over our outgoing connection and arrive on its accepted one,
+ * so each connection carries traffic one way only and keeps it in order.
+ *
+ * Several nodes can run on one box by giving each its own port and listing the others
+ * as 127.0.0.1:port.
+ *
+ * The listener binds to the configured address only (loopback unless set otherwise). A
+ * connection carries nothing until both ends have shown they hold the shared secret: each
+ * sends a nonce in its HELLO and answers the other's with an HMAC-SHA256 over both nonces,
+ * both node ids and which end of the connection it is on, so an answer taken from one
+ * connection is no good on another. A peer claiming our own node id is turned away before
+ * we answer anything.
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final Logger logger = LoggerFactory.getLogger(TcpClusterBus.class);
+
+    private static final int SEND_QUEUE_CAPACITY = 10_000;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final String HMAC = "HmacSHA256";
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final String bindAddress;
+    private final int port;
+    private final SecretKeySpec secret;
+    private final SecureRandom random = new SecureRandom();
+    private final List<InetSocketAddress> peerAddresses = new CopyOnWriteArrayList<>();
+
+    // Outgoing links that completed the handshake, by peer node id
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    // Accepted connections per peer; a blip can leave an old one closing after the new one is up
+    private final Map<String, Integer> inboundCounts = new ConcurrentHashMap<>();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "cluster-bus-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile boolean running;
+    private volatile ServerSocket serverSocket;
+    private volatile Listener listener;
+
+    public TcpClusterBus(String bindAddress, int port, List<InetSocketAddress> peers, String secret) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalArgumentException("The cluster bus needs a shared secret");
+        }
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.peerAddresses.addAll(peers);
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC);
+    }
+
+    public static InetSocketAddress parseAddress(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Cluster peer must be host:port, got " + hostAndPort);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon).trim(),
+                Integer.parseInt(hostAndPort.substring(colon + 1).trim()));
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /** The bound port, useful when started on port 0. */
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        if (running) return;
+        this.listener = listener;
+        try {
+            ServerSocket socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(bindAddress, port));
+            this.serverSocket = socket;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not listen for cluster peers on " + bindAddress + ":" + port, e);
+        }
+        running = true;
+        executor.submit(this::acceptLoop);
+        for (InetSocketAddress address : peerAddresses) {
+            executor.submit(new PeerLink(address));
+        }
+        logger.info("Cluster node {} listening on {}:{} with {} configured peers", nodeId, bindAddress, getLocalPort(), peerAddresses.size());
+    }
+
+    /** Dials one more peer, e.g. one that was started after this node. */
+    public void addPeer(InetSocketAddress address) {
+        peerAddresses.add(address);
+        if (running) {
+            executor.submit(new PeerLink(address));
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        closeQuietly(serverSocket);
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    @Override
+    public Set<String> getPeers() {
+        return Collections.unmodifiableSet(links.keySet());
+    }
+
+    @Override
+    public void send(String peerId, ClusterFrame frame) {
+        PeerLink link = links.get(peerId);
+        if (link != null) {
+            link.offer(frame);
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.submit(() -> serveInbound(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Cluster accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serveInbound(Socket socket) {
+        sockets.add(socket);
+        String peerId = null;
+        try {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            peerId = handshake(socket, in, out, false);
+            inboundCounts.merge(peerId, 1, Integer::sum);
+            logger.info("Cluster peer {} connected from {}", peerId, socket.getRemoteSocketAddress());
+            while (running) {
+                listener.onFrame(peerId, ClusterFrame.readFrom(in));
+            }
+        } catch (EOFException | SocketException e) {
+            logger.debug("Cluster peer {} closed its connection", peerId);
+        } catch (IOException e) {
+            logger.warn("Cluster connection from {} failed: {}",
+                    peerId != null ? peerId : socket.getRemoteSocketAddress(), e.getMessage());
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+            if (peerId != null && inboundCounts.computeIfPresent(peerId, (id, n) -> n > 1 ? n - 1 : null) == null) {
+                listener.peerDisconnected(peerId);
+            }
+        }
+    }
+
+    // Both ends send HELLO with a fresh nonce and then answer the other's; returns the peer's node id
+    private String handshake(Socket socket, DataInputStream in, DataOutputStream out, boolean initiator) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MS); // a stranger that connects and says nothing is dropped
+        byte[] challenge = new byte[32];
+        random.nextBytes(challenge);
+        String nonce = Base64.getEncoder().encodeToString(challenge);
+        ClusterFrame.hello(nodeId, nonce).writeTo(out);
+        out.flush();
+
+        ClusterFrame hello = expect(in, ClusterFrame.Type.HELLO);
+        String peerId = hello.destination();
+        String peerNonce = hello.headers().get(ClusterFrame.NONCE_HEADER);
+        if (peerNonce == null) {
+            throw new ClusterAuthenticationException("Cluster peer " + peerId + " sent no challenge");
+        }
+        // Checked before answering: our own answer must never be handed to someone posing as us
+        if (nodeId.equals(peerId)) {
+            throw new SelfConnectionException();
+        }
+        ClusterFrame.auth(proof(initiator, nodeId, peerId, peerNonce, nonce)).writeTo(out);
+        out.flush();
+
+        String proof = expect(in, ClusterFrame.Type.AUTH).headers().get(ClusterFrame.PROOF_HEADER);
+        if (proof == null || !MessageDigest.isEqual(proof.getBytes(StandardCharsets.US_ASCII),
+                proof(!initiator, peerId, nodeId, nonce, peerNonce).getBytes(StandardCharsets.US_ASCII))) {
+            throw new ClusterAuthenticationException("Cluster peer " + peerId + " does not hold the shared secret");
+        }
+        socket.setSoTimeout(0);
+        return peerId;
+    }
+
+    private static ClusterFrame expect(DataInputStream in, ClusterFrame.Type type) throws IOException {
+        ClusterFrame frame = ClusterFrame.readHandshakeFrom(in);
+        if (frame.type() != type) {
+            throw new ClusterAuthenticationException("Expected " + type + " from cluster peer, got " + frame.type());
+        }
+        return frame;
+    }
+
+    // Binds the answer to the end that gives it, both nodes and both nonces, so it cannot be
+    // reflected back to its sender or replayed on another connection
+    private String proof(boolean initiator, String proverId, String verifierId, String challenge, String proverNonce) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(secret);
+            for (String part : List.of(initiator ? "initiator" : "acceptor", proverId, verifierId, challenge, proverNonce)) {
+                mac.update(part.getBytes(StandardCharsets.UTF_8));
+                mac.update((byte) '\n');
+            }
+            return Base64.getEncoder().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static class ClusterAuthenticationException extends IOException {
+        ClusterAuthenticationException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class SelfConnectionException extends ClusterAuthenticationException {
+        SelfConnectionException() {
+            super("Cluster peer claims this node's id");
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Our outgoing connection to one configured peer, redialled until the bus stops. */
+    private final class PeerLink implements Runnable {
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterFrame> queue = new LinkedBlockingQueue<>(SEND_QUEUE_CAPACITY);
+
+        PeerLink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void offer(ClusterFrame frame) {
+            if (!queue.offer(frame) && droppedFrames.incrementAndGet() % 1000 == 1) {
+                logger.warn("Cluster send queue to {} is full, dropping frames", address);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                String peerId = null;
+                Socket socket = new Socket();
+                sockets.add(socket);
+                try {
+                    socket.connect(address, CONNECT_TIMEOUT_MS);
+                    socket.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    peerId = handshake(socket, in, out, true);
+
+                    // The peer never writes after AUTH, so a read only returns when it goes away
+                    executor.submit(() -> {
+                        try {
+                            while (in.read() >= 0) { }
+                        } catch (IOException ignored) {
+                        }
+                        closeQuietly(socket);
+                    });
+
+                    queue.clear();
+                    links.put(peerId, this);
+                    listener.peerConnected(peerId);
+                    writeLoop(socket, out);
+                } catch (SelfConnectionException e) {
+                    logger.info("Cluster peer {} is this node, not dialling it", address);
+                    return;
+                } catch (ClusterAuthenticationException e) {
+                    logger.warn("Cluster link to {} refused: {}", address, e.getMessage());
+                } catch (IOException e) {
+                    if (running) {
+                        logger.debug("Cluster link to {} down: {}", address, e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    if (peerId != null) {
+                        links.remove(peerId, this);
+                    }
+                    sockets.remove(socket);
+                    closeQuietly(socket);
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        // Writes queued frames, flushing only once the queue is drained
+        private void writeLoop(Socket socket, DataOutputStream out) throws IOException, InterruptedException {
+            while (running && !socket.isClosed()) {
+                ClusterFrame frame = queue.poll(1, TimeUnit.SECONDS);
+                if (frame == null) continue;
+                do {
+                    frame.writeTo(out);
+                } while ((frame = queue.poll()) != null);
+                out.flush();
+            }
+        }
+    }
+}
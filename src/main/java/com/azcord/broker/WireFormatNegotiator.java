@@ -0,0 +1,170 @@
+package com.azcord.broker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-session wire format. A client on the native WebSocket endpoint can ask for CBOR at
+ * CONNECT ({@code accept-content-type: application/cbor}); JSON bodies sent to that session
+ * are transcoded and go out as binary frames marked {@code wire-format: cbor}. SockJS only
+ * carries text frames, so its sessions stay on JSON whatever they ask for.
+ */
+@Component
+public class WireFormatNegotiator implements ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(WireFormatNegotiator.class);
+
+    public static final String ACCEPT_HEADER = "accept-content-type";
+    public static final String FORMAT_HEADER = "wire-format";
+    public static final String BINARY_FRAMES_ATTRIBUTE = "azcord.binaryFrames";
+    public static final MimeType CBOR = new MimeType("application", "cbor");
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final CBORFactory cborFactory = new CBORFactory();
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+    // The broker hands every subscriber the same payload array, so one transcode serves a whole fan-out
+    private final Map<byte[], byte[]> transcoded = Collections.synchronizedMap(new WeakHashMap<>());
+    private final ChannelInterceptor outbound = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            return encodeForSession(message);
+        }
+    };
+
+    public WireFormatNegotiator(MeterRegistry meterRegistry) {
+        Gauge.builder("azcord.wire.cbor.sessions", cborSessions, Set::size).register(meterRegistry);
+    }
+
+    /** Marks sessions of an endpoint whose transport can carry binary frames. */
+    public static HandshakeInterceptor binaryFrames() {
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                           WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                attributes.put(BINARY_FRAMES_ATTRIBUTE, Boolean.TRUE);
+                return true;
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Exception exception) {
+            }
+        };
+    }
+
+    /** For the client outbound channel. */
+    public ChannelInterceptor outbound() {
+        return outbound;
+    }
+
+    // Client inbound channel: negotiate at CONNECT, forget at DISCONNECT
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (sessionId == null) return message;
+        if (type == SimpMessageType.CONNECT) {
+            String accept = StompHeaderAccessor.wrap(message).getFirstNativeHeader(ACCEPT_HEADER);
+            Map<String, Object> attributes = SimpMessageHeaderAccessor.getSessionAttributes(headers);
+            boolean binary = attributes != null && Boolean.TRUE.equals(attributes.get(BINARY_FRAMES_ATTRIBUTE));
+            if (binary && accepts(accept, CBOR)) {
+                cborSessions.add(sessionId);
+            }
+        } else if (type == SimpMessageType.DISCONNECT) {
+            cborSessions.remove(sessionId);
+        }
+        return message;
+    }
+
+    public boolean isCbor(String sessionId) {
+        return cborSessions.contains(sessionId);
+    }
+
+    Message<?> encodeForSession(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) return message;
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (sessionId == null || !cborSessions.contains(sessionId)) return message;
+        if (!(message.getPayload() instanceof byte[] json) || !isJson(headers.get(MessageHeaders.CONTENT_TYPE))) {
+            return message;
+        }
+        byte[] cbor = transcoded.get(json);
+        if (cbor == null) {
+            try {
+                cbor = transcode(json);
+            } catch (IOException e) {
+                logger.warn("Could not transcode frame for session {} to CBOR: {}", sessionId, e.getMessage());
+                return message;
+            }
+            transcoded.put(json, cbor);
+        }
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getMutableAccessor(message);
+        // Only octet-stream bodies go out as binary WebSocket frames
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        if (accessor instanceof NativeMessageHeaderAccessor nativeAccessor) {
+            nativeAccessor.setNativeHeader(FORMAT_HEADER, "cbor");
+        }
+        return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+    }
+
+    // Token by token, without building a tree; CBOR keeps the JSON data model
+    byte[] transcode(byte[] json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = cborFactory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean accepts(String accept, MimeType wanted) {
+        if (accept == null) return false;
+        try {
+            for (MimeType type : MimeTypeUtils.parseMimeTypes(accept)) {
+                if (type.equalsTypeAndSubtype(wanted)) return true;
+            }
+        } catch (InvalidMimeTypeException e) {
+            // Unreadable header: stay on JSON
+        }
+        return false;
+    }
+
+    private static boolean isJson(Object contentType) {
+        if (contentType instanceof MimeType type) return MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(type);
+        if (contentType instanceof String type) return MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(MimeType.valueOf(type));
+        return false;
+    }
+}
@@ -0,0 +1,53 @@
+package com.azcord.config;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+
+import com.azcord.broker.ClusterBrokerRelay;
+import com.azcord.broker.ClusterBus;
+import com.azcord.broker.LocalClusterBus;
+import com.azcord.broker.TcpClusterBus;
+
+@Configuration
+public class ClusterConfig {
+
+    //TCP bus when azcord.cluster.enabled=true, otherwise a single node with no peers
+    @Bean
+    public ClusterBus clusterBus(ClusterProperties properties) {
+        if (!properties.isEnabled()) {
+            return new LocalClusterBus();
+        }
+        List<InetSocketAddress> peers = properties.getPeers().stream()
+                .filter(peer -> !peer.isBlank())
+                .map(TcpClusterBus::parseAddress)
+                .toList();
+        if (properties.getSecret() == null || properties.getSecret().isBlank()) {
+            throw new IllegalStateException("azcord.cluster.secret must be set when azcord.cluster.enabled=true");
+        }
+        return new TcpClusterBus(properties.getBindAddress(), properties.getPort(), peers, properties.getSecret());
+    }
+
+    //user messages for a user with no session on the sending node are broadcast
+    //instead of dropped, and every node resolves them against its own sessions
+    //(the registry only offers this for the external broker relay); a single node has
+    //no one to broadcast to, so it keeps the default of dropping them
+    @Bean
+    @ConditionalOnProperty(name = "azcord.cluster.enabled", havingValue = "true")
+    public static BeanPostProcessor userDestinationBroadcastPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof UserDestinationMessageHandler handler) {
+                    handler.setBroadcastDestination(ClusterBrokerRelay.USER_BROADCAST_DESTINATION);
+                }
+                return bean;
+            }
+        };
+    }
+}
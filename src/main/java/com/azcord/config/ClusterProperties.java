@@ -0,0 +1,53 @@
+package com.azcord.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties(prefix = "azcord.cluster")
+public class ClusterProperties {
+    // Off by default: a single node needs no bus
+    private boolean enabled = false;
+    // Interface the bus listens on; loopback unless peers run on other hosts
+    private String bindAddress = "127.0.0.1";
+    // Port this node listens on for its peers
+    private int port = 7400;
+    // Shared by every node; a peer that cannot prove it holds it is disconnected
+    private String secret;
+    // Other nodes as host:port, e.g. 127.0.0.1:7401,127.0.0.1:7402
+    private List<String> peers = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    public String getBindAddress() {
+        return bindAddress;
+    }
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+    public String getSecret() {
+        return secret;
+    }
+    public void setSecret(String secret) {
+        this.secret = secret;
+    }
+    public int getPort() {
+        return port;
+    }
+    public void setPort(int port) {
+        this.port = port;
+    }
+    public List<String> getPeers() {
+        return peers;
+    }
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+}
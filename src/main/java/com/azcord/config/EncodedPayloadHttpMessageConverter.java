@@ -0,0 +1,48 @@
+package com.azcord.config;
+
+import com.azcord.services.EncodedPayload;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Writes an already encoded payload's bytes as the response body, so a REST call returns
+ * the same buffer that was broadcast. Picked up ahead of the Jackson converter by Boot.
+ */
+@Component
+public class EncodedPayloadHttpMessageConverter extends AbstractHttpMessageConverter<EncodedPayload<?>> {
+
+    public EncodedPayloadHttpMessageConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return EncodedPayload.class == clazz;
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected EncodedPayload<?> readInternal(Class<? extends EncodedPayload<?>> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Encoded payloads are outbound only", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(EncodedPayload<?> payload, MediaType contentType) {
+        return (long) payload.json().length;
+    }
+
+    @Override
+    protected void writeInternal(EncodedPayload<?> payload, HttpOutputMessage outputMessage) throws IOException {
+        outputMessage.getBody().write(payload.json());
+    }
+}
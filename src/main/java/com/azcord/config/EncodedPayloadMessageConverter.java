@@ -0,0 +1,30 @@
+package com.azcord.config;
+
+import com.azcord.services.EncodedPayload;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.util.MimeTypeUtils;
+
+/** Puts an already encoded payload's bytes into the STOMP frame as they are. Outbound only. */
+public class EncodedPayloadMessageConverter extends AbstractMessageConverter {
+
+    public EncodedPayloadMessageConverter() {
+        super(MimeTypeUtils.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return EncodedPayload.class == clazz;
+    }
+
+    @Override
+    protected boolean canConvertFrom(Message<?> message, Class<?> targetClass) {
+        return false;
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        return ((EncodedPayload<?>) payload).json();
+    }
+}
@@ -1,16 +1,28 @@
 package com.azcord.config;
 
+import com.azcord.broker.ClusterBrokerRelay;
+import com.azcord.broker.ReplayLog;
+import com.azcord.broker.SessionOutboundQueues;
+import com.azcord.broker.SubscriptionGuard;
+import com.azcord.broker.WireFormatNegotiator;
 import com.azcord.security.JwtHandshakeInterceptor;
 import com.azcord.services.JwtService;
-import com.azcord.services.MyUserDetailsService;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration; // Added import
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.security.messaging.context.SecurityContextChannelInterceptor; // Added import
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.util.List;
 
 @Configuration
 @EnableWebSocketMessageBroker
@@ -20,35 +32,112 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     private JwtService jwtService;
 
     @Autowired
-    private MyUserDetailsService userDetailsService;
+    private ClusterBrokerRelay clusterBrokerRelay;
+
+    @Autowired
+    private ReplayLog replayLog;
+
+    @Autowired
+    private SubscriptionGuard subscriptionGuard;
+
+    @Autowired
+    private WireFormatNegotiator wireFormatNegotiator;
+
+    @Autowired
+    private SessionOutboundQueues sessionOutboundQueues;
+
+    @Autowired
+    private Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    @Value("${azcord.websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+
+    @Value("${azcord.websocket.send-buffer-size-limit:262144}")
+    private int sendBufferSizeLimit;
+
+    @Value("${azcord.websocket.send-time-limit-ms:5000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${azcord.websocket.outbound-threads:16}")
+    private int outboundThreads;
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/topic", "/queue", "/user");
         config.setApplicationDestinationPrefixes("/app");
         config.setUserDestinationPrefix("/user");
+        // The outbound channel runs on a pool; without this two frames for one session could
+        // be written in either order, and clients would see seq 6 before seq 5
+        config.setPreservePublishOrder(true);
+        // Fan broker traffic out to the other nodes (see ClusterConfig for user destinations),
+        // then number what is delivered here so clients can resume after a reconnect
+        config.configureBrokerChannel().interceptors(clusterBrokerRelay, replayLog);
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
-                .addInterceptors(new JwtHandshakeInterceptor(jwtService, userDetailsService))
+                .addInterceptors(new JwtHandshakeInterceptor(jwtService))
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
 
+        // Plain WebSocket for clients that have it: no info request, no SockJS framing or
+        // heartbeat wrapping. Sessions here may negotiate binary CBOR frames.
+        registry.addEndpoint("/ws-native")
+                .addInterceptors(new JwtHandshakeInterceptor(jwtService), WireFormatNegotiator.binaryFrames())
+                .setAllowedOriginPatterns("*");
+
 
         registry.addEndpoint("/signal-ws")
-                .addInterceptors(new JwtHandshakeInterceptor(jwtService, userDetailsService))
+                .addInterceptors(new JwtHandshakeInterceptor(jwtService))
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
     }
 
+    // Payloads encoded once by the services go out as-is; defaults stay registered behind it.
+    // Frames sent with content-type application/cbor are read with the same Jackson settings.
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        MappingJackson2MessageConverter cbor = new MappingJackson2MessageConverter(WireFormatNegotiator.CBOR);
+        cbor.setObjectMapper(objectMapperBuilder.factory(new CBORFactory()).build());
+        cbor.setStrictContentTypeMatch(true);
+        messageConverters.add(0, new EncodedPayloadMessageConverter());
+        messageConverters.add(1, cbor);
+        return true;
+    }
+
     /**
      * Configure the client inbound channel to ensure the SecurityContext is propagated.
      * This helps in making the Principal available in @MessageMapping methods.
+     * Subscriptions to channel and DM topics are checked against membership.
      */
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(new SecurityContextChannelInterceptor());
+        registration.interceptors(new SecurityContextChannelInterceptor(), subscriptionGuard, wireFormatNegotiator);
+    }
+
+    // A fan-out is one send per subscribed session; each send only buffers if the client is
+    // slow, so a fixed pool wider than the default keeps big channels from queueing behind it
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(outboundThreads)
+                .maxPoolSize(outboundThreads);
+        registration.interceptors(wireFormatNegotiator.outbound());
+    }
+
+    /**
+     * Applies to every endpoint. A client that cannot take a frame within the time limit
+     * is disconnected. Inbound frames are chat-sized; files go through the upload API.
+     * Outbound frames wait in per-session priority lanes, which enforce the buffer limit
+     * themselves (Spring's own buffer sits in front of them and never fills), so a slow
+     * session sheds typing snapshots first and is closed once that is not enough.
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit(messageSizeLimit)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setSendTimeLimit(sendTimeLimitMillis)
+                .addDecoratorFactory(sessionOutboundQueues);
     }
 }
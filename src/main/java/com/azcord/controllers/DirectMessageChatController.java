@@ -2,6 +2,7 @@ package com.azcord.controllers;
 
 import com.azcord.dto.CreateDirectMessageChatDTO;
 import com.azcord.dto.DirectMessageChatDTO;
+import com.azcord.dto.DirectMessageChatPageDTO;
 import com.azcord.services.ChatService;
 import com.azcord.services.UserService;
 import com.azcord.models.User;
@@ -29,7 +30,7 @@ public class DirectMessageChatController {
     /** Create‑or‑fetch my 1‑to‑1 chat with {friendId} */
     @PostMapping("/with/{friendId}")
     public DirectMessageChatDTO open(@PathVariable Long friendId, Principal p) {
-        Long me = userService.idOf(p.getName());
+        Long me = userService.idOf(p);
         return chatService.getOrCreate(me, friendId);
     }
 
@@ -47,6 +48,21 @@ public class DirectMessageChatController {
         return ResponseEntity.ok(chats);
     }
 
+    /**
+     * Keyset-paged DM list: pass the nextCursor of a previous response as before.
+     */
+    @GetMapping("/cursor")
+    public ResponseEntity<DirectMessageChatPageDTO> getUserDirectMessageChatPage(
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "50") int limit) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        User currentUser = userService.getUserByName(username);
+        if (currentUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(chatService.getUserDirectMessageChatPage(currentUser.getId(), before, limit));
+    }
+
     /**
      * Create a new 1-on-1 DM or a group DM.
      * For 1-on-1, participantUserIds should contain one ID (the other user).
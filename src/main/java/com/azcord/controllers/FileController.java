@@ -1,28 +1,28 @@
 package com.azcord.controllers;
 
 import com.azcord.config.FileStorageProperties;
+import com.azcord.services.FileDownloadService;
+import com.azcord.services.FileStorageService;
+import com.azcord.services.ThumbnailService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -31,14 +31,20 @@ import java.util.Map;
 import javax.imageio.ImageIO;
 
 @Controller
-@RequestMapping("/api/files")
 @CrossOrigin(origins = "*") // Allow access from any origin
 public class FileController {
 
     private static final Logger logger = LoggerFactory.getLogger(FileController.class);
     private final Path rootFileStorageLocation;
+    private final FileStorageService fileStorageService;
+    private final FileDownloadService fileDownloadService;
+    private final ThumbnailService thumbnailService;
 
-    public FileController(FileStorageProperties fileStorageProperties) {
+    public FileController(FileStorageProperties fileStorageProperties, FileStorageService fileStorageService,
+                          FileDownloadService fileDownloadService, ThumbnailService thumbnailService) {
+        this.fileStorageService = fileStorageService;
+        this.fileDownloadService = fileDownloadService;
+        this.thumbnailService = thumbnailService;
         this.rootFileStorageLocation = Paths.get(fileStorageProperties.getUploadDir())
                 .toAbsolutePath().normalize();
         logger.info("FileController initialized. Root storage location: {}", this.rootFileStorageLocation);
@@ -55,63 +61,88 @@ public class FileController {
         }
     }
 
-    @GetMapping("/{filename:.+}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String filename, HttpServletRequest request) {
+    // Attachments; needs a token
+    @GetMapping("/api/files/{filename:.+}")
+    public void downloadFile(@PathVariable String filename,
+                             @RequestParam(value = ThumbnailService.SIZE_PARAM, required = false) Integer size,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String sanitizedFilename = sanitize(filename, response);
+        if (sanitizedFilename == null) {
+            return;
+        }
+        serve(sanitizedFilename, fileStorageService.locate(sanitizedFilename), size, request, response);
+    }
+
+    // Avatars and server icons; public, so attachment blobs and flat-directory names are not served here
+    @GetMapping("/uploads/blobs/{filename:.+}")
+    public void downloadPublicFile(@PathVariable String filename,
+                                   @RequestParam(value = ThumbnailService.SIZE_PARAM, required = false) Integer size,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String sanitizedFilename = sanitize(filename, response);
+        if (sanitizedFilename == null) {
+            return;
+        }
+        Path filePath = fileStorageService.locatePublic(sanitizedFilename);
+        if (filePath == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        serve(sanitizedFilename, filePath, size, request, response);
+    }
+
+    private String sanitize(String filename, HttpServletResponse response) throws IOException {
         // Basic sanitization to prevent path traversal.
         String sanitizedFilename = filename.replaceAll("\\.\\.[\\\\/]", "").replaceAll("^[\\\\/]+", "");
 
         if (sanitizedFilename.isEmpty() || sanitizedFilename.contains("..")) { // Double check after sanitization
             logger.warn("Invalid filename requested: {}", filename);
-            return ResponseEntity.badRequest().build();
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return null;
         }
+        return sanitizedFilename;
+    }
 
-        Path filePath = this.rootFileStorageLocation.resolve(sanitizedFilename).normalize();
+    private void serve(String sanitizedFilename, Path filePath, Integer size,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
         logger.debug("Attempting to serve file: {}", filePath);
 
         // Security check: Ensure the resolved path is still within the storage root
         if (!filePath.startsWith(this.rootFileStorageLocation)) {
             logger.warn("Attempt to access file outside of designated storage root: {}", filePath);
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(null); // Or a generic error resource
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
         }
 
-        try {
-            Resource resource = new UrlResource(filePath.toUri());
-            if (resource.exists() && resource.isReadable()) {
-                String contentType = null;
-                try {
-                    contentType = request.getServletContext().getMimeType(resource.getFile().getAbsolutePath());
-                    if (contentType == null) { // Fallback using Files.probeContentType
-                        contentType = Files.probeContentType(filePath);
-                    }
-                } catch (IOException ex) {
-                    logger.info("Could not determine file type for {}: {}", filePath.getFileName().toString(), ex.getMessage());
-                }
-                if (contentType == null) {
-                    contentType = "application/octet-stream"; // Default
-                }
-
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + resource.getFilename() + "\"")
-                        // Add CORS headers
-                        .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
-                        .header(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, "GET, OPTIONS")
-                        .header(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, "Content-Type, Authorization")
-                        .body(resource);
-            } else {
-                logger.warn("File not found or not readable: {}", filePath);
-                return ResponseEntity.notFound().build();
+        // Add CORS headers
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, "GET, OPTIONS");
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, "Content-Type, Authorization, Range");
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, "Content-Range, Accept-Ranges, ETag");
+        if (size != null) {
+            // A resized variant, made now if the background job has not got to it yet
+            Path variant;
+            try {
+                variant = thumbnailService.getOrCreate(sanitizedFilename, size);
+            } catch (NoSuchFileException e) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            } catch (IOException e) {
+                logger.warn("Could not resize {}: {}", sanitizedFilename, e.getMessage());
+                response.sendError(HttpStatus.UNPROCESSABLE_ENTITY.value());
+                return;
             }
-        } catch (MalformedURLException ex) {
-            logger.error("Malformed URL for file path {}: {}", filePath, ex.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        } catch (Exception e) {
-            logger.error("Error serving file {}: {}", filePath, e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            if (variant == null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            fileDownloadService.serve(variant, ThumbnailService.variantName(sanitizedFilename, size), request, response);
+            return;
         }
+        // Ranges, conditional requests, caching headers and the zero-copy body
+        fileDownloadService.serve(filePath, sanitizedFilename, request, response);
     }
     
-    @GetMapping("/create-test-image")
+    @GetMapping("/api/files/create-test-image")
     public ResponseEntity<?> createTestImageEndpoint() {
         try {
             String filename = createTestImage();
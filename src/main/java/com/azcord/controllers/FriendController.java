@@ -17,9 +17,9 @@ import org.springframework.web.bind.annotation.RestController;
 import com.azcord.dto.FriendRequestCreateDTO;
 import com.azcord.dto.FriendRequestDTO;
 import com.azcord.dto.UserSimpleDTO;
-import com.azcord.repositories.UserRepository;
 import com.azcord.services.FriendService;
-import com.azcord.services.MapperUtil;
+import com.azcord.services.UserService;
+import com.azcord.services.UsernameIndex;
 
 @RestController
 @RequestMapping("/api/friends")
@@ -29,37 +29,37 @@ public class FriendController {
     private FriendService svc;
     
     @Autowired
-    private UserRepository userRepo;
+    private UserService userService;
+
+    @Autowired
+    private UsernameIndex usernameIndex;
 
     @GetMapping("/search")
     public List<UserSimpleDTO> search(@RequestParam String q) {
-        return userRepo.findTop10ByUsernameContainingIgnoreCase(q)
-                .stream()
-                .map(MapperUtil::toSimple)
-                .toList();
+        return usernameIndex.search(q, UsernameIndex.MAX_RESULTS);
     }
 
     @PostMapping("/requests")
     public void send(@RequestBody FriendRequestCreateDTO dto, Principal p) {
-        Long id = userRepo.findIdByUsername(p.getName());
+        Long id = userService.idOf(p);
         svc.sendRequest(id, dto.receiverId());
     }
 
     @PutMapping("/requests/{id}")
     public void respond(@PathVariable UUID id, @RequestParam boolean accept, Principal p) {
-        Long me = userRepo.findIdByUsername(p.getName());
+        Long me = userService.idOf(p);
         svc.respond(id, me, accept);
     }
 
     @GetMapping
     public List<UserSimpleDTO> myFriends(Principal p) {
-        Long me = userRepo.findIdByUsername(p.getName());
+        Long me = userService.idOf(p);
         return svc.myFriends(me);
     }
 
     @GetMapping("/requests")
     public List<FriendRequestDTO> myPending(Principal p) {
-        Long me = userRepo.findIdByUsername(p.getName());
+        Long me = userService.idOf(p);
         return svc.pending(me);
     }
 } 
\ No newline at end of file
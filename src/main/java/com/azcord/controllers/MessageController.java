@@ -2,8 +2,13 @@ package com.azcord.controllers;
 
 import com.azcord.dto.EditMessageDTO;
 import com.azcord.dto.MessageDTO;
+import com.azcord.dto.MessageSliceDTO;
+import com.azcord.dto.ReactionDeltaDTO;
 import com.azcord.dto.ReactionRequestDTO;
+import com.azcord.dto.ReactorPageDTO;
 import com.azcord.dto.SendMessageDTO;
+import com.azcord.services.EncodedPayload;
+import com.azcord.services.MessageSearchService;
 import com.azcord.services.MessageService;
 import com.azcord.services.UserService;
 import com.azcord.models.User;
@@ -35,38 +40,41 @@ public class MessageController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private MessageSearchService messageSearchService;
+
 
     // Endpoint to send a message (can handle file uploads via REST)
     // For WebSockets, clients usually send simpler JSON payloads after uploading files separately.
     @PostMapping(value = "/messages", consumes = {MediaType.MULTIPART_FORM_DATA_VALUE})
-    public ResponseEntity<MessageDTO> sendMessageWithAttachments(
+    public ResponseEntity<EncodedPayload<MessageDTO>> sendMessageWithAttachments(
             @RequestPart(value = "sendMessageDTO") @Valid SendMessageDTO sendMessageDTO, // JSON part
             @RequestPart(value = "files", required = false) List<MultipartFile> files // File parts
     ) {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
         sendMessageDTO.setFiles(files); // Set files into DTO
-        MessageDTO messageDTO = messageService.sendMessage(sendMessageDTO, username);
+        EncodedPayload<MessageDTO> messageDTO = messageService.sendMessage(sendMessageDTO, username);
         return ResponseEntity.status(HttpStatus.CREATED).body(messageDTO);
     }
      // Fallback for sending message without multipart (e.g. only text or pre-uploaded file URLs)
     @PostMapping(value = "/messages", consumes = {MediaType.APPLICATION_JSON_VALUE})
-    public ResponseEntity<MessageDTO> sendMessageJSON(@Valid @RequestBody SendMessageDTO sendMessageDTO) {
+    public ResponseEntity<EncodedPayload<MessageDTO>> sendMessageJSON(@Valid @RequestBody SendMessageDTO sendMessageDTO) {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
         // Ensure files list is null or empty if not using multipart
         if (sendMessageDTO.getFiles() != null && !sendMessageDTO.getFiles().isEmpty()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null); // Or throw error
         }
-        MessageDTO messageDTO = messageService.sendMessage(sendMessageDTO, username);
+        EncodedPayload<MessageDTO> messageDTO = messageService.sendMessage(sendMessageDTO, username);
         return ResponseEntity.status(HttpStatus.CREATED).body(messageDTO);
     }
 
 
     @PutMapping("/messages/{messageId}")
-    public ResponseEntity<MessageDTO> editMessage(
+    public ResponseEntity<EncodedPayload<MessageDTO>> editMessage(
             @PathVariable Long messageId,
             @Valid @RequestBody EditMessageDTO editMessageDTO) {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
-        MessageDTO updatedMessage = messageService.editMessage(messageId, editMessageDTO, username);
+        EncodedPayload<MessageDTO> updatedMessage = messageService.editMessage(messageId, editMessageDTO, username);
         return ResponseEntity.ok(updatedMessage);
     }
 
@@ -79,21 +87,32 @@ public class MessageController {
 
     // --- Reactions ---
     @PostMapping("/messages/{messageId}/reactions")
-    public ResponseEntity<MessageDTO> addReaction(
+    public ResponseEntity<EncodedPayload<ReactionDeltaDTO>> addReaction(
             @PathVariable Long messageId,
             @Valid @RequestBody ReactionRequestDTO reactionRequestDTO) {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
-        MessageDTO updatedMessage = messageService.addReaction(messageId, username, reactionRequestDTO.getEmojiUnicode());
-        return ResponseEntity.ok(updatedMessage);
+        EncodedPayload<ReactionDeltaDTO> delta = messageService.addReaction(messageId, username, reactionRequestDTO.getEmojiUnicode());
+        return ResponseEntity.ok(delta);
     }
 
     @DeleteMapping("/messages/{messageId}/reactions") // Could also be /messages/{messageId}/reactions/{emojiUnicode}
-    public ResponseEntity<MessageDTO> removeReaction(
+    public ResponseEntity<EncodedPayload<ReactionDeltaDTO>> removeReaction(
             @PathVariable Long messageId,
             @Valid @RequestBody ReactionRequestDTO reactionRequestDTO) { // Assuming emoji is in body for consistency
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
-        MessageDTO updatedMessage = messageService.removeReaction(messageId, username, reactionRequestDTO.getEmojiUnicode());
-        return ResponseEntity.ok(updatedMessage);
+        EncodedPayload<ReactionDeltaDTO> delta = messageService.removeReaction(messageId, username, reactionRequestDTO.getEmojiUnicode());
+        return ResponseEntity.ok(delta);
+    }
+
+    // Who reacted with an emoji; pass the previous page's nextAfter as "after"
+    @GetMapping("/messages/{messageId}/reactions")
+    public ResponseEntity<ReactorPageDTO> getReactors(
+            @PathVariable Long messageId,
+            @RequestParam String emoji,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return ResponseEntity.ok(messageService.getReactors(messageId, username, emoji, after, limit));
     }
 
     // --- Fetching Messages ---
@@ -118,6 +137,19 @@ public class MessageController {
         return ResponseEntity.ok(messages);
     }
 
+    // Cursor-based history: pass the olderCursor/newerCursor of a previous response as before/after,
+    // or a message id as around to jump to it. No COUNT query, constant cost at any depth.
+    @GetMapping("/channels/{channelId}/messages/cursor")
+    public ResponseEntity<MessageSliceDTO> getChannelMessageSlice(
+            @PathVariable Long channelId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Long around,
+            @RequestParam(defaultValue = "50") int size) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return ResponseEntity.ok(messageService.getChannelHistory(channelId, username, before, after, around, size));
+    }
+
 
     @GetMapping("/dm-chats/{dmChatId}/messages")
     public ResponseEntity<Page<MessageDTO>> getDirectMessageChatMessages(
@@ -139,4 +171,38 @@ public class MessageController {
          List<MessageDTO> messages = messageService.getMessagesForDirectMessageChatBefore(dmChatId, username, timestamp, size);
         return ResponseEntity.ok(messages);
     }
-}
\ No newline at end of file
+
+    @GetMapping("/dm-chats/{dmChatId}/messages/cursor")
+    public ResponseEntity<MessageSliceDTO> getDirectMessageChatMessageSlice(
+            @PathVariable Long dmChatId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Long around,
+            @RequestParam(defaultValue = "50") int size) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return ResponseEntity.ok(messageService.getDirectMessageChatHistory(dmChatId, username, before, after, around, size));
+    }
+
+    // --- Search ---
+    // q supports words, prefixes (depl*) and from:user, in:channel, has:attachment, before:/after:YYYY-MM-DD.
+    // Newest first; pass olderCursor back as before for the next page.
+    @GetMapping("/servers/{serverId}/messages/search")
+    public ResponseEntity<MessageSliceDTO> searchServerMessages(
+            @PathVariable Long serverId,
+            @RequestParam String q,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "25") int size) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return ResponseEntity.ok(messageSearchService.searchServer(serverId, q, before, size, username));
+    }
+
+    @GetMapping("/dm-chats/{dmChatId}/messages/search")
+    public ResponseEntity<MessageSliceDTO> searchDirectMessageChatMessages(
+            @PathVariable Long dmChatId,
+            @RequestParam String q,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "25") int size) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return ResponseEntity.ok(messageSearchService.searchDirectMessageChat(dmChatId, q, before, size, username));
+    }
+}
@@ -0,0 +1,37 @@
+package com.azcord.controllers;
+
+import com.azcord.dto.ReadAckDTO;
+import com.azcord.dto.ReadStateDTO;
+import com.azcord.services.ReadStateService;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Unread and mention counts. Acks are also accepted over STOMP at /app/chat.ack; either
+ * way they are batched and the written state is pushed to /user/queue/read-states.
+ */
+@RestController
+@RequestMapping("/api/read-states")
+public class ReadStateController {
+
+    @Autowired
+    private ReadStateService readStateService;
+
+    @GetMapping
+    public ResponseEntity<List<ReadStateDTO>> getReadStates() {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return ResponseEntity.ok(readStateService.getReadStates(username));
+    }
+
+    @PostMapping("/ack")
+    public ResponseEntity<Void> ack(@Valid @RequestBody ReadAckDTO ackDTO) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        readStateService.ack(ackDTO, username);
+        return ResponseEntity.accepted().build();
+    }
+}
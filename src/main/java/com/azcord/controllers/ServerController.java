@@ -1,5 +1,6 @@
 package com.azcord.controllers;
 
+import java.security.Principal;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -26,6 +27,7 @@ import com.azcord.dto.RoleDTO;
 import com.azcord.dto.RoleUpdateDTO;
 import com.azcord.dto.ServerCreateDTO;
 import com.azcord.dto.ServerDTO;
+import com.azcord.dto.UserSimpleDTO;
 import com.azcord.exceptions.DuplicateServerNameException;
 import com.azcord.models.Invite;
 import com.azcord.models.Permission;
@@ -242,6 +244,19 @@ public class ServerController {
         return ResponseEntity.ok(roleDTOs);
     }
 
+    /**
+     * Suggests server members for an @mention.
+     * @param serverId The ID of the server.
+     * @param q The username prefix typed so far.
+     * @return Up to a handful of matching members.
+     */
+    @GetMapping("/{serverId}/members/autocomplete")
+    public ResponseEntity<List<UserSimpleDTO>> autocompleteMembers(@PathVariable("serverId") Long serverId,
+            @RequestParam(value = "q", defaultValue = "") String q, Principal principal) {
+        Long userId = userService.idOf(principal);
+        return ResponseEntity.ok(serverService.autocompleteMembers(serverId, userId, q));
+    }
+
     // --- New Permissions Endpoint ---
     /**
      * Retrieves a list of all available permissions in the system.
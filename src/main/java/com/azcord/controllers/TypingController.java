@@ -1,11 +1,11 @@
 package com.azcord.controllers;
 
 import com.azcord.dto.TypingDTO;
-import com.azcord.models.User;
-import com.azcord.repositories.UserRepository;
+import com.azcord.security.JwtPrincipal;
+import com.azcord.services.TypingTracker;
+import com.azcord.services.UserService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
 import java.security.Principal;
@@ -14,16 +14,14 @@ import java.security.Principal;
 @RequiredArgsConstructor
 public class TypingController {
 
-    private final SimpMessagingTemplate broker;
-    private final UserRepository userRepo;
+    private final TypingTracker typingTracker;
+    private final UserService userService;
 
+    // Subscribers get a coalesced snapshot from the tracker's tick, not one frame per event
     @MessageMapping("/chat.typing")
     public void typing(TypingDTO dto, Principal pr) {
-        User u = userRepo.findByUsername(pr.getName()).orElseThrow();
-        String dest = dto.direct()
-                ? "/topic/dm/" + dto.chatId() + "/typing"
-                : "/topic/channels/" + dto.chatId() + "/typing";
-        broker.convertAndSend(dest,
-                new TypingDTO(dto.chatId(), u.getId(), u.getUsername(), dto.direct()));
+        if (dto.chatId() == null) return;
+        JwtPrincipal u = userService.principalOf(pr);
+        typingTracker.typing(dto.chatId(), dto.direct(), u.userId(), u.username());
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package com.azcord.controllers;
+
+import com.azcord.dto.CreateUploadDTO;
+import com.azcord.dto.UploadSessionDTO;
+import com.azcord.services.ChunkedUploadService;
+import com.azcord.services.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Principal;
+
+/**
+ * Resumable uploads. Create a session, PUT each chunk as the raw request body to
+ * /chunks/{index} with its SHA-256 in X-Chunk-SHA256, then POST /complete. After a
+ * disconnect, GET the session and resend missingChunks. Put the upload id in
+ * SendMessageDTO.uploadIds to attach the file.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadController {
+
+    public static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-SHA256";
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private UserService userService;
+
+    @PostMapping
+    public ResponseEntity<UploadSessionDTO> createUpload(@Valid @RequestBody CreateUploadDTO createUploadDTO, Principal principal) {
+        Long userId = userService.idOf(principal);
+        return ResponseEntity.status(HttpStatus.CREATED).body(chunkedUploadService.create(createUploadDTO, userId));
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadSessionDTO> getUpload(@PathVariable String uploadId, Principal principal) {
+        Long userId = userService.idOf(principal);
+        return ResponseEntity.ok(chunkedUploadService.getSession(uploadId, userId));
+    }
+
+    // Reads the servlet input stream directly, so the chunk is never buffered in memory
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<UploadSessionDTO> putChunk(@PathVariable String uploadId, @PathVariable int index,
+                                                     @RequestHeader(value = CHUNK_CHECKSUM_HEADER, required = false) String checksum,
+                                                     HttpServletRequest request, Principal principal) throws IOException {
+        Long userId = userService.idOf(principal);
+        try (InputStream body = request.getInputStream()) {
+            return ResponseEntity.ok(chunkedUploadService.writeChunk(uploadId, index, checksum, body, userId));
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<UploadSessionDTO> completeUpload(@PathVariable String uploadId, Principal principal) throws IOException {
+        Long userId = userService.idOf(principal);
+        return ResponseEntity.ok(chunkedUploadService.complete(uploadId, userId));
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String uploadId, Principal principal) {
+        Long userId = userService.idOf(principal);
+        chunkedUploadService.abort(uploadId, userId);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -2,6 +2,7 @@ package com.azcord.controllers;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -20,6 +21,7 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.security.core.Authentication;
 import jakarta.servlet.http.HttpServletRequest;
 
+import com.azcord.broker.OutboundLane;
 import com.azcord.dto.UserLoginDTO;
 import com.azcord.dto.UserRegistrationDTO;
 import com.azcord.dto.UserSimpleDTO;
@@ -155,7 +157,8 @@ public class UserController{
             System.out.println("Profile updated successfully. New avatarUrl: " + updatedUser.getAvatarUrl());
             
             // Broadcast the update to all connected clients
-            broker.convertAndSend("/topic/users/updated", updatedUser);
+            broker.convertAndSend("/topic/users/updated", updatedUser,
+                    Map.<String, Object>of(OutboundLane.COALESCE_HEADER, String.valueOf(updatedUser.getId())));
             System.out.println("Broadcast profile update to: /topic/users/updated");
             
             System.out.println("==== PROFILE UPDATE REQUEST END (Success) ====\n");
@@ -5,6 +5,8 @@ import com.azcord.exceptions.ForbiddenAccessException;
 import com.azcord.exceptions.InvalidMessageException;
 import com.azcord.exceptions.MessageNotFoundException;
 import com.azcord.services.MessageService;
+import com.azcord.services.ReadStateService;
+import com.azcord.services.SessionResumeService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +19,7 @@ import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.stereotype.Controller;
 
 import java.security.Principal; // Standard Principal
+import java.util.List;
 
 @Controller
 public class WebSocketChatController {
@@ -29,6 +32,12 @@ public class WebSocketChatController {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private ReadStateService readStateService;
+
+    @Autowired
+    private SessionResumeService sessionResumeService;
+
 
     // Handles sending a message to a channel or DM
     @MessageMapping("/chat.sendMessage")
@@ -134,6 +143,36 @@ public class WebSocketChatController {
     }
 
 
+    // Marks a channel or DM read up to a message; acks are batched, so no reply is sent
+    // here. The resulting state arrives on /user/queue/read-states once written.
+    @MessageMapping("/chat.ack")
+    public void ack(@Payload ReadAckDTO ackDTO, Principal principal, SimpMessageHeaderAccessor headerAccessor) {
+        if (principal == null || principal.getName() == null) {
+            logger.warn("Attempt to ack from unauthenticated WebSocket session. SID: {}", headerAccessor.getSessionId());
+            sendErrorMessageToUser(headerAccessor.getSessionId(), "Authentication required to mark messages read.");
+            return;
+        }
+        try {
+            readStateService.ack(ackDTO, principal.getName());
+        } catch (Exception e) {
+            logger.error("Error acking for user {}: {}", principal.getName(), e.getMessage());
+            sendErrorMessageToUser(headerAccessor.getSessionId(), "Error marking messages read: " + e.getMessage());
+        }
+    }
+
+    // After a reconnect: the client re-subscribes first, then sends the stream/seq headers of
+    // the last event it saw on each topic. Only this session gets the reply; failures go to
+    // /user/queue/errors through the handler below.
+    @MessageMapping("/chat.resume")
+    @SendToUser(destinations = "/queue/resume", broadcast = false)
+    public List<ReplayDTO> resume(@Payload ResumeRequestDTO resumeRequestDTO, Principal principal) {
+        if (principal == null || principal.getName() == null) {
+            throw new ForbiddenAccessException("Authentication required to resume.");
+        }
+        return sessionResumeService.resume(resumeRequestDTO, principal.getName());
+    }
+
+
     // Handles removing a reaction
     @MessageMapping("/chat.removeReaction")
     public void removeReaction(@Payload ReactionRemoveRequestPayload payload, Principal principal, SimpMessageHeaderAccessor headerAccessor) {
@@ -161,26 +200,8 @@ public class WebSocketChatController {
         public ReactionRequestDTO getReactionRequestDTO() { return reactionRequestDTO; }
         public void setReactionRequestDTO(ReactionRequestDTO reactionRequestDTO) { this.reactionRequestDTO = reactionRequestDTO; }
     }
-    /*
-    // Handles typing indicators
-    @MessageMapping("/chat.typing")
-    public void handleTypingIndicator(@Payload TypingIndicatorDTO typingIndicatorDTO, Principal principal, SimpMessageHeaderAccessor headerAccessor) {
-        if (principal == null || principal.getName() == null) {
-             logger.warn("Typing indicator from unauthenticated WebSocket session. SID: {}", headerAccessor.getSessionId());
-    // Don't send error for typing, just ignore
-            return;
-          String username = principal.getName();
-    // Service will set userId and username from principal and broadcast
-        messageService.broadcastTypingIndicator(typingIndicatorDTO, username);
-    }
-
-
     // Generic error handler for exceptions thrown from @MessageMapping methods
     // This sends an error message back to the specific user who caused the error.
-
-
-
-    */
     @MessageExceptionHandler
     @SendToUser("/queue/errors") // User-specific error queue
     public WebSocketErrorMessageDTO handleException(Throwable exception, Principal principal, SimpMessageHeaderAccessor headerAccessor) {
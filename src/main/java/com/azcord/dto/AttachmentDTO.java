@@ -1,7 +1,11 @@
 package com.azcord.dto;
 
 import com.azcord.models.MessageType;
+import com.azcord.services.ThumbnailService;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
 
 public class AttachmentDTO {
     private Long id;
@@ -79,4 +83,10 @@ public class AttachmentDTO {
     public void setUploadedAt(LocalDateTime uploadedAt) {
         this.uploadedAt = uploadedAt;
     }
-}
\ No newline at end of file
+
+    /** Resized copies by longest side in px (64, 256, 1024); empty unless this is an image. */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public Map<Integer, String> getVariants() {
+        return attachmentType == MessageType.IMAGE ? ThumbnailService.variantUrls(fileUrl) : Collections.emptyMap();
+    }
+}
@@ -0,0 +1,26 @@
+package com.azcord.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * DTO for starting a resumable upload.
+ */
+@Getter
+@Setter
+public class CreateUploadDTO {
+    @NotBlank(message = "File name is required")
+    private String fileName;
+
+    private String contentType;
+
+    @Positive(message = "Size must be positive")
+    private long size;
+
+    // Optional SHA-256 of the whole file, hex; checked when the upload is completed
+    @Pattern(regexp = "^[0-9a-fA-F]{64}$", message = "sha256 must be 64 hex characters")
+    private String sha256;
+}
@@ -0,0 +1,35 @@
+package com.azcord.dto;
+
+import java.util.List;
+
+/**
+ * One page of the DM chat list, most recently active first. nextCursor is null on the
+ * last page.
+ */
+public class DirectMessageChatPageDTO {
+    private List<DirectMessageChatDTO> chats;
+    private String nextCursor;
+
+    public DirectMessageChatPageDTO() {}
+
+    public DirectMessageChatPageDTO(List<DirectMessageChatDTO> chats, String nextCursor) {
+        this.chats = chats;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<DirectMessageChatDTO> getChats() {
+        return chats;
+    }
+
+    public void setChats(List<DirectMessageChatDTO> chats) {
+        this.chats = chats;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -18,7 +18,7 @@ public class MessageDTO {
     private Long directMessageChatId;
     private List<AttachmentDTO> attachments;
     private Map<String, Integer> reactionCounts;
-    private Map<String, Set<UserSimpleDTO>> reactionsByEmoji;
+    private Set<String> myReactions; // Emojis the requesting user reacted with; only set on REST reads
     private Long parentMessageId;
     private ParentMessageInfoDTO repliedTo;
 
@@ -26,8 +26,7 @@ public class MessageDTO {
 
     public MessageDTO(Long id, UserSimpleDTO sender, String content, MessageType messageType, LocalDateTime createdAt,
                       LocalDateTime updatedAt, boolean edited, Long channelId, Long directMessageChatId,
-                      List<AttachmentDTO> attachments, Map<String, Integer> reactionCounts,
-                      Map<String, Set<UserSimpleDTO>> reactionsByEmoji, Long parentMessageId) {
+                      List<AttachmentDTO> attachments, Map<String, Integer> reactionCounts, Long parentMessageId) {
         this.id = id;
         this.sender = sender;
         this.content = content;
@@ -39,10 +38,17 @@ public class MessageDTO {
         this.directMessageChatId = directMessageChatId;
         this.attachments = attachments;
         this.reactionCounts = reactionCounts;
-        this.reactionsByEmoji = reactionsByEmoji;
         this.parentMessageId = parentMessageId;
     }
 
+    // Shallow copy, for adjusting a DTO that may also sit in the tail cache
+    public MessageDTO(MessageDTO other) {
+        this(other.id, other.sender, other.content, other.messageType, other.createdAt, other.updatedAt, other.edited,
+                other.channelId, other.directMessageChatId, other.attachments, other.reactionCounts, other.parentMessageId);
+        this.repliedTo = other.repliedTo;
+        this.myReactions = other.myReactions;
+    }
+
     public ParentMessageInfoDTO getRepliedTo() {
         return repliedTo;
     }
@@ -138,12 +144,12 @@ public class MessageDTO {
         this.reactionCounts = reactionCounts;
     }
 
-    public Map<String, Set<UserSimpleDTO>> getReactionsByEmoji() {
-        return reactionsByEmoji;
+    public Set<String> getMyReactions() {
+        return myReactions;
     }
 
-    public void setReactionsByEmoji(Map<String, Set<UserSimpleDTO>> reactionsByEmoji) {
-        this.reactionsByEmoji = reactionsByEmoji;
+    public void setMyReactions(Set<String> myReactions) {
+        this.myReactions = myReactions;
     }
 
     public Long getParentMessageId() {
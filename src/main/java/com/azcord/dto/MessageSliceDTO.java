@@ -0,0 +1,47 @@
+package com.azcord.dto;
+
+import java.util.List;
+
+/**
+ * One window of message history, newest first, with opaque cursors for paging.
+ * olderCursor is null when there is nothing older. In history, newerCursor is set whenever
+ * the window has messages, also at the live end, so a client can always ask for what came
+ * after it; search results only page backwards and leave it null.
+ */
+public class MessageSliceDTO {
+    private List<MessageDTO> messages;
+    private String olderCursor;
+    private String newerCursor;
+
+    public MessageSliceDTO() {}
+
+    public MessageSliceDTO(List<MessageDTO> messages, String olderCursor, String newerCursor) {
+        this.messages = messages;
+        this.olderCursor = olderCursor;
+        this.newerCursor = newerCursor;
+    }
+
+    public List<MessageDTO> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<MessageDTO> messages) {
+        this.messages = messages;
+    }
+
+    public String getOlderCursor() {
+        return olderCursor;
+    }
+
+    public void setOlderCursor(String olderCursor) {
+        this.olderCursor = olderCursor;
+    }
+
+    public String getNewerCursor() {
+        return newerCursor;
+    }
+
+    public void setNewerCursor(String newerCursor) {
+        this.newerCursor = newerCursor;
+    }
+}
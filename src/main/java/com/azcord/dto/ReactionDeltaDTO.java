@@ -0,0 +1,22 @@
+package com.azcord.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One reaction change, broadcast instead of the whole message. count is the new total
+ * for the emoji, so a client that missed an event converges on the next one.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReactionDeltaDTO {
+    private Long messageId;
+    private String emoji;
+    private long count;
+    private Long userId; // Who reacted or un-reacted
+    private boolean added;
+}
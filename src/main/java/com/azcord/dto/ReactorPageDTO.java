@@ -0,0 +1,22 @@
+package com.azcord.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * One page of the users who reacted with an emoji, in reaction order. Pass nextAfter as
+ * "after" for the next page; it is null on the last one.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReactorPageDTO {
+    private List<UserSimpleDTO> users;
+    private long count;
+    private Long nextAfter;
+}
@@ -0,0 +1,20 @@
+package com.azcord.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Marks a channel or DM chat read up to and including messageId. Set exactly one of
+ * channelId and directMessageChatId.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class ReadAckDTO {
+    private Long channelId;
+    private Long directMessageChatId;
+    @NotNull
+    private Long messageId;
+}
@@ -0,0 +1,23 @@
+package com.azcord.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A user's read position in one channel or DM chat. Exactly one of channelId and
+ * directMessageChatId is set.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadStateDTO {
+    private Long channelId;
+    private Long directMessageChatId;
+    private Long lastReadMessageId; // Null if never acked
+    private Long lastMessageId;
+    private long unreadCount;
+    private int mentionCount;
+}
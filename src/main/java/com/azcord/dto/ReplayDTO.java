@@ -0,0 +1,37 @@
+package com.azcord.dto;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * What a topic missed while the client was away. With refetch set, the events are gone
+ * and the client should reload the conversation over REST; otherwise events holds every
+ * event after the requested seq, in order. Events that also arrived live since the
+ * re-subscribe carry the same seq and can be dropped.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplayDTO {
+    private String destination;
+    private String stream;
+    private long lastSeq;
+    private boolean refetch;
+    private List<Event> events;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Event {
+        private long seq;
+        @JsonRawValue
+        private String payload; // The event body exactly as it was broadcast
+    }
+}
@@ -0,0 +1,30 @@
+package com.azcord.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sent after reconnecting and re-subscribing: for each topic, the stream and seq headers
+ * of the last event the client handled before the connection dropped.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class ResumeRequestDTO {
+    private List<Position> positions = new ArrayList<>();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    public static class Position {
+        @NotNull
+        private String destination;
+        private String stream; // Null if no event was seen yet
+        private long lastSeq;
+    }
+}
@@ -21,6 +21,7 @@ public class SendMessageDTO {
     private transient List<MultipartFile> files;
     private List<String> attachmentUrls;
     private List<String> attachmentMimeTypes;
+    private List<String> uploadIds; // Completed resumable uploads to attach
 
     public boolean isValidTarget() {
         return (channelId != null && directMessageChatId == null) || (channelId == null && directMessageChatId != null);
@@ -29,7 +30,8 @@ public class SendMessageDTO {
     public boolean hasContent() {
         return (content != null && !content.isBlank()) ||
                (files != null && !files.isEmpty()) ||
-               (attachmentUrls != null && !attachmentUrls.isEmpty());
+               (attachmentUrls != null && !attachmentUrls.isEmpty()) ||
+               (uploadIds != null && !uploadIds.isEmpty());
     }
 
     public String getContent() {
@@ -87,4 +89,12 @@ public class SendMessageDTO {
     public void setAttachmentMimeTypes(List<String> attachmentMimeTypes) {
         this.attachmentMimeTypes = attachmentMimeTypes;
     }
-}
\ No newline at end of file
+
+    public List<String> getUploadIds() {
+        return uploadIds;
+    }
+
+    public void setUploadIds(List<String> uploadIds) {
+        this.uploadIds = uploadIds;
+    }
+}
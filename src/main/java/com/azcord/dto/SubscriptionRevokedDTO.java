@@ -0,0 +1,4 @@
+package com.azcord.dto;
+
+/** Tells a session that the server dropped one of its subscriptions because access was lost. */
+public record SubscriptionRevokedDTO(String destination, String subscriptionId) {}
@@ -0,0 +1,12 @@
+package com.azcord.dto;
+
+import java.util.List;
+
+/**
+ * Everyone typing in a channel or DM chat as seen by one node. Each snapshot replaces the
+ * previous one from the same node; clients show the union across nodes.
+ */
+public record TypingSnapshotDTO(String node, Long chatId, boolean direct, List<Typist> typists) {
+
+    public record Typist(Long userId, String username) {}
+}
@@ -0,0 +1,31 @@
+package com.azcord.dto;
+
+import com.azcord.models.UploadStatus;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * State of a resumable upload. Chunk i covers bytes [i * chunkSize, (i + 1) * chunkSize);
+ * after a disconnect the client resends missingChunks and then completes the upload.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionDTO {
+    private String uploadId;
+    private String fileName;
+    private long size;
+    private int chunkSize;
+    private int chunkCount;
+    private int receivedChunks;
+    private List<Integer> missingChunks;
+    private UploadStatus status;
+    private String fileUrl; // Set once complete
+    private LocalDateTime expiresAt;
+}
@@ -1,10 +1,14 @@
 package com.azcord.dto;
 
+import com.azcord.services.ThumbnailService;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.Map;
+
 /**
  * A simplified DTO for representing users, e.g., message sender.
  */
@@ -38,6 +42,12 @@ public class UserSimpleDTO {
     public void setAvatarUrl(String avatarUrl) {
         this.avatarUrl = avatarUrl;
     }
+
+    // Small avatars for member lists and the feed, by size in px
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public Map<Integer, String> getAvatarVariants() {
+        return ThumbnailService.variantUrls(avatarUrl);
+    }
     
     public String getBio() {
         return bio;
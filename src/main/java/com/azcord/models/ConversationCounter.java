@@ -0,0 +1,43 @@
+package com.azcord.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Running number of messages ever sent to a channel or DM chat. A reader's unread count
+ * is this minus the number they had seen at their last ack, so neither sending nor
+ * reading touches one row per reader.
+ */
+@Entity
+@Getter
+@Setter
+@IdClass(ConversationKey.class)
+@Table(name = "conversation_counters")
+public class ConversationCounter {
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "target_type", length = 20)
+    private ReadTargetType targetType;
+
+    @Id
+    @Column(name = "target_id")
+    private Long targetId;
+
+    @Column(name = "message_count", nullable = false)
+    private long messageCount;
+
+    @Column(name = "last_message_id")
+    private Long lastMessageId;
+
+    public ConversationCounter() {
+    }
+
+    public ConversationCounter(ReadTargetType targetType, Long targetId, long messageCount, Long lastMessageId) {
+        this.targetType = targetType;
+        this.targetId = targetId;
+        this.messageCount = messageCount;
+        this.lastMessageId = lastMessageId;
+    }
+}
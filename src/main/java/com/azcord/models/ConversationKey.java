@@ -0,0 +1,47 @@
+package com.azcord.models;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class ConversationKey implements Serializable {
+    private ReadTargetType targetType;
+    private Long targetId;
+
+    // Default constructor for JPA
+    public ConversationKey() {
+    }
+
+    public ConversationKey(ReadTargetType targetType, Long targetId) {
+        this.targetType = targetType;
+        this.targetId = targetId;
+    }
+
+    public ReadTargetType getTargetType() {
+        return targetType;
+    }
+
+    public void setTargetType(ReadTargetType targetType) {
+        this.targetType = targetType;
+    }
+
+    public Long getTargetId() {
+        return targetId;
+    }
+
+    public void setTargetId(Long targetId) {
+        this.targetId = targetId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConversationKey that = (ConversationKey) o;
+        return targetType == that.targetType && Objects.equals(targetId, that.targetId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(targetType, targetId);
+    }
+}
@@ -9,7 +9,9 @@ import java.util.List;
 import java.util.Set;
 
 @Entity
-@Table(name = "direct_message_chats")
+@Table(name = "direct_message_chats", indexes = {
+        @Index(name = "idx_dm_chats_activity", columnList = "last_activity_at, id")
+})
 public class DirectMessageChat {
 
     @Id
@@ -42,6 +44,11 @@ public class DirectMessageChat {
 
     private LocalDateTime lastActivityAt;
 
+    // Newest message in the chat. Only moved by the repository's guarded updates on send and
+    // delete, never by saving the entity, so a stale copy cannot move it backwards.
+    @Column(name = "last_message_id", insertable = false, updatable = false)
+    private Long lastMessageId;
+
     public Long getId() {
         return id;
     }
@@ -106,6 +113,14 @@ public class DirectMessageChat {
         this.lastActivityAt = lastActivityAt;
     }
 
+    public Long getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public void setLastMessageId(Long lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,40 @@
+package com.azcord.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDateTime;
+
+/**
+ * One unique stored file, keyed by the SHA-256 of its bytes. refCount is the number of
+ * attachment rows and avatar / icon URLs pointing at it; publicRefs counts only the latter,
+ * and a blob is served without a token only while it is non-zero.
+ */
+@Entity
+@Getter
+@Setter
+@Table(name = "file_blobs")
+public class FileBlob {
+
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    private long size;
+
+    @Column(nullable = false)
+    private long refCount;
+
+    @Column(nullable = false)
+    private long publicRefs;
+
+    private LocalDateTime createdAt;
+
+    public FileBlob() {
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -11,7 +11,11 @@ import java.util.List;
 import java.util.Set;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+    // Keyset pagination walks (target, id); see MessageRepository
+    @Index(name = "idx_messages_channel_id_id", columnList = "channel_id, id"),
+    @Index(name = "idx_messages_dm_chat_id_id", columnList = "direct_message_chat_id, id")
+})
 public class Message {
 
     @Id
@@ -49,7 +53,7 @@ public class Message {
     @OneToMany(mappedBy = "message", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private List<Attachment> attachments = new ArrayList<>();
 
-    @OneToMany(mappedBy = "message", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    @OneToMany(mappedBy = "message", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private Set<MessageReaction> reactions = new HashSet<>();
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -0,0 +1,38 @@
+package com.azcord.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Number of MessageReaction rows per (message, emoji), kept up to date in the same
+ * transaction as the rows themselves, so message lists read one small row per pill
+ * instead of every reaction.
+ */
+@Entity
+@Getter
+@Setter
+@IdClass(MessageReactionKey.class)
+@Table(name = "message_reaction_counts")
+public class MessageReactionCount {
+
+    @Id
+    @Column(name = "message_id")
+    private Long messageId;
+
+    @Id
+    @Column(name = "emoji_unicode")
+    private String emojiUnicode;
+
+    @Column(name = "reaction_count", nullable = false)
+    private long count;
+
+    public MessageReactionCount() {
+    }
+
+    public MessageReactionCount(Long messageId, String emojiUnicode, long count) {
+        this.messageId = messageId;
+        this.emojiUnicode = emojiUnicode;
+        this.count = count;
+    }
+}
@@ -0,0 +1,47 @@
+package com.azcord.models;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class MessageReactionKey implements Serializable {
+    private Long messageId;
+    private String emojiUnicode;
+
+    // Default constructor for JPA
+    public MessageReactionKey() {
+    }
+
+    public MessageReactionKey(Long messageId, String emojiUnicode) {
+        this.messageId = messageId;
+        this.emojiUnicode = emojiUnicode;
+    }
+
+    public Long getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(Long messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getEmojiUnicode() {
+        return emojiUnicode;
+    }
+
+    public void setEmojiUnicode(String emojiUnicode) {
+        this.emojiUnicode = emojiUnicode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessageReactionKey that = (MessageReactionKey) o;
+        return Objects.equals(messageId, that.messageId) && Objects.equals(emojiUnicode, that.emojiUnicode);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(messageId, emojiUnicode);
+    }
+}
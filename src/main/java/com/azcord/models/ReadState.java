@@ -0,0 +1,48 @@
+package com.azcord.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * How far a user has read a channel or DM chat. readCount is the conversation's
+ * message count as of lastReadMessageId; mentions are counted as they are sent and
+ * cleared by an ack that reaches the newest one.
+ */
+@Entity
+@Getter
+@Setter
+@IdClass(ReadStateKey.class)
+@Table(name = "read_states")
+public class ReadState {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "target_type", length = 20)
+    private ReadTargetType targetType;
+
+    @Id
+    @Column(name = "target_id")
+    private Long targetId;
+
+    @Column(name = "last_read_message_id")
+    private Long lastReadMessageId;
+
+    @Column(name = "read_count", nullable = false)
+    private long readCount;
+
+    @Column(name = "mention_count", nullable = false)
+    private int mentionCount;
+
+    @Column(name = "last_mention_message_id")
+    private Long lastMentionMessageId;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
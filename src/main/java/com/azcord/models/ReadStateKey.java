@@ -0,0 +1,58 @@
+package com.azcord.models;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class ReadStateKey implements Serializable {
+    private Long userId;
+    private ReadTargetType targetType;
+    private Long targetId;
+
+    // Default constructor for JPA
+    public ReadStateKey() {
+    }
+
+    public ReadStateKey(Long userId, ReadTargetType targetType, Long targetId) {
+        this.userId = userId;
+        this.targetType = targetType;
+        this.targetId = targetId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public ReadTargetType getTargetType() {
+        return targetType;
+    }
+
+    public void setTargetType(ReadTargetType targetType) {
+        this.targetType = targetType;
+    }
+
+    public Long getTargetId() {
+        return targetId;
+    }
+
+    public void setTargetId(Long targetId) {
+        this.targetId = targetId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ReadStateKey that = (ReadStateKey) o;
+        return Objects.equals(userId, that.userId) && targetType == that.targetType
+                && Objects.equals(targetId, that.targetId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, targetType, targetId);
+    }
+}
@@ -0,0 +1,7 @@
+package com.azcord.models;
+
+/** What a read state or message counter belongs to. */
+public enum ReadTargetType {
+    CHANNEL,
+    DIRECT_MESSAGE
+}
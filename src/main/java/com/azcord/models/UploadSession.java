@@ -0,0 +1,93 @@
+package com.azcord.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDateTime;
+
+/**
+ * A resumable upload. The file is sent as chunkCount chunks of chunkSize bytes (the last
+ * one shorter), in any order and over any number of requests; receivedChunks is a bitmap
+ * of the chunks that arrived with a matching checksum.
+ */
+@Entity
+@Getter
+@Setter
+@Table(name = "upload_sessions")
+public class UploadSession {
+
+    // Room for 65536 chunks, i.e. 512 GiB at the default chunk size
+    public static final int MAX_CHUNKS = 65536;
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    private String contentType;
+
+    private long size;
+
+    private int chunkSize;
+
+    private int chunkCount;
+
+    @Column(length = MAX_CHUNKS / 8, nullable = false)
+    private byte[] receivedChunks;
+
+    @Column(length = 64)
+    private String sha256; // Optional whole-file checksum, checked on completion
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private UploadStatus status;
+
+    // Set once complete: where the staged file is and the URL it will be served under
+    private String stagingName;
+    private String storedFileName;
+    private String fileUrl;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+
+    public boolean hasChunk(int index) {
+        return (receivedChunks[index >> 3] & (1 << (index & 7))) != 0;
+    }
+
+    public void markChunk(int index) {
+        receivedChunks[index >> 3] |= (byte) (1 << (index & 7));
+    }
+
+    public int receivedCount() {
+        int count = 0;
+        for (byte b : receivedChunks) {
+            count += Integer.bitCount(b & 0xff);
+        }
+        return count;
+    }
+
+    public long chunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public int chunkLength(int index) {
+        return (int) Math.min(chunkSize, size - chunkOffset(index));
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = createdAt;
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,7 @@
+package com.azcord.models;
+
+public enum UploadStatus {
+    UPLOADING,   // Accepting chunks
+    COMPLETING,  // All chunks in, being moved into the staging area
+    COMPLETE     // Staged; can be attached to a message by its id
+}
@@ -2,11 +2,29 @@ package com.azcord.repositories;
 
 import com.azcord.models.Attachment;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface AttachmentRepository extends JpaRepository<Attachment, Long> {
     List<Attachment> findAllByMessageId(Long messageId);
+
+    @Query("SELECT a FROM Attachment a WHERE a.message.id IN :messageIds")
+    List<Attachment> findAllByMessageIdIn(@Param("messageIds") Collection<Long> messageIds);
+
+    boolean existsByFileUrlEndingWith(String suffix);
+
+    // File URLs under a channel, server or DM chat, released before a delete cascades over the rows
+    @Query("SELECT a.fileUrl FROM Attachment a WHERE a.message.channel.id = :channelId")
+    List<String> findFileUrlsByChannelId(@Param("channelId") Long channelId);
+
+    @Query("SELECT a.fileUrl FROM Attachment a WHERE a.message.channel.server.id = :serverId")
+    List<String> findFileUrlsByServerId(@Param("serverId") Long serverId);
+
+    @Query("SELECT a.fileUrl FROM Attachment a WHERE a.message.directMessageChat.id = :chatId")
+    List<String> findFileUrlsByDirectMessageChatId(@Param("chatId") Long chatId);
 }
\ No newline at end of file
@@ -1,13 +1,27 @@
 package com.azcord.repositories;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.azcord.models.Channel;
 
 public interface ChannelRepository extends JpaRepository<Channel, Long> {
     Optional<Channel> findByNameAndServer_Id(String name, Long serverId);
     List<Channel> findByServer_Id(Long serverId);
+
+    @Query("SELECT CASE WHEN COUNT(u) > 0 THEN true ELSE false END " +
+           "FROM Channel c JOIN c.server s JOIN s.users u WHERE c.id = :channelId AND u.id = :userId")
+    boolean isMember(@Param("channelId") Long channelId, @Param("userId") Long userId);
+
+    // Channels of every server the user is in
+    @Query("SELECT c.id FROM Channel c JOIN c.server s JOIN s.users u WHERE u.id = :userId")
+    List<Long> findIdsByMemberId(@Param("userId") Long userId);
+
+    @Query("SELECT u.id FROM Channel c JOIN c.server s JOIN s.users u WHERE c.id = :channelId AND u.username IN :usernames")
+    List<Long> findMemberIdsByUsernames(@Param("channelId") Long channelId, @Param("usernames") Collection<String> usernames);
 }
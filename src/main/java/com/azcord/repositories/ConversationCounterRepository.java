@@ -0,0 +1,41 @@
+package com.azcord.repositories;
+
+import com.azcord.models.ConversationCounter;
+import com.azcord.models.ConversationKey;
+import com.azcord.models.ReadTargetType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ConversationCounterRepository extends JpaRepository<ConversationCounter, ConversationKey> {
+
+    List<ConversationCounter> findByTargetTypeAndTargetIdIn(ReadTargetType targetType, Collection<Long> targetIds);
+
+    // One statement per sent message, whatever the number of readers
+    @Modifying
+    @Query(value = "INSERT INTO conversation_counters (target_type, target_id, message_count, last_message_id) " +
+                   "VALUES (:targetType, :targetId, 1, :messageId) ON DUPLICATE KEY UPDATE " +
+                   "message_count = message_count + 1, last_message_id = GREATEST(COALESCE(last_message_id, 0), :messageId)",
+           nativeQuery = true)
+    int increment(@Param("targetType") String targetType, @Param("targetId") Long targetId, @Param("messageId") Long messageId);
+
+    // Rebuild the counters from the messages, for databases that predate them
+    @Modifying
+    @Query(value = "INSERT INTO conversation_counters (target_type, target_id, message_count, last_message_id) " +
+                   "SELECT 'CHANNEL', channel_id, COUNT(*), MAX(id) FROM messages WHERE channel_id IS NOT NULL GROUP BY channel_id",
+           nativeQuery = true)
+    int backfillChannels();
+
+    @Modifying
+    @Query(value = "INSERT INTO conversation_counters (target_type, target_id, message_count, last_message_id) " +
+                   "SELECT 'DIRECT_MESSAGE', direct_message_chat_id, COUNT(*), MAX(id) FROM messages " +
+                   "WHERE direct_message_chat_id IS NOT NULL GROUP BY direct_message_chat_id",
+           nativeQuery = true)
+    int backfillDirectMessageChats();
+}
@@ -2,11 +2,15 @@ package com.azcord.repositories;
 
 import com.azcord.models.DirectMessageChat;
 import com.azcord.models.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -14,9 +18,66 @@ import java.util.Set;
 @Repository
 public interface DirectMessageChatRepository extends JpaRepository<DirectMessageChat, Long> {
 
-    // Find chats a user is part of, ordered by last activity
-    @Query("SELECT dmc FROM DirectMessageChat dmc JOIN dmc.participants p WHERE p.id = :userId ORDER BY dmc.lastActivityAt DESC")
-    List<DirectMessageChat> findByParticipantIdOrderByLastActivityDesc(@Param("userId") Long userId);
+    // Keyset pages of a user's chats, newest activity first; id breaks ties
+    @Query("SELECT dmc FROM DirectMessageChat dmc JOIN dmc.participants p WHERE p.id = :userId " +
+           "ORDER BY dmc.lastActivityAt DESC, dmc.id DESC")
+    List<DirectMessageChat> findPageByParticipantId(@Param("userId") Long userId, Pageable pageable);
+
+    @Query("SELECT dmc FROM DirectMessageChat dmc JOIN dmc.participants p WHERE p.id = :userId " +
+           "AND (dmc.lastActivityAt < :at OR (dmc.lastActivityAt = :at AND dmc.id < :id)) " +
+           "ORDER BY dmc.lastActivityAt DESC, dmc.id DESC")
+    List<DirectMessageChat> findPageByParticipantIdBefore(@Param("userId") Long userId, @Param("at") LocalDateTime at,
+                                                          @Param("id") Long id, Pageable pageable);
+
+    // Participants of many chats in one query, without loading User entities (and their roles)
+    @Query("SELECT c.id AS chatId, p.id AS id, p.username AS username, p.avatarUrl AS avatarUrl, p.bio AS bio " +
+           "FROM DirectMessageChat c JOIN c.participants p WHERE c.id IN :chatIds")
+    List<ParticipantRow> findParticipantsByChatIdIn(@Param("chatIds") Collection<Long> chatIds);
+
+    @Query("SELECT c.id FROM DirectMessageChat c JOIN c.participants p WHERE p.id = :userId")
+    List<Long> findIdsByParticipantId(@Param("userId") Long userId);
+
+    @Query("SELECT c.id FROM DirectMessageChat c JOIN c.participants p WHERE p.id = :userId AND c.id IN :chatIds")
+    List<Long> findIdsByParticipantIdAndIdIn(@Param("userId") Long userId, @Param("chatIds") Collection<Long> chatIds);
+
+    @Query("SELECT p.id FROM DirectMessageChat c JOIN c.participants p WHERE c.id = :chatId AND p.username IN :usernames")
+    List<Long> findParticipantIdsByUsernames(@Param("chatId") Long chatId, @Param("usernames") Collection<String> usernames);
+
+    interface ParticipantRow {
+        Long getChatId();
+        Long getId();
+        String getUsername();
+        String getAvatarUrl();
+        String getBio();
+    }
+
+    // Message ids are monotonic, so the pointer only ever moves forward on send
+    @Modifying
+    @Query("UPDATE DirectMessageChat c SET c.lastMessageId = :messageId " +
+           "WHERE c.id = :chatId AND (c.lastMessageId IS NULL OR c.lastMessageId < :messageId)")
+    int advanceLastMessageId(@Param("chatId") Long chatId, @Param("messageId") Long messageId);
+
+    // Falls back to the next newest message when the one pointed at is deleted
+    @Modifying
+    @Query(value = "UPDATE direct_message_chats SET last_message_id = " +
+                   "(SELECT MAX(m.id) FROM messages m WHERE m.direct_message_chat_id = :chatId AND m.id <> :messageId) " +
+                   "WHERE id = :chatId AND last_message_id = :messageId",
+           nativeQuery = true)
+    int retreatLastMessageId(@Param("chatId") Long chatId, @Param("messageId") Long messageId);
+
+    // For chats created before the pointer existed
+    @Modifying
+    @Query(value = "UPDATE direct_message_chats c SET last_message_id = " +
+                   "(SELECT MAX(m.id) FROM messages m WHERE m.direct_message_chat_id = c.id) " +
+                   "WHERE c.last_message_id IS NULL",
+           nativeQuery = true)
+    int backfillLastMessageIds();
+
+    @Modifying
+    @Query(value = "UPDATE direct_message_chats SET last_activity_at = COALESCE(created_at, CURRENT_TIMESTAMP) " +
+                   "WHERE last_activity_at IS NULL",
+           nativeQuery = true)
+    int backfillLastActivity();
 
     // Find a 1-on-1 DM chat between two specific users
     // This query is a bit complex because we need to match exactly two participants regardless of order.
@@ -0,0 +1,36 @@
+package com.azcord.repositories;
+
+import com.azcord.models.FileBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface FileBlobRepository extends JpaRepository<FileBlob, String> {
+
+    // One statement, so two first uploads of the same bytes can't both try to insert the row
+    @Modifying
+    @Query(value = "INSERT INTO file_blobs (hash, size, ref_count, public_refs, created_at) " +
+                   "VALUES (:hash, :size, 1, :publicRefs, CURRENT_TIMESTAMP) ON DUPLICATE KEY UPDATE " +
+                   "ref_count = ref_count + 1, public_refs = public_refs + :publicRefs",
+           nativeQuery = true)
+    int increment(@Param("hash") String hash, @Param("size") long size, @Param("publicRefs") int publicRefs);
+
+    @Modifying
+    @Query("UPDATE FileBlob b SET b.refCount = b.refCount - 1 WHERE b.hash = :hash AND b.refCount > 0")
+    int decrementRefs(@Param("hash") String hash);
+
+    @Modifying
+    @Query("UPDATE FileBlob b SET b.refCount = b.refCount - 1, b.publicRefs = b.publicRefs - 1 " +
+           "WHERE b.hash = :hash AND b.publicRefs > 0 AND b.refCount > 0")
+    int decrementPublicRefs(@Param("hash") String hash);
+
+    boolean existsByHashAndPublicRefsGreaterThan(String hash, long publicRefs);
+
+    // Row lock held until commit, so a concurrent increment either lands first or waits
+    @Modifying
+    @Query("DELETE FROM FileBlob b WHERE b.hash = :hash AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("hash") String hash);
+}
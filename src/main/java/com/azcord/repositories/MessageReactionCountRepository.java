@@ -0,0 +1,65 @@
+package com.azcord.repositories;
+
+import com.azcord.models.MessageReactionCount;
+import com.azcord.models.MessageReactionKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface MessageReactionCountRepository extends JpaRepository<MessageReactionCount, MessageReactionKey> {
+
+    List<MessageReactionCount> findByMessageIdIn(Collection<Long> messageIds);
+
+    // One statement whether or not the row exists yet, so two first reactions cannot race
+    @Modifying
+    @Query(value = "INSERT INTO message_reaction_counts (message_id, emoji_unicode, reaction_count) " +
+                   "VALUES (:messageId, :emoji, 1) ON DUPLICATE KEY UPDATE reaction_count = reaction_count + 1",
+           nativeQuery = true)
+    int increment(@Param("messageId") Long messageId, @Param("emoji") String emoji);
+
+    @Modifying
+    @Query("UPDATE MessageReactionCount c SET c.count = c.count - 1 " +
+           "WHERE c.messageId = :messageId AND c.emojiUnicode = :emoji AND c.count > 0")
+    int decrement(@Param("messageId") Long messageId, @Param("emoji") String emoji);
+
+    @Modifying
+    @Query("DELETE FROM MessageReactionCount c WHERE c.messageId = :messageId AND c.emojiUnicode = :emoji AND c.count <= 0")
+    int deleteIfZero(@Param("messageId") Long messageId, @Param("emoji") String emoji);
+
+    @Query("SELECT c.count FROM MessageReactionCount c WHERE c.messageId = :messageId AND c.emojiUnicode = :emoji")
+    Optional<Long> findCount(@Param("messageId") Long messageId, @Param("emoji") String emoji);
+
+    @Modifying
+    @Query("DELETE FROM MessageReactionCount c WHERE c.messageId = :messageId")
+    void deleteByMessageId(@Param("messageId") Long messageId);
+
+    // Counters are keyed by message id only, so deletes that cascade over messages clear them here
+    @Modifying
+    @Query("DELETE FROM MessageReactionCount c WHERE c.messageId IN " +
+           "(SELECT m.id FROM Message m WHERE m.channel.id = :channelId)")
+    int deleteByChannelId(@Param("channelId") Long channelId);
+
+    @Modifying
+    @Query("DELETE FROM MessageReactionCount c WHERE c.messageId IN " +
+           "(SELECT m.id FROM Message m WHERE m.channel.server.id = :serverId)")
+    int deleteByServerId(@Param("serverId") Long serverId);
+
+    @Modifying
+    @Query("DELETE FROM MessageReactionCount c WHERE c.messageId IN " +
+           "(SELECT m.id FROM Message m WHERE m.directMessageChat.id = :chatId)")
+    int deleteByDirectMessageChatId(@Param("chatId") Long chatId);
+
+    // Rebuilds the counters from the reaction rows, for databases that predate them
+    @Modifying
+    @Query(value = "INSERT INTO message_reaction_counts (message_id, emoji_unicode, reaction_count) " +
+                   "SELECT message_id, emoji_unicode, COUNT(*) FROM message_reactions GROUP BY message_id, emoji_unicode",
+           nativeQuery = true)
+    int backfillFromReactions();
+}
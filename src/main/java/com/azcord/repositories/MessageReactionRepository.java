@@ -1,9 +1,13 @@
 package com.azcord.repositories;
 
 import com.azcord.models.MessageReaction;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,4 +18,30 @@ public interface MessageReactionRepository extends JpaRepository<MessageReaction
     List<MessageReaction> findAllByMessageIdAndEmojiUnicode(Long messageId, String emojiUnicode);
     void deleteByMessageIdAndUserIdAndEmojiUnicode(Long messageId, Long userId, String emojiUnicode);
     long countByMessageIdAndEmojiUnicode(Long messageId, String emojiUnicode);
+
+    // One page of reactors for a (message, emoji), keyset on the reaction id
+    @Query("SELECT r.id AS reactionId, u.id AS userId, u.username AS username, u.avatarUrl AS avatarUrl, u.bio AS bio " +
+           "FROM MessageReaction r JOIN r.user u " +
+           "WHERE r.message.id = :messageId AND r.emojiUnicode = :emoji AND r.id > :afterId ORDER BY r.id")
+    List<ReactorRow> findReactorPage(@Param("messageId") Long messageId, @Param("emoji") String emoji,
+                                     @Param("afterId") Long afterId, Pageable pageable);
+
+    // The emojis one user reacted with, for a batch of messages
+    @Query("SELECT r.message.id AS messageId, r.emojiUnicode AS emojiUnicode FROM MessageReaction r " +
+           "WHERE r.user.id = :userId AND r.message.id IN :messageIds")
+    List<ViewerReactionRow> findByUserAndMessageIds(@Param("userId") Long userId,
+                                                    @Param("messageIds") Collection<Long> messageIds);
+
+    interface ReactorRow {
+        Long getReactionId();
+        Long getUserId();
+        String getUsername();
+        String getAvatarUrl();
+        String getBio();
+    }
+
+    interface ViewerReactionRow {
+        Long getMessageId();
+        String getEmojiUnicode();
+    }
 }
\ No newline at end of file
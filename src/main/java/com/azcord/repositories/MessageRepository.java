@@ -3,11 +3,13 @@ package com.azcord.repositories;
 import com.azcord.models.Message;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,12 +26,28 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     Page<Message> findByDirectMessageChatIdAndCreatedAtBeforeOrderByCreatedAtDesc(Long directMessageChatId, java.time.LocalDateTime beforeTimestamp, Pageable pageable);
 
 
+    // Keyset (cursor) history on the unique, monotonic id: Slice results skip the COUNT query
+    // and the cost of a window does not depend on how far back it is.
+    Slice<Message> findByChannelIdOrderByIdDesc(Long channelId, Pageable pageable);
+    Slice<Message> findByChannelIdAndIdLessThanOrderByIdDesc(Long channelId, Long id, Pageable pageable);
+    Slice<Message> findByChannelIdAndIdGreaterThanOrderByIdAsc(Long channelId, Long id, Pageable pageable);
+
+    Slice<Message> findByDirectMessageChatIdOrderByIdDesc(Long directMessageChatId, Pageable pageable);
+    Slice<Message> findByDirectMessageChatIdAndIdLessThanOrderByIdDesc(Long directMessageChatId, Long id, Pageable pageable);
+    Slice<Message> findByDirectMessageChatIdAndIdGreaterThanOrderByIdAsc(Long directMessageChatId, Long id, Pageable pageable);
+
+
     // Find a message by ID and Channel ID (for authorization/context check)
     Optional<Message> findByIdAndChannelId(Long messageId, Long channelId);
 
     // Find a message by ID and DM Chat ID
     Optional<Message> findByIdAndDirectMessageChatId(Long messageId, Long directMessageChatId);
 
+    // Unread tail after a read position; walks the (target, id) indexes
+    long countByChannelIdAndIdGreaterThan(Long channelId, Long id);
+
+    long countByDirectMessageChatIdAndIdGreaterThan(Long directMessageChatId, Long id);
+
     // Get the last message for a DM chat (useful for chat list previews)
     Optional<Message> findTopByDirectMessageChatIdOrderByCreatedAtDesc(Long directMessageChatId);
 
@@ -42,4 +60,14 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     // Example of a more complex query if needed, e.g., searching messages
     @Query("SELECT m FROM Message m WHERE (m.channel.id = :channelId OR m.directMessageChat.id = :dmChatId) AND LOWER(m.content) LIKE LOWER(concat('%', :searchTerm, '%')) ORDER BY m.createdAt DESC")
     Page<Message> searchMessages(@Param("channelId") Long channelId, @Param("dmChatId") Long dmChatId, @Param("searchTerm") String searchTerm, Pageable pageable);
+
+    // Reply previews for a batch of parent messages
+    @Query("SELECT p.id AS id, p.content AS content, s.username AS senderUsername FROM Message p JOIN p.sender s WHERE p.id IN :ids")
+    List<ParentPreviewRow> findParentPreviewsByIdIn(@Param("ids") Collection<Long> ids);
+
+    interface ParentPreviewRow {
+        Long getId();
+        String getContent();
+        String getSenderUsername();
+    }
 }
\ No newline at end of file
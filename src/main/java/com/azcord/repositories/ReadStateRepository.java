@@ -0,0 +1,34 @@
+package com.azcord.repositories;
+
+import com.azcord.models.ReadState;
+import com.azcord.models.ReadStateKey;
+import com.azcord.models.ReadTargetType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ReadStateRepository extends JpaRepository<ReadState, ReadStateKey> {
+
+    List<ReadState> findByUserId(Long userId);
+
+    List<ReadState> findByUserIdAndTargetTypeAndTargetIdIn(Long userId, ReadTargetType targetType, Collection<Long> targetIds);
+
+    // A superset of the exact (user, target) pairs of an ack batch, in one query; callers filter
+    @Query("SELECT r FROM ReadState r WHERE r.userId IN :userIds AND r.targetId IN :targetIds")
+    List<ReadState> findCandidates(@Param("userIds") Collection<Long> userIds, @Param("targetIds") Collection<Long> targetIds);
+
+    @Modifying
+    @Query(value = "INSERT INTO read_states (user_id, target_type, target_id, read_count, mention_count, last_mention_message_id) " +
+                   "VALUES (:userId, :targetType, :targetId, 0, 1, :messageId) ON DUPLICATE KEY UPDATE " +
+                   "mention_count = mention_count + 1, " +
+                   "last_mention_message_id = GREATEST(COALESCE(last_mention_message_id, 0), :messageId)",
+           nativeQuery = true)
+    int addMention(@Param("userId") Long userId, @Param("targetType") String targetType,
+                   @Param("targetId") Long targetId, @Param("messageId") Long messageId);
+}
@@ -4,8 +4,11 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import com.azcord.models.Permission;
 import com.azcord.models.Role;
 
 @Repository
@@ -14,6 +17,11 @@ public interface RoleRepository extends JpaRepository<Role, Long> {
 
     //find List of roles of 1 user on 1 server
     Optional<List<Role>>  findByUsers_UsernameAndServer_Id(String username, Long server_Id); 
+
+    //all permissions granted to 1 user on 1 server through any of their roles
+    @Query("SELECT DISTINCT p FROM Role r JOIN r.users u JOIN r.permissions p " +
+           "WHERE u.username = :username AND r.server.id = :serverId")
+    List<Permission> findPermissionsOfUserOnServer(@Param("username") String username, @Param("serverId") Long serverId);
     Optional <Role> findByName(String name);
 
     //find the role by its name on 1 server
@@ -12,4 +12,5 @@ import com.azcord.models.Server;
 public interface ServerRepository extends JpaRepository<Server, Long>{
     List<Server> findByUsers_Username(String username); 
     Optional<Server> findByName(String name); 
+    boolean existsByIdAndUsers_Id(Long serverId, Long userId);
 }
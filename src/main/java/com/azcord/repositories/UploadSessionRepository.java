@@ -0,0 +1,28 @@
+package com.azcord.repositories;
+
+import com.azcord.models.UploadSession;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    // Chunks of one upload arrive in parallel; each bitmap update holds the row
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM UploadSession s WHERE s.id = :id")
+    Optional<UploadSession> findByIdForUpdate(@Param("id") String id);
+
+    boolean existsByStagingName(String stagingName);
+
+    long countByOwner_Id(Long ownerId);
+
+    List<UploadSession> findByUpdatedAtBefore(LocalDateTime cutoff);
+}
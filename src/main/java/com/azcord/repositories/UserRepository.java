@@ -1,12 +1,15 @@
 package com.azcord.repositories;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import com.azcord.dto.UserSimpleDTO;
 import com.azcord.models.User;
 
 
@@ -19,4 +22,8 @@ public interface UserRepository extends JpaRepository<User, Long> {
     
     @Query("SELECT u.id FROM User u WHERE u.username = :username")
     Long findIdByUsername(String username);
+
+    // Simple user views for a batch of ids; avoids the EAGER role graph of the entity
+    @Query("SELECT new com.azcord.dto.UserSimpleDTO(u.id, u.username, u.avatarUrl, u.bio) FROM User u WHERE u.id IN :ids")
+    List<UserSimpleDTO> findSimpleByIdIn(@Param("ids") Collection<Long> ids);
 }
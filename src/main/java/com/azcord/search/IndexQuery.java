@@ -0,0 +1,11 @@
+package com.azcord.search;
+
+import java.util.List;
+
+/**
+ * A resolved query against one scope: every term must match, and every prefix must match
+ * at least one term. Hits come newest first, below beforeId, sent in [createdFrom, createdTo).
+ */
+public record IndexQuery(List<String> terms, List<String> prefixes, long beforeId,
+                         long createdFrom, long createdTo, int limit) {
+}
@@ -0,0 +1,223 @@
+package com.azcord.search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An immutable, memory-mapped segment file. The term dictionary is read into memory when
+ * the segment is opened; documents and postings stay in the file and are paged in by the
+ * OS as queries touch them.
+ *
+ * <pre>
+ *   int     magic
+ *   long    generation
+ *   int     docCount, then per document (by id): long id, long createdAtMillis
+ *   int     termCount, then per term (sorted): short length, UTF-8 bytes, int postingCount, int offset
+ *   int     postings length, then per term: ids as varint deltas
+ * </pre>
+ */
+final class IndexSegment implements PostingSource {
+    private static final int MAGIC = 0x415A5331; // "AZS1"
+    private static final int DOC_BYTES = 16;
+
+    private final Path file;
+    private final long generation;
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final int docStart;
+    private final String[] terms;
+    private final int[] postingCounts;
+    private final int[] postingOffsets;
+    private final int postingsStart;
+
+    private IndexSegment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        try {
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a search segment: " + file);
+            }
+            this.generation = buffer.getLong(4);
+            this.docCount = buffer.getInt(12);
+            this.docStart = 16;
+            int at = docStart + docCount * DOC_BYTES;
+            int termCount = buffer.getInt(at);
+            at += 4;
+            this.terms = new String[termCount];
+            this.postingCounts = new int[termCount];
+            this.postingOffsets = new int[termCount];
+            for (int i = 0; i < termCount; i++) {
+                int length = buffer.getShort(at);
+                byte[] bytes = new byte[length];
+                buffer.get(at + 2, bytes);
+                terms[i] = new String(bytes, StandardCharsets.UTF_8);
+                at += 2 + length;
+                postingCounts[i] = buffer.getInt(at);
+                postingOffsets[i] = buffer.getInt(at + 4);
+                at += 8;
+            }
+            this.postingsStart = at + 4;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated search segment: " + file, e);
+        }
+    }
+
+    static IndexSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Search segment too large to map: " + file);
+            }
+            return new IndexSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes a segment next to its final name and moves it into place, so a crash never
+     * leaves a half-written segment behind under a valid name.
+     */
+    static IndexSegment write(Path file, long generation, long[] ids, long[] createdAt,
+                              SortedMap<String, long[]> postings) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        int[] offsets = new int[postings.size()];
+        int t = 0;
+        for (long[] list : postings.values()) {
+            offsets[t++] = encoded.size();
+            long previous = 0;
+            for (long id : list) {
+                writeVarLong(encoded, id - previous);
+                previous = id;
+            }
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeLong(ids[i]);
+                out.writeLong(createdAt[i]);
+            }
+            out.writeInt(postings.size());
+            t = 0;
+            for (Map.Entry<String, long[]> entry : postings.entrySet()) {
+                byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+                out.writeInt(entry.getValue().length);
+                out.writeInt(offsets[t++]);
+            }
+            out.writeInt(encoded.size());
+            encoded.writeTo(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(file);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    int docCount() {
+        return docCount;
+    }
+
+    long docId(int index) {
+        return buffer.getLong(docStart + index * DOC_BYTES);
+    }
+
+    long docCreatedAt(int index) {
+        return buffer.getLong(docStart + index * DOC_BYTES + 8);
+    }
+
+    int termCount() {
+        return terms.length;
+    }
+
+    String term(int index) {
+        return terms[index];
+    }
+
+    long[] postingsAt(int index) {
+        long[] ids = new long[postingCounts[index]];
+        int at = postingsStart + postingOffsets[index];
+        long previous = 0;
+        for (int i = 0; i < ids.length; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(at++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += delta;
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    @Override
+    public long[] postings(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        return index >= 0 ? postingsAt(index) : Postings.EMPTY;
+    }
+
+    @Override
+    public long[] prefixPostings(String prefix, int maxTerms) {
+        int index = Arrays.binarySearch(terms, prefix);
+        if (index < 0) index = -index - 1;
+        List<long[]> lists = new ArrayList<>();
+        for (int i = index; i < terms.length && lists.size() < maxTerms && terms[i].startsWith(prefix); i++) {
+            lists.add(postingsAt(i));
+        }
+        return Postings.union(lists);
+    }
+
+    @Override
+    public long createdAt(long id) {
+        int lo = 0;
+        int hi = docCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = docId(mid);
+            if (midId < id) lo = mid + 1;
+            else if (midId > id) hi = mid - 1;
+            else return docCreatedAt(mid);
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,44 @@
+package com.azcord.search;
+
+import com.azcord.models.Message;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * What the search index keeps of a message: its id, when it was sent, and the terms it
+ * can be found by. Built inside the sending transaction, so nothing lazy is touched once
+ * it has committed.
+ */
+public record IndexedMessage(long id, String scope, long targetId, long senderId, long createdAtMillis,
+                             boolean hasAttachment, String content) {
+
+    public static IndexedMessage of(Message message) {
+        String scope;
+        long targetId;
+        if (message.getChannel() != null) {
+            scope = MessageSearchIndex.serverScope(message.getChannel().getServer().getId());
+            targetId = message.getChannel().getId();
+        } else {
+            scope = MessageSearchIndex.DM_SCOPE;
+            targetId = message.getDirectMessageChat().getId();
+        }
+        LocalDateTime createdAt = message.getCreatedAt() != null ? message.getCreatedAt() : LocalDateTime.now();
+        return new IndexedMessage(message.getId(), scope, targetId, message.getSender().getId(), toMillis(createdAt),
+                !message.getAttachments().isEmpty(), message.getContent());
+    }
+
+    public static long toMillis(LocalDateTime at) {
+        return at.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    Set<String> terms() {
+        Set<String> terms = new LinkedHashSet<>(SearchTokenizer.tokenize(content));
+        terms.add(SearchTokenizer.from(senderId));
+        terms.add(SearchTokenizer.in(targetId));
+        if (hasAttachment) terms.add(SearchTokenizer.HAS_ATTACHMENT);
+        return terms;
+    }
+}
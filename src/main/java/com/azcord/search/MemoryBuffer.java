@@ -0,0 +1,103 @@
+package com.azcord.search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Recently indexed messages of a scope, searchable right away and written out as the
+ * next segment. Not thread-safe; {@link ScopeIndex} guards it.
+ */
+final class MemoryBuffer implements PostingSource {
+    private final long generation;
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private final TreeMap<String, TreeSet<Long>> postings = new TreeMap<>();
+
+    private record Doc(long createdAt, Set<String> terms) {
+    }
+
+    MemoryBuffer(long generation) {
+        this.generation = generation;
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    int size() {
+        return docs.size();
+    }
+
+    boolean isEmpty() {
+        return docs.isEmpty();
+    }
+
+    void put(IndexedMessage message) {
+        remove(message.id());
+        Set<String> terms = message.terms();
+        docs.put(message.id(), new Doc(message.createdAtMillis(), terms));
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new TreeSet<>()).add(message.id());
+        }
+    }
+
+    void remove(long id) {
+        Doc doc = docs.remove(id);
+        if (doc == null) return;
+        for (String term : doc.terms()) {
+            TreeSet<Long> ids = postings.get(term);
+            ids.remove(id);
+            if (ids.isEmpty()) postings.remove(term);
+        }
+    }
+
+    @Override
+    public long[] postings(String term) {
+        TreeSet<Long> ids = postings.get(term);
+        return ids == null ? Postings.EMPTY : toArray(ids);
+    }
+
+    @Override
+    public long[] prefixPostings(String prefix, int maxTerms) {
+        List<long[]> lists = new ArrayList<>();
+        for (TreeSet<Long> ids : postings.tailMap(prefix, true).headMap(prefix + Character.MAX_VALUE, false).values()) {
+            if (lists.size() >= maxTerms) break;
+            lists.add(toArray(ids));
+        }
+        return Postings.union(lists);
+    }
+
+    @Override
+    public long createdAt(long id) {
+        Doc doc = docs.get(id);
+        return doc == null ? Long.MIN_VALUE : doc.createdAt();
+    }
+
+    IndexSegment writeTo(Path file) throws IOException {
+        long[] ids = docs.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        long[] createdAt = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            createdAt[i] = docs.get(ids[i]).createdAt();
+        }
+        SortedMap<String, long[]> lists = new TreeMap<>();
+        for (Map.Entry<String, TreeSet<Long>> entry : postings.entrySet()) {
+            lists.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return IndexSegment.write(file, generation, ids, createdAt, lists);
+    }
+
+    private static long[] toArray(TreeSet<Long> ids) {
+        long[] array = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids) array[i++] = id;
+        return array;
+    }
+}
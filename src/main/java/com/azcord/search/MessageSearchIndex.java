@@ -0,0 +1,259 @@
+package com.azcord.search;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local on-disk full-text index of message content, one {@link ScopeIndex} per server plus
+ * one for all DM chats, under {@code azcord.search.index-dir}.
+ *
+ * Sends, edits and deletes are applied once their transaction commits, to an in-memory
+ * buffer that is searchable at once and written out as a segment every flush interval
+ * (or sooner when it fills up). The highest message id known to be on disk is kept in a
+ * checkpoint file; on startup, messages after it are read back from the database, so an
+ * empty index directory is rebuilt and a crash loses at most the unflushed edits.
+ */
+@Component
+public class MessageSearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    public static final String DM_SCOPE = "dm";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CATCH_UP_BATCH = 1000;
+    // Messages commit out of id order, so the catch-up re-reads a little before the checkpoint
+    private static final long CATCH_UP_OVERLAP = 1000;
+
+    private static final String CATCH_UP_SQL =
+            "SELECT m.id, m.content, m.sender_id, m.created_at, m.channel_id, c.server_id, m.direct_message_chat_id, " +
+            "EXISTS (SELECT 1 FROM attachments a WHERE a.message_id = m.id) AS has_attachment " +
+            "FROM messages m LEFT JOIN channel c ON c.id = m.channel_id " +
+            "WHERE m.id > ? ORDER BY m.id LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Path root;
+    private final int flushDocs;
+    private final int maxSegments;
+    private final ConcurrentHashMap<String, ScopeIndex> scopes = new ConcurrentHashMap<>();
+    private final AtomicLong highestIndexed = new AtomicLong();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ScheduledExecutorService maintenance;
+
+    public MessageSearchIndex(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+                              @Value("${azcord.search.index-dir:search-index}") String indexDir,
+                              @Value("${azcord.search.flush-ms:5000}") long flushMillis,
+                              @Value("${azcord.search.flush-docs:5000}") int flushDocs,
+                              @Value("${azcord.search.max-segments:8}") int maxSegments) throws IOException {
+        this.jdbcTemplate = jdbcTemplate;
+        this.root = Paths.get(indexDir).toAbsolutePath().normalize();
+        this.flushDocs = flushDocs;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(root);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maintenance.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Gauge.builder("azcord.search.buffered", scopes,
+                s -> s.values().stream().mapToInt(ScopeIndex::bufferedCount).sum())
+                .register(meterRegistry);
+    }
+
+    public static String serverScope(long serverId) {
+        return "s" + serverId;
+    }
+
+    public void messageCreated(IndexedMessage message) {
+        afterCommit(() -> {
+            ScopeIndex index = scope(message.scope());
+            index.add(message);
+            highestIndexed.accumulateAndGet(message.id(), Math::max);
+            if (index.bufferedCount() >= flushDocs && flushQueued.compareAndSet(false, true)) {
+                maintenance.execute(this::flushQuietly);
+            }
+        });
+    }
+
+    public void messageEdited(IndexedMessage message) {
+        afterCommit(() -> scope(message.scope()).replace(message));
+    }
+
+    public void messageDeleted(String scope, long messageId) {
+        afterCommit(() -> scope(scope).delete(messageId));
+    }
+
+    /** Matching message ids in a scope, newest first. */
+    public List<Long> search(String scope, IndexQuery query) {
+        return scope(scope).search(query);
+    }
+
+    /** Writes every buffer out, merges where segments piled up, and moves the checkpoint. */
+    public void flush() {
+        flushQueued.set(false);
+        long indexedUpTo = highestIndexed.get();
+        IOException failure = null;
+        for (ScopeIndex index : scopes.values()) {
+            try {
+                index.flush();
+                index.mergeIfNeeded(maxSegments);
+            } catch (IOException e) {
+                logger.error("Could not write search index of {}: {}", index.scope(), e.getMessage());
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        if (indexedUpTo > readCheckpoint()) {
+            writeCheckpoint(indexedUpTo);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Logged above; the buffers are kept and written on the next tick
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void catchUpInBackground() {
+        maintenance.execute(() -> {
+            try {
+                catchUp();
+            } catch (RuntimeException e) {
+                logger.error("Search index catch-up failed: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    /** Indexes messages sent since the checkpoint, e.g. while the node was down. */
+    public void catchUp() {
+        long checkpoint = readCheckpoint();
+        long after = Math.max(0, checkpoint - CATCH_UP_OVERLAP);
+        long indexed = 0;
+        while (true) {
+            List<IndexedMessage> batch = jdbcTemplate.query(CATCH_UP_SQL, (rs, rowNum) -> {
+                long channelId = rs.getLong("channel_id");
+                boolean inChannel = !rs.wasNull();
+                Timestamp createdAt = rs.getTimestamp("created_at");
+                return new IndexedMessage(
+                        rs.getLong("id"),
+                        inChannel ? serverScope(rs.getLong("server_id")) : DM_SCOPE,
+                        inChannel ? channelId : rs.getLong("direct_message_chat_id"),
+                        rs.getLong("sender_id"),
+                        IndexedMessage.toMillis(createdAt.toLocalDateTime()),
+                        rs.getBoolean("has_attachment"),
+                        rs.getString("content"));
+            }, after, CATCH_UP_BATCH);
+            for (IndexedMessage message : batch) {
+                // Only the overlap can already be on disk, possibly with older text
+                if (message.id() <= checkpoint) {
+                    scope(message.scope()).replace(message);
+                } else {
+                    scope(message.scope()).add(message);
+                }
+                highestIndexed.accumulateAndGet(message.id(), Math::max);
+            }
+            indexed += batch.size();
+            if (batch.size() < CATCH_UP_BATCH) break;
+            after = batch.get(batch.size() - 1).id();
+            if (indexed % (CATCH_UP_BATCH * 50L) == 0) flush();
+        }
+        flush();
+        if (indexed > 0) {
+            logger.info("Search index caught up on {} messages", indexed);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(30, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Search index not fully written on shutdown; it catches up on the next start");
+        }
+        scopes.values().forEach(ScopeIndex::close);
+    }
+
+    private ScopeIndex scope(String scope) {
+        return scopes.computeIfAbsent(scope, s -> {
+            try {
+                return ScopeIndex.open(s, root.resolve(s));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open search index " + s, e);
+            }
+        });
+    }
+
+    private long readCheckpoint() {
+        Path file = root.resolve(CHECKPOINT_FILE);
+        try {
+            return Files.exists(file) ? Long.parseLong(Files.readString(file, StandardCharsets.UTF_8).trim()) : 0;
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Unreadable search checkpoint, re-indexing from the start: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    private void writeCheckpoint(long messageId) {
+        Path file = root.resolve(CHECKPOINT_FILE);
+        Path tmp = root.resolve(CHECKPOINT_FILE + ".tmp");
+        try {
+            Files.writeString(tmp, Long.toString(messageId), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Could not write search checkpoint: {}", e.getMessage());
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    // Never fail a committed change over the index; a restart re-reads recent messages
+                    logger.error("Could not update search index: {}", e.getMessage());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,19 @@
+package com.azcord.search;
+
+/**
+ * One searchable part of a scope: an on-disk segment or the in-memory buffer. Postings are
+ * message ids in ascending order.
+ */
+interface PostingSource {
+
+    /** Newer sources have higher generations; deletes only hide copies older than themselves. */
+    long generation();
+
+    long[] postings(String term);
+
+    /** The union of the postings of up to maxTerms terms starting with prefix. */
+    long[] prefixPostings(String prefix, int maxTerms);
+
+    /** When the message was sent, or {@link Long#MIN_VALUE} if it is not in this source. */
+    long createdAt(long id);
+}
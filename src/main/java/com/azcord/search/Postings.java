@@ -0,0 +1,54 @@
+package com.azcord.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** Operations on sorted id arrays. */
+final class Postings {
+    static final long[] EMPTY = new long[0];
+
+    private Postings() {
+    }
+
+    static long[] intersect(long[] a, long[] b) {
+        // Walk the shorter list and gallop through the longer one
+        if (a.length > b.length) {
+            long[] t = a;
+            a = b;
+            b = t;
+        }
+        long[] out = new long[a.length];
+        int n = 0;
+        int from = 0;
+        for (long id : a) {
+            int found = Arrays.binarySearch(b, from, b.length, id);
+            if (found >= 0) {
+                out[n++] = id;
+                from = found + 1;
+            } else {
+                from = -found - 1;
+            }
+            if (from >= b.length) break;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    static long[] union(List<long[]> lists) {
+        if (lists.isEmpty()) return EMPTY;
+        if (lists.size() == 1) return lists.get(0);
+        int total = 0;
+        for (long[] list : lists) total += list.length;
+        long[] all = new long[total];
+        int n = 0;
+        for (long[] list : lists) {
+            System.arraycopy(list, 0, all, n, list.length);
+            n += list.length;
+        }
+        Arrays.sort(all);
+        int unique = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (i == 0 || all[i] != all[i - 1]) all[unique++] = all[i];
+        }
+        return unique == all.length ? all : Arrays.copyOf(all, unique);
+    }
+}
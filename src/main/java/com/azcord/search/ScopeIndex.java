@@ -0,0 +1,360 @@
+package com.azcord.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The index of one scope (a server, or all DM chats): immutable segment files plus an
+ * in-memory buffer of what was indexed since the last flush.
+ *
+ * Deletes are tombstones: a delete recorded while the buffer has generation G hides every
+ * copy of the message in sources older than G. An edit is a delete followed by an add to
+ * the buffer, so only the new text matches. Tombstones are appended to deletes.log and
+ * dropped once a merge has rewritten every segment they applied to.
+ */
+final class ScopeIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ScopeIndex.class);
+
+    // Bounds the work of a short prefix like "a*" on a large vocabulary
+    static final int MAX_PREFIX_TERMS = 256;
+
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".azs";
+    private static final String TOMBSTONE_LOG = "deletes.log";
+
+    private final String scope;
+    private final Path dir;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Serializes flushes and merges; searches and writes only take the lock above
+    private final Object maintenance = new Object();
+
+    // Guarded by lock
+    private final List<IndexSegment> segments = new ArrayList<>(); // oldest first
+    private final Map<Long, Long> tombstones = new HashMap<>();
+    private MemoryBuffer buffer;
+    private MemoryBuffer flushing; // Being written; still searched until its segment is in place
+    private FileChannel tombstoneLog;
+
+    private ScopeIndex(String scope, Path dir) {
+        this.scope = scope;
+        this.dir = dir;
+    }
+
+    static ScopeIndex open(String scope, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        ScopeIndex index = new ScopeIndex(scope, dir);
+        long maxGeneration = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); // Left by a crash mid-write
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        IndexSegment segment = IndexSegment.open(file);
+                        index.segments.add(segment);
+                        maxGeneration = Math.max(maxGeneration, segment.generation());
+                    } catch (IOException e) {
+                        logger.error("Skipping unreadable search segment {}: {}", file, e.getMessage());
+                    }
+                }
+            }
+        }
+        index.segments.sort(Comparator.comparingLong(IndexSegment::generation));
+
+        Path log = dir.resolve(TOMBSTONE_LOG);
+        if (Files.exists(log)) {
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(log));
+            while (bytes.remaining() >= 16) { // A torn last record is ignored
+                long id = bytes.getLong();
+                long generation = bytes.getLong();
+                index.tombstones.merge(id, generation, Math::max);
+                maxGeneration = Math.max(maxGeneration, generation);
+            }
+        }
+        index.tombstoneLog = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        index.buffer = new MemoryBuffer(maxGeneration + 1);
+        return index;
+    }
+
+    String scope() {
+        return scope;
+    }
+
+    void add(IndexedMessage message) {
+        lock.writeLock().lock();
+        try {
+            buffer.put(message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Adds a message that may already be indexed, hiding the older copies. */
+    void replace(IndexedMessage message) {
+        lock.writeLock().lock();
+        try {
+            tombstone(message.id());
+            buffer.put(message);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void delete(long id) {
+        lock.writeLock().lock();
+        try {
+            tombstone(id);
+            buffer.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int bufferedCount() {
+        lock.readLock().lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Matching message ids, newest first. */
+    List<Long> search(IndexQuery query) {
+        TreeSet<Long> hits = new TreeSet<>(Comparator.reverseOrder());
+        lock.readLock().lock();
+        try {
+            List<PostingSource> sources = new ArrayList<>(segments);
+            if (flushing != null) sources.add(flushing);
+            sources.add(buffer);
+            for (PostingSource source : sources) {
+                collect(source, query, hits);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Long> newestFirst = new ArrayList<>(Math.min(hits.size(), query.limit()));
+        for (Long id : hits) {
+            if (newestFirst.size() == query.limit()) break;
+            newestFirst.add(id);
+        }
+        return newestFirst;
+    }
+
+    // Adds this source's newest matches; no source needs to give more than limit
+    private void collect(PostingSource source, IndexQuery query, TreeSet<Long> hits) {
+        long[] candidates = null;
+        for (String term : query.terms()) {
+            candidates = narrow(candidates, source.postings(term));
+            if (candidates.length == 0) return;
+        }
+        for (String prefix : query.prefixes()) {
+            candidates = narrow(candidates, source.prefixPostings(prefix, MAX_PREFIX_TERMS));
+            if (candidates.length == 0) return;
+        }
+        if (candidates == null) return;
+
+        int end = Arrays.binarySearch(candidates, query.beforeId());
+        end = end >= 0 ? end : -end - 1;
+        int found = 0;
+        for (int i = end - 1; i >= 0 && found < query.limit(); i--) {
+            long id = candidates[i];
+            if (!isLive(id, source.generation())) continue;
+            long createdAt = source.createdAt(id);
+            if (createdAt < query.createdFrom() || createdAt >= query.createdTo()) continue;
+            hits.add(id);
+            found++;
+        }
+    }
+
+    private static long[] narrow(long[] candidates, long[] postings) {
+        return candidates == null ? postings : Postings.intersect(candidates, postings);
+    }
+
+    private boolean isLive(long id, long generation) {
+        Long deletedAt = tombstones.get(id);
+        return deletedAt == null || generation >= deletedAt;
+    }
+
+    // Caller holds the write lock
+    private void tombstone(long id) {
+        long generation = buffer.generation();
+        tombstones.merge(id, generation, Math::max);
+        try {
+            tombstoneLog.write(ByteBuffer.allocate(16).putLong(id).putLong(generation).flip());
+        } catch (IOException e) {
+            // Still applied in memory; a restart before the next merge may show the old text again
+            logger.warn("Could not persist search delete of message {} in {}: {}", id, scope, e.getMessage());
+        }
+    }
+
+    /** Writes the buffer out as a new segment. Returns false if there was nothing to write. */
+    boolean flush() throws IOException {
+        synchronized (maintenance) {
+            MemoryBuffer toWrite;
+            lock.writeLock().lock();
+            try {
+                if (flushing == null) {
+                    if (buffer.isEmpty()) return false;
+                    flushing = buffer;
+                    buffer = new MemoryBuffer(flushing.generation() + 1);
+                }
+                // else: retrying a write that failed last time
+                toWrite = flushing;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            IndexSegment segment = toWrite.writeTo(segmentFile(toWrite.generation()));
+            lock.writeLock().lock();
+            try {
+                segments.add(segment);
+                flushing = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Rewrites all segments into one once there are more than maxSegments, dropping deleted
+     * and replaced copies. Runs without blocking searches or writes; deletes that arrive
+     * meanwhile are newer than the merged segment and keep applying to it.
+     */
+    void mergeIfNeeded(int maxSegments) throws IOException {
+        synchronized (maintenance) {
+            List<IndexSegment> inputs;
+            Map<Long, Long> deleted;
+            lock.readLock().lock();
+            try {
+                if (segments.size() <= maxSegments) return;
+                inputs = List.copyOf(segments);
+                deleted = new HashMap<>(tombstones);
+            } finally {
+                lock.readLock().unlock();
+            }
+            long generation = inputs.get(inputs.size() - 1).generation();
+
+            // The newest live copy of each message wins
+            Map<Long, Long> createdAt = new HashMap<>();
+            Map<Long, IndexSegment> owner = new HashMap<>();
+            for (int s = inputs.size() - 1; s >= 0; s--) {
+                IndexSegment segment = inputs.get(s);
+                for (int i = 0; i < segment.docCount(); i++) {
+                    long id = segment.docId(i);
+                    Long deletedAt = deleted.get(id);
+                    if ((deletedAt == null || segment.generation() >= deletedAt) && !owner.containsKey(id)) {
+                        owner.put(id, segment);
+                        createdAt.put(id, segment.docCreatedAt(i));
+                    }
+                }
+            }
+            SortedMap<String, long[]> postings = new TreeMap<>();
+            Map<String, Integer> sizes = new HashMap<>();
+            for (IndexSegment segment : inputs) {
+                for (int t = 0; t < segment.termCount(); t++) {
+                    String term = segment.term(t);
+                    for (long id : segment.postingsAt(t)) {
+                        if (owner.get(id) != segment) continue;
+                        long[] list = postings.get(term);
+                        int size = sizes.getOrDefault(term, 0);
+                        if (list == null) {
+                            list = new long[8];
+                        } else if (size == list.length) {
+                            list = Arrays.copyOf(list, size * 2);
+                        }
+                        list[size] = id;
+                        postings.put(term, list);
+                        sizes.put(term, size + 1);
+                    }
+                }
+            }
+            for (Map.Entry<String, long[]> entry : postings.entrySet()) {
+                long[] list = Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey()));
+                Arrays.sort(list);
+                entry.setValue(list);
+            }
+            long[] ids = createdAt.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+            long[] times = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) times[i] = createdAt.get(ids[i]);
+
+            IndexSegment merged = IndexSegment.write(segmentFile(generation), generation, ids, times, postings);
+            lock.writeLock().lock();
+            try {
+                segments.removeAll(inputs);
+                segments.add(0, merged);
+                // Every segment older than these tombstones has just been rewritten without them
+                tombstones.values().removeIf(deletedAt -> deletedAt <= generation);
+                rewriteTombstoneLog();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (IndexSegment input : inputs) {
+                Files.deleteIfExists(input.file());
+            }
+            logger.info("Merged {} search segments of {} into one with {} messages", inputs.size(), scope, ids.length);
+        }
+    }
+
+    // Caller holds the write lock
+    private void rewriteTombstoneLog() throws IOException {
+        Path log = dir.resolve(TOMBSTONE_LOG);
+        Path tmp = dir.resolve(TOMBSTONE_LOG + ".tmp");
+        ByteBuffer bytes = ByteBuffer.allocate(tombstones.size() * 16);
+        tombstones.forEach((id, generation) -> bytes.putLong(id).putLong(generation));
+        Files.write(tmp, bytes.array());
+        tombstoneLog.close();
+        Files.move(tmp, log, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        tombstoneLog = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private Path segmentFile(long generation) {
+        // A merge reuses its newest input's generation, so names also carry a random part
+        return dir.resolve(SEGMENT_PREFIX + generation + "-" + UUID.randomUUID().toString().substring(0, 8)
+                + SEGMENT_SUFFIX);
+    }
+
+    void close() {
+        lock.writeLock().lock();
+        try {
+            tombstoneLog.close();
+        } catch (IOException e) {
+            logger.warn("Could not close search delete log of {}: {}", scope, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
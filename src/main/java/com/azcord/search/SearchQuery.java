@@ -0,0 +1,106 @@
+package com.azcord.search;
+
+import com.azcord.exceptions.InvalidSearchQueryException;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The search box syntax: words, word prefixes ending in *, and filters.
+ *
+ * <pre>
+ *   deploy stag* from:alice in:general has:attachment after:2024-01-31 before:2024-03-01
+ * </pre>
+ *
+ * All parts must match. from: and in: are names here; the caller resolves them to ids.
+ * before: and after: are whole days, exclusive, like the day separators in the client.
+ */
+public record SearchQuery(List<String> terms, List<String> prefixes, String from, String in,
+                          boolean hasAttachment, LocalDate before, LocalDate after) {
+
+    public static final int MAX_WORDS = 16;
+    public static final int MIN_PREFIX_LENGTH = 2;
+
+    public static SearchQuery parse(String text) {
+        if (text == null || text.isBlank()) {
+            throw new InvalidSearchQueryException("Search query is empty.");
+        }
+        List<String> terms = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        String from = null;
+        String in = null;
+        boolean hasAttachment = false;
+        LocalDate before = null;
+        LocalDate after = null;
+
+        for (String part : text.trim().split("\\s+")) {
+            int colon = part.indexOf(':');
+            String key = colon > 0 ? part.substring(0, colon).toLowerCase(Locale.ROOT) : "";
+            String value = colon > 0 ? part.substring(colon + 1) : "";
+            switch (key) {
+                case "from" -> from = single("from", from, stripLeading(value, '@'));
+                case "in" -> in = single("in", in, stripLeading(value, '#'));
+                case "has" -> {
+                    String what = value.toLowerCase(Locale.ROOT);
+                    if (!what.equals("attachment") && !what.equals("file")) {
+                        throw new InvalidSearchQueryException("Unknown filter has:" + value + " (try has:attachment).");
+                    }
+                    hasAttachment = true;
+                }
+                case "before" -> before = date("before", before, value);
+                case "after" -> after = date("after", after, value);
+                default -> {
+                    boolean prefix = part.endsWith("*");
+                    List<String> words = SearchTokenizer.tokenize(part);
+                    if (prefix && !words.isEmpty()) {
+                        String last = words.remove(words.size() - 1);
+                        if (last.length() < MIN_PREFIX_LENGTH) {
+                            throw new InvalidSearchQueryException(
+                                    "Prefix searches need at least " + MIN_PREFIX_LENGTH + " characters: " + part);
+                        }
+                        prefixes.add(last);
+                    }
+                    terms.addAll(words);
+                }
+            }
+        }
+        if (terms.size() + prefixes.size() > MAX_WORDS) {
+            throw new InvalidSearchQueryException("Search queries are limited to " + MAX_WORDS + " words.");
+        }
+        if (terms.isEmpty() && prefixes.isEmpty() && from == null && in == null && !hasAttachment) {
+            throw new InvalidSearchQueryException("Search query has nothing to search for.");
+        }
+        if (before != null && after != null && !after.isBefore(before)) {
+            throw new InvalidSearchQueryException("after: must be earlier than before:.");
+        }
+        return new SearchQuery(List.copyOf(terms), List.copyOf(prefixes), from, in, hasAttachment, before, after);
+    }
+
+    private static String single(String key, String current, String value) {
+        if (value.isEmpty()) {
+            throw new InvalidSearchQueryException(key + ": needs a value.");
+        }
+        if (current != null) {
+            throw new InvalidSearchQueryException("Only one " + key + ": filter can be used.");
+        }
+        return value;
+    }
+
+    private static LocalDate date(String key, LocalDate current, String value) {
+        if (current != null) {
+            throw new InvalidSearchQueryException("Only one " + key + ": filter can be used.");
+        }
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new InvalidSearchQueryException(key + ": takes a date like 2024-03-01.");
+        }
+    }
+
+    private static String stripLeading(String value, char c) {
+        return !value.isEmpty() && value.charAt(0) == c ? value.substring(1) : value;
+    }
+}
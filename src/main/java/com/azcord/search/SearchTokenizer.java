@@ -0,0 +1,58 @@
+package com.azcord.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into index terms: runs of letters and digits, case-folded and normalized,
+ * so "Café", "CAFÉ" and "café" are the same term.
+ *
+ * Filter terms (sender, channel, attachments) are indexed next to the words and are
+ * spelled with a colon, which the tokenizer never produces, so they cannot collide.
+ */
+public final class SearchTokenizer {
+    public static final int MAX_TERM_LENGTH = 64;
+
+    private static final String FROM_PREFIX = "from:";
+    private static final String IN_PREFIX = "in:";
+    public static final String HAS_ATTACHMENT = "has:attachment";
+
+    private SearchTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) return terms;
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i < normalized.length(); ) {
+            int cp = normalized.codePointAt(i);
+            boolean wordChar = Character.isLetterOrDigit(cp) || Character.getType(cp) == Character.NON_SPACING_MARK;
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                add(terms, normalized.substring(start, i));
+                start = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        if (start >= 0) add(terms, normalized.substring(start));
+        return terms;
+    }
+
+    public static String from(long senderId) {
+        return FROM_PREFIX + senderId;
+    }
+
+    /** Channel id for server scopes, chat id for the DM scope. */
+    public static String in(long targetId) {
+        return IN_PREFIX + targetId;
+    }
+
+    // Overlong "words" are mostly pasted hashes and base64; they are not worth a term each
+    private static void add(List<String> terms, String term) {
+        if (term.length() <= MAX_TERM_LENGTH) terms.add(term);
+    }
+}
@@ -1,11 +1,13 @@
 package com.azcord.security;
 
 import java.io.IOException;
+import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
 import jakarta.servlet.http.HttpServletRequest;
@@ -14,7 +16,6 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import com.azcord.services.JwtService;
-import com.azcord.services.MyUserDetailsService;
 
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -23,14 +24,14 @@ import jakarta.servlet.ServletException;
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
-    private final JwtService jwtService; 
-    private final MyUserDetailsService userDetailsService; 
+    private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
 
-    public JwtAuthenticationFilter(JwtService jwtService, MyUserDetailsService userDetailsService)
+    private final JwtService jwtService;
+
+    public JwtAuthenticationFilter(JwtService jwtService)
     { this.jwtService = jwtService;
-    this.userDetailsService = userDetailsService; 
 }
-    
+
     //Create filter
     @Override
     protected void doFilterInternal(HttpServletRequest req,
@@ -43,62 +44,43 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             return;
         }
 
-        String path = req.getServletPath(); 
-        System.out.println("JwtAuthenticationFilter processing request: " + req.getMethod() + " " + path);
-        System.out.println("Content-Type: " + req.getContentType());
-        
+        String path = req.getServletPath();
+        logger.debug("JwtAuthenticationFilter processing request: {} {}", req.getMethod(), path);
+
         if (path.equals("/api/auth/login") ||
             path.equals("/api/auth/register") ||
             path.equals("/api/auth/refresh") ||
             path.startsWith("/ws")) { // If the path is for auth or WebSocket handshake utility calls
-            System.out.println("Skipping JWT check for public endpoint: " + path);
             chain.doFilter(req, res); // Let it pass through without JWT header checks
             return;
         }
 
-    
-        String header = req.getHeader("Authorization"); 
-        System.out.println("Authorization header: " + (header != null ? "present" : "missing"));
-        
+
+        String header = req.getHeader("Authorization");
         boolean isAuthenticated = false;
 
         if(header != null && header.startsWith("Bearer ")){
             try {
-                //my JWT token
-                String token = header.substring(7); 
-                System.out.println("Token length: " + token.length());
-
-                //check whether the token is signed or expired
-                boolean isExpired = jwtService.isTokenExpired(token);
-                boolean isValidSignature = jwtService.isSignatureValid(token);
-                System.out.println("Token expired: " + isExpired + ", Valid signature: " + isValidSignature);
-                
-                if(isExpired || !isValidSignature){
-                    // Token is invalid or expired
-                    System.out.println("Token validation failed: " + (isExpired ? "expired" : "invalid signature"));
+                //my JWT token, verified in a single parse (or served from the verified-token cache)
+                String token = header.substring(7);
+                JwtPrincipal principal = jwtService.authenticate(token);
+
+                if(principal == null){
+                    // Token is invalid, expired or its user is gone
+                    logger.debug("Token validation failed for {}", path);
                     SecurityContextHolder.clearContext();
                     // Mark request as having failed auth, so controllers can check this
                     req.setAttribute("jwt_authentication_failed", true);
-                } else {
-                    //take username, load userDetails, create Authentication object
-                    String username = jwtService.extractUsername(token); 
-                    System.out.println("Extracted username from token: " + username);
-
-                    if(username != null && SecurityContextHolder.getContext().getAuthentication() == null){
-                        UserDetails userDetails = userDetailsService.loadUserByUsername(username); 
-                        System.out.println("Loaded user details for: " + username);
-
-                        Authentication authentication = new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
-
-                        //place authentication in SecurityContextHolder
-                        SecurityContextHolder.getContext().setAuthentication(authentication);
-                        isAuthenticated = true;
-                        System.out.println("Authentication set in SecurityContext");
-                    }
+                } else if(SecurityContextHolder.getContext().getAuthentication() == null){
+                    // The principal carries id, username and expiry, no user lookup needed
+                    Authentication authentication = new UsernamePasswordAuthenticationToken(principal, null, List.of());
+
+                    //place authentication in SecurityContextHolder
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                    isAuthenticated = true;
                 }
             } catch(Exception e){
-                System.out.println("Exception in JWT processing: " + e.getMessage());
-                e.printStackTrace();
+                logger.warn("Exception in JWT processing: {}", e.getMessage());
                 SecurityContextHolder.clearContext();
                 // Mark request as having failed auth, so controllers can check this
                 req.setAttribute("jwt_authentication_failed", true);
@@ -106,13 +88,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             }
         } else {
             // No Authorization header or invalid format
-            System.out.println("No valid Authorization header found");
             SecurityContextHolder.clearContext();
             req.setAttribute("jwt_authentication_failed", true);
         }
-        
+
         // Always continue with the filter chain
-        System.out.println("Continuing filter chain, authenticated: " + isAuthenticated);
+        logger.debug("Continuing filter chain, authenticated: {}", isAuthenticated);
         chain.doFilter(req, res);
     }
 
@@ -1,7 +1,6 @@
 package com.azcord.security;
 
 import com.azcord.services.JwtService;
-import com.azcord.services.MyUserDetailsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.server.ServerHttpRequest;
@@ -9,7 +8,6 @@ import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.http.server.ServletServerHttpRequest;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -23,11 +21,9 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtHandshakeInterceptor.class);
     private final JwtService jwtService;
-    private final MyUserDetailsService userDetailsService;
 
-    public JwtHandshakeInterceptor(JwtService jwtService, MyUserDetailsService userDetailsService) {
+    public JwtHandshakeInterceptor(JwtService jwtService) {
         this.jwtService = jwtService;
-        this.userDetailsService = userDetailsService;
     }
 
       @Override
@@ -56,24 +52,20 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
     
         if (token != null) {
             try {
-                if (!jwtService.isTokenExpired(token) && jwtService.isSignatureValid(token)) {
-                    String username = jwtService.extractUsername(token);
-                    if (username != null) {
-                        UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                        
-                        // Create an Authentication object
-                        UsernamePasswordAuthenticationToken auth = 
-                            new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
-                        
-                        // 1. Make it the session's Principal
-                        attributes.put("SPRING.SOCKET.PRINCIPAL", auth);
-                        
-                        // 2. Push it into the security context
-                        SecurityContextHolder.getContext().setAuthentication(auth);
-                        
-                        logger.info("WebSocket handshake successful for user: {}", username);
-                        return true; // Handshake approved
-                    }
+                JwtPrincipal principal = jwtService.authenticate(token);
+                if (principal != null) {
+                    // Create an Authentication object
+                    UsernamePasswordAuthenticationToken auth = 
+                        new UsernamePasswordAuthenticationToken(principal, null, List.of());
+                    
+                    // 1. Make it the session's Principal
+                    attributes.put("SPRING.SOCKET.PRINCIPAL", auth);
+                    
+                    // 2. Push it into the security context
+                    SecurityContextHolder.getContext().setAuthentication(auth);
+                    
+                    logger.info("WebSocket handshake successful for user: {}", principal.username());
+                    return true; // Handshake approved
                 }
             } catch (Exception e) {
                 logger.error("WebSocket handshake authentication failed: {}", e.getMessage());
@@ -0,0 +1,30 @@
+package com.azcord.security;
+
+import java.security.Principal;
+import java.util.Date;
+
+import org.springframework.security.core.Authentication;
+
+/**
+ * The authenticated user as read from a verified JWT. Carries the user id so that
+ * controllers do not have to look the user up by name again.
+ */
+public record JwtPrincipal(Long userId, String username, Date expiresAt) implements Principal {
+
+    @Override
+    public String getName() {
+        return username;
+    }
+
+    /** Unwraps the JwtPrincipal behind a request / STOMP principal, or null if there is none. */
+    public static JwtPrincipal from(Principal principal) {
+        if (principal instanceof JwtPrincipal jwtPrincipal) {
+            return jwtPrincipal;
+        }
+        if (principal instanceof Authentication authentication
+                && authentication.getPrincipal() instanceof JwtPrincipal jwtPrincipal) {
+            return jwtPrincipal;
+        }
+        return null;
+    }
+}
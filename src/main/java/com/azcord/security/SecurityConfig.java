@@ -94,7 +94,8 @@ public class SecurityConfig {
             .requestMatchers("/api/test/**").permitAll()
             .requestMatchers("/error").permitAll()
             .requestMatchers("/ws/**").permitAll()
-            .requestMatchers("/uploads/**").permitAll()
+            .requestMatchers("/ws-native").permitAll()
+            .requestMatchers("/uploads/**").permitAll() // /uploads/blobs only serves avatars and icons (FileController)
             .requestMatchers("/*.html", "/*.js", "/*.css", "/*.svg", "/favicon.ico").permitAll()
             .requestMatchers("/avatar-test.html", "/test-uploads.html", "/upload-test.html", "/check-uploads.html").permitAll()
             .requestMatchers("/images/**", "/assets/**", "/static/**").permitAll()
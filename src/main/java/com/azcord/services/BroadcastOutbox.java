@@ -0,0 +1,142 @@
+package com.azcord.services;
+
+import com.azcord.broker.OutboundLane;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket broadcasts as domain events. Services record what to send while their
+ * transaction runs; the events are handed over only after it commits (and dropped on
+ * rollback), then serialized and sent by a small set of worker lanes, off the
+ * transaction. Events for the same destination always go through the same lane, so
+ * they reach subscribers in commit order.
+ *
+ * An {@link EncodedPayload} skips serialization: it was encoded once up front and goes
+ * out as those bytes. A coalesce key marks an event that a later one with the same key
+ * supersedes, so a slow client's queue keeps only the latest (see {@link OutboundLane}).
+ */
+@Service
+public class BroadcastOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(BroadcastOutbox.class);
+    private static final int MAX_BATCH = 256;
+
+    /** A pending broadcast; user is set for convertAndSendToUser-style sends. */
+    public record BroadcastEvent(String destination, String user, Object payload, String coalesceKey) {
+        String orderingKey() {
+            return user == null ? destination : user + "|" + destination;
+        }
+    }
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final List<BlockingQueue<BroadcastEvent>> lanes = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public BroadcastOutbox(ApplicationEventPublisher eventPublisher,
+                           SimpMessagingTemplate messagingTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${azcord.broadcast.lanes:4}") int laneCount,
+                           @Value("${azcord.broadcast.lane-capacity:10000}") int laneCapacity) {
+        this.eventPublisher = eventPublisher;
+        this.messagingTemplate = messagingTemplate;
+        for (int i = 0; i < laneCount; i++) {
+            BlockingQueue<BroadcastEvent> lane = new ArrayBlockingQueue<>(laneCapacity);
+            lanes.add(lane);
+            Thread worker = new Thread(() -> drain(lane), "broadcast-lane-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        Gauge.builder("azcord.broadcast.outbox.pending", lanes, l -> l.stream().mapToInt(BlockingQueue::size).sum())
+                .register(meterRegistry);
+    }
+
+    public void send(String destination, Object payload) {
+        eventPublisher.publishEvent(new BroadcastEvent(destination, null, payload, null));
+    }
+
+    public void send(String destination, Object payload, String coalesceKey) {
+        eventPublisher.publishEvent(new BroadcastEvent(destination, null, payload, coalesceKey));
+    }
+
+    public void sendToUser(String user, String destination, Object payload) {
+        eventPublisher.publishEvent(new BroadcastEvent(destination, user, payload, null));
+    }
+
+    // Without a transaction (fallbackExecution) the event is dispatched right away
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onCommitted(BroadcastEvent event) {
+        BlockingQueue<BroadcastEvent> lane = lanes.get(Math.floorMod(event.orderingKey().hashCode(), lanes.size()));
+        try {
+            // Blocking rather than dropping or running inline keeps the lane's order
+            if (!lane.offer(event)) {
+                logger.warn("Broadcast lane full, waiting to enqueue event for {}", event.destination());
+                lane.put(event);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while queueing broadcast for {}", event.destination());
+        }
+    }
+
+    private void drain(BlockingQueue<BroadcastEvent> lane) {
+        List<BroadcastEvent> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !lane.isEmpty()) {
+            try {
+                BroadcastEvent first = lane.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                lane.drainTo(batch, MAX_BATCH - 1);
+                for (BroadcastEvent event : batch) {
+                    dispatch(event);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void dispatch(BroadcastEvent event) {
+        try {
+            if (event.user() != null) {
+                messagingTemplate.convertAndSendToUser(event.user(), event.destination(), event.payload());
+            } else if (event.coalesceKey() != null) {
+                messagingTemplate.convertAndSend(event.destination(), event.payload(),
+                        Map.<String, Object>of(OutboundLane.COALESCE_HEADER, event.coalesceKey()));
+            } else {
+                messagingTemplate.convertAndSend(event.destination(), event.payload());
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to broadcast to {}: {}", event.destination(), e.getMessage());
+        }
+    }
+
+    /** Lets the lanes flush what was already committed before the broker goes away. */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join(5000);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.azcord.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * lastActivityAt of DM chats, bumped on every message. Instead of a findById and save
+ * per message, bumps are coalesced per chat and written together every flush interval in
+ * a single UPDATE, so a busy group DM's row is written a few times a second at most.
+ */
+@Component
+public class ChatActivityTracker {
+    // Keeps the statement and its parameter list a sensible size
+    private static final int MAX_KEYS_PER_STATEMENT = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final WriteBehindBuffer<Long, LocalDateTime> buffer;
+
+    public ChatActivityTracker(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               @Value("${azcord.chat-activity.flush-ms:250}") long flushMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Its own transaction, also when a read flushes first from inside a read-only one
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.buffer = new WriteBehindBuffer<>("chat-activity", ChatActivityTracker::later, this::write,
+                flushMillis, meterRegistry);
+    }
+
+    public void touch(Long chatId) {
+        buffer.record(chatId, LocalDateTime.now());
+    }
+
+    /** The chat's last activity, counting bumps that are not written yet. */
+    public LocalDateTime lastActivity(Long chatId, LocalDateTime stored) {
+        return buffer.pending(chatId).map(pending -> later(stored, pending)).orElse(stored);
+    }
+
+    public int pendingCount() {
+        return buffer.size();
+    }
+
+    public void flush() {
+        buffer.flush();
+    }
+
+    /** Writes the pending bumps of just these chats. */
+    public void flush(Collection<Long> chatIds) {
+        buffer.flush(chatIds);
+    }
+
+    public Set<Long> pendingChatIds() {
+        return buffer.pendingKeys();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        buffer.close();
+    }
+
+    // One statement per batch; GREATEST keeps a newer value written elsewhere (e.g. a member
+    // being added) from being moved backwards
+    private void write(Map<Long, LocalDateTime> batch) {
+        List<Map.Entry<Long, LocalDateTime>> entries = new ArrayList<>(batch.entrySet());
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int from = 0; from < entries.size(); from += MAX_KEYS_PER_STATEMENT) {
+                List<Map.Entry<Long, LocalDateTime>> chunk =
+                        entries.subList(from, Math.min(entries.size(), from + MAX_KEYS_PER_STATEMENT));
+                StringBuilder sql = new StringBuilder("UPDATE direct_message_chats SET last_activity_at = CASE id");
+                List<Object> args = new ArrayList<>(chunk.size() * 4);
+                for (Map.Entry<Long, LocalDateTime> entry : chunk) {
+                    Timestamp at = Timestamp.valueOf(entry.getValue());
+                    sql.append(" WHEN ? THEN GREATEST(COALESCE(last_activity_at, ?), ?)");
+                    args.add(entry.getKey());
+                    args.add(at);
+                    args.add(at);
+                }
+                sql.append(" ELSE last_activity_at END WHERE id IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                    args.add(chunk.get(i).getKey());
+                }
+                sql.append(')');
+                jdbcTemplate.update(sql.toString(), args.toArray());
+            }
+        });
+    }
+
+    private static LocalDateTime later(LocalDateTime a, LocalDateTime b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.isAfter(b) ? a : b;
+    }
+}
@@ -0,0 +1,44 @@
+package com.azcord.services;
+
+import com.azcord.exceptions.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Opaque cursors for the DM chat list. A cursor wraps the lastActivityAt and id of the
+ * last chat on a page; the id breaks ties between chats active at the same instant.
+ */
+public final class ChatListCursor {
+
+    private static final String PREFIX = "d1:";
+
+    private ChatListCursor() {
+    }
+
+    public record Position(LocalDateTime lastActivityAt, Long chatId) {
+    }
+
+    public static String encode(LocalDateTime lastActivityAt, Long chatId) {
+        if (lastActivityAt == null || chatId == null) return null;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + chatId + ":" + lastActivityAt).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Position decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':', PREFIX.length());
+            if (!raw.startsWith(PREFIX) || separator < 0) {
+                throw new InvalidCursorException("Invalid cursor: " + cursor);
+            }
+            return new Position(LocalDateTime.parse(raw.substring(separator + 1)),
+                    Long.parseLong(raw.substring(PREFIX.length(), separator)));
+        } catch (IllegalArgumentException | DateTimeParseException e) { // bad base64, number or timestamp
+            throw new InvalidCursorException("Invalid cursor: " + cursor);
+        }
+    }
+}
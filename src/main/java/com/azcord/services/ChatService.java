@@ -1,11 +1,14 @@
 package com.azcord.services;
 
+import com.azcord.broker.SubscriptionGuard;
 import com.azcord.dto.*;
 import com.azcord.exceptions.ChatNotFoundException;
 import com.azcord.exceptions.ForbiddenAccessException;
 import com.azcord.exceptions.UserNotFoundException;
 import com.azcord.models.*;
+import com.azcord.repositories.AttachmentRepository;
 import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.MessageReactionCountRepository;
 import com.azcord.repositories.MessageRepository;
 import com.azcord.repositories.UserRepository;
 
@@ -14,13 +17,21 @@ import com.azcord.repositories.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -29,6 +40,8 @@ public class ChatService {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatService.class);
 
+    public static final int MAX_CHAT_PAGE_SIZE = 100;
+
     @Autowired
     private DirectMessageChatRepository dmChatRepository;
 
@@ -36,11 +49,29 @@ public class ChatService {
     private UserRepository userRepository;
 
     @Autowired
-    private MessageRepository messageRepository; // To fetch last message for DTO mapping
+    private MessageRepository messageRepository; // To fetch last messages for DTO mapping
 
     @Autowired
     private MessageService messageService; // For mapping Message to MessageDTO
 
+    @Autowired
+    private ChatActivityTracker chatActivityTracker; // Deferred lastActivityAt writes
+
+    @Autowired
+    private ReadStateService readStateService; // Unread counts
+
+    @Autowired
+    private SubscriptionGuard subscriptionGuard; // Drops live subscriptions of removed participants
+
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService; // Attachment blobs outlive a cascade delete otherwise
+
+    @Autowired
+    private MessageReactionCountRepository reactionCountRepository; // So do reaction counters
+
 
     /**
      * Creates or retrieves an existing 1-on-1 direct message chat.
@@ -125,12 +156,59 @@ public class ChatService {
      */
     @Transactional(readOnly = true)
     public List<DirectMessageChatDTO> getUserDirectMessageChats(Long userId) {
-        userRepository.findById(userId)
-                .orElseThrow(() -> new UserNotFoundException("User with ID " + userId + " not found."));
-        List<DirectMessageChat> chats = dmChatRepository.findByParticipantIdOrderByLastActivityDesc(userId);
-        return chats.stream()
-                .map(chat -> mapDirectMessageChatToDTO(chat, userId))
-                .collect(Collectors.toList());
+        requireUserExists(userId);
+        flushPendingActivity(userId); // so the stored order includes the latest bumps
+        List<DirectMessageChat> chats = dmChatRepository.findPageByParticipantId(userId, Pageable.unpaged());
+        return mapDirectMessageChatsToDTOs(chats, userId);
+    }
+
+    /**
+     * Retrieves one page of a user's direct message chats, ordered by last activity.
+     * @param userId The ID of the user.
+     * @param before The nextCursor of the previous page, or null for the first page.
+     * @param limit Page size, capped at MAX_CHAT_PAGE_SIZE.
+     * @return The page and the cursor of the next one.
+     */
+    @Transactional(readOnly = true)
+    public DirectMessageChatPageDTO getUserDirectMessageChatPage(Long userId, String before, int limit) {
+        requireUserExists(userId);
+        ChatListCursor.Position position = ChatListCursor.decode(before);
+        int size = Math.max(1, Math.min(limit, MAX_CHAT_PAGE_SIZE));
+        flushPendingActivity(userId);
+
+        Pageable pageable = PageRequest.of(0, size + 1); // one extra row tells whether there is a next page
+        List<DirectMessageChat> chats = position == null
+                ? dmChatRepository.findPageByParticipantId(userId, pageable)
+                : dmChatRepository.findPageByParticipantIdBefore(userId, position.lastActivityAt(), position.chatId(), pageable);
+        String nextCursor = null;
+        if (chats.size() > size) {
+            chats = chats.subList(0, size);
+            DirectMessageChat last = chats.get(size - 1);
+            nextCursor = ChatListCursor.encode(last.getLastActivityAt(), last.getId());
+        }
+        return new DirectMessageChatPageDTO(mapDirectMessageChatsToDTOs(chats, userId), nextCursor);
+    }
+
+    // Writes the pending bumps of this user's chats only; other users' bumps wait for the timer
+    private void flushPendingActivity(Long userId) {
+        Set<Long> pending = chatActivityTracker.pendingChatIds();
+        if (pending.isEmpty()) return;
+        List<Long> mine = dmChatRepository.findIdsByParticipantIdAndIdIn(userId, pending);
+        if (!mine.isEmpty()) {
+            chatActivityTracker.flush(mine);
+        }
+    }
+
+    // Chats created before these columns were maintained: give them an activity time to page
+    // on and point them at their newest message
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillChatListColumns() {
+        int activity = dmChatRepository.backfillLastActivity();
+        int pointers = dmChatRepository.backfillLastMessageIds();
+        if (activity > 0 || pointers > 0) {
+            logger.info("Backfilled lastActivityAt of {} and lastMessageId of {} DM chats", activity, pointers);
+        }
     }
 
     /**
@@ -192,6 +270,7 @@ public class ChatService {
         chat.getParticipants().add(userToAdd);
         chat.setLastActivityAt(LocalDateTime.now()); // Update activity timestamp
         DirectMessageChat updatedChat = dmChatRepository.save(chat);
+        subscriptionGuard.participantAdded(chatId);
         logger.info("Added user {} to group DM chat {}", userIdToAdd, chatId);
         // TODO: Send a system message to the chat about the user joining.
         return mapDirectMessageChatToDTO(updatedChat, requestingUserId);
@@ -236,7 +315,10 @@ public class ChatService {
             // Or, if it's the creator leaving, ownership might need to transfer or chat becomes ownerless/archived.
             // This logic can be complex. For now, we'll allow removal as long as it's not the last person.
             if(chat.getParticipants().size() == 1 && chat.getParticipants().contains(userToRemove)){
+                 fileStorageService.deleteAttachmentFiles(attachmentRepository.findFileUrlsByDirectMessageChatId(chatId));
+                 reactionCountRepository.deleteByDirectMessageChatId(chatId);
                  dmChatRepository.delete(chat);
+                 subscriptionGuard.directMessageChatDeleted(chatId);
                  logger.info("Deleted empty group DM chat {} after removing last participant {}", chatId, userIdToRemove);
                  return null; // Or a DTO indicating deletion
             }
@@ -246,6 +328,7 @@ public class ChatService {
         chat.getParticipants().remove(userToRemove);
         chat.setLastActivityAt(LocalDateTime.now());
         DirectMessageChat updatedChat = dmChatRepository.save(chat);
+        subscriptionGuard.participantRemoved(chatId, userIdToRemove);
         logger.info("Removed user {} from group DM chat {}", userIdToRemove, chatId);
 
         // TODO: Send a system message to the chat about the user leaving.
@@ -254,15 +337,12 @@ public class ChatService {
 
 
     /**
-     * Updates the last activity timestamp for a chat.
+     * Updates the last activity timestamp for a chat. The write is deferred and coalesced
+     * with other bumps of the same chat (see ChatActivityTracker).
      * @param chatId The ID of the chat.
      */
-    @Transactional
     public void updateChatActivity(Long chatId) {
-        DirectMessageChat chat = dmChatRepository.findById(chatId)
-                .orElseThrow(() -> new ChatNotFoundException("Chat with ID " + chatId + " not found for activity update."));
-        chat.setLastActivityAt(LocalDateTime.now());
-        dmChatRepository.save(chat);
+        chatActivityTracker.touch(chatId);
     }
 
 
@@ -270,48 +350,81 @@ public class ChatService {
         return chat.getParticipants().stream().anyMatch(p -> p.getId().equals(userId));
     }
 
+    private void requireUserExists(Long userId) {
+        if (!userRepository.existsById(userId)) {
+            throw new UserNotFoundException("User with ID " + userId + " not found.");
+        }
+    }
+
     public DirectMessageChatDTO mapDirectMessageChatToDTO(DirectMessageChat chat, Long currentUserId) {
         if (chat == null) return null;
+        return mapDirectMessageChatsToDTOs(List.of(chat), currentUserId).get(0);
+    }
 
-        DirectMessageChatDTO dto = new DirectMessageChatDTO();
-        dto.setId(chat.getId());
-        dto.setChatType(chat.getChatType());
-        
-        Set<UserSimpleDTO> participantDTOs = chat.getParticipants().stream()
-                .map(MapperUtil::toSimple)
+    /**
+     * Maps chats in a fixed number of queries however many there are: one for all
+     * participants, the message lookup and mapping for all last messages, and two for
+     * the unread counts.
+     */
+    public List<DirectMessageChatDTO> mapDirectMessageChatsToDTOs(List<DirectMessageChat> chats, Long currentUserId) {
+        if (chats.isEmpty()) return new ArrayList<>();
+
+        List<Long> chatIds = chats.stream().map(DirectMessageChat::getId).collect(Collectors.toList());
+        Map<Long, Set<UserSimpleDTO>> participants = new HashMap<>();
+        for (DirectMessageChatRepository.ParticipantRow row : dmChatRepository.findParticipantsByChatIdIn(chatIds)) {
+            participants.computeIfAbsent(row.getChatId(), k -> new LinkedHashSet<>())
+                    .add(new UserSimpleDTO(row.getId(), row.getUsername(), row.getAvatarUrl(), row.getBio()));
+        }
+
+        Set<Long> lastMessageIds = chats.stream()
+                .map(DirectMessageChat::getLastMessageId)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toSet());
-        dto.setParticipants(participantDTOs);
-
-        if (chat.getChatType() == ChatType.DIRECT_MESSAGE && chat.getParticipants().size() == 2) {
-            // For 1-on-1 DM, set the name to the other participant's username
-            User otherParticipant = chat.getParticipants().stream()
-                                        .filter(p -> !p.getId().equals(currentUserId))
-                                        .findFirst()
-                                        .orElse(null); // Should find one if currentUserId is a participant
-            if (otherParticipant != null) {
-                dto.setName(otherParticipant.getUsername());
-            } else {
-                 // Fallback if currentUserId is not in participants list (should not happen)
-                 // or if it's a DM with self (which we prevent)
-                dto.setName(chat.getName() != null ? chat.getName() : "Direct Message");
+        Map<Long, MessageDTO> lastMessages = new HashMap<>();
+        if (!lastMessageIds.isEmpty()) {
+            for (MessageDTO message : messageService.mapMessagesToDTOs(messageRepository.findAllById(lastMessageIds))) {
+                lastMessages.put(message.getId(), message);
             }
-        } else {
-            dto.setName(chat.getName()); // For group DMs or if logic above fails
         }
 
+        Map<Long, ReadStateDTO> readStates = readStateService.getReadStates(currentUserId, ReadTargetType.DIRECT_MESSAGE, chatIds);
+
+        List<DirectMessageChatDTO> result = new ArrayList<>(chats.size());
+        for (DirectMessageChat chat : chats) {
+            DirectMessageChatDTO dto = new DirectMessageChatDTO();
+            dto.setId(chat.getId());
+            dto.setChatType(chat.getChatType());
+
+            Set<UserSimpleDTO> participantDTOs = participants.getOrDefault(chat.getId(), new LinkedHashSet<>());
+            dto.setParticipants(participantDTOs);
+
+            if (chat.getChatType() == ChatType.DIRECT_MESSAGE && participantDTOs.size() == 2) {
+                // For 1-on-1 DM, set the name to the other participant's username
+                UserSimpleDTO otherParticipant = participantDTOs.stream()
+                                            .filter(p -> !p.getId().equals(currentUserId))
+                                            .findFirst()
+                                            .orElse(null); // Should find one if currentUserId is a participant
+                if (otherParticipant != null) {
+                    dto.setName(otherParticipant.getUsername());
+                } else {
+                     // Fallback if currentUserId is not in participants list (should not happen)
+                     // or if it's a DM with self (which we prevent)
+                    dto.setName(chat.getName() != null ? chat.getName() : "Direct Message");
+                }
+            } else {
+                dto.setName(chat.getName()); // For group DMs or if logic above fails
+            }
 
-        // Fetch and map the last message
-        Optional<Message> lastMessageOpt = messageRepository.findTopByDirectMessageChatIdOrderByCreatedAtDesc(chat.getId());
-        if (lastMessageOpt.isPresent()) {
-            // Need a way to map Message to MessageDTO. Assuming MessageService has a mapper.
-            // For now, a simplified mapping or use a dedicated mapper.
-            dto.setLastMessage(messageService.mapMessageToDTO(lastMessageOpt.get()));
-        }
-
-        dto.setCreatedAt(chat.getCreatedAt());
-        dto.setLastActivityAt(chat.getLastActivityAt());
-        // dto.setUnreadCount(0); // Placeholder for unread count logic
+            if (chat.getLastMessageId() != null) {
+                dto.setLastMessage(lastMessages.get(chat.getLastMessageId()));
+            }
 
-        return dto;
+            dto.setCreatedAt(chat.getCreatedAt());
+            dto.setLastActivityAt(chatActivityTracker.lastActivity(chat.getId(), chat.getLastActivityAt()));
+            ReadStateDTO readState = readStates.get(chat.getId());
+            dto.setUnreadCount(readState == null ? 0 : (int) Math.min(Integer.MAX_VALUE, readState.getUnreadCount()));
+            result.add(dto);
+        }
+        return result;
     }
-}
\ No newline at end of file
+}
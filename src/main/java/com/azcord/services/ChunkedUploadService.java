@@ -0,0 +1,380 @@
+package com.azcord.services;
+
+import com.azcord.config.FileStorageProperties;
+import com.azcord.dto.CreateUploadDTO;
+import com.azcord.dto.UploadSessionDTO;
+import com.azcord.exceptions.FileStorageException;
+import com.azcord.exceptions.ForbiddenAccessException;
+import com.azcord.exceptions.InvalidUploadException;
+import com.azcord.exceptions.NotFoundException;
+import com.azcord.models.UploadSession;
+import com.azcord.models.UploadStatus;
+import com.azcord.repositories.UploadSessionRepository;
+import com.azcord.repositories.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Resumable uploads: a session is created with the file's size, chunks are PUT at their
+ * offsets in any order (each with its SHA-256), and completing the session moves the file
+ * into the attachment staging area. The completed upload id is then sent in place of a
+ * multipart file when posting the message.
+ *
+ * Chunks stream from the request straight into a file set to the full size up front, so
+ * nothing is buffered beyond one read buffer and a dropped connection only loses the chunk
+ * in flight. Each user may have a few sessions open at once, and sessions idle for longer
+ * than the TTL are removed along with their data.
+ */
+@Service
+public class ChunkedUploadService {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final String CHUNK_DIR = ".chunks";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final UserRepository userRepository;
+    private final FileStorageService fileStorageService;
+    private final TransactionTemplate transactionTemplate;
+    private final Path chunkLocation;
+    private final int chunkSize;
+    private final long maxSize;
+    private final Duration sessionTtl;
+    private final int maxSessionsPerUser;
+
+    public ChunkedUploadService(UploadSessionRepository uploadSessionRepository, UserRepository userRepository,
+                                @Qualifier("contentAddressedFileStorageService") FileStorageService fileStorageService,
+                                TransactionTemplate transactionTemplate, FileStorageProperties fileStorageProperties,
+                                @Value("${azcord.uploads.chunk-size-bytes:8388608}") int chunkSize,
+                                @Value("${azcord.uploads.max-size-bytes:1073741824}") long maxSize,
+                                @Value("${azcord.uploads.session-ttl-hours:24}") long sessionTtlHours,
+                                @Value("${azcord.uploads.max-sessions-per-user:4}") int maxSessionsPerUser) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.userRepository = userRepository;
+        this.fileStorageService = fileStorageService;
+        this.transactionTemplate = transactionTemplate;
+        this.chunkSize = chunkSize;
+        this.maxSize = maxSize;
+        this.sessionTtl = Duration.ofHours(sessionTtlHours);
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        // Inside the upload directory, so completing is a rename on the same file system
+        this.chunkLocation = Paths.get(fileStorageProperties.getUploadDir()).toAbsolutePath().normalize().resolve(CHUNK_DIR);
+        try {
+            Files.createDirectories(this.chunkLocation);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not create the directory for chunked uploads.", ex);
+        }
+    }
+
+    public UploadSessionDTO create(CreateUploadDTO createUploadDTO, Long userId) {
+        if (createUploadDTO.getSize() <= 0 || createUploadDTO.getSize() > maxSize) {
+            throw new InvalidUploadException("Upload size must be between 1 and " + maxSize + " bytes");
+        }
+        long chunkCount = (createUploadDTO.getSize() + chunkSize - 1) / chunkSize;
+        if (chunkCount > UploadSession.MAX_CHUNKS) {
+            throw new InvalidUploadException("Upload is too large for the configured chunk size");
+        }
+        // Every open session holds a part file (or a staged one once complete) until it is used or expires
+        if (uploadSessionRepository.countByOwner_Id(userId) >= maxSessionsPerUser) {
+            throw new InvalidUploadException("Too many uploads in progress; finish or abort one first");
+        }
+
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setOwner(userRepository.getReferenceById(userId));
+        session.setFileName(StringUtils.cleanPath(createUploadDTO.getFileName()));
+        session.setContentType(createUploadDTO.getContentType());
+        session.setSize(createUploadDTO.getSize());
+        session.setChunkSize(chunkSize);
+        session.setChunkCount((int) chunkCount);
+        session.setReceivedChunks(new byte[(int) ((chunkCount + 7) / 8)]);
+        session.setSha256(createUploadDTO.getSha256() != null ? createUploadDTO.getSha256().toLowerCase() : null);
+        session.setStatus(UploadStatus.UPLOADING);
+
+        // Full length up front so chunks can land at any offset. setLength leaves a sparse file
+        // that reserves nothing, so the free space is checked first; concurrent uploads can still
+        // overcommit it, in which case the chunk write that runs out fails instead
+        Path partFile = partFile(session.getId());
+        try {
+            if (Files.getFileStore(chunkLocation).getUsableSpace() < session.getSize()) {
+                throw new FileStorageException("Not enough disk space for an upload of " + session.getSize() + " bytes");
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("Could not check free disk space: " + e.getMessage(), e);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partFile.toFile(), "rw")) {
+            file.setLength(session.getSize());
+        } catch (IOException e) {
+            deleteQuietly(partFile);
+            throw new FileStorageException("Could not allocate upload: " + e.getMessage(), e);
+        }
+        try {
+            uploadSessionRepository.save(session);
+        } catch (RuntimeException e) {
+            deleteQuietly(partFile);
+            throw e;
+        }
+        logger.info("Upload {} started by user {}: {} bytes in {} chunks", session.getId(), userId, session.getSize(), chunkCount);
+        return toDTO(session);
+    }
+
+    public UploadSessionDTO getSession(String uploadId, Long userId) {
+        return toDTO(findOwned(uploadId, userId));
+    }
+
+    /**
+     * Writes one chunk at its offset, then marks it received if its SHA-256 matches.
+     * Resending a chunk that already arrived is accepted without rewriting it.
+     */
+    public UploadSessionDTO writeChunk(String uploadId, int index, String checksum, InputStream body, Long userId)
+            throws IOException {
+        UploadSession session = findOwned(uploadId, userId);
+        if (session.getStatus() != UploadStatus.UPLOADING) {
+            throw new InvalidUploadException("Upload " + uploadId + " is no longer accepting chunks");
+        }
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new InvalidUploadException("Chunk index out of range: " + index);
+        }
+        if (checksum == null || checksum.isBlank()) {
+            throw new InvalidUploadException("Chunk checksum is required");
+        }
+        if (session.hasChunk(index)) {
+            return toDTO(session);
+        }
+
+        long offset = session.chunkOffset(index);
+        int expected = session.chunkLength(index);
+        MessageDigest digest = sha256();
+        // No locking needed on the file: chunks never overlap, and an unmarked chunk is
+        // simply rewritten by the next attempt
+        try (FileChannel channel = FileChannel.open(partFile(uploadId), StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long written = 0;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                if (written + read > expected) {
+                    throw new InvalidUploadException("Chunk " + index + " is longer than " + expected + " bytes");
+                }
+                digest.update(buffer, 0, read);
+                ByteBuffer slice = ByteBuffer.wrap(buffer, 0, read);
+                while (slice.hasRemaining()) {
+                    written += channel.write(slice, offset + written);
+                }
+            }
+            if (written != expected) {
+                throw new InvalidUploadException("Chunk " + index + " has " + written + " bytes, expected " + expected);
+            }
+        }
+        String actual = HexFormat.of().formatHex(digest.digest());
+        if (!actual.equalsIgnoreCase(checksum.trim())) {
+            throw new InvalidUploadException("Checksum mismatch for chunk " + index + ", please resend it");
+        }
+
+        UploadSession updated = transactionTemplate.execute(status -> {
+            UploadSession locked = uploadSessionRepository.findByIdForUpdate(uploadId)
+                    .orElseThrow(() -> new NotFoundException("Upload", uploadId));
+            locked.markChunk(index);
+            return uploadSessionRepository.save(locked);
+        });
+        return toDTO(updated);
+    }
+
+    /**
+     * Checks that every chunk arrived (and the whole-file checksum, if one was given), then
+     * stages the file. Completing an already completed upload returns it unchanged.
+     */
+    public UploadSessionDTO complete(String uploadId, Long userId) throws IOException {
+        UploadSession session = transactionTemplate.execute(status -> {
+            UploadSession locked = lockOwned(uploadId, userId);
+            if (locked.getStatus() == UploadStatus.COMPLETE) {
+                return locked;
+            }
+            if (locked.getStatus() != UploadStatus.UPLOADING) {
+                throw new InvalidUploadException("Upload " + uploadId + " is already being completed");
+            }
+            if (locked.receivedCount() != locked.getChunkCount()) {
+                throw new InvalidUploadException("Upload " + uploadId + " is missing "
+                        + (locked.getChunkCount() - locked.receivedCount()) + " chunks");
+            }
+            locked.setStatus(UploadStatus.COMPLETING);
+            return uploadSessionRepository.save(locked);
+        });
+        if (session.getStatus() == UploadStatus.COMPLETE) {
+            return toDTO(session);
+        }
+
+        // File work happens between two short transactions, with no row lock held
+        StagedFile staged;
+        try {
+            Path partFile = partFile(uploadId);
+            if (session.getSha256() != null && !session.getSha256().equals(hashOf(partFile))) {
+                throw new InvalidUploadException("Checksum mismatch for upload " + uploadId);
+            }
+            staged = fileStorageService.stageLocalFile(partFile, session.getFileName(), session.getContentType());
+        } catch (IOException | RuntimeException e) {
+            transactionTemplate.executeWithoutResult(status -> uploadSessionRepository.findByIdForUpdate(uploadId)
+                    .ifPresent(s -> {
+                        s.setStatus(UploadStatus.UPLOADING);
+                        uploadSessionRepository.save(s);
+                    }));
+            throw e;
+        }
+
+        UploadSession completed = transactionTemplate.execute(status -> {
+            UploadSession locked = uploadSessionRepository.findByIdForUpdate(uploadId)
+                    .orElseThrow(() -> new NotFoundException("Upload", uploadId));
+            locked.setStatus(UploadStatus.COMPLETE);
+            locked.setStagingName(staged.stagingName());
+            locked.setStoredFileName(staged.storedFileName());
+            locked.setFileUrl(staged.fileUrl());
+            return uploadSessionRepository.save(locked);
+        });
+        logger.info("Upload {} completed as {}", uploadId, staged.storedFileName());
+        return toDTO(completed);
+    }
+
+    public void abort(String uploadId, Long userId) {
+        UploadSession session = findOwned(uploadId, userId);
+        uploadSessionRepository.delete(session);
+        removeData(session);
+    }
+
+    /**
+     * Takes completed uploads for a message being sent, in the caller's transaction; the
+     * sessions are gone once it commits and come back if it rolls back.
+     * @return The staged files, to be attached and promoted like multipart uploads.
+     */
+    public List<StagedFile> consume(List<String> uploadIds, Long userId) {
+        List<StagedFile> staged = new ArrayList<>();
+        for (String uploadId : uploadIds) {
+            UploadSession session = lockOwned(uploadId, userId);
+            if (session.getStatus() != UploadStatus.COMPLETE) {
+                throw new InvalidUploadException("Upload " + uploadId + " is not complete");
+            }
+            staged.add(new StagedFile(session.getStagingName(), session.getStoredFileName(), session.getFileName(),
+                    session.getContentType(), session.getSize(), session.getFileUrl()));
+            uploadSessionRepository.delete(session);
+        }
+        return staged;
+    }
+
+    /** True while a completed, unsent upload owns this staged file. */
+    public boolean holdsStaged(String stagingName) {
+        return uploadSessionRepository.existsByStagingName(stagingName);
+    }
+
+    @Scheduled(fixedDelayString = "${azcord.uploads.session-sweep-ms:3600000}", initialDelay = 120_000)
+    public void expireSessions() {
+        List<UploadSession> expired = uploadSessionRepository.findByUpdatedAtBefore(LocalDateTime.now().minus(sessionTtl));
+        for (UploadSession session : expired) {
+            try {
+                uploadSessionRepository.delete(session);
+                removeData(session);
+            } catch (RuntimeException e) {
+                logger.warn("Could not expire upload {}: {}", session.getId(), e.getMessage());
+            }
+        }
+        if (!expired.isEmpty()) {
+            logger.info("Expired {} idle uploads", expired.size());
+        }
+    }
+
+    // ---- helpers
+
+    private UploadSession findOwned(String uploadId, Long userId) {
+        return checkOwner(uploadSessionRepository.findById(uploadId)
+                .orElseThrow(() -> new NotFoundException("Upload", uploadId)), userId);
+    }
+
+    private UploadSession lockOwned(String uploadId, Long userId) {
+        return checkOwner(uploadSessionRepository.findByIdForUpdate(uploadId)
+                .orElseThrow(() -> new NotFoundException("Upload", uploadId)), userId);
+    }
+
+    private UploadSession checkOwner(UploadSession session, Long userId) {
+        if (!session.getOwner().getId().equals(userId)) {
+            throw new ForbiddenAccessException("Upload " + session.getId() + " belongs to another user");
+        }
+        return session;
+    }
+
+    private void removeData(UploadSession session) {
+        deleteQuietly(partFile(session.getId()));
+        if (session.getStagingName() != null) {
+            fileStorageService.discardStaged(session.getStagingName());
+        }
+    }
+
+    private Path partFile(String uploadId) {
+        Path path = this.chunkLocation.resolve(uploadId + ".part").normalize();
+        if (!path.getParent().equals(this.chunkLocation)) {
+            throw new InvalidUploadException("Invalid upload id: " + uploadId);
+        }
+        return path;
+    }
+
+    private static String hashOf(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private UploadSessionDTO toDTO(UploadSession session) {
+        List<Integer> missing = new ArrayList<>();
+        if (session.getStatus() == UploadStatus.UPLOADING) {
+            for (int i = 0; i < session.getChunkCount(); i++) {
+                if (!session.hasChunk(i)) missing.add(i);
+            }
+        }
+        LocalDateTime lastActivity = session.getUpdatedAt() != null ? session.getUpdatedAt() : LocalDateTime.now();
+        return new UploadSessionDTO(session.getId(), session.getFileName(), session.getSize(), session.getChunkSize(),
+                session.getChunkCount(), session.receivedCount(), missing, session.getStatus(), session.getFileUrl(),
+                lastActivity.plus(sessionTtl));
+    }
+}
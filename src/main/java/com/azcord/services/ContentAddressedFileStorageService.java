@@ -0,0 +1,445 @@
+package com.azcord.services;
+
+import com.azcord.config.FileStorageProperties;
+import com.azcord.exceptions.FileStorageException;
+import com.azcord.models.Attachment;
+import com.azcord.models.Message;
+import com.azcord.models.MessageType;
+import com.azcord.repositories.FileBlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores every distinct file once, under the SHA-256 of its bytes, in a two-level
+ * fan-out tree (blobs/ab/cd/abcd...). The hash is computed while the upload streams into
+ * staging. Attachment rows and public URLs (avatars, server icons) each hold one reference
+ * on the blob's FileBlob row, and deleteFile only removes the bytes once the count drops
+ * to zero.
+ *
+ * Files are served as {hash}.{ext}; the extension only picks the Content-Type. Names that
+ * are not hashes (uploads from before this store) resolve to the flat upload directory, but
+ * only through locate: the public route goes through locatePublic, which resolves a blob
+ * only while an avatar or icon still references it.
+ */
+@Service("contentAddressedFileStorageService")
+@Primary
+public class ContentAddressedFileStorageService implements FileStorageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentAddressedFileStorageService.class);
+    private static final String STAGING_DIR = ".staging";
+    private static final String BLOB_DIR = "blobs";
+    private static final String PUBLIC_URL_PREFIX = "/uploads/blobs/";
+    // Staged copies are {storedName}~{random}, so concurrent uploads of one file don't collide
+    private static final char STAGING_SEPARATOR = '~';
+    private static final Pattern BLOB_NAME = Pattern.compile("^([0-9a-f]{64})(\\.[A-Za-z0-9]{1,16})?$");
+    private static final Pattern EXTENSION = Pattern.compile("^\\.[A-Za-z0-9]{1,16}$");
+
+    private final Path fileStorageLocation;
+    private final Path stagingLocation;
+    private final Path blobLocation;
+    private final FileBlobRepository blobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate reclaimTransaction;
+
+    public ContentAddressedFileStorageService(FileStorageProperties fileStorageProperties,
+                                              FileBlobRepository blobRepository,
+                                              PlatformTransactionManager transactionManager) {
+        this.fileStorageLocation = Paths.get(fileStorageProperties.getUploadDir()).toAbsolutePath().normalize();
+        this.stagingLocation = this.fileStorageLocation.resolve(STAGING_DIR);
+        this.blobLocation = this.fileStorageLocation.resolve(BLOB_DIR);
+        this.blobRepository = blobRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.reclaimTransaction = new TransactionTemplate(transactionManager);
+        this.reclaimTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            Files.createDirectories(this.stagingLocation);
+            Files.createDirectories(this.blobLocation);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not create the directories where the uploaded files will be stored.", ex);
+        }
+        logger.info("Content-addressed file store initialized at {}", this.blobLocation);
+    }
+
+    // ---- message attachments
+
+    @Override
+    public Attachment storeFile(MultipartFile file, Message message) throws IOException {
+        if (file.isEmpty()) {
+            throw new FileStorageException("Failed to store empty file.");
+        }
+        StagedFile staged = stage(file, false);
+        Attachment attachment;
+        try {
+            attachment = toAttachment(staged, message);
+        } catch (RuntimeException e) {
+            discardStaged(staged.stagingName());
+            throw e;
+        }
+        promoteStaged(staged.stagingName());
+        return attachment;
+    }
+
+    @Override
+    public List<Attachment> storeFiles(List<MultipartFile> files, Message message) throws IOException {
+        List<Attachment> attachments = new ArrayList<>();
+        if (files != null) {
+            for (MultipartFile file : files) {
+                if (!file.isEmpty()) {
+                    attachments.add(storeFile(file, message));
+                }
+            }
+        }
+        return attachments;
+    }
+
+    @Override
+    public List<StagedFile> stageFiles(List<MultipartFile> files) throws IOException {
+        List<StagedFile> staged = new ArrayList<>();
+        if (files == null) {
+            return staged;
+        }
+        try {
+            for (MultipartFile file : files) {
+                if (!file.isEmpty()) {
+                    staged.add(stage(file, false));
+                }
+            }
+        } catch (IOException e) {
+            staged.forEach(f -> discardStaged(f.stagingName()));
+            throw e;
+        }
+        return staged;
+    }
+
+    @Override
+    public StagedFile stageLocalFile(Path source, String originalFileName, String contentType) throws IOException {
+        String cleanName = StringUtils.cleanPath(originalFileName != null ? originalFileName : "file");
+        MessageDigest digest = sha256();
+        long size;
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            size = in.transferTo(OutputStream.nullOutputStream());
+        }
+        String storedName = HexFormat.of().formatHex(digest.digest()) + extensionOf(cleanName);
+        String stagingName = storedName + STAGING_SEPARATOR + UUID.randomUUID();
+        Files.move(source, this.stagingLocation.resolve(stagingName), StandardCopyOption.ATOMIC_MOVE);
+        return new StagedFile(stagingName, storedName, cleanName, contentType, size, attachmentUrl(storedName));
+    }
+
+    /** Builds the attachment row and takes its reference on the blob, in the caller's transaction. */
+    @Override
+    public Attachment toAttachment(StagedFile stagedFile, Message message) {
+        retain(hashOf(stagedFile.storedFileName()), stagedFile.size(), false);
+        Attachment attachment = new Attachment();
+        attachment.setMessage(message);
+        attachment.setFileName(stagedFile.originalFileName());
+        attachment.setFileUrl(stagedFile.fileUrl());
+        attachment.setMimeType(stagedFile.contentType() != null ? stagedFile.contentType() : "application/octet-stream");
+        attachment.setFileSize(stagedFile.size());
+        attachment.setUploadedAt(LocalDateTime.now());
+        attachment.setAttachmentType(determineAttachmentType(stagedFile.contentType()));
+        return attachment;
+    }
+
+    // ---- staging
+
+    @Override
+    public void promoteStaged(String stagingName) throws IOException {
+        Path staged = resolveStaged(stagingName);
+        String storedName = storedNameOfStaged(stagingName);
+        if (storedName == null) {
+            throw new FileStorageException("Not a staged upload: " + stagingName);
+        }
+        Path target = blobPath(hashOf(storedName));
+        if (Files.exists(target)) {
+            // Already stored by an earlier upload of the same bytes
+            Files.deleteIfExists(staged);
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(staged);
+        }
+        logger.debug("Stored new blob {}", storedName);
+    }
+
+    @Override
+    public void discardStaged(String stagingName) {
+        try {
+            Files.deleteIfExists(resolveStaged(stagingName));
+        } catch (IOException e) {
+            logger.warn("Could not delete staged file {}: {}", stagingName, e.getMessage());
+        }
+    }
+
+    @Override
+    public List<String> findStaleStaged(Duration maxAge) throws IOException {
+        Instant cutoff = Instant.now().minus(maxAge);
+        List<String> stale = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.stagingLocation)) {
+            for (Path entry : entries) {
+                if (Files.getLastModifiedTime(entry).toInstant().isBefore(cutoff)) {
+                    stale.add(entry.getFileName().toString());
+                }
+            }
+        }
+        return stale;
+    }
+
+    @Override
+    public String storedNameOfStaged(String stagingName) {
+        int separator = stagingName.lastIndexOf(STAGING_SEPARATOR);
+        if (separator <= 0) {
+            return null; // a partial write that never finished hashing
+        }
+        String storedName = stagingName.substring(0, separator);
+        return BLOB_NAME.matcher(storedName).matches() ? storedName : null;
+    }
+
+    @Override
+    public Path locate(String storedFileName) {
+        Matcher blob = BLOB_NAME.matcher(storedFileName);
+        if (blob.matches()) {
+            return blobPath(blob.group(1));
+        }
+        return this.fileStorageLocation.resolve(storedFileName).normalize();
+    }
+
+    @Override
+    public Path locatePublic(String storedFileName) {
+        Matcher blob = BLOB_NAME.matcher(storedFileName);
+        if (!blob.matches() || !blobRepository.existsByHashAndPublicRefsGreaterThan(blob.group(1), 0)) {
+            return null;
+        }
+        return blobPath(blob.group(1));
+    }
+
+    // ---- public files (avatars, server icons)
+
+    @Override
+    public String storePublicFile(MultipartFile file) throws IOException {
+        if (file.isEmpty()) {
+            throw new FileStorageException("Failed to store empty public file.");
+        }
+        StagedFile staged = stage(file, true);
+        try {
+            retain(hashOf(staged.storedFileName()), staged.size(), true);
+        } catch (RuntimeException e) {
+            discardStaged(staged.stagingName());
+            throw e;
+        }
+        promoteStagedAfterCommit(staged.stagingName());
+        logger.info("Stored public file {} as {}", file.getOriginalFilename(), staged.storedFileName());
+        return staged.fileUrl();
+    }
+
+    // The reference lives in the caller's transaction (a profile or server update), so the
+    // bytes only become a blob once it commits; on rollback the staged copy goes right away
+    private void promoteStagedAfterCommit(String stagingName) throws IOException {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            promoteStaged(stagingName);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    promoteStaged(stagingName);
+                } catch (IOException e) {
+                    // The staging janitor retries promotion for files whose reference was committed
+                    logger.error("Could not promote staged public file {}: {}", stagingName, e.getMessage());
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    discardStaged(stagingName);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void releasePublicFile(String fileUrl) {
+        if (fileUrl != null && fileUrl.startsWith(PUBLIC_URL_PREFIX)) {
+            Matcher blob = BLOB_NAME.matcher(fileUrl.substring(PUBLIC_URL_PREFIX.length()));
+            if (blob.matches()) {
+                release(blob.group(1), true);
+            }
+        }
+    }
+
+    @Override
+    public void deleteFile(String storedFileName) throws IOException {
+        Matcher blob = BLOB_NAME.matcher(storedFileName);
+        if (blob.matches()) {
+            release(blob.group(1), false);
+            return;
+        }
+        // An upload from before the content-addressed store, not reference counted
+        Path filePath = this.fileStorageLocation.resolve(storedFileName).normalize();
+        if (!filePath.getParent().equals(this.fileStorageLocation)) {
+            throw new FileStorageException("Invalid file name: " + storedFileName);
+        }
+        if (!Files.deleteIfExists(filePath)) {
+            logger.warn("Attempted to delete non-existent file: {}", filePath);
+        }
+        deleteVariants(filePath);
+    }
+
+    // ---- reference counting
+
+    private void retain(String hash, long size, boolean publicFile) {
+        transactionTemplate.executeWithoutResult(status -> blobRepository.increment(hash, size, publicFile ? 1 : 0));
+    }
+
+    private void release(String hash, boolean publicFile) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (publicFile) {
+                blobRepository.decrementPublicRefs(hash);
+            } else {
+                blobRepository.decrementRefs(hash);
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    reclaim(hash);
+                }
+            });
+        });
+    }
+
+    // Deleting the row locks it, so an upload of the same bytes racing with this either
+    // re-referenced the row first (nothing deleted) or waits and then re-creates the blob
+    private void reclaim(String hash) {
+        try {
+            reclaimTransaction.executeWithoutResult(status -> {
+                if (blobRepository.deleteIfUnreferenced(hash) == 1) {
+                    try {
+                        Files.deleteIfExists(blobPath(hash));
+                        deleteVariants(blobPath(hash));
+                        logger.info("Deleted unreferenced blob {}", hash);
+                    } catch (IOException e) {
+                        throw new FileStorageException("Could not delete blob " + hash, e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.error("Failed to reclaim blob {}: {}", hash, e.getMessage());
+        }
+    }
+
+    // ---- helpers
+
+    // Resized copies sit next to the original as {name}.{size}.{ext} (see ThumbnailService)
+    private static void deleteVariants(Path original) throws IOException {
+        if (!Files.isDirectory(original.getParent())) return;
+        try (DirectoryStream<Path> variants = Files.newDirectoryStream(original.getParent(), original.getFileName() + ".*")) {
+            for (Path variant : variants) {
+                Files.deleteIfExists(variant);
+            }
+        }
+    }
+
+    private StagedFile stage(MultipartFile file, boolean publicFile) throws IOException {
+        String originalFileName = StringUtils.cleanPath(file.getOriginalFilename() != null ? file.getOriginalFilename() : "file");
+        String random = UUID.randomUUID().toString();
+        Path partial = this.stagingLocation.resolve(random + ".part");
+        MessageDigest digest = sha256();
+        long size;
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            size = Files.copy(in, partial);
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        String storedName = HexFormat.of().formatHex(digest.digest()) + extensionOf(originalFileName);
+        String stagingName = storedName + STAGING_SEPARATOR + random;
+        Files.move(partial, this.stagingLocation.resolve(stagingName), StandardCopyOption.ATOMIC_MOVE);
+        return new StagedFile(stagingName, storedName, originalFileName, file.getContentType(), size,
+                publicFile ? PUBLIC_URL_PREFIX + storedName : attachmentUrl(storedName));
+    }
+
+    private static String attachmentUrl(String storedName) {
+        return ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/api/files/")
+                .path(storedName)
+                .toUriString();
+    }
+
+    private Path blobPath(String hash) {
+        return this.blobLocation.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Path resolveStaged(String stagingName) {
+        Path path = this.stagingLocation.resolve(stagingName).normalize();
+        if (!path.getParent().equals(this.stagingLocation)) {
+            throw new FileStorageException("Invalid staged file name: " + stagingName);
+        }
+        return path;
+    }
+
+    private static String hashOf(String storedName) {
+        Matcher blob = BLOB_NAME.matcher(storedName);
+        if (!blob.matches()) {
+            throw new FileStorageException("Not a content-addressed file name: " + storedName);
+        }
+        return blob.group(1);
+    }
+
+    private static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0) return "";
+        String extension = fileName.substring(dot).toLowerCase();
+        return EXTENSION.matcher(extension).matches() ? extension : "";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private MessageType determineAttachmentType(String mimeType) {
+        if (mimeType == null) return MessageType.FILE;
+        if (mimeType.startsWith("image/")) return MessageType.IMAGE;
+        if (mimeType.startsWith("video/")) return MessageType.VIDEO;
+        return MessageType.FILE;
+    }
+}
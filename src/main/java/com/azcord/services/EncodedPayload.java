@@ -0,0 +1,10 @@
+package com.azcord.services;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * A DTO together with its JSON, encoded once. The STOMP frame body and the REST response
+ * body are written from the same bytes; anything else that serializes it just sees the value.
+ */
+public record EncodedPayload<T>(@JsonValue T value, byte[] json) {
+}
@@ -0,0 +1,259 @@
+package com.azcord.services;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Writes stored files to HTTP responses: conditional GETs (ETag / Last-Modified, 304),
+ * single and multipart byte ranges (206 / 416), and a zero-copy body. On Tomcat the body
+ * is handed to the connector's sendfile; elsewhere it is streamed with FileChannel.transferTo.
+ */
+@Service
+public class FileDownloadService {
+    private static final Logger logger = LoggerFactory.getLogger(FileDownloadService.class);
+
+    // A random UUID (generateUniqueFileName) or the content's SHA-256: the bytes never change.
+    // Resized variants (ThumbnailService.variantName) add .{size}.{ext} and are fixed by the original
+    private static final Pattern IMMUTABLE_NAME = Pattern.compile(
+            "^([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}|[0-9a-f]{64})(\\.[A-Za-z0-9]+)?(\\.[0-9]+\\.[A-Za-z0-9]+)?$");
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE_CACHE_CONTROL = "no-cache";
+
+    // Tomcat request attributes for connector-level sendfile
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // Below this, a plain write is as cheap as setting up sendfile (Tomcat's DefaultServlet uses the same)
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+
+    private static final int MAX_CACHED_FILES = 10_000;
+
+    /** What we know about one file, valid while its size and modification time stay the same. */
+    public record FileMetadata(long size, long lastModified, String contentType, String etag) {
+    }
+
+    private final Map<Path, FileMetadata> metadataCache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileMetadata> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    /**
+     * Serves the file, or answers 304 / 404 / 416 as appropriate.
+     */
+    public void serve(Path path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serve(path, path.getFileName().toString(), request, response);
+    }
+
+    /**
+     * Serves the file under the given name, which picks the Content-Type and the download
+     * name (content-addressed blobs are stored without an extension).
+     */
+    public void serve(Path path, String fileName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileMetadata metadata;
+        try {
+            metadata = metadataOf(path, fileName, request);
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                IMMUTABLE_NAME.matcher(fileName).matches() ? IMMUTABLE_CACHE_CONTROL : REVALIDATE_CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Sets ETag / Last-Modified and, for a matching conditional request, the 304 or 412
+        if (new ServletWebRequest(request, response).checkNotModified(metadata.etag(), metadata.lastModified())) {
+            return;
+        }
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"");
+
+        boolean head = "HEAD".equals(request.getMethod());
+        List<HttpRange> ranges = requestedRanges(request, metadata);
+        if (ranges.isEmpty()) {
+            response.setContentType(metadata.contentType());
+            response.setContentLengthLong(metadata.size());
+            if (!head) writeRegion(path, 0, metadata.size(), request, response);
+            return;
+        }
+
+        List<long[]> regions = new ArrayList<>(ranges.size());
+        long total = 0;
+        try {
+            for (HttpRange range : ranges) {
+                long start = range.getRangeStart(metadata.size());
+                long end = range.getRangeEnd(metadata.size());
+                if (start >= metadata.size() || end < start) {
+                    continue; // this one can't be served; the rest of the set may still be
+                }
+                regions.add(new long[] {start, end});
+                total += end - start + 1;
+            }
+        } catch (IllegalArgumentException e) {
+            regions.clear();
+        }
+        // Unsatisfiable, or overlapping ranges asking for more than the whole file
+        if (regions.isEmpty() || (regions.size() > 1 && total > metadata.size())) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + metadata.size());
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (regions.size() == 1) {
+            long[] region = regions.get(0);
+            response.setContentType(metadata.contentType());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(region, metadata.size()));
+            response.setContentLengthLong(region[1] - region[0] + 1);
+            if (!head) writeRegion(path, region[0], region[1] - region[0] + 1, request, response);
+            return;
+        }
+        writeMultipart(path, regions, metadata, head, response);
+    }
+
+    private List<HttpRange> requestedRanges(HttpServletRequest request, FileMetadata metadata) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+            return List.of();
+        }
+        // If-Range: only honour the range when the client's copy is the current one
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(metadata.etag())) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                return List.of();
+            }
+            try {
+                long since = request.getDateHeader(HttpHeaders.IF_RANGE);
+                if (metadata.lastModified() / 1000 > since / 1000) {
+                    return List.of();
+                }
+            } catch (IllegalArgumentException e) {
+                return List.of();
+            }
+        }
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Ignoring malformed Range header '{}': {}", rangeHeader, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private void writeMultipart(Path path, List<long[]> regions, FileMetadata metadata, boolean head,
+                                HttpServletResponse response) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>(regions.size());
+        long length = 0;
+        for (long[] region : regions) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + metadata.contentType() + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(region, metadata.size()) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            length += partHeader.length + region[1] - region[0] + 1;
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        length += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(length);
+        if (head) return;
+
+        ServletOutputStream out = response.getOutputStream();
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            for (int i = 0; i < regions.size(); i++) {
+                out.write(partHeaders.get(i));
+                long[] region = regions.get(i);
+                transfer(file, region[0], region[1] - region[0] + 1, target);
+            }
+        }
+        out.write(closing);
+    }
+
+    private void writeRegion(Path path, long start, long length, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        if (length >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            transfer(file, start, length, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    private static void transfer(FileChannel file, long position, long count, WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long sent = file.transferTo(position, count, target);
+            if (sent <= 0) {
+                throw new IOException("File ended before the requested range was sent");
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    private static String contentRange(long[] region, long size) {
+        return "bytes " + region[0] + "-" + region[1] + "/" + size;
+    }
+
+    private FileMetadata metadataOf(Path path, String fileName, HttpServletRequest request) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+            throw new NoSuchFileException(path.toString());
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        synchronized (metadataCache) {
+            FileMetadata cached = metadataCache.get(path);
+            if (cached != null && cached.size() == size && cached.lastModified() == lastModified) {
+                return cached;
+            }
+        }
+
+        String contentType = request.getServletContext().getMimeType(fileName);
+        if (contentType == null) { // Fallback using Files.probeContentType
+            try {
+                contentType = Files.probeContentType(path);
+            } catch (IOException e) {
+                logger.info("Could not determine file type for {}: {}", path.getFileName(), e.getMessage());
+            }
+        }
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+        FileMetadata metadata = new FileMetadata(size, lastModified, contentType,
+                "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"");
+        synchronized (metadataCache) {
+            metadataCache.put(path, metadata);
+        }
+        return metadata;
+    }
+}
@@ -2,14 +2,56 @@ package com.azcord.services;
 
 import com.azcord.models.Attachment;
 import com.azcord.models.Message;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
 
 public interface FileStorageService {
     Attachment storeFile(MultipartFile file, Message message) throws IOException; // For message attachments
     List<Attachment> storeFiles(List<MultipartFile> files, Message message) throws IOException; // For message attachments
 
+    /**
+     * Copies message attachments into the staging area, meant to run before any transaction
+     * is opened. If one file fails, the ones already staged are discarded.
+     * @param files The uploaded files; empty parts are skipped.
+     * @return One staged entry per stored file.
+     * @throws IOException If an error occurs during the copy.
+     */
+    List<StagedFile> stageFiles(List<MultipartFile> files) throws IOException;
+
+    /**
+     * Moves a file already on local disk, such as an assembled chunked upload, into the
+     * staging area. The source must be on the same file system as the upload directory.
+     */
+    StagedFile stageLocalFile(Path source, String originalFileName, String contentType) throws IOException;
+
+    /** Builds the attachment row for a staged file; no disk access. */
+    Attachment toAttachment(StagedFile stagedFile, Message message);
+
+    /** Moves a staged file to its final name, making it downloadable. */
+    void promoteStaged(String stagingName) throws IOException;
+
+    void discardStaged(String stagingName);
+
+    /** Staging names of staged files last modified longer ago than maxAge. */
+    List<String> findStaleStaged(Duration maxAge) throws IOException;
+
+    /** The name a staged file will be served under, or null if it never got one. */
+    String storedNameOfStaged(String stagingName);
+
+    /** Where a stored file lives on disk; not checked for existence. */
+    Path locate(String storedFileName);
+
+    /**
+     * Where a public file (avatar, server icon) lives on disk, or null if the name is not
+     * one. Attachments never resolve here, even though they may share the same storage.
+     */
+    Path locatePublic(String storedFileName);
+
     /**
      * Stores a general public file (e.g., avatar, server icon) in the root upload directory.
      * @param file The file to store.
@@ -18,5 +60,24 @@ public interface FileStorageService {
      */
     String storePublicFile(MultipartFile file) throws IOException;
 
+    /** Drops a reference taken by storePublicFile, e.g. when an avatar is replaced. */
+    void releasePublicFile(String fileUrl);
+
     void deleteFile(String storedFileName) throws IOException;
+
+    /**
+     * Drops the files of attachment rows that a channel, server or DM chat delete is about
+     * to remove by cascade. A failure is logged and the rest are still released.
+     */
+    default void deleteAttachmentFiles(Collection<String> fileUrls) {
+        for (String fileUrl : fileUrls) {
+            String storedFileName = fileUrl.substring(fileUrl.lastIndexOf('/') + 1);
+            try {
+                deleteFile(storedFileName);
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(FileStorageService.class)
+                        .error("Failed to delete attachment file {}: {}", fileUrl, e.getMessage());
+            }
+        }
+    }
 }
@@ -4,7 +4,6 @@ import java.util.List;
 import java.util.UUID;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -31,7 +30,7 @@ public class FriendService {
     private FriendshipRepository frRepo;
     
     @Autowired
-    private SimpMessagingTemplate broker;
+    private BroadcastOutbox broker;
 
     @Transactional
     public void sendRequest(Long senderId, Long receiverId) {
@@ -49,7 +48,7 @@ public class FriendService {
         fr.setReceiver(userRepo.getReferenceById(receiverId));
         reqRepo.save(fr);
 
-        broker.convertAndSendToUser(
+        broker.sendToUser(
                 receiverId.toString(),
                 "/queue/friend-requests",
                 new FriendRequestDTO(fr));
@@ -77,7 +76,7 @@ public class FriendService {
             frRepo.save(fs);
         }
         
-        broker.convertAndSendToUser(
+        broker.sendToUser(
                 fr.getSender().getId().toString(),
                 "/queue/friend-requests/updates",
                 new FriendRequestDTO(fr));
@@ -3,11 +3,16 @@ package com.azcord.services;
 
 
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.azcord.models.User;
+import com.azcord.repositories.UserRepository;
+import com.azcord.security.JwtPrincipal;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
@@ -21,6 +26,19 @@ public class JwtService {
     @Value("${jwt.secret}")
     private String SECRET_KEY;
 
+    //how long a verified token is trusted without parsing it again
+    @Value("${jwt.verified-cache-ttl-ms:60000}")
+    private long verifiedCacheTtlMs;
+
+    private static final int VERIFIED_CACHE_MAX_SIZE = 10_000;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private record VerifiedToken(JwtPrincipal principal, long trustedUntil) {}
+
+    private final Map<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+
     public String createJWT(User user){
         return Jwts.builder()
             .setSubject(user.getUsername())
@@ -31,6 +49,56 @@ public class JwtService {
             .compact();
         }
 
+    /**
+     * Verifies the token with a single parse and resolves the user id behind it.
+     * Returns null if the token is invalid, expired or its user no longer exists.
+     * Results are cached for a short time (never past the token's expiry).
+     */
+    public JwtPrincipal authenticate(String token) {
+        long now = System.currentTimeMillis();
+        VerifiedToken cached = verifiedTokens.get(token);
+        if (cached != null) {
+            if (cached.trustedUntil() > now) {
+                return cached.principal();
+            }
+            verifiedTokens.remove(token, cached);
+        }
+
+        Claims claims;
+        try {
+            claims = Jwts.parser()
+                .setSigningKey(SECRET_KEY)
+                .parseClaimsJws(token) // also rejects expired tokens
+                .getBody();
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        String username = claims.getSubject();
+        Date expiresAt = claims.getExpiration();
+        if (username == null || expiresAt == null) {
+            return null;
+        }
+        Long userId = userRepository.findIdByUsername(username);
+        if (userId == null) {
+            return null;
+        }
+
+        JwtPrincipal principal = new JwtPrincipal(userId, username, expiresAt);
+        if (verifiedTokens.size() >= VERIFIED_CACHE_MAX_SIZE) {
+            verifiedTokens.values().removeIf(v -> v.trustedUntil() <= now);
+            if (verifiedTokens.size() >= VERIFIED_CACHE_MAX_SIZE) {
+                verifiedTokens.clear();
+            }
+        }
+        verifiedTokens.put(token, new VerifiedToken(principal, Math.min(now + verifiedCacheTtlMs, expiresAt.getTime())));
+        return principal;
+    }
+
+    //forget verified tokens of a user, e.g. after a rename
+    public void evictUser(String username) {
+        verifiedTokens.values().removeIf(v -> v.principal().username().equals(username));
+    }
+
 //check if signature correct
     public boolean isSignatureValid(String token) {
         try {
@@ -14,10 +14,14 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,15 +31,19 @@ import java.util.UUID;
 public class LocalFileStorageService implements FileStorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(LocalFileStorageService.class);
+    private static final String STAGING_DIR = ".staging";
     private final Path fileStorageLocation;
+    private final Path stagingLocation;
 
     @Autowired
     public LocalFileStorageService(FileStorageProperties fileStorageProperties) {
         this.fileStorageLocation = Paths.get(fileStorageProperties.getUploadDir())
                 .toAbsolutePath().normalize();
+        this.stagingLocation = this.fileStorageLocation.resolve(STAGING_DIR);
         logger.info("File storage location initialized to: {}", this.fileStorageLocation);
         try {
             Files.createDirectories(this.fileStorageLocation);
+            Files.createDirectories(this.stagingLocation);
             logger.info("Created directory (if it didn't exist): {}", this.fileStorageLocation);
         } catch (Exception ex) {
             logger.error("Could not create the directory where the uploaded files will be stored.", ex);
@@ -83,6 +91,113 @@ public class LocalFileStorageService implements FileStorageService {
         return attachments;
     }
 
+    @Override
+    public List<StagedFile> stageFiles(List<MultipartFile> files) throws IOException {
+        List<StagedFile> staged = new ArrayList<>();
+        if (files == null) {
+            return staged;
+        }
+        try {
+            for (MultipartFile file : files) {
+                if (file.isEmpty()) continue;
+                String storedFileName = generateUniqueFileName(file.getOriginalFilename());
+                try (InputStream in = file.getInputStream()) {
+                    Files.copy(in, this.stagingLocation.resolve(storedFileName));
+                }
+                String fileDownloadUri = ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/api/files/")
+                        .path(storedFileName)
+                        .toUriString();
+                staged.add(new StagedFile(storedFileName, storedFileName, StringUtils.cleanPath(file.getOriginalFilename()),
+                        file.getContentType(), file.getSize(), fileDownloadUri));
+                logger.debug("Staged attachment {} as {}", file.getOriginalFilename(), storedFileName);
+            }
+        } catch (IOException e) {
+            staged.forEach(f -> discardStaged(f.stagingName()));
+            throw e;
+        }
+        return staged;
+    }
+
+    @Override
+    public StagedFile stageLocalFile(Path source, String originalFileName, String contentType) throws IOException {
+        String storedFileName = generateUniqueFileName(originalFileName);
+        long size = Files.size(source);
+        Files.move(source, this.stagingLocation.resolve(storedFileName), StandardCopyOption.ATOMIC_MOVE);
+        String fileDownloadUri = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/api/files/")
+                .path(storedFileName)
+                .toUriString();
+        return new StagedFile(storedFileName, storedFileName, StringUtils.cleanPath(originalFileName),
+                contentType, size, fileDownloadUri);
+    }
+
+    @Override
+    public Attachment toAttachment(StagedFile stagedFile, Message message) {
+        Attachment attachment = new Attachment();
+        attachment.setMessage(message);
+        attachment.setFileName(stagedFile.originalFileName());
+        attachment.setFileUrl(stagedFile.fileUrl());
+        attachment.setMimeType(stagedFile.contentType() != null ? stagedFile.contentType() : "application/octet-stream");
+        attachment.setFileSize(stagedFile.size());
+        attachment.setUploadedAt(LocalDateTime.now());
+        attachment.setAttachmentType(determineAttachmentType(stagedFile.contentType()));
+        return attachment;
+    }
+
+    @Override
+    public void promoteStaged(String storedFileName) throws IOException {
+        // Same file system, so this is a rename rather than a copy
+        Files.move(resolveStaged(storedFileName), this.fileStorageLocation.resolve(storedFileName),
+                StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Promoted staged attachment {}", storedFileName);
+    }
+
+    @Override
+    public void discardStaged(String storedFileName) {
+        try {
+            Files.deleteIfExists(resolveStaged(storedFileName));
+        } catch (IOException e) {
+            logger.warn("Could not delete staged file {}: {}", storedFileName, e.getMessage());
+        }
+    }
+
+    @Override
+    public List<String> findStaleStaged(Duration maxAge) throws IOException {
+        Instant cutoff = Instant.now().minus(maxAge);
+        List<String> stale = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.stagingLocation)) {
+            for (Path entry : entries) {
+                if (Files.getLastModifiedTime(entry).toInstant().isBefore(cutoff)) {
+                    stale.add(entry.getFileName().toString());
+                }
+            }
+        }
+        return stale;
+    }
+
+    @Override
+    public String storedNameOfStaged(String stagingName) {
+        return stagingName;
+    }
+
+    @Override
+    public Path locate(String storedFileName) {
+        return this.fileStorageLocation.resolve(storedFileName).normalize();
+    }
+
+    @Override
+    public Path locatePublic(String storedFileName) {
+        return null; // public files are static resources under /uploads here
+    }
+
+    private Path resolveStaged(String storedFileName) {
+        Path path = this.stagingLocation.resolve(storedFileName).normalize();
+        if (!path.getParent().equals(this.stagingLocation)) {
+            throw new FileStorageException("Invalid staged file name: " + storedFileName);
+        }
+        return path;
+    }
 
     @Override
     public String storePublicFile(MultipartFile file) throws IOException {
@@ -114,6 +229,11 @@ public class LocalFileStorageService implements FileStorageService {
     }
 
 
+    @Override
+    public void releasePublicFile(String fileUrl) {
+        // Public files are not tracked here; replaced avatars and icons are kept
+    }
+
     @Override
     public void deleteFile(String storedFileName) throws IOException {
         try {
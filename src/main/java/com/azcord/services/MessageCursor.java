@@ -0,0 +1,38 @@
+package com.azcord.services;
+
+import com.azcord.exceptions.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque history cursors. A cursor wraps the id of the boundary message of a slice;
+ * message ids are unique and monotonic, so paging on them never skips or repeats
+ * messages that share a createdAt timestamp.
+ */
+public final class MessageCursor {
+
+    private static final String PREFIX = "m1:";
+
+    private MessageCursor() {
+    }
+
+    public static String encode(Long messageId) {
+        if (messageId == null) return null;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + messageId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Long decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith(PREFIX)) {
+                throw new InvalidCursorException("Invalid cursor: " + cursor);
+            }
+            return Long.parseLong(raw.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) { // bad base64 or bad number
+            throw new InvalidCursorException("Invalid cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.azcord.services;
+
+import com.azcord.dto.AttachmentDTO;
+import com.azcord.dto.MessageDTO;
+import com.azcord.dto.ParentMessageInfoDTO;
+import com.azcord.dto.UserSimpleDTO;
+import com.azcord.models.Attachment;
+import com.azcord.models.Message;
+import com.azcord.models.MessageReactionCount;
+import com.azcord.repositories.AttachmentRepository;
+import com.azcord.repositories.MessageReactionCountRepository;
+import com.azcord.repositories.MessageReactionRepository;
+import com.azcord.repositories.MessageRepository;
+import com.azcord.repositories.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds MessageDTOs for a whole batch of messages with a fixed number of queries:
+ * one each for senders, reply previews, attachments and reaction counts, no matter how
+ * many messages are in the batch. Lazy associations of the messages are never touched
+ * beyond their ids.
+ */
+@Service
+public class MessageMapper {
+
+    private static final int SNIPPET_LENGTH = 50;
+
+    @Autowired
+    private MessageRepository messageRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+    @Autowired
+    private MessageReactionRepository reactionRepository;
+    @Autowired
+    private MessageReactionCountRepository reactionCountRepository;
+
+    public MessageDTO toDTO(Message message) {
+        if (message == null) return null;
+        return toDTOs(List.of(message)).get(0);
+    }
+
+    public Page<MessageDTO> toDTOPage(Page<Message> page) {
+        return new PageImpl<>(toDTOs(page.getContent()), page.getPageable(), page.getTotalElements());
+    }
+
+    public List<MessageDTO> toDTOs(List<Message> messages) {
+        if (messages.isEmpty()) return Collections.emptyList();
+
+        Set<Long> messageIds = new LinkedHashSet<>();
+        Set<Long> senderIds = new HashSet<>();
+        Set<Long> parentIds = new HashSet<>();
+        for (Message message : messages) {
+            messageIds.add(message.getId());
+            senderIds.add(message.getSender().getId());
+            if (message.getParentMessage() != null) {
+                parentIds.add(message.getParentMessage().getId());
+            }
+        }
+
+        // 1. Senders
+        Map<Long, UserSimpleDTO> senders = new HashMap<>();
+        for (UserSimpleDTO sender : userRepository.findSimpleByIdIn(senderIds)) {
+            senders.put(sender.getId(), sender);
+        }
+
+        // 2. Reply previews
+        Map<Long, ParentMessageInfoDTO> parents = new HashMap<>();
+        if (!parentIds.isEmpty()) {
+            for (MessageRepository.ParentPreviewRow row : messageRepository.findParentPreviewsByIdIn(parentIds)) {
+                ParentMessageInfoDTO info = new ParentMessageInfoDTO();
+                info.setId(row.getId());
+                info.setSenderUsername(row.getSenderUsername());
+                info.setContentSnippet(snippet(row.getContent()));
+                parents.put(row.getId(), info);
+            }
+        }
+
+        // 3. Attachments
+        Map<Long, List<AttachmentDTO>> attachments = new HashMap<>();
+        for (Attachment att : attachmentRepository.findAllByMessageIdIn(messageIds)) {
+            attachments.computeIfAbsent(att.getMessage().getId(), k -> new ArrayList<>()).add(toAttachmentDTO(att));
+        }
+
+        // 4. Reaction counts; reactors themselves are paged on demand
+        Map<Long, Map<String, Integer>> reactionCounts = new HashMap<>();
+        for (MessageReactionCount count : reactionCountRepository.findByMessageIdIn(messageIds)) {
+            reactionCounts.computeIfAbsent(count.getMessageId(), k -> new HashMap<>())
+                    .put(count.getEmojiUnicode(), (int) count.getCount());
+        }
+
+        List<MessageDTO> result = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            MessageDTO dto = new MessageDTO();
+            dto.setId(message.getId());
+            dto.setSender(senders.get(message.getSender().getId()));
+            dto.setContent(message.getContent());
+            dto.setMessageType(message.getMessageType());
+            dto.setCreatedAt(message.getCreatedAt());
+            dto.setUpdatedAt(message.getUpdatedAt());
+            dto.setEdited(message.isEdited());
+            if (message.getChannel() != null) {
+                dto.setChannelId(message.getChannel().getId());
+            }
+            if (message.getDirectMessageChat() != null) {
+                dto.setDirectMessageChatId(message.getDirectMessageChat().getId());
+            }
+            if (message.getParentMessage() != null) {
+                dto.setParentMessageId(message.getParentMessage().getId());
+                dto.setRepliedTo(parents.get(message.getParentMessage().getId()));
+            }
+            dto.setAttachments(attachments.getOrDefault(message.getId(), new ArrayList<>()));
+            dto.setReactionCounts(reactionCounts.getOrDefault(message.getId(), new HashMap<>()));
+            result.add(dto);
+        }
+        return result;
+    }
+
+    /**
+     * Sets myReactions for the user reading these messages, with one query. DTOs that get
+     * reactions are copied first, since the same instances may be held by the tail cache.
+     */
+    public List<MessageDTO> withViewerReactions(List<MessageDTO> dtos, String username) {
+        if (dtos.isEmpty()) return dtos;
+        Long userId = userRepository.findIdByUsername(username);
+        if (userId == null) return dtos;
+        Set<Long> messageIds = new HashSet<>();
+        for (MessageDTO dto : dtos) {
+            messageIds.add(dto.getId());
+        }
+        Map<Long, Set<String>> mine = new HashMap<>();
+        for (MessageReactionRepository.ViewerReactionRow row : reactionRepository.findByUserAndMessageIds(userId, messageIds)) {
+            mine.computeIfAbsent(row.getMessageId(), k -> new HashSet<>()).add(row.getEmojiUnicode());
+        }
+        List<MessageDTO> result = new ArrayList<>(dtos.size());
+        for (MessageDTO dto : dtos) {
+            Set<String> emojis = mine.get(dto.getId());
+            if (emojis == null) {
+                result.add(dto);
+            } else {
+                MessageDTO copy = new MessageDTO(dto);
+                copy.setMyReactions(emojis);
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    public Page<MessageDTO> withViewerReactions(Page<MessageDTO> page, String username) {
+        return new PageImpl<>(withViewerReactions(page.getContent(), username), page.getPageable(), page.getTotalElements());
+    }
+
+    public static AttachmentDTO toAttachmentDTO(Attachment att) {
+        return new AttachmentDTO(att.getId(), att.getFileName(), att.getFileUrl(), att.getMimeType(),
+                att.getFileSize(), att.getAttachmentType(), att.getUploadedAt());
+    }
+
+    private static String snippet(String content) {
+        if (content == null) return "";
+        return content.length() > SNIPPET_LENGTH ? content.substring(0, SNIPPET_LENGTH - 3) + "..." : content;
+    }
+}
@@ -0,0 +1,156 @@
+package com.azcord.services;
+
+import com.azcord.dto.MessageDTO;
+import com.azcord.dto.MessageSliceDTO;
+import com.azcord.exceptions.ChatNotFoundException;
+import com.azcord.exceptions.ForbiddenAccessException;
+import com.azcord.exceptions.InvalidSearchQueryException;
+import com.azcord.exceptions.ServerNotFoundException;
+import com.azcord.exceptions.UserNotFoundException;
+import com.azcord.models.Channel;
+import com.azcord.models.Message;
+import com.azcord.repositories.ChannelRepository;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.MessageRepository;
+import com.azcord.repositories.ServerRepository;
+import com.azcord.repositories.UserRepository;
+import com.azcord.search.IndexQuery;
+import com.azcord.search.IndexedMessage;
+import com.azcord.search.MessageSearchIndex;
+import com.azcord.search.SearchQuery;
+import com.azcord.search.SearchTokenizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Message search over {@link MessageSearchIndex}: checks access, resolves the from:/in:
+ * filters to ids, and loads the hits. Results are newest first and keyset-paged on the
+ * message id, like history.
+ */
+@Service
+public class MessageSearchService {
+    private static final int MAX_SEARCH_PAGE = 50;
+
+    @Autowired
+    private MessageSearchIndex searchIndex;
+    @Autowired
+    private MessageRepository messageRepository;
+    @Autowired
+    private ChannelRepository channelRepository;
+    @Autowired
+    private DirectMessageChatRepository dmChatRepository;
+    @Autowired
+    private ServerRepository serverRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private MessageMapper messageMapper;
+
+    @Transactional(readOnly = true)
+    public MessageSliceDTO searchServer(Long serverId, String query, String before, int size, String username) {
+        Long userId = requireUserId(username);
+        if (!serverRepository.existsById(serverId)) {
+            throw new ServerNotFoundException("Server not found: " + serverId);
+        }
+        if (!serverRepository.existsByIdAndUsers_Id(serverId, userId)) {
+            throw new ForbiddenAccessException("User is not a member of server: " + serverId);
+        }
+        SearchQuery parsed = SearchQuery.parse(query);
+        List<String> terms = new ArrayList<>(parsed.terms());
+        if (parsed.in() != null) {
+            Optional<Long> channelId = resolveChannel(serverId, parsed.in());
+            if (channelId.isEmpty()) return emptySlice();
+            terms.add(SearchTokenizer.in(channelId.get()));
+        }
+        return search(MessageSearchIndex.serverScope(serverId), parsed, terms, before, size, username);
+    }
+
+    @Transactional(readOnly = true)
+    public MessageSliceDTO searchDirectMessageChat(Long dmChatId, String query, String before, int size, String username) {
+        Long userId = requireUserId(username);
+        if (!dmChatRepository.existsById(dmChatId)) {
+            throw new ChatNotFoundException("DM chat not found: " + dmChatId);
+        }
+        if (!dmChatRepository.isUserParticipant(dmChatId, userId)) {
+            throw new ForbiddenAccessException("User is not a participant of DM chat: " + dmChatId);
+        }
+        SearchQuery parsed = SearchQuery.parse(query);
+        if (parsed.in() != null) {
+            throw new InvalidSearchQueryException("in: is not available in DM chats.");
+        }
+        // All DM chats share one index; the chat is a filter like any other
+        List<String> terms = new ArrayList<>(parsed.terms());
+        terms.add(SearchTokenizer.in(dmChatId));
+        return search(MessageSearchIndex.DM_SCOPE, parsed, terms, before, size, username);
+    }
+
+    private MessageSliceDTO search(String scope, SearchQuery parsed, List<String> terms, String before, int size,
+                                   String username) {
+        if (parsed.from() != null) {
+            Long senderId = userRepository.findIdByUsername(parsed.from());
+            if (senderId == null) return emptySlice();
+            terms.add(SearchTokenizer.from(senderId));
+        }
+        if (parsed.hasAttachment()) {
+            terms.add(SearchTokenizer.HAS_ATTACHMENT);
+        }
+        Long beforeId = MessageCursor.decode(before);
+        int limit = Math.max(1, Math.min(size, MAX_SEARCH_PAGE));
+        IndexQuery indexQuery = new IndexQuery(terms, parsed.prefixes(),
+                beforeId != null ? beforeId : Long.MAX_VALUE,
+                parsed.after() != null ? IndexedMessage.toMillis(parsed.after().plusDays(1).atStartOfDay()) : Long.MIN_VALUE,
+                parsed.before() != null ? IndexedMessage.toMillis(parsed.before().atStartOfDay()) : Long.MAX_VALUE,
+                limit + 1);
+
+        List<Long> hits = searchIndex.search(scope, indexQuery);
+        boolean hasMore = hits.size() > limit;
+        List<Long> page = hasMore ? hits.subList(0, limit) : hits;
+
+        // The index may briefly know about messages deleted a moment ago; those are skipped
+        Map<Long, Message> byId = new HashMap<>();
+        for (Message message : messageRepository.findAllById(page)) {
+            byId.put(message.getId(), message);
+        }
+        List<Message> found = new ArrayList<>(page.size());
+        for (Long id : page) {
+            Message message = byId.get(id);
+            if (message != null) found.add(message);
+        }
+        List<MessageDTO> dtos = messageMapper.withViewerReactions(messageMapper.toDTOs(found), username);
+        // Paged on the index hits, so skipped ids never end a search early
+        String olderCursor = hasMore ? MessageCursor.encode(page.get(page.size() - 1)) : null;
+        return new MessageSliceDTO(dtos, olderCursor, null);
+    }
+
+    private Optional<Long> resolveChannel(Long serverId, String nameOrId) {
+        Optional<Channel> byName = channelRepository.findByNameAndServer_Id(nameOrId, serverId);
+        if (byName.isPresent()) return Optional.of(byName.get().getId());
+        try {
+            long id = Long.parseLong(nameOrId);
+            return channelRepository.findById(id)
+                    .filter(channel -> channel.getServer() != null && serverId.equals(channel.getServer().getId()))
+                    .map(Channel::getId);
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static MessageSliceDTO emptySlice() {
+        return new MessageSliceDTO(List.of(), null, null);
+    }
+
+    private Long requireUserId(String username) {
+        Long userId = userRepository.findIdByUsername(username);
+        if (userId == null) {
+            throw new UserNotFoundException("User not found: " + username);
+        }
+        return userId;
+    }
+}
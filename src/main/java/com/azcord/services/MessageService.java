@@ -4,31 +4,44 @@ import com.azcord.dto.*;
 import com.azcord.exceptions.*;
 import com.azcord.models.*;
 import com.azcord.repositories.*;
+import com.azcord.search.IndexedMessage;
+import com.azcord.search.MessageSearchIndex;
 
 import org.springframework.context.annotation.Lazy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import org.springframework.core.Ordered;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 public class MessageService {
     private static final Logger logger = LoggerFactory.getLogger(MessageService.class);
+    private static final int MAX_HISTORY_SLICE = 100;
+    private static final int MAX_REACTOR_PAGE = 100;
 
     @Autowired
     private MessageRepository messageRepository;
@@ -41,35 +54,103 @@ public class MessageService {
     @Autowired
     private MessageReactionRepository reactionRepository;
     @Autowired
+    private MessageReactionCountRepository reactionCountRepository;
+    @Autowired
     private AttachmentRepository attachmentRepository;
+    @Autowired
+    private MessageMapper messageMapper; // Batched Message -> MessageDTO assembly
+    @Autowired
+    private MessageTailCache messageTailCache; // Recent messages per channel / DM chat
+    @Autowired
+    private ReadStateService readStateService; // Unread and mention counters
+    @Autowired
+    private MessageSearchIndex messageSearchIndex; // Full-text search, updated after commit
+    @Autowired
+    private TypingTracker typingTracker;
 
     @Autowired
-    @Qualifier("localFileStorageService") // Or your cloud storage service bean name
+    @Qualifier("contentAddressedFileStorageService") // Or your cloud storage service bean name
     private FileStorageService fileStorageService;
 
     @Autowired
     private SimpMessagingTemplate messagingTemplate; // For sending messages over WebSocket
+    @Autowired
+    private BroadcastOutbox broadcastOutbox; // Broadcasts that must wait for the commit
+    @Autowired
+    private PayloadEncoder payloadEncoder; // One JSON encoding shared by the broadcast and the REST reply
 
     @Autowired
     private ServerService serverService; // For permission checks
 
+    @Autowired
+    private ChunkedUploadService chunkedUploadService; // Attachments sent as resumable upload ids
+
+    @Autowired
+    private ThumbnailService thumbnailService; // Resized variants of image attachments
+
+    @Autowired
+    private TransactionTemplate transactionTemplate; // sendMessage keeps file I/O outside the transaction
+
     @Autowired
     @Lazy
     private ChatService chatService; // For updating chat activity
 
 
-    @Transactional
-    public MessageDTO sendMessage(SendMessageDTO sendMessageDTO, String senderUsername) {
-        User sender = userRepository.findByUsername(senderUsername)
-                .orElseThrow(() -> new UserNotFoundException("Sender not found: " + senderUsername));
-
+    /**
+     * The target and the sender's access to it are checked first, so a rejected send never
+     * writes a file. Attachments are then copied to the staging area, with no transaction or
+     * pooled connection held; the message and its attachment rows are inserted in one short
+     * transaction, and the staged files are moved into place once it commits.
+     */
+    public EncodedPayload<MessageDTO> sendMessage(SendMessageDTO sendMessageDTO, String senderUsername) {
         if (!sendMessageDTO.isValidTarget()) {
             throw new InvalidMessageTargetException("Message must have either a channelId or a directMessageChatId, but not both.");
         }
         if (!sendMessageDTO.hasContent() && (sendMessageDTO.getFiles() == null || sendMessageDTO.getFiles().isEmpty())) {
              throw new InvalidMessageException("Message must have content or attachments.");
         }
+        checkCanSend(sendMessageDTO, senderUsername);
 
+        List<StagedFile> stagedFiles;
+        try {
+            stagedFiles = fileStorageService.stageFiles(sendMessageDTO.getFiles());
+        } catch (IOException e) {
+            logger.error("Failed to store attachments for message by " + senderUsername, e);
+            throw new FileStorageException("Failed to store attachments: " + e.getMessage(), e);
+        }
+
+        try {
+            return transactionTemplate.execute(status -> persistMessage(sendMessageDTO, senderUsername, stagedFiles));
+        } catch (RuntimeException e) {
+            stagedFiles.forEach(f -> fileStorageService.discardStaged(f.stagingName()));
+            throw e;
+        }
+    }
+
+    // No default role grants SEND_MESSAGES, so membership of the channel's server stands for it
+    private void checkCanSend(SendMessageDTO sendMessageDTO, String senderUsername) {
+        Long senderId = requireUserId(senderUsername);
+        if (sendMessageDTO.getChannelId() != null) {
+            Long channelId = sendMessageDTO.getChannelId();
+            if (!channelRepository.existsById(channelId)) {
+                throw new ChannelNotFoundException("Channel not found: " + channelId);
+            }
+            if (!channelRepository.isMember(channelId, senderId)) {
+                throw new ForbiddenAccessException("User cannot send messages to channel: " + channelId);
+            }
+        } else {
+            Long chatId = sendMessageDTO.getDirectMessageChatId();
+            if (!dmChatRepository.existsById(chatId)) {
+                throw new ChatNotFoundException("Direct message chat not found: " + chatId);
+            }
+            if (!dmChatRepository.isUserParticipant(chatId, senderId)) {
+                throw new ForbiddenAccessException("User is not a participant of DM chat: " + chatId);
+            }
+        }
+    }
+
+    private EncodedPayload<MessageDTO> persistMessage(SendMessageDTO sendMessageDTO, String senderUsername, List<StagedFile> stagedFiles) {
+        User sender = userRepository.getReferenceById(requireUserId(senderUsername));
 
         Message message = new Message();
         message.setSender(sender);
@@ -89,20 +170,7 @@ public class MessageService {
         if (sendMessageDTO.getChannelId() != null) {
             channel = channelRepository.findById(sendMessageDTO.getChannelId())
                     .orElseThrow(() -> new ChannelNotFoundException("Channel not found: " + sendMessageDTO.getChannelId()));
-            // Permission check: Is user member of server and has SEND_MESSAGES perm for this channel?
-            // For simplicity, assuming membership implies send rights. Add granular perms later.
-            if (!serverService.hasPermission(channel.getServer().getId(), senderUsername, Permission.SEND_MESSAGES) &&
-                !serverService.hasPermission(channel.getServer().getId(), senderUsername, Permission.ADMINISTRATOR)) {
-                 // A more specific permission like VIEW_CHANNEL + SEND_MESSAGES would be better.
-                 // For now, if they are on the server and can manage channels, they can send.
-                 // This needs refinement based on your Permission enum.
-                 // Let's assume a general "is member of server" check for now, or a specific SEND_MESSAGES permission.
-                 // The `hasPermission` in ServerService might need to be adapted or a new one created for channels.
-                 // For now, let's rely on a basic server membership check done implicitly if they know the channel ID.
-                 // A proper check would be:
-                 // if (!isUserMemberOfChannel(sender, channel) || !hasChannelPermission(sender, channel, ChannelPermission.SEND_MESSAGE))
-                 // throw new ForbiddenAccessException("User cannot send messages to this channel.");
-            }
+            // The sender's access was checked by checkCanSend, before the attachments were staged
             message.setChannel(channel);
             destination = "/topic/channels/" + channel.getId() + "/messages";
             logger.info("Sending message from {} to channel {}", senderUsername, channel.getId());
@@ -120,64 +188,89 @@ public class MessageService {
             logger.info("Sending message from {} to DM chat {}", senderUsername, dmChat.getId());
         }
 
-        // Save message first to get an ID for attachments
-        Message savedMessage = messageRepository.save(message);
+        // Completed resumable uploads are already staged too; taking them is part of this transaction
+        List<StagedFile> attached = stagedFiles;
+        if (sendMessageDTO.getUploadIds() != null && !sendMessageDTO.getUploadIds().isEmpty()) {
+            attached = new ArrayList<>(stagedFiles);
+            attached.addAll(chunkedUploadService.consume(sendMessageDTO.getUploadIds(), sender.getId()));
+        }
 
-        // Handle attachments (if sent via REST with MultipartFile)
-        if (sendMessageDTO.getFiles() != null && !sendMessageDTO.getFiles().isEmpty()) {
-            try {
-                List<Attachment> attachments = fileStorageService.storeFiles(sendMessageDTO.getFiles(), savedMessage);
-                savedMessage.getAttachments().addAll(attachments);
-                attachmentRepository.saveAll(attachments); // Ensure attachments are saved with message_id
-                if (!attachments.isEmpty()) {
-                     // If there's content, it's mixed. If no content, type is based on first attachment.
-                    savedMessage.setMessageType(attachments.get(0).getAttachmentType()); // Or more sophisticated logic
-                }
-                logger.info("Saved {} attachments for message {}", attachments.size(), savedMessage.getId());
-            } catch (IOException e) {
-                logger.error("Failed to store attachments for message by " + senderUsername, e);
-                // Decide if message sending should fail entirely or proceed without attachments
-                messageRepository.delete(savedMessage); // Rollback message if attachments are critical and failed
-                throw new FileStorageException("Failed to store attachments: " + e.getMessage(), e);
+        // Handle attachments (if sent via REST with MultipartFile or as upload ids; already staged on disk)
+        if (!attached.isEmpty()) {
+            for (StagedFile stagedFile : attached) {
+                message.getAttachments().add(fileStorageService.toAttachment(stagedFile, message));
             }
+            // If there's content, it's mixed. If no content, type is based on first attachment.
+            message.setMessageType(message.getAttachments().get(0).getAttachmentType()); // Or more sophisticated logic
+            promoteStagedAfterCommit(attached);
         }
         // Handle attachments if URLs are provided (common for WebSocket after separate upload)
         else if (sendMessageDTO.getAttachmentUrls() != null && !sendMessageDTO.getAttachmentUrls().isEmpty()) {
-            List<Attachment> attachments = new ArrayList<>();
             for (int i = 0; i < sendMessageDTO.getAttachmentUrls().size(); i++) {
                 Attachment att = new Attachment();
                 att.setFileUrl(sendMessageDTO.getAttachmentUrls().get(i));
                 att.setMimeType(sendMessageDTO.getAttachmentMimeTypes() != null && i < sendMessageDTO.getAttachmentMimeTypes().size() ? sendMessageDTO.getAttachmentMimeTypes().get(i) : "application/octet-stream");
                 att.setFileName(extractFileNameFromUrl(sendMessageDTO.getAttachmentUrls().get(i))); // Basic extraction
                 att.setAttachmentType(determineAttachmentTypeFromMime(att.getMimeType()));
-                att.setMessage(savedMessage);
+                att.setMessage(message);
                 att.setUploadedAt(LocalDateTime.now()); // Assuming upload happened just before
-                attachments.add(att);
+                message.getAttachments().add(att);
             }
-            savedMessage.getAttachments().addAll(attachments);
-            attachmentRepository.saveAll(attachments);
-            if (!attachments.isEmpty() && (savedMessage.getContent() == null || savedMessage.getContent().isBlank())) {
-                 savedMessage.setMessageType(attachments.get(0).getAttachmentType());
+            if (message.getContent() == null || message.getContent().isBlank()) {
+                 message.setMessageType(message.getAttachments().get(0).getAttachmentType());
             }
-             logger.info("Associated {} pre-uploaded attachments for message {}", attachments.size(), savedMessage.getId());
         }
 
+        // Single insert of the message; attachments cascade with it
+        Message finalMessage = messageRepository.save(message);
+        if (!finalMessage.getAttachments().isEmpty()) {
+            logger.info("Saved {} attachments for message {}", finalMessage.getAttachments().size(), finalMessage.getId());
+        }
 
-        Message finalMessage = messageRepository.save(savedMessage); // Save again with attachments if any
+        readStateService.messageSent(finalMessage, sender.getId(), senderUsername);
+        messageSearchIndex.messageCreated(IndexedMessage.of(finalMessage));
+        typingTracker.stopped(dmChat != null ? dmChat.getId() : channel.getId(), dmChat != null, sender.getId());
 
-        // Update last activity for DM chats
+        // Update last activity and the last-message pointer for DM chats
         if (dmChat != null) {
+            dmChatRepository.advanceLastMessageId(dmChat.getId(), finalMessage.getId());
             chatService.updateChatActivity(dmChat.getId());
         } else if (channel != null) {
             // Potentially update server/channel last activity if needed
         }
 
         MessageDTO messageDTO = mapMessageToDTO(finalMessage);
-        messagingTemplate.convertAndSend(destination, messageDTO);
+        messageTailCache.messageCreated(messageDTO);
+        EncodedPayload<MessageDTO> encoded = payloadEncoder.encode(messageDTO);
+        broadcastOutbox.send(destination, encoded);
         logger.info("Message {} sent and broadcast to {}", finalMessage.getId(), destination);
 
-        return messageDTO;
+        return encoded;
+    }
+
+    // Runs ahead of the after-commit broadcasts, so clients never see a URL that is not there yet
+    private void promoteStagedAfterCommit(List<StagedFile> stagedFiles) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public int getOrder() {
+                return Ordered.HIGHEST_PRECEDENCE;
+            }
+
+            @Override
+            public void afterCommit() {
+                for (StagedFile stagedFile : stagedFiles) {
+                    try {
+                        fileStorageService.promoteStaged(stagedFile.stagingName());
+                        thumbnailService.generateAsync(stagedFile.storedFileName());
+                    } catch (IOException e) {
+                        // The staging janitor retries promotion for files whose row was committed
+                        logger.error("Could not promote staged attachment {}: {}", stagedFile.stagingName(), e.getMessage());
+                    }
+                }
+            }
+        });
     }
+
     private String extractFileNameFromUrl(String url) {
         if (url == null) return "file";
         try {
@@ -200,13 +293,12 @@ public class MessageService {
 
 
     @Transactional
-    public MessageDTO editMessage(Long messageId, EditMessageDTO editMessageDTO, String editorUsername) {
+    public EncodedPayload<MessageDTO> editMessage(Long messageId, EditMessageDTO editMessageDTO, String editorUsername) {
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new MessageNotFoundException("Message not found: " + messageId));
-        User editor = userRepository.findByUsername(editorUsername)
-                .orElseThrow(() -> new UserNotFoundException("Editor user not found: " + editorUsername));
+        Long editorId = requireUserId(editorUsername);
 
-        if (!message.getSender().getId().equals(editor.getId())) {
+        if (!message.getSender().getId().equals(editorId)) {
             // Add check for MANAGE_MESSAGES permission if editor is not sender
             boolean canManageMessages = false;
             if (message.getChannel() != null) {
@@ -221,8 +313,11 @@ public class MessageService {
         message.setEdited(true);
         message.setUpdatedAt(LocalDateTime.now());
         Message updatedMessage = messageRepository.save(message);
+        messageSearchIndex.messageEdited(IndexedMessage.of(updatedMessage));
 
         MessageDTO messageDTO = mapMessageToDTO(updatedMessage);
+        messageTailCache.messageEdited(messageDTO);
+        EncodedPayload<MessageDTO> encoded = payloadEncoder.encode(messageDTO);
 
         // Determine WebSocket destination
         String destination;
@@ -232,22 +327,21 @@ public class MessageService {
             destination = "/topic/dm/" + message.getDirectMessageChat().getId() + "/messages/updated";
         } else {
             logger.error("Message {} has no valid channel or DM chat for broadcasting edit.", messageId);
-            return messageDTO; // Or throw error
+            return encoded; // Or throw error
         }
 
-        messagingTemplate.convertAndSend(destination, messageDTO);
+        broadcastOutbox.send(destination, encoded);
         logger.info("Message {} edited by {} and broadcast to {}", messageId, editorUsername, destination);
-        return messageDTO;
+        return encoded;
     }
 
     @Transactional
     public void deleteMessage(Long messageId, String deleterUsername) {
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new MessageNotFoundException("Message not found: " + messageId));
-        User deleter = userRepository.findByUsername(deleterUsername)
-                .orElseThrow(() -> new UserNotFoundException("Deleter user not found: " + deleterUsername));
+        Long deleterId = requireUserId(deleterUsername);
 
-        boolean canDelete = message.getSender().getId().equals(deleter.getId());
+        boolean canDelete = message.getSender().getId().equals(deleterId);
         if (!canDelete) {
             // Check for MANAGE_MESSAGES permission
             if (message.getChannel() != null) {
@@ -260,7 +354,7 @@ public class MessageService {
                 // For group DMs, a group admin might be able to delete messages.
                 // For 1-on-1 DMs, only the sender.
                 DirectMessageChat dmChat = message.getDirectMessageChat();
-                if (dmChat.getChatType() == ChatType.GROUP_DIRECT_MESSAGE && dmChat.getCreator() != null && dmChat.getCreator().getId().equals(deleter.getId())) {
+                if (dmChat.getChatType() == ChatType.GROUP_DIRECT_MESSAGE && dmChat.getCreator() != null && dmChat.getCreator().getId().equals(deleterId)) {
                     canDelete = true; // Group creator can delete messages
                 }
             }
@@ -281,9 +375,14 @@ public class MessageService {
                 // Continue with message deletion even if file deletion fails, but log it.
             }
         }
-        // Attachments and reactions will be deleted due to CascadeType.ALL on Message entity
+        // Attachments and reactions will be deleted due to CascadeType.ALL on Message entity;
+        // the counters are keyed by id only
+        reactionCountRepository.deleteByMessageId(messageId);
 
         messageRepository.delete(message);
+        if (message.getDirectMessageChat() != null) {
+            dmChatRepository.retreatLastMessageId(message.getDirectMessageChat().getId(), messageId);
+        }
 
         // Determine WebSocket destination for delete notification
         Map<String, Object> deleteNotification = new HashMap<>();
@@ -297,26 +396,29 @@ public class MessageService {
             destination = "/topic/channels/" + message.getChannel().getId() + "/messages/deleted";
             targetId = message.getChannel().getId();
             deleteNotification.put("channelId", targetId);
+            messageTailCache.messageDeleted(MessageTailCache.channelKey(targetId), messageId);
+            messageSearchIndex.messageDeleted(MessageSearchIndex.serverScope(message.getChannel().getServer().getId()), messageId);
         } else if (message.getDirectMessageChat() != null) {
             destination = "/topic/dm/" + message.getDirectMessageChat().getId() + "/messages/deleted";
             targetId = message.getDirectMessageChat().getId();
             deleteNotification.put("directMessageChatId", targetId);
+            messageTailCache.messageDeleted(MessageTailCache.dmKey(targetId), messageId);
+            messageSearchIndex.messageDeleted(MessageSearchIndex.DM_SCOPE, messageId);
         } else {
             logger.error("Message {} has no valid channel or DM chat for broadcasting delete.", messageId);
             return; // Or throw error
         }
 
-        messagingTemplate.convertAndSend(destination, deleteNotification);
+        broadcastOutbox.send(destination, deleteNotification);
         logger.info("Message {} deleted by {} and notification broadcast to {}", messageId, deleterUsername, destination);
     }
 
 
     @Transactional
-    public MessageDTO addReaction(Long messageId, String reactorUsername, String emojiUnicode) {
+    public EncodedPayload<ReactionDeltaDTO> addReaction(Long messageId, String reactorUsername, String emojiUnicode) {
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new MessageNotFoundException("Message not found: " + messageId));
-        User reactor = userRepository.findByUsername(reactorUsername)
-                .orElseThrow(() -> new UserNotFoundException("Reactor user not found: " + reactorUsername));
+        Long reactorId = requireUserId(reactorUsername);
 
         // Validate emoji
         if (ReactionEmoji.fromUnicode(emojiUnicode).isEmpty()) {
@@ -327,81 +429,115 @@ public class MessageService {
         if (message.getChannel() != null) {
 
         } else if (message.getDirectMessageChat() != null) {
-            if (!dmChatRepository.isUserParticipant(message.getDirectMessageChat().getId(), reactor.getId())) {
+            if (!dmChatRepository.isUserParticipant(message.getDirectMessageChat().getId(), reactorId)) {
                 throw new ForbiddenAccessException("User cannot react to messages in this DM chat.");
             }
         }
 
 
-        Optional<MessageReaction> existingReaction = reactionRepository.findByMessageIdAndUserIdAndEmojiUnicode(messageId, reactor.getId(), emojiUnicode);
+        Optional<MessageReaction> existingReaction = reactionRepository.findByMessageIdAndUserIdAndEmojiUnicode(messageId, reactorId, emojiUnicode);
         if (existingReaction.isPresent()) {
-            // User already reacted with this emoji, perhaps do nothing or allow toggling (removing)
+            // User already reacted with this emoji; nothing changes, so nothing is broadcast
             logger.warn("User {} already reacted with {} to message {}", reactorUsername, emojiUnicode, messageId);
-            return mapMessageToDTO(message); // Or throw an exception like "AlreadyReactedException"
-        }
-
-        MessageReaction reaction = new MessageReaction();
-        reaction.setMessage(message);
-        reaction.setUser(reactor);
-        reaction.setEmojiUnicode(emojiUnicode);
-        reactionRepository.save(reaction);
-
-        // It's important to fetch the message again or ensure the 'reactions' collection in the 'message' object is updated
-        // if mapMessageToDTO relies on it being eagerly fetched or re-fetched.
-        // For simplicity, mapMessageToDTO will re-query reaction counts.
-        Message updatedMessage = messageRepository.findById(messageId).get(); // Re-fetch to get updated reaction state
-        MessageDTO messageDTO = mapMessageToDTO(updatedMessage);
-
-
-        String destination;
-         if (message.getChannel() != null) {
-            destination = "/topic/channels/" + message.getChannel().getId() + "/messages/reactions/updated";
-        } else if (message.getDirectMessageChat() != null) {
-            destination = "/topic/dm/" + message.getDirectMessageChat().getId() + "/messages/reactions/updated";
-        } else {
-            logger.error("Message {} has no valid channel or DM chat for broadcasting reaction update.", messageId);
-            return messageDTO;
+            long count = reactionCountRepository.findCount(messageId, emojiUnicode).orElse(0L);
+            return payloadEncoder.encode(new ReactionDeltaDTO(messageId, emojiUnicode, count, reactorId, true));
         }
 
-        messagingTemplate.convertAndSend(destination, messageDTO); // Send the whole updated message DTO
-        logger.info("User {} reacted with {} to message {}. Broadcast to {}", reactorUsername, emojiUnicode, messageId, destination);
-        return messageDTO;
+        reactionRepository.save(new MessageReaction(message, userRepository.getReferenceById(reactorId), emojiUnicode));
+        EncodedPayload<ReactionDeltaDTO> delta = reactionChanged(message, reactorId, emojiUnicode, true);
+        logger.info("User {} reacted with {} to message {}", reactorUsername, emojiUnicode, messageId);
+        return delta;
     }
 
     @Transactional
-    public MessageDTO removeReaction(Long messageId, String reactorUsername, String emojiUnicode) {
+    public EncodedPayload<ReactionDeltaDTO> removeReaction(Long messageId, String reactorUsername, String emojiUnicode) {
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new MessageNotFoundException("Message not found: " + messageId));
-        User reactor = userRepository.findByUsername(reactorUsername)
-                .orElseThrow(() -> new UserNotFoundException("Reactor user not found: " + reactorUsername));
+        Long reactorId = requireUserId(reactorUsername);
 
         // Validate emoji (optional here, but good for consistency)
         if (ReactionEmoji.fromUnicode(emojiUnicode).isEmpty()) {
             throw new InvalidReactionException("Invalid emoji for removal: " + emojiUnicode);
         }
 
-        Optional<MessageReaction> reactionOpt = reactionRepository.findByMessageIdAndUserIdAndEmojiUnicode(messageId, reactor.getId(), emojiUnicode);
+        Optional<MessageReaction> reactionOpt = reactionRepository.findByMessageIdAndUserIdAndEmojiUnicode(messageId, reactorId, emojiUnicode);
         if (reactionOpt.isEmpty()) {
             throw new RuntimeException("Reaction not found for user " + reactorUsername + " with emoji " + emojiUnicode + " on message " + messageId);
         }
 
         reactionRepository.delete(reactionOpt.get());
+        EncodedPayload<ReactionDeltaDTO> delta = reactionChanged(message, reactorId, emojiUnicode, false);
+        logger.info("User {} removed reaction {} from message {}", reactorUsername, emojiUnicode, messageId);
+        return delta;
+    }
 
-        Message updatedMessage = messageRepository.findById(messageId).get(); // Re-fetch
-        MessageDTO messageDTO = mapMessageToDTO(updatedMessage);
+    /**
+     * Moves the (message, emoji) counter in the same transaction as the reaction row, then
+     * broadcasts the change as a small delta once it commits.
+     */
+    private EncodedPayload<ReactionDeltaDTO> reactionChanged(Message message, Long userId, String emojiUnicode, boolean added) {
+        Long messageId = message.getId();
+        if (added) {
+            reactionCountRepository.increment(messageId, emojiUnicode);
+        } else {
+            reactionRepository.flush(); // the row delete must not be reordered after the counter
+            reactionCountRepository.decrement(messageId, emojiUnicode);
+            reactionCountRepository.deleteIfZero(messageId, emojiUnicode);
+        }
+        long count = reactionCountRepository.findCount(messageId, emojiUnicode).orElse(0L);
+        EncodedPayload<ReactionDeltaDTO> delta = payloadEncoder.encode(new ReactionDeltaDTO(messageId, emojiUnicode, count, userId, added));
 
         String destination;
-         if (message.getChannel() != null) {
+        if (message.getChannel() != null) {
+            messageTailCache.reactionCountChanged(MessageTailCache.channelKey(message.getChannel().getId()), messageId, emojiUnicode, count);
             destination = "/topic/channels/" + message.getChannel().getId() + "/messages/reactions/updated";
         } else if (message.getDirectMessageChat() != null) {
+            messageTailCache.reactionCountChanged(MessageTailCache.dmKey(message.getDirectMessageChat().getId()), messageId, emojiUnicode, count);
             destination = "/topic/dm/" + message.getDirectMessageChat().getId() + "/messages/reactions/updated";
         } else {
-             logger.error("Message {} has no valid channel or DM chat for broadcasting reaction update.", messageId);
-            return messageDTO;
+            logger.error("Message {} has no valid channel or DM chat for broadcasting reaction update.", messageId);
+            return delta;
+        }
+        broadcastOutbox.send(destination, delta, messageId + " " + emojiUnicode); // a slow client needs only the latest total
+        return delta;
+    }
+
+    /** Who reacted with an emoji, a page at a time in reaction order; only for those who can read the message. */
+    @Transactional(readOnly = true)
+    public ReactorPageDTO getReactors(Long messageId, String username, String emojiUnicode, Long after, int limit) {
+        Message message = messageRepository.findById(messageId)
+                .orElseThrow(() -> new MessageNotFoundException("Message not found: " + messageId));
+        Long userId = requireUserId(username);
+        if (message.getChannel() != null) {
+            if (!channelRepository.isMember(message.getChannel().getId(), userId)) {
+                throw new ForbiddenAccessException("User is not a member of the server of channel: " + message.getChannel().getId());
+            }
+        } else if (message.getDirectMessageChat() != null) {
+            if (!dmChatRepository.isUserParticipant(message.getDirectMessageChat().getId(), userId)) {
+                throw new ForbiddenAccessException("User is not a participant of DM chat: " + message.getDirectMessageChat().getId());
+            }
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_REACTOR_PAGE));
+        List<MessageReactionRepository.ReactorRow> rows = reactionRepository.findReactorPage(
+                messageId, emojiUnicode, after != null ? after : 0L, PageRequest.of(0, pageSize + 1));
+        boolean more = rows.size() > pageSize;
+        List<UserSimpleDTO> users = new ArrayList<>(Math.min(rows.size(), pageSize));
+        for (int i = 0; i < rows.size() && i < pageSize; i++) {
+            MessageReactionRepository.ReactorRow row = rows.get(i);
+            users.add(new UserSimpleDTO(row.getUserId(), row.getUsername(), row.getAvatarUrl(), row.getBio()));
+        }
+        long count = reactionCountRepository.findCount(messageId, emojiUnicode).orElse(0L);
+        return new ReactorPageDTO(users, count, more ? rows.get(pageSize - 1).getReactionId() : null);
+    }
+
+    // Databases from before the counters have reactions but no counts; fill them once
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillReactionCounts() {
+        if (reactionCountRepository.count() == 0 && reactionRepository.count() > 0) {
+            int rows = reactionCountRepository.backfillFromReactions();
+            logger.info("Backfilled {} reaction counters", rows);
         }
-        messagingTemplate.convertAndSend(destination, messageDTO);
-        logger.info("User {} removed reaction {} from message {}. Broadcast to {}", reactorUsername, emojiUnicode, messageId, destination);
-        return messageDTO;
     }
 
 
@@ -414,7 +550,7 @@ public class MessageService {
         // For now, assume if they request, they have basic view rights.
 
         Page<Message> messagesPage = messageRepository.findByChannelIdOrderByCreatedAtDesc(channelId, pageable);
-        return messagesPage.map(this::mapMessageToDTO);
+        return messageMapper.withViewerReactions(messageMapper.toDTOPage(messagesPage), username);
     }
     
     @Transactional(readOnly = true)
@@ -424,151 +560,180 @@ public class MessageService {
         // Add permission checks as above
         Pageable pageable = PageRequest.of(0, size, Sort.by("createdAt").descending());
         Page<Message> messagesPage = messageRepository.findByChannelIdAndCreatedAtBeforeOrderByCreatedAtDesc(channelId, beforeTimestamp, pageable);
-        return messagesPage.map(this::mapMessageToDTO).getContent();
+        return messageMapper.withViewerReactions(messageMapper.toDTOs(messagesPage.getContent()), username);
     }
 
 
     @Transactional(readOnly = true)
     public Page<MessageDTO> getMessagesForDirectMessageChat(Long dmChatId, String username, Pageable pageable) {
-        User user = userRepository.findByUsername(username)
-            .orElseThrow(() -> new UserNotFoundException("User not found: " + username));
+        Long userId = requireUserId(username);
         DirectMessageChat dmChat = dmChatRepository.findById(dmChatId)
             .orElseThrow(() -> new ChatNotFoundException("DM chat not found: " + dmChatId));
 
-        if (!dmChatRepository.isUserParticipant(dmChatId, user.getId())) {
+        if (!dmChatRepository.isUserParticipant(dmChatId, userId)) {
             throw new ForbiddenAccessException("User is not a participant of DM chat: " + dmChatId);
         }
 
         Page<Message> messagesPage = messageRepository.findByDirectMessageChatIdOrderByCreatedAtDesc(dmChatId, pageable);
-        return messagesPage.map(this::mapMessageToDTO);
+        return messageMapper.withViewerReactions(messageMapper.toDTOPage(messagesPage), username);
     }
 
     @Transactional(readOnly = true)
     public List<MessageDTO> getMessagesForDirectMessageChatBefore(Long dmChatId, String username, LocalDateTime beforeTimestamp, int size) {
-        User user = userRepository.findByUsername(username)
-            .orElseThrow(() -> new UserNotFoundException("User not found: " + username));
+        Long userId = requireUserId(username);
         DirectMessageChat dmChat = dmChatRepository.findById(dmChatId)
             .orElseThrow(() -> new ChatNotFoundException("DM chat not found: " + dmChatId));
-        if (!dmChatRepository.isUserParticipant(dmChatId, user.getId())) {
+        if (!dmChatRepository.isUserParticipant(dmChatId, userId)) {
             throw new ForbiddenAccessException("User is not a participant of DM chat: " + dmChatId);
         }
         Pageable pageable = PageRequest.of(0, size, Sort.by("createdAt").descending());
         Page<Message> messagesPage = messageRepository.findByDirectMessageChatIdAndCreatedAtBeforeOrderByCreatedAtDesc(dmChatId, beforeTimestamp, pageable);
-        return messagesPage.map(this::mapMessageToDTO).getContent();
+        return messageMapper.withViewerReactions(messageMapper.toDTOs(messagesPage.getContent()), username);
     }
 
 
-    public MessageDTO mapMessageToDTO(Message message) {
-        if (message == null) return null;
-        MessageDTO dto = new MessageDTO();
-        dto.setId(message.getId());
-        UserSimpleDTO senderDto = new UserSimpleDTO();
-        senderDto.setId(message.getSender().getId());
-        senderDto.setUsername(message.getSender().getUsername());
-        senderDto.setAvatarUrl(message.getSender().getAvatarUrl());
-        dto.setSender(senderDto);
-        dto.setContent(message.getContent());
-        dto.setMessageType(message.getMessageType());
-        dto.setCreatedAt(message.getCreatedAt());
-        dto.setUpdatedAt(message.getUpdatedAt());
-        dto.setEdited(message.isEdited());
-        if (message.getChannel() != null) {
-            dto.setChannelId(message.getChannel().getId());
+    /**
+     * Keyset-paginated channel history. At most one of before/after (opaque cursors) or
+     * around (a message id to jump to) may be given; with none, the newest messages are returned.
+     */
+    @Transactional(readOnly = true)
+    public MessageSliceDTO getChannelHistory(Long channelId, String username, String before, String after, Long around, int size) {
+        Long userId = requireUserId(username);
+        if (!channelRepository.existsById(channelId)) {
+            throw new ChannelNotFoundException("Channel not found: " + channelId);
         }
-        if (message.getDirectMessageChat() != null) {
-            dto.setDirectMessageChatId(message.getDirectMessageChat().getId());
-        }
-        if (message.getParentMessage() != null) {
-            dto.setParentMessageId(message.getParentMessage().getId());
-            dto.setParentMessageId(message.getParentMessage().getSender().getId());
-            
-            ParentMessageInfoDTO parentMessageInfo = new ParentMessageInfoDTO();
-            parentMessageInfo.setId(message.getParentMessage().getId());
-            parentMessageInfo.setSenderUsername(message.getParentMessage().getSender().getUsername());
-            String parentContent = message.getParentMessage().getContent();
-            String snippet = parentContent.length() > 50 ? parentContent.substring(0,47) + "..." : parentContent;
-            parentMessageInfo.setContentSnippet(snippet);
-            dto.setRepliedTo(parentMessageInfo);  
-        }
-
-        List<AttachmentDTO> attachmentDTOs = message.getAttachments().stream()
-                .map(att -> {
-                    AttachmentDTO dtoAtt = new AttachmentDTO();
-                    dtoAtt.setId(att.getId());
-                    dtoAtt.setFileName(att.getFileName());
-                    dtoAtt.setFileUrl(att.getFileUrl());
-                    dtoAtt.setMimeType(att.getMimeType());
-                    dtoAtt.setFileSize(att.getFileSize());
-                    dtoAtt.setAttachmentType(att.getAttachmentType());
-                    dtoAtt.setUploadedAt(att.getUploadedAt());
-                    return dtoAtt;
-                })
-                .collect(Collectors.toList());
-        dto.setAttachments(attachmentDTOs);
-
-        // Populate reaction counts and detailed reactions
-        Map<String, Integer> reactionCounts = new HashMap<>();
-        Map<String, Set<UserSimpleDTO>> reactionsByEmoji = new HashMap<>();
-
-        // Efficiently get all reactions for this message once
-        List<MessageReaction> allReactionsForMessage = reactionRepository.findAllByMessageId(message.getId());
-
-        for (MessageReaction reaction : allReactionsForMessage) {
-            String emoji = reaction.getEmojiUnicode();
-            reactionCounts.put(emoji, reactionCounts.getOrDefault(emoji, 0) + 1);
-            reactionsByEmoji.computeIfAbsent(emoji, k -> new HashSet<>())
-                            .add(createUserSimpleDTO(reaction.getUser()));
-        }
-        dto.setReactionCounts(reactionCounts);
-        dto.setReactionsByEmoji(reactionsByEmoji);
-
-        return dto;
+        if (!channelRepository.isMember(channelId, userId)) {
+            throw new ForbiddenAccessException("User is not a member of the server of channel: " + channelId);
+        }
+        MessageSliceDTO slice = loadHistorySlice(MessageTailCache.channelKey(channelId), before, after, around, size,
+                pageable -> messageRepository.findByChannelIdOrderByIdDesc(channelId, pageable),
+                (id, pageable) -> messageRepository.findByChannelIdAndIdLessThanOrderByIdDesc(channelId, id, pageable),
+                (id, pageable) -> messageRepository.findByChannelIdAndIdGreaterThanOrderByIdAsc(channelId, id, pageable));
+        slice.setMessages(messageMapper.withViewerReactions(slice.getMessages(), username));
+        return slice;
     }
 
-    private UserSimpleDTO createUserSimpleDTO(User user) {
-        return MapperUtil.toSimple(user);
+    /**
+     * Keyset-paginated DM history, see {@link #getChannelHistory}.
+     */
+    @Transactional(readOnly = true)
+    public MessageSliceDTO getDirectMessageChatHistory(Long dmChatId, String username, String before, String after, Long around, int size) {
+        Long userId = requireUserId(username);
+        if (!dmChatRepository.existsById(dmChatId)) {
+            throw new ChatNotFoundException("DM chat not found: " + dmChatId);
+        }
+        if (!dmChatRepository.isUserParticipant(dmChatId, userId)) {
+            throw new ForbiddenAccessException("User is not a participant of DM chat: " + dmChatId);
+        }
+        MessageSliceDTO slice = loadHistorySlice(MessageTailCache.dmKey(dmChatId), before, after, around, size,
+                pageable -> messageRepository.findByDirectMessageChatIdOrderByIdDesc(dmChatId, pageable),
+                (id, pageable) -> messageRepository.findByDirectMessageChatIdAndIdLessThanOrderByIdDesc(dmChatId, id, pageable),
+                (id, pageable) -> messageRepository.findByDirectMessageChatIdAndIdGreaterThanOrderByIdAsc(dmChatId, id, pageable));
+        slice.setMessages(messageMapper.withViewerReactions(slice.getMessages(), username));
+        return slice;
     }
 
-    public void broadcastTypingIndicator(TypingIndicatorDTO typingIndicatorDTO, String username) {
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UserNotFoundException("User not found: " + username));
-
-        typingIndicatorDTO.setUserId(user.getId());
-        typingIndicatorDTO.setUsername(user.getUsername());
+    private MessageSliceDTO loadHistorySlice(String tailKey, String before, String after, Long around, int size,
+                                             Function<Pageable, Slice<Message>> newest,
+                                             BiFunction<Long, Pageable, Slice<Message>> olderThan,
+                                             BiFunction<Long, Pageable, Slice<Message>> newerThan) {
+        Long beforeId = MessageCursor.decode(before);
+        Long afterId = MessageCursor.decode(after);
+        if ((beforeId != null ? 1 : 0) + (afterId != null ? 1 : 0) + (around != null ? 1 : 0) > 1) {
+            throw new InvalidCursorException("Only one of before, after or around may be given.");
+        }
+        int limit = Math.max(1, Math.min(size, MAX_HISTORY_SLICE));
+
+        // "Latest N" and scrolling back through recent history are served from the tail cache
+        if (around == null && afterId == null) {
+            Optional<MessageTailCache.Window> cached = messageTailCache.read(tailKey, beforeId, limit);
+            if (cached.isPresent()) {
+                List<MessageDTO> dtos = cached.get().messages();
+                Long oldestId = dtos.isEmpty() ? null : dtos.get(dtos.size() - 1).getId();
+                Long newestId = dtos.isEmpty() ? beforeId : dtos.get(0).getId();
+                return new MessageSliceDTO(dtos,
+                        cached.get().hasOlder() ? MessageCursor.encode(oldestId) : null,
+                        newestId != null ? MessageCursor.encode(newestId) : null);
+            }
+        }
 
-        String destination;
-        if (typingIndicatorDTO.getChannelId() != null) {
-            // Optional: Check if user is member of channel
-            destination = "/topic/channels/" + typingIndicatorDTO.getChannelId() + "/typing";
-        } else if (typingIndicatorDTO.getDirectMessageChatId() != null) {
-            // Optional: Check if user is participant of DM
-            destination = "/topic/dm/" + typingIndicatorDTO.getDirectMessageChatId() + "/typing";
+        List<Message> newestFirst = new ArrayList<>();
+        boolean hasOlder;
+        boolean hasNewer;
+        if (around != null) {
+            // Anchor plus older messages, then the newer half
+            int newerCount = limit / 2;
+            Slice<Message> older = olderThan.apply(around + 1, PageRequest.of(0, limit - newerCount));
+            hasOlder = older.hasNext();
+            hasNewer = true;
+            if (newerCount > 0) {
+                Slice<Message> newer = newerThan.apply(around, PageRequest.of(0, newerCount));
+                List<Message> newerMessages = new ArrayList<>(newer.getContent());
+                Collections.reverse(newerMessages);
+                newestFirst.addAll(newerMessages);
+                hasNewer = newer.hasNext();
+            }
+            newestFirst.addAll(older.getContent());
+        } else if (afterId != null) {
+            Slice<Message> newer = newerThan.apply(afterId, PageRequest.of(0, limit));
+            newestFirst.addAll(newer.getContent());
+            Collections.reverse(newestFirst);
+            hasOlder = true;
+            hasNewer = newer.hasNext();
+        } else if (beforeId != null) {
+            Slice<Message> older = olderThan.apply(beforeId, PageRequest.of(0, limit));
+            newestFirst.addAll(older.getContent());
+            hasOlder = older.hasNext();
+            hasNewer = true;
         } else {
-            logger.warn("Typing indicator from {} has no target channel or DM.", username);
-            return;
+            // Read a full tail's worth so the next reads of this target are cache hits
+            long generation = messageTailCache.generation(tailKey);
+            Slice<Message> latest = newest.apply(PageRequest.of(0, Math.max(limit, messageTailCache.getCapacity())));
+            List<MessageDTO> tail = messageMapper.toDTOs(latest.getContent());
+            messageTailCache.prime(tailKey, generation, tail, !latest.hasNext());
+
+            List<MessageDTO> dtos = new ArrayList<>(tail.subList(0, Math.min(limit, tail.size())));
+            hasOlder = tail.size() > limit || latest.hasNext();
+            Long oldestId = dtos.isEmpty() ? null : dtos.get(dtos.size() - 1).getId();
+            Long newestId = dtos.isEmpty() ? null : dtos.get(0).getId();
+            return new MessageSliceDTO(dtos, hasOlder ? MessageCursor.encode(oldestId) : null,
+                    newestId != null ? MessageCursor.encode(newestId) : null);
         }
-        logger.debug("Broadcasting typing indicator for user {} to {}: {}", username, destination, typingIndicatorDTO.isTyping());
-        messagingTemplate.convertAndSend(destination, typingIndicatorDTO);
+
+        Long newestId = newestFirst.isEmpty() ? afterId : newestFirst.get(0).getId();
+        Long oldestId = newestFirst.isEmpty() ? null : newestFirst.get(newestFirst.size() - 1).getId();
+        return new MessageSliceDTO(messageMapper.toDTOs(newestFirst),
+                hasOlder ? MessageCursor.encode(oldestId) : null,
+                hasNewer || !newestFirst.isEmpty() ? MessageCursor.encode(newestId) : null);
     }
 
-    @Transactional
-    public MessageDTO toggleReaction(Long msgId, Long userId, String emoji){
-        Message msg = messageRepository.findById(msgId).orElseThrow();
-        MessageReaction r  = reactionRepository.findByMessageIdAndUserIdAndEmojiUnicode(msgId,userId,emoji)
-                       .orElseGet(() -> new MessageReaction(msg,userRepository.getReferenceById(userId),emoji));
+    // Id-only lookup: loading the User entity would also load all of its roles
+    private Long requireUserId(String username) {
+        Long userId = userRepository.findIdByUsername(username);
+        if (userId == null) {
+            throw new UserNotFoundException("User not found: " + username);
+        }
+        return userId;
+    }
 
-        if(r.getId()==null) reactionRepository.save(r);           // add
-        else                reactionRepository.delete(r);         // remove
+    public MessageDTO mapMessageToDTO(Message message) {
+        return messageMapper.toDTO(message);
+    }
+
+    public List<MessageDTO> mapMessagesToDTOs(List<Message> messages) {
+        return messageMapper.toDTOs(messages);
+    }
 
-        MessageDTO dto = mapMessageToDTO(msg);
+    @Transactional
+    public EncodedPayload<ReactionDeltaDTO> toggleReaction(Long msgId, Long userId, String emoji){
+        Message msg = messageRepository.findById(msgId).orElseThrow();
+        Optional<MessageReaction> existing = reactionRepository.findByMessageIdAndUserIdAndEmojiUnicode(msgId,userId,emoji);
 
-        /* 📢  broadcast to topic so every client refreshes the pills */
-        String topic = msg.getDirectMessageChat() != null
-                       ? "/topic/dm/"+msg.getDirectMessageChat().getId()+"/messages/reactions/updated"
-                       : "/topic/channels/"+msg.getChannel().getId()+"/messages/reactions/updated";
+        if(existing.isEmpty()) reactionRepository.save(new MessageReaction(msg,userRepository.getReferenceById(userId),emoji)); // add
+        else                   reactionRepository.delete(existing.get());                                                 // remove
 
-        messagingTemplate.convertAndSend(topic, dto);                 // SimpMessagingTemplate
-        return dto;
+        /* 📢  broadcast the delta so every client updates the pill */
+        return reactionChanged(msg, userId, emoji, existing.isEmpty());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,339 @@
+package com.azcord.services;
+
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.dto.MessageDTO;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent already-built MessageDTOs of each channel / DM chat in memory,
+ * so that opening a busy conversation does not re-query and re-map the same rows.
+ *
+ * A tail is only created from a database read (see {@link #prime}); after that,
+ * sends, edits, deletes and reactions are applied to it once their transaction commits.
+ * Peers cannot apply another node's writes, so they drop their tail of that target instead.
+ * Only the most recently read targets are kept, up to {@code max-targets}.
+ */
+@Service
+public class MessageTailCache {
+    private static final Logger logger = LoggerFactory.getLogger(MessageTailCache.class);
+    private static final int GENERATION_STRIPES = 256;
+    private static final String CLUSTER_CACHE = "message-tails";
+    private static final String ALL_TARGETS = "*";
+
+    private final int capacity;
+    private final int maxTargets;
+    private final ClusterInvalidations clusterInvalidations;
+
+    // Access-ordered so the eldest entry is the coldest target; guarded by itself
+    private final LinkedHashMap<String, Tail> tails;
+
+    // Bumped on every committed mutation, so a prime that raced a write is dropped
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public MessageTailCache(@Value("${azcord.history-cache.capacity:100}") int capacity,
+                            @Value("${azcord.history-cache.max-targets:2000}") int maxTargets,
+                            MeterRegistry meterRegistry, ClusterInvalidations clusterInvalidations) {
+        this.capacity = capacity;
+        this.maxTargets = maxTargets;
+        this.clusterInvalidations = clusterInvalidations;
+        this.tails = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tail> eldest) {
+                if (size() > MessageTailCache.this.maxTargets) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        FunctionCounter.builder("azcord.history.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("azcord.history.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("azcord.history.cache.evictions", evictions, AtomicLong::get)
+                .register(meterRegistry);
+        Gauge.builder("azcord.history.cache.targets", this, MessageTailCache::size)
+                .register(meterRegistry);
+        clusterInvalidations.register(CLUSTER_CACHE, this::drop, this::dropAll);
+    }
+
+    public static String channelKey(Long channelId) {
+        return "channel:" + channelId;
+    }
+
+    public static String dmKey(Long dmChatId) {
+        return "dm:" + dmChatId;
+    }
+
+    private static String keyOf(MessageDTO dto) {
+        if (dto.getChannelId() != null) return channelKey(dto.getChannelId());
+        if (dto.getDirectMessageChatId() != null) return dmKey(dto.getDirectMessageChatId());
+        return null;
+    }
+
+    /** A newest-first window served from the cache. */
+    public record Window(List<MessageDTO> messages, boolean hasOlder) {}
+
+    /**
+     * Returns up to {@code limit} messages older than {@code beforeId} (or the newest ones
+     * when null), if the cached tail can answer that exactly.
+     */
+    public Optional<Window> read(String key, Long beforeId, int limit) {
+        Tail tail;
+        synchronized (tails) {
+            tail = tails.get(key);
+        }
+        Optional<Window> window = tail == null ? Optional.empty() : tail.window(beforeId, limit);
+        (window.isPresent() ? hits : misses).incrementAndGet();
+        return window;
+    }
+
+    /** Token to pass to {@link #prime}, taken before the database read that feeds it. */
+    public long generation(String key) {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * Installs a tail read from the database. {@code complete} means the list holds the
+     * whole history of the target. Dropped if a write for the target committed meanwhile.
+     */
+    public void prime(String key, long generation, List<MessageDTO> newestFirst, boolean complete) {
+        Tail tail = new Tail(newestFirst, complete);
+        synchronized (tails) {
+            if (generations.get(stripe(key)) != generation) {
+                logger.debug("Skipping tail prime for {}: concurrent write", key);
+                return;
+            }
+            tails.put(key, tail);
+        }
+    }
+
+    public void messageCreated(MessageDTO dto) {
+        String key = keyOf(dto);
+        if (key == null) return;
+        afterCommit(key, tail -> tail.insert(dto));
+    }
+
+    public void messageEdited(MessageDTO dto) {
+        String key = keyOf(dto);
+        if (key == null) return;
+        afterCommit(key, tail -> tail.replace(dto, true));
+    }
+
+    public void reactionCountChanged(String key, Long messageId, String emoji, long count) {
+        afterCommit(key, tail -> tail.setReactionCount(messageId, emoji, count));
+    }
+
+    public void messageDeleted(String key, Long messageId) {
+        afterCommit(key, tail -> tail.remove(messageId));
+    }
+
+    /**
+     * Drops everything once the transaction commits, e.g. when a user's name or avatar changes
+     * and cached senders go stale; dropping earlier would let a read re-prime the old rows.
+     */
+    public void invalidateAll() {
+        afterCommit(() -> {
+            dropAll();
+            clusterInvalidations.publish(CLUSTER_CACHE, ALL_TARGETS);
+        });
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (tails) {
+            return tails.size();
+        }
+    }
+
+    private interface TailUpdate {
+        /** @return false if the tail can no longer be kept consistent and must be dropped */
+        boolean apply(Tail tail);
+    }
+
+    private void afterCommit(String key, TailUpdate update) {
+        afterCommit(() -> {
+            applyUpdate(key, update);
+            clusterInvalidations.publish(CLUSTER_CACHE, key);
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void applyUpdate(String key, TailUpdate update) {
+        Tail tail;
+        synchronized (tails) {
+            generations.incrementAndGet(stripe(key));
+            tail = tails.get(key);
+        }
+        if (tail != null && !update.apply(tail)) {
+            synchronized (tails) {
+                tails.remove(key, tail);
+            }
+        }
+    }
+
+    private void drop(String key) {
+        if (ALL_TARGETS.equals(key)) {
+            dropAll();
+            return;
+        }
+        synchronized (tails) {
+            generations.incrementAndGet(stripe(key));
+            tails.remove(key);
+        }
+    }
+
+    private void dropAll() {
+        synchronized (tails) {
+            for (int i = 0; i < GENERATION_STRIPES; i++) {
+                generations.incrementAndGet(i);
+            }
+            tails.clear();
+        }
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    private final class Tail {
+        private final ArrayDeque<MessageDTO> messages; // newest first, ordered by id
+        private boolean complete;
+
+        Tail(List<MessageDTO> newestFirst, boolean complete) {
+            this.messages = new ArrayDeque<>(capacity);
+            for (MessageDTO dto : newestFirst) {
+                if (messages.size() == capacity) break;
+                messages.addLast(dto);
+            }
+            this.complete = complete && newestFirst.size() <= capacity;
+        }
+
+        synchronized Optional<Window> window(Long beforeId, int limit) {
+            List<MessageDTO> result = new ArrayList<>(limit);
+            boolean more = false;
+            for (MessageDTO dto : messages) {
+                if (beforeId != null && dto.getId() >= beforeId) continue;
+                if (result.size() == limit) {
+                    more = true;
+                    break;
+                }
+                result.add(dto);
+            }
+            if (result.size() == limit) {
+                return Optional.of(new Window(result, more || !complete));
+            }
+            // Fewer than asked for: only an answer if nothing older exists at all
+            return complete ? Optional.of(new Window(result, false)) : Optional.empty();
+        }
+
+        synchronized boolean insert(MessageDTO dto) {
+            MessageDTO head = messages.peekFirst();
+            if (head == null || head.getId() < dto.getId()) {
+                messages.addFirst(dto);
+            } else {
+                // Commits can land out of id order; rebuild to keep the deque sorted
+                List<MessageDTO> sorted = new ArrayList<>(messages);
+                int i = 0;
+                while (i < sorted.size() && sorted.get(i).getId() > dto.getId()) i++;
+                if (i < sorted.size() && sorted.get(i).getId().equals(dto.getId())) {
+                    sorted.set(i, dto);
+                } else if (i == sorted.size() && !complete) {
+                    return true; // older than anything we hold, not part of the tail
+                } else {
+                    sorted.add(i, dto);
+                }
+                messages.clear();
+                messages.addAll(sorted);
+            }
+            if (messages.size() > capacity) {
+                messages.removeLast();
+                complete = false;
+            }
+            return true;
+        }
+
+        synchronized boolean replace(MessageDTO dto, boolean contentChanged) {
+            boolean isReplyTarget = false;
+            List<MessageDTO> updated = new ArrayList<>(messages.size());
+            for (MessageDTO cached : messages) {
+                updated.add(cached.getId().equals(dto.getId()) ? dto : cached);
+                isReplyTarget |= dto.getId().equals(cached.getParentMessageId());
+            }
+            if (contentChanged && isReplyTarget) return false; // cached reply previews would show stale content
+            messages.clear();
+            messages.addAll(updated);
+            return true;
+        }
+
+        // Cached DTOs may be in flight to a reader, so the changed one is copied, not mutated
+        synchronized boolean setReactionCount(Long messageId, String emoji, long count) {
+            List<MessageDTO> updated = new ArrayList<>(messages.size());
+            for (MessageDTO cached : messages) {
+                if (cached.getId().equals(messageId)) {
+                    MessageDTO copy = new MessageDTO(cached);
+                    Map<String, Integer> counts = new HashMap<>(cached.getReactionCounts() != null ? cached.getReactionCounts() : Map.of());
+                    if (count > 0) {
+                        counts.put(emoji, (int) count);
+                    } else {
+                        counts.remove(emoji);
+                    }
+                    copy.setReactionCounts(counts);
+                    cached = copy;
+                }
+                updated.add(cached);
+            }
+            messages.clear();
+            messages.addAll(updated);
+            return true;
+        }
+
+        synchronized boolean remove(Long messageId) {
+            for (Iterator<MessageDTO> it = messages.iterator(); it.hasNext(); ) {
+                MessageDTO cached = it.next();
+                if (messageId.equals(cached.getParentMessageId())) return false;
+                if (cached.getId().equals(messageId)) it.remove();
+            }
+            return true;
+        }
+    }
+}
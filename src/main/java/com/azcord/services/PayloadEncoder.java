@@ -0,0 +1,24 @@
+package com.azcord.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+/** Encodes broadcast DTOs with the same ObjectMapper the REST and STOMP converters use. */
+@Component
+public class PayloadEncoder {
+
+    private final ObjectMapper objectMapper;
+
+    public PayloadEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public <T> EncodedPayload<T> encode(T value) {
+        try {
+            return new EncodedPayload<>(value, objectMapper.writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode " + value.getClass().getSimpleName(), e);
+        }
+    }
+}
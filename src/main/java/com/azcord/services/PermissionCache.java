@@ -0,0 +1,117 @@
+package com.azcord.services;
+
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.models.Permission;
+import com.azcord.repositories.RoleRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Effective permissions of each (server, user) pair, folded into a bitmask of
+ * {@link Permission} ordinals. Computed once from the user's roles and kept until
+ * a role or membership change on that server evicts it, on this node and, once the
+ * change commits, on every peer.
+ */
+@Service
+public class PermissionCache {
+
+    private static final long ADMINISTRATOR_BIT = bit(Permission.ADMINISTRATOR);
+    private static final String CLUSTER_CACHE = "permissions";
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private ClusterInvalidations clusterInvalidations;
+
+    // serverId -> username -> mask
+    private final Map<Long, Map<String, Long>> masks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void joinCluster() {
+        clusterInvalidations.register(CLUSTER_CACHE, this::evictFromPeer, masks::clear);
+    }
+
+    public static long bit(Permission permission) {
+        return 1L << permission.ordinal();
+    }
+
+    public static long maskOf(Collection<Permission> permissions) {
+        long mask = 0L;
+        for (Permission permission : permissions) {
+            mask |= bit(permission);
+        }
+        return mask;
+    }
+
+    /** ADMINISTRATOR implies every other permission. */
+    public boolean has(Long serverId, String username, Permission permission) {
+        if (serverId == null || username == null) return false;
+        long mask = maskFor(serverId, username);
+        return (mask & (bit(permission) | ADMINISTRATOR_BIT)) != 0;
+    }
+
+    public long maskFor(Long serverId, String username) {
+        return masks.computeIfAbsent(serverId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(username, name -> maskOf(roleRepository.findPermissionsOfUserOnServer(name, serverId)));
+    }
+
+    /** A single user's roles or membership on a server changed. */
+    public void evict(Long serverId, String username) {
+        evictNowAndAfterCommit(() -> evictMember(serverId, username), "member:" + serverId + ":" + username);
+    }
+
+    /** A role of the server changed, which may affect any of its members. */
+    public void evictServer(Long serverId) {
+        evictNowAndAfterCommit(() -> masks.remove(serverId), "server:" + serverId);
+    }
+
+    /** The user was renamed or had roles replaced across servers. */
+    public void evictUser(String username) {
+        evictNowAndAfterCommit(() -> evictUsername(username), "user:" + username);
+    }
+
+    private void evictMember(Long serverId, String username) {
+        Map<String, Long> users = masks.get(serverId);
+        if (users != null) users.remove(username);
+    }
+
+    private void evictUsername(String username) {
+        masks.values().forEach(users -> users.remove(username));
+    }
+
+    // Keys are kind:serverId[:username] or user:username; usernames may contain ':'
+    private void evictFromPeer(String key) {
+        String[] parts = key.split(":", key.startsWith("member:") ? 3 : 2);
+        switch (parts[0]) {
+            case "member" -> evictMember(Long.parseLong(parts[1]), parts[2]);
+            case "server" -> masks.remove(Long.parseLong(parts[1]));
+            case "user" -> evictUsername(parts[1]);
+            default -> throw new IllegalArgumentException("Unknown permission eviction " + key);
+        }
+    }
+
+    // Evicting again after commit stops a concurrent check from caching pre-commit roles;
+    // peers only hear about it then, since they could not see the change any earlier
+    private void evictNowAndAfterCommit(Runnable eviction, String clusterKey) {
+        eviction.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    eviction.run();
+                    clusterInvalidations.publish(CLUSTER_CACHE, clusterKey);
+                }
+            });
+        } else {
+            clusterInvalidations.publish(CLUSTER_CACHE, clusterKey);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.azcord.services;
+
+import com.azcord.dto.ReadAckDTO;
+import com.azcord.dto.ReadStateDTO;
+import com.azcord.dto.UserSimpleDTO;
+import com.azcord.exceptions.ChannelNotFoundException;
+import com.azcord.exceptions.ChatNotFoundException;
+import com.azcord.exceptions.ForbiddenAccessException;
+import com.azcord.exceptions.InvalidMessageTargetException;
+import com.azcord.exceptions.UserNotFoundException;
+import com.azcord.models.ConversationCounter;
+import com.azcord.models.Message;
+import com.azcord.models.ReadState;
+import com.azcord.models.ReadStateKey;
+import com.azcord.models.ReadTargetType;
+import com.azcord.repositories.ChannelRepository;
+import com.azcord.repositories.ConversationCounterRepository;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.MessageRepository;
+import com.azcord.repositories.ReadStateRepository;
+import com.azcord.repositories.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-user read state for channels and DM chats.
+ *
+ * Sending a message bumps one counter row for its conversation, plus one row per
+ * @mentioned user; unread counts are derived as (messages sent) - (messages seen at the
+ * last ack), so neither side writes a row per reader. Acks are coalesced per user and
+ * conversation and written in one batch every flush interval, so scrolling through
+ * twenty channels costs one write rather than twenty.
+ */
+@Service
+public class ReadStateService {
+    private static final Logger logger = LoggerFactory.getLogger(ReadStateService.class);
+
+    public static final String READ_STATE_QUEUE = "/queue/read-states";
+    private static final Pattern MENTION = Pattern.compile("@([\\w.\\-]{1,64})");
+    private static final int MAX_MENTIONS_PER_MESSAGE = 20;
+
+    // Field order matters for MySQL, which sees already-assigned values in later
+    // assignments: mentions and read_count compare against the old last_read_message_id
+    private static final String ACK_SQL =
+            "INSERT INTO read_states (user_id, target_type, target_id, last_read_message_id, read_count, mention_count, updated_at) " +
+            "VALUES (?, ?, ?, ?, ?, 0, ?) ON DUPLICATE KEY UPDATE " +
+            "mention_count = CASE WHEN ? >= COALESCE(last_mention_message_id, 0) THEN 0 ELSE mention_count END, " +
+            "read_count = CASE WHEN ? > COALESCE(last_read_message_id, 0) THEN ? ELSE read_count END, " +
+            "last_read_message_id = GREATEST(COALESCE(last_read_message_id, 0), ?), " +
+            "updated_at = ?";
+
+    private final ConversationCounterRepository counterRepository;
+    private final ReadStateRepository readStateRepository;
+    private final MessageRepository messageRepository;
+    private final ChannelRepository channelRepository;
+    private final DirectMessageChatRepository dmChatRepository;
+    private final UserRepository userRepository;
+    private final BroadcastOutbox broadcastOutbox;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final WriteBehindBuffer<ReadStateKey, Long> acks;
+
+    public ReadStateService(ConversationCounterRepository counterRepository, ReadStateRepository readStateRepository,
+                            MessageRepository messageRepository, ChannelRepository channelRepository,
+                            DirectMessageChatRepository dmChatRepository, UserRepository userRepository,
+                            BroadcastOutbox broadcastOutbox, JdbcTemplate jdbcTemplate,
+                            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                            @Value("${azcord.read-states.ack-flush-ms:1000}") long ackFlushMillis) {
+        this.counterRepository = counterRepository;
+        this.readStateRepository = readStateRepository;
+        this.messageRepository = messageRepository;
+        this.channelRepository = channelRepository;
+        this.dmChatRepository = dmChatRepository;
+        this.userRepository = userRepository;
+        this.broadcastOutbox = broadcastOutbox;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.acks = new WriteBehindBuffer<>("read-acks", Math::max, this::writeAcks, ackFlushMillis, meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        acks.close();
+    }
+
+    // ---- send side
+
+    /**
+     * Counts a new message and its mentions; runs inside the sender's transaction. The
+     * sender's own ack is queued once that commits.
+     */
+    public void messageSent(Message message, Long senderId, String senderUsername) {
+        ReadTargetType type = message.getChannel() != null ? ReadTargetType.CHANNEL : ReadTargetType.DIRECT_MESSAGE;
+        Long targetId = type == ReadTargetType.CHANNEL ? message.getChannel().getId() : message.getDirectMessageChat().getId();
+        counterRepository.increment(type.name(), targetId, message.getId());
+
+        Set<String> mentioned = mentionedUsernames(message.getContent());
+        mentioned.remove(senderUsername);
+        if (!mentioned.isEmpty()) {
+            List<Long> userIds = type == ReadTargetType.CHANNEL
+                    ? channelRepository.findMemberIdsByUsernames(targetId, mentioned)
+                    : dmChatRepository.findParticipantIdsByUsernames(targetId, mentioned);
+            for (Long userId : userIds) {
+                readStateRepository.addMention(userId, type.name(), targetId, message.getId());
+            }
+        }
+
+        ReadStateKey own = new ReadStateKey(senderId, type, targetId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Acking before the counter commits would leave the sender one message behind
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    acks.record(own, message.getId());
+                }
+            });
+        } else {
+            acks.record(own, message.getId());
+        }
+    }
+
+    private static Set<String> mentionedUsernames(String content) {
+        Set<String> usernames = new LinkedHashSet<>();
+        if (content == null || content.indexOf('@') < 0) return usernames;
+        Matcher matcher = MENTION.matcher(content);
+        while (matcher.find() && usernames.size() < MAX_MENTIONS_PER_MESSAGE) {
+            usernames.add(matcher.group(1));
+        }
+        return usernames;
+    }
+
+    // ---- acks
+
+    /**
+     * Queues an ack after checking access; it is written with the next batch. The message id
+     * is clamped to the conversation's newest message when read and written, so an id from
+     * the future cannot mark messages that arrive later as read.
+     */
+    public void ack(ReadAckDTO ackDTO, String username) {
+        if ((ackDTO.getChannelId() == null) == (ackDTO.getDirectMessageChatId() == null)) {
+            throw new InvalidMessageTargetException("An ack needs either a channelId or a directMessageChatId, but not both.");
+        }
+        if (ackDTO.getMessageId() == null) {
+            throw new IllegalArgumentException("An ack needs a messageId.");
+        }
+        Long userId = requireUserId(username);
+        ReadStateKey key;
+        if (ackDTO.getChannelId() != null) {
+            Long channelId = ackDTO.getChannelId();
+            if (!channelRepository.existsById(channelId)) {
+                throw new ChannelNotFoundException("Channel not found: " + channelId);
+            }
+            if (!channelRepository.isMember(channelId, userId)) {
+                throw new ForbiddenAccessException("User is not a member of the server of channel: " + channelId);
+            }
+            key = new ReadStateKey(userId, ReadTargetType.CHANNEL, channelId);
+        } else {
+            Long chatId = ackDTO.getDirectMessageChatId();
+            if (!dmChatRepository.existsById(chatId)) {
+                throw new ChatNotFoundException("DM chat not found: " + chatId);
+            }
+            if (!dmChatRepository.isUserParticipant(chatId, userId)) {
+                throw new ForbiddenAccessException("User is not a participant of DM chat: " + chatId);
+            }
+            key = new ReadStateKey(userId, ReadTargetType.DIRECT_MESSAGE, chatId);
+        }
+        acks.record(key, ackDTO.getMessageId());
+    }
+
+    /** Writes queued acks now instead of at the next tick. */
+    public void flushAcks() {
+        acks.flush();
+    }
+
+    public int pendingAckCount() {
+        return acks.size();
+    }
+
+    // One transaction and one JDBC batch for everything acked since the last flush
+    private void writeAcks(Map<ReadStateKey, Long> batch) {
+        Map<ReadTargetType, Set<Long>> targets = new HashMap<>();
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> targetIds = new HashSet<>();
+        for (ReadStateKey key : batch.keySet()) {
+            targets.computeIfAbsent(key.getTargetType(), t -> new HashSet<>()).add(key.getTargetId());
+            userIds.add(key.getUserId());
+            targetIds.add(key.getTargetId());
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<ReadTargetType, Map<Long, ConversationCounter>> counters = loadCounters(targets);
+            Map<ReadStateKey, ReadState> existing = new HashMap<>();
+            for (ReadState state : readStateRepository.findCandidates(userIds, targetIds)) {
+                existing.put(new ReadStateKey(state.getUserId(), state.getTargetType(), state.getTargetId()), state);
+            }
+            Map<Long, String> usernames = new HashMap<>();
+            for (UserSimpleDTO user : userRepository.findSimpleByIdIn(userIds)) {
+                usernames.put(user.getId(), user.getUsername());
+            }
+
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            List<Object[]> rows = new ArrayList<>(batch.size());
+            for (Map.Entry<ReadStateKey, Long> entry : batch.entrySet()) {
+                ReadStateKey key = entry.getKey();
+                ConversationCounter counter = counters.getOrDefault(key.getTargetType(), Map.of()).get(key.getTargetId());
+                Long messageId = clamp(entry.getValue(), counter);
+                if (messageId == null) continue; // nothing has been sent there yet
+                long readCount = readCountAt(key.getTargetType(), key.getTargetId(), counter, messageId);
+                rows.add(new Object[]{key.getUserId(), key.getTargetType().name(), key.getTargetId(), messageId, readCount, now,
+                        messageId, messageId, readCount, messageId, now});
+
+                String username = usernames.get(key.getUserId());
+                if (username != null) {
+                    // Published inside the transaction, so the outbox only sends it once this commits
+                    broadcastOutbox.sendToUser(username, READ_STATE_QUEUE,
+                            view(key.getTargetType(), key.getTargetId(), counter, existing.get(key), messageId, readCount));
+                }
+            }
+            jdbcTemplate.batchUpdate(ACK_SQL, rows);
+        });
+        logger.debug("Wrote {} read acks", batch.size());
+    }
+
+    // GREATEST in ACK_SQL would keep an id past the newest message for good
+    private static Long clamp(Long messageId, ConversationCounter counter) {
+        if (counter == null || counter.getLastMessageId() == null) return null;
+        return Math.min(messageId, counter.getLastMessageId());
+    }
+
+    // Messages seen once messageId is read: all of them when it is the newest, otherwise
+    // the total less the (indexed) count of the tail after it
+    private long readCountAt(ReadTargetType type, Long targetId, ConversationCounter counter, Long messageId) {
+        if (counter == null) return 0;
+        if (counter.getLastMessageId() == null || messageId >= counter.getLastMessageId()) {
+            return counter.getMessageCount();
+        }
+        long after = type == ReadTargetType.CHANNEL
+                ? messageRepository.countByChannelIdAndIdGreaterThan(targetId, messageId)
+                : messageRepository.countByDirectMessageChatIdAndIdGreaterThan(targetId, messageId);
+        return Math.max(0, counter.getMessageCount() - after);
+    }
+
+    // ---- reads
+
+    /** Read state of every channel and DM chat the user can see, in a fixed number of queries. */
+    public List<ReadStateDTO> getReadStates(String username) {
+        Long userId = requireUserId(username);
+        Map<ReadTargetType, Set<Long>> targets = new HashMap<>();
+        targets.put(ReadTargetType.CHANNEL, new LinkedHashSet<>(channelRepository.findIdsByMemberId(userId)));
+        targets.put(ReadTargetType.DIRECT_MESSAGE, new LinkedHashSet<>(dmChatRepository.findIdsByParticipantId(userId)));
+
+        Map<ReadTargetType, Map<Long, ReadState>> states = new HashMap<>();
+        for (ReadState state : readStateRepository.findByUserId(userId)) {
+            states.computeIfAbsent(state.getTargetType(), t -> new HashMap<>()).put(state.getTargetId(), state);
+        }
+        Map<ReadTargetType, Map<Long, ConversationCounter>> counters = loadCounters(targets);
+
+        List<ReadStateDTO> result = new ArrayList<>();
+        for (Map.Entry<ReadTargetType, Set<Long>> entry : targets.entrySet()) {
+            for (Long targetId : entry.getValue()) {
+                result.add(currentView(userId, entry.getKey(), targetId,
+                        counters.getOrDefault(entry.getKey(), Map.of()).get(targetId),
+                        states.getOrDefault(entry.getKey(), Map.of()).get(targetId)));
+            }
+        }
+        return result;
+    }
+
+    /** Read states of some conversations of one type, keyed by target id; for list views. */
+    public Map<Long, ReadStateDTO> getReadStates(Long userId, ReadTargetType type, Collection<Long> targetIds) {
+        Map<Long, ReadStateDTO> result = new HashMap<>();
+        if (targetIds.isEmpty()) return result;
+        Map<Long, ConversationCounter> counters = new HashMap<>();
+        for (ConversationCounter counter : counterRepository.findByTargetTypeAndTargetIdIn(type, targetIds)) {
+            counters.put(counter.getTargetId(), counter);
+        }
+        Map<Long, ReadState> states = new HashMap<>();
+        for (ReadState state : readStateRepository.findByUserIdAndTargetTypeAndTargetIdIn(userId, type, targetIds)) {
+            states.put(state.getTargetId(), state);
+        }
+        for (Long targetId : targetIds) {
+            result.put(targetId, currentView(userId, type, targetId, counters.get(targetId), states.get(targetId)));
+        }
+        return result;
+    }
+
+    // Stored state with any ack still waiting in the buffer applied on top
+    private ReadStateDTO currentView(Long userId, ReadTargetType type, Long targetId, ConversationCounter counter, ReadState state) {
+        Long pending = acks.pending(new ReadStateKey(userId, type, targetId)).map(id -> clamp(id, counter)).orElse(null);
+        if (pending != null && (state == null || state.getLastReadMessageId() == null || pending > state.getLastReadMessageId())) {
+            boolean readsAll = counter == null || counter.getLastMessageId() == null || pending >= counter.getLastMessageId();
+            // A partial ack's count needs a query; until it is written, keep the stored count
+            long readCount = readsAll ? (counter == null ? 0 : counter.getMessageCount()) : (state == null ? 0 : state.getReadCount());
+            return view(type, targetId, counter, state, pending, readCount);
+        }
+        return view(type, targetId, counter, state,
+                state == null ? null : state.getLastReadMessageId(), state == null ? 0 : state.getReadCount());
+    }
+
+    private static ReadStateDTO view(ReadTargetType type, Long targetId, ConversationCounter counter, ReadState state,
+                                     Long lastReadMessageId, long readCount) {
+        long total = counter == null ? 0 : counter.getMessageCount();
+        int mentions = state == null ? 0 : state.getMentionCount();
+        if (state != null && lastReadMessageId != null
+                && (state.getLastMentionMessageId() == null || lastReadMessageId >= state.getLastMentionMessageId())) {
+            mentions = 0;
+        }
+        ReadStateDTO dto = new ReadStateDTO();
+        if (type == ReadTargetType.CHANNEL) {
+            dto.setChannelId(targetId);
+        } else {
+            dto.setDirectMessageChatId(targetId);
+        }
+        dto.setLastReadMessageId(lastReadMessageId);
+        dto.setLastMessageId(counter == null ? null : counter.getLastMessageId());
+        dto.setUnreadCount(Math.max(0, total - readCount));
+        dto.setMentionCount(mentions);
+        return dto;
+    }
+
+    private Map<ReadTargetType, Map<Long, ConversationCounter>> loadCounters(Map<ReadTargetType, Set<Long>> targets) {
+        Map<ReadTargetType, Map<Long, ConversationCounter>> counters = new HashMap<>();
+        for (Map.Entry<ReadTargetType, Set<Long>> entry : targets.entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
+            Map<Long, ConversationCounter> byId = new HashMap<>();
+            for (ConversationCounter counter : counterRepository.findByTargetTypeAndTargetIdIn(entry.getKey(), entry.getValue())) {
+                byId.put(counter.getTargetId(), counter);
+            }
+            counters.put(entry.getKey(), byId);
+        }
+        return counters;
+    }
+
+    private Long requireUserId(String username) {
+        Long userId = userRepository.findIdByUsername(username);
+        if (userId == null) {
+            throw new UserNotFoundException("User not found: " + username);
+        }
+        return userId;
+    }
+
+    // Databases from before the counters have messages but no counts; fill them once
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillCounters() {
+        if (counterRepository.count() == 0 && messageRepository.count() > 0) {
+            int rows = transactionTemplate.execute(status ->
+                    counterRepository.backfillChannels() + counterRepository.backfillDirectMessageChats());
+            logger.info("Backfilled {} conversation counters", rows);
+        }
+    }
+}
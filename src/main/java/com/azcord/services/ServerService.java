@@ -18,10 +18,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional; // Important for operations involving multiple saves
 import org.springframework.web.multipart.MultipartFile;
 
+import com.azcord.broker.SubscriptionGuard;
 import com.azcord.dto.ChannelDTO;
 import com.azcord.dto.RoleDTO;
 import com.azcord.dto.RoleUpdateDTO;
 import com.azcord.dto.ServerDTO;
+import com.azcord.dto.UserSimpleDTO;
 import com.azcord.exceptions.DuplicateRoleNameException; 
 
 import com.azcord.exceptions.InviteExpiredException;
@@ -37,7 +39,9 @@ import com.azcord.models.Permission;
 import com.azcord.models.Role;
 import com.azcord.models.Server;
 import com.azcord.models.User;
+import com.azcord.repositories.AttachmentRepository;
 import com.azcord.repositories.InviteRepository;
+import com.azcord.repositories.MessageReactionCountRepository;
 import com.azcord.repositories.RoleRepository;
 import com.azcord.repositories.ServerRepository;
 import com.azcord.repositories.UserRepository;
@@ -61,7 +65,16 @@ public class ServerService {
     private EntityManager entityManager;
 
     @Autowired
-    private FileStorageService fileStorageService; 
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
+    @Autowired
+    private MessageReactionCountRepository reactionCountRepository;
+
+    @Autowired
+    private ThumbnailService thumbnailService; 
     
     // Helper method to check if user has permission to modify a server
     private void checkServerPermission(Server server, String username) {
@@ -76,6 +89,15 @@ public class ServerService {
     @Autowired
     RoleRepository roleRepository; 
 
+    @Autowired
+    PermissionCache permissionCache; 
+
+    @Autowired
+    UsernameIndex usernameIndex;
+
+    @Autowired
+    SubscriptionGuard subscriptionGuard;
+
     // //service can reference itself
     // @Autowired
     // private ServerService serverService; 
@@ -101,7 +123,11 @@ public class ServerService {
         srv.getUsers().add(user); 
         srv.setDescription(description);
         srv.setAvatarUrl(avatarUrl);
-        return serverRepository.save(srv); 
+        Server saved = serverRepository.save(srv); 
+        //creator's roles were replaced above
+        permissionCache.evictUser(userCreator);
+        usernameIndex.memberAdded(saved.getId(), user.getId());
+        return saved;
     }
 
     public List<Server> getUserServers(String username){
@@ -193,12 +219,25 @@ public class ServerService {
         User user = userRepository.findByUsername(username).orElse(null);
         if(user != null && !server.getUsers().contains(user)){
             server.getUsers().add(user); 
-            return serverRepository.save(server);
+            Server saved = serverRepository.save(server);
+            permissionCache.evict(server.getId(), username);
+            usernameIndex.memberAdded(server.getId(), user.getId());
+            subscriptionGuard.memberAdded(server.getId());
+            return saved;
         }
         
         return server;
     }
     
+    /** @mention suggestions among a server's members, served from the in-memory index. */
+    public List<UserSimpleDTO> autocompleteMembers(Long serverId, Long userId, String prefix) {
+        // The index can lag a membership change made elsewhere, so a miss is confirmed in the database
+        if (!usernameIndex.isMember(serverId, userId) && !serverRepository.existsByIdAndUsers_Id(serverId, userId)) {
+            throw new AccessDeniedException("You are not a member of this server");
+        }
+        return usernameIndex.searchMembers(serverId, prefix, UsernameIndex.MAX_RESULTS);
+    }
+    
     // New methods for required endpoints
     @PreAuthorize("@serverService.hasPermission(#serverId, authentication.name, T(com.azcord.models.Permission).MANAGE_SERVERS)")
     // 1. Change server name
@@ -232,12 +271,20 @@ public class ServerService {
         List<Invite> invites = inviteRepository.findByServer_Id(serverId);
         inviteRepository.deleteAll(invites);
         
+        // Attachment rows go with the cascade below, so their blob references are dropped first;
+        // reaction counters are keyed by message id only and are not cascaded at all
+        fileStorageService.deleteAttachmentFiles(attachmentRepository.findFileUrlsByServerId(serverId));
+        reactionCountRepository.deleteByServerId(serverId);
+
         // Clear the relationship between server and users to avoid cascade delete issues
         server.getUsers().clear();
         serverRepository.save(server);
         
         // Now delete the server
         serverRepository.delete(server);
+        permissionCache.evictServer(serverId);
+        usernameIndex.serverDeleted(serverId);
+        subscriptionGuard.serverDeleted(serverId);
     }
     
     // 3. Delete channel
@@ -256,6 +303,9 @@ public class ServerService {
             .findFirst()
             .orElseThrow(() -> new ResourceNotFoundException("Channel not found in this server"));
         
+        fileStorageService.deleteAttachmentFiles(attachmentRepository.findFileUrlsByChannelId(channelId));
+        reactionCountRepository.deleteByChannelId(channelId);
+
         // Remove channel from server's collection
         server.getChannels().remove(channelToRemove);
         
@@ -264,6 +314,7 @@ public class ServerService {
         
         // Now delete the channel entity from the database
         entityManager.remove(channelToRemove);
+        subscriptionGuard.channelDeleted(channelId);
     }
     
     // 4. Change channel name
@@ -304,7 +355,9 @@ public class ServerService {
         role.setColorHex(colourHex);
         role.setServer(server); 
         role.setPermissions(permissions);
-        return roleRepository.save(role); 
+        Role saved = roleRepository.save(role); 
+        permissionCache.evictServer(server_id);
+        return saved;
     }
 
 
@@ -332,6 +385,7 @@ public class ServerService {
             Role role = roleRepository.findById(role_id).orElseThrow(() -> new RoleNotFoundException("Role not found"));
             user.getRoles().add(role);
             userRepository.save(user); 
+            permissionCache.evict(server_id, username);
         
     }
 
@@ -364,17 +418,9 @@ public class ServerService {
         return dto;
     }
     //check if the user has a permission for doing smth on the server
+    //(cached bitmask, see PermissionCache for when it is evicted)
     public boolean hasPermission(Long server_id, String username, Permission perm){
-        List<Role> roles = roleRepository.findByUsers_UsernameAndServer_Id(username, server_id)
-            .orElseThrow(() -> new RuntimeException("Roles not found"));
-
-        if(roles.isEmpty()){
-            return false; 
-        }
-
-        return roles.stream()
-            .flatMap(role -> role.getPermissions().stream())
-            .anyMatch(per -> per == perm || per == Permission.ADMINISTRATOR); 
+        return permissionCache.has(server_id, username, perm); 
     }
 
         /**
@@ -426,6 +472,7 @@ public class ServerService {
         }
 
         Role updatedRole = roleRepository.save(role);
+        permissionCache.evictServer(serverId);
         User reqUser = userRepository.findByUsername(requestingUsername)
             .orElseThrow(() -> new UserNotFoundException("Requesting user not found")); // Should not happen if auth is working
         return mapRoleToDTO(updatedRole, reqUser, null, serverId); // targetUser is null as we are not viewing a specific user's role context
@@ -473,6 +520,7 @@ public class ServerService {
         
         roleRepository.delete(role);
         serverRepository.save(server); // Persist removal of role from server
+        permissionCache.evictServer(serverId);
     }
 
     /**
@@ -513,6 +561,7 @@ public class ServerService {
         if (targetUser.getRoles().contains(role)) {
             targetUser.getRoles().remove(role);
             userRepository.save(targetUser);
+            permissionCache.evict(serverId, targetUser.getUsername());
         } else {
             // Optionally, inform that the user didn't have the role. For now, just a no-op.
         }
@@ -559,7 +608,9 @@ public void updateServerIcon(Long serverId, MultipartFile newIconFile) throws IO
 
     if (newIconFile != null && !newIconFile.isEmpty()) {
         String newIconUrl = fileStorageService.storePublicFile(newIconFile); // Simplified call
+        fileStorageService.releasePublicFile(server.getAvatarUrl()); // old icon may now be unreferenced
         server.setAvatarUrl(newIconUrl); 
+        thumbnailService.generateAsyncForUrl(newIconUrl);
         serverRepository.save(server);
     } else {
         throw new IllegalArgumentException("Icon file cannot be empty or null.");
@@ -0,0 +1,96 @@
+package com.azcord.services;
+
+import com.azcord.broker.ReplayLog;
+import com.azcord.dto.ReplayDTO;
+import com.azcord.dto.ResumeRequestDTO;
+import com.azcord.exceptions.ForbiddenAccessException;
+import com.azcord.exceptions.UserNotFoundException;
+import com.azcord.repositories.ChannelRepository;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers a reconnecting client's "resume from seq N" with the events it missed, from
+ * {@link ReplayLog}, after checking it may still read each topic.
+ */
+@Service
+public class SessionResumeService {
+    // One per subscribed topic; a client has a handful per open conversation
+    static final int MAX_POSITIONS = 50;
+
+    private static final String CHANNEL_PREFIX = "/topic/channels/";
+    private static final String DM_PREFIX = "/topic/dm/";
+
+    @Autowired
+    private ReplayLog replayLog;
+
+    @Autowired
+    private ChannelRepository channelRepository;
+
+    @Autowired
+    private DirectMessageChatRepository dmChatRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    public List<ReplayDTO> resume(ResumeRequestDTO request, String username) {
+        List<ResumeRequestDTO.Position> positions = request.getPositions();
+        if (positions == null || positions.isEmpty()) {
+            return List.of();
+        }
+        if (positions.size() > MAX_POSITIONS) {
+            throw new IllegalArgumentException("At most " + MAX_POSITIONS + " topics can be resumed at once.");
+        }
+        Long userId = userRepository.findIdByUsername(username);
+        if (userId == null) {
+            throw new UserNotFoundException("User not found: " + username);
+        }
+
+        List<ReplayDTO> replays = new ArrayList<>(positions.size());
+        for (ResumeRequestDTO.Position position : positions) {
+            String destination = position.getDestination();
+            if (!ReplayLog.isSequenced(destination)) {
+                throw new IllegalArgumentException("Topic cannot be resumed: " + destination);
+            }
+            checkAccess(destination, userId);
+            ReplayLog.Replay replay = replayLog.since(destination, position.getStream(), position.getLastSeq());
+            List<ReplayDTO.Event> events = new ArrayList<>(replay.events().size());
+            for (ReplayLog.Event event : replay.events()) {
+                events.add(new ReplayDTO.Event(event.seq(), new String(event.payload(), StandardCharsets.UTF_8)));
+            }
+            replays.add(new ReplayDTO(destination, replay.stream(), replay.lastSeq(), replay.refetch(), events));
+        }
+        return replays;
+    }
+
+    // Membership can change while a client is away, so the log is not a way around it
+    private void checkAccess(String destination, Long userId) {
+        if (destination.startsWith(CHANNEL_PREFIX)) {
+            Long channelId = targetId(destination, CHANNEL_PREFIX);
+            if (!channelRepository.isMember(channelId, userId)) {
+                throw new ForbiddenAccessException("User is not a member of the server of channel: " + channelId);
+            }
+        } else {
+            Long chatId = targetId(destination, DM_PREFIX);
+            if (!dmChatRepository.isUserParticipant(chatId, userId)) {
+                throw new ForbiddenAccessException("User is not a participant of DM chat: " + chatId);
+            }
+        }
+    }
+
+    private static Long targetId(String destination, String prefix) {
+        int end = destination.indexOf('/', prefix.length());
+        String id = end < 0 ? destination.substring(prefix.length()) : destination.substring(prefix.length(), end);
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Topic cannot be resumed: " + destination);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.azcord.services;
+
+/**
+ * An upload that has been written to the staging area but is not yet visible under
+ * its final name. stagingName identifies the staged copy; storedFileName and fileUrl
+ * are where it will be served once promoted.
+ */
+public record StagedFile(String stagingName, String storedFileName, String originalFileName,
+                         String contentType, long size, String fileUrl) {
+}
@@ -0,0 +1,65 @@
+package com.azcord.services;
+
+import com.azcord.repositories.AttachmentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Cleans up the staging area for attachments, avatars and server icons. A staged file
+ * left behind is either from a send or update that never committed (deleted) or one whose
+ * commit succeeded but whose move into place did not happen, e.g. a crash right after the
+ * commit (promoted).
+ */
+@Component
+public class StagingJanitor {
+    private static final Logger logger = LoggerFactory.getLogger(StagingJanitor.class);
+
+    @Autowired
+    @Qualifier("contentAddressedFileStorageService")
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    // Well past the longest upload-to-commit gap, so in-flight sends are never touched
+    @Value("${azcord.uploads.staging-max-age-minutes:60}")
+    private long maxAgeMinutes;
+
+    @Scheduled(fixedDelayString = "${azcord.uploads.staging-sweep-ms:600000}", initialDelay = 60_000)
+    public void sweep() {
+        try {
+            int promoted = 0;
+            int deleted = 0;
+            for (String stagingName : fileStorageService.findStaleStaged(Duration.ofMinutes(maxAgeMinutes))) {
+                if (chunkedUploadService.holdsStaged(stagingName)) {
+                    continue; // A completed upload waiting to be sent; it expires with its session
+                }
+                String storedFileName = fileStorageService.storedNameOfStaged(stagingName);
+                if (storedFileName != null && (attachmentRepository.existsByFileUrlEndingWith("/" + storedFileName)
+                        || fileStorageService.locatePublic(storedFileName) != null)) {
+                    fileStorageService.promoteStaged(stagingName);
+                    promoted++;
+                } else {
+                    fileStorageService.discardStaged(stagingName);
+                    deleted++;
+                }
+            }
+            if (promoted + deleted > 0) {
+                logger.info("Staging sweep promoted {} and deleted {} orphaned files", promoted, deleted);
+            }
+        } catch (IOException e) {
+            logger.warn("Staging sweep failed: {}", e.getMessage());
+        }
+    }
+}
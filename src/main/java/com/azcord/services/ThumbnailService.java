@@ -0,0 +1,273 @@
+package com.azcord.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downscaled variants of uploaded images (64, 256 and 1024 px on the longer side) for
+ * avatars, icons and the message feed. Variants are made in the background right after an
+ * upload, on a small bounded pool; a variant that is requested before it exists (or whose
+ * job was shed under load) is made on the spot by the download path.
+ *
+ * A variant sits next to its original as {original}.{size}.{jpg|png} and is served from
+ * the original's URL with ?size=N. PNG and GIF sources keep transparency (PNG variants);
+ * everything else becomes JPEG.
+ */
+@Service
+public class ThumbnailService {
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    public static final List<Integer> SIZES = List.of(64, 256, 1024);
+    public static final String SIZE_PARAM = "size";
+
+    private static final Set<String> SOURCE_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "bmp");
+    private static final Set<String> ALPHA_EXTENSIONS = Set.of("png", "gif");
+    // Refuse decompression bombs; 50 megapixels is well past any real photo upload
+    private static final long MAX_SOURCE_PIXELS = 50_000_000L;
+
+    private final FileStorageService fileStorageService;
+    private final ThreadPoolExecutor executor;
+    // One generation per variant at a time, shared by the background job and on-demand requests
+    private final Map<Path, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    public ThumbnailService(FileStorageService fileStorageService, MeterRegistry meterRegistry,
+                            @Value("${azcord.thumbnails.workers:2}") int workers,
+                            @Value("${azcord.thumbnails.queue-capacity:200}") int queueCapacity) {
+        this.fileStorageService = fileStorageService;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "thumbnail-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("azcord.thumbnails.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // ---- URLs (static so DTO mapping can use them)
+
+    /** Variant URLs by size for an image URL, or an empty map if it is not a resizable image. */
+    public static Map<Integer, String> variantUrls(String fileUrl) {
+        if (fileUrl == null || !isResizable(nameOf(fileUrl))) {
+            return Collections.emptyMap();
+        }
+        String base = fileUrl.contains("?") ? fileUrl.substring(0, fileUrl.indexOf('?')) : fileUrl;
+        Map<Integer, String> urls = new LinkedHashMap<>();
+        for (Integer size : SIZES) {
+            urls.put(size, base + "?" + SIZE_PARAM + "=" + size);
+        }
+        return urls;
+    }
+
+    public static boolean isResizable(String storedFileName) {
+        String extension = extensionOf(storedFileName);
+        return extension != null && SOURCE_EXTENSIONS.contains(extension);
+    }
+
+    /** The name a variant is served under; its extension gives the Content-Type. */
+    public static String variantName(String storedFileName, int size) {
+        return storedFileName + "." + size + "." + variantExtension(storedFileName);
+    }
+
+    private static String variantExtension(String storedFileName) {
+        return ALPHA_EXTENSIONS.contains(extensionOf(storedFileName)) ? "png" : "jpg";
+    }
+
+    // ---- generation
+
+    /** As generateAsync, for a public URL such as an avatar or server icon. */
+    public void generateAsyncForUrl(String fileUrl) {
+        if (fileUrl != null) {
+            generateAsync(nameOf(fileUrl));
+        }
+    }
+
+    /** Queues all variants of a freshly stored image; drops the job if the pool is saturated. */
+    public void generateAsync(String storedFileName) {
+        if (!isResizable(storedFileName)) return;
+        try {
+            executor.execute(() -> {
+                for (Integer size : SIZES) {
+                    try {
+                        getOrCreate(storedFileName, size);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Could not make {}px variant of {}: {}", size, storedFileName, e.getMessage());
+                        return;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Thumbnail queue full, {} will be resized on first request", storedFileName);
+        }
+    }
+
+    /**
+     * The variant's path, generating it first if needed. Returns null if the original is not
+     * a resizable image or the size is not one of SIZES.
+     */
+    public Path getOrCreate(String storedFileName, int size) throws IOException {
+        if (!SIZES.contains(size) || !isResizable(storedFileName)) {
+            return null;
+        }
+        Path original = fileStorageService.locate(storedFileName);
+        // Content-addressed originals have no extension on disk, so build the name from the parts
+        Path variant = original.resolveSibling(original.getFileName() + "." + size + "." + variantExtension(storedFileName));
+        if (Files.exists(variant)) {
+            return variant;
+        }
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(variant, mine);
+        if (running != null) {
+            return join(running);
+        }
+        try {
+            if (!Files.exists(variant)) {
+                resize(original, variant, size, ALPHA_EXTENSIONS.contains(extensionOf(storedFileName)));
+            }
+            mine.complete(variant);
+            return variant;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(variant, mine);
+        }
+    }
+
+    private static Path join(CompletableFuture<Path> running) throws IOException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    private static void resize(Path original, Path variant, int size, boolean keepAlpha) throws IOException {
+        if (!Files.exists(original)) {
+            throw new NoSuchFileException(original.toString());
+        }
+        BufferedImage source = decode(original, size);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double scale = Math.min(1.0, (double) size / Math.max(width, height)); // never upscale
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        // Halve repeatedly, then one bilinear step: close to area averaging, far cheaper
+        BufferedImage current = source;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2, keepAlpha);
+        }
+        if (current.getWidth() != targetWidth || current.getHeight() != targetHeight || current == source) {
+            current = draw(current, targetWidth, targetHeight, keepAlpha);
+        }
+
+        Path tmp = variant.resolveSibling(variant.getFileName() + ".tmp");
+        try {
+            if (!ImageIO.write(current, keepAlpha ? "png" : "jpg", tmp.toFile())) {
+                throw new IOException("No image writer for " + variant.getFileName());
+            }
+            Files.move(tmp, variant, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        logger.debug("Made {}x{} variant {}", targetWidth, targetHeight, variant.getFileName());
+    }
+
+    // Decodes with subsampling when the source is much larger than the target, so a 6000px
+    // photo is never fully decoded just to make a 64px avatar
+    private static BufferedImage decode(Path original, int size) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.toFile())) {
+            if (in == null) throw new IOException("Cannot open " + original.getFileName());
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image " + original.getFileName());
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    throw new IOException("Image too large to resize: " + width + "x" + height);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / (size * 2));
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height, boolean keepAlpha) {
+        BufferedImage target = new BufferedImage(width, height,
+                keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            if (!keepAlpha) {
+                g.setColor(Color.WHITE); // JPEG has no alpha; flatten onto white
+                g.fillRect(0, 0, width, height);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static String nameOf(String fileUrl) {
+        String path = fileUrl.contains("?") ? fileUrl.substring(0, fileUrl.indexOf('?')) : fileUrl;
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String extensionOf(String fileName) {
+        if (fileName == null) return null;
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? null : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+}
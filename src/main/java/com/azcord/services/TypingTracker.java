@@ -0,0 +1,147 @@
+package com.azcord.services;
+
+import com.azcord.broker.ClusterBus;
+import com.azcord.dto.TypingSnapshotDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Who is typing where, kept in memory only. Each user's typing events are accepted at
+ * most once per throttle interval per chat and expire after the TTL; every tick, chats
+ * whose set of typists changed get one snapshot on their /typing topic. Keeping typing
+ * going only refreshes the expiry, so a steady typist costs subscribers little: a room
+ * with typists is re-sent once per TTL even when unchanged.
+ *
+ * Typists are tracked by the node their session is on, and the cluster relay fans each
+ * snapshot out to every node, so snapshots carry this node's id. Clients keep the latest
+ * snapshot per node and show the union; one that is not refreshed in time belongs to a
+ * node that went away.
+ */
+@Component
+public class TypingTracker {
+
+    private final SimpMessagingTemplate broker;
+    private final String nodeId;
+    private final long throttleMillis;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Counter throttled;
+
+    private final Map<Room, RoomState> rooms = new ConcurrentHashMap<>();
+
+    private record Room(long chatId, boolean direct) {
+        String destination() {
+            return direct ? "/topic/dm/" + chatId + "/typing" : "/topic/channels/" + chatId + "/typing";
+        }
+    }
+
+    private static final class Typist {
+        final String username;
+        long acceptedAt;
+
+        Typist(String username, long acceptedAt) {
+            this.username = username;
+            this.acceptedAt = acceptedAt;
+        }
+    }
+
+    // Only touched inside the map's compute functions, one caller per room at a time
+    private static final class RoomState {
+        final Map<Long, Typist> typists = new HashMap<>();
+        boolean changed;
+        long publishedAt;
+    }
+
+    @Autowired
+    public TypingTracker(SimpMessagingTemplate broker, MeterRegistry meterRegistry, ClusterBus clusterBus,
+                         @Value("${azcord.typing.throttle-ms:3000}") long throttleMillis,
+                         @Value("${azcord.typing.ttl-ms:6000}") long ttlMillis) {
+        this(broker, meterRegistry, clusterBus.getNodeId(), throttleMillis, ttlMillis, System::currentTimeMillis);
+    }
+
+    public TypingTracker(SimpMessagingTemplate broker, MeterRegistry meterRegistry, String nodeId,
+                         long throttleMillis, long ttlMillis, LongSupplier clock) {
+        this.broker = broker;
+        this.nodeId = nodeId;
+        this.throttleMillis = throttleMillis;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.throttled = Counter.builder("azcord.typing.throttled").register(meterRegistry);
+        Gauge.builder("azcord.typing.rooms", rooms, Map::size).register(meterRegistry);
+    }
+
+    /** A typing event; false if the user already sent one within the throttle interval. */
+    public boolean typing(long chatId, boolean direct, long userId, String username) {
+        long now = clock.getAsLong();
+        boolean[] accepted = {true};
+        rooms.compute(new Room(chatId, direct), (key, room) -> {
+            if (room == null) room = new RoomState();
+            Typist typist = room.typists.get(userId);
+            if (typist == null) {
+                room.typists.put(userId, new Typist(username, now));
+                room.changed = true;
+            } else if (now - typist.acceptedAt < throttleMillis) {
+                accepted[0] = false;
+            } else {
+                typist.acceptedAt = now;
+            }
+            return room;
+        });
+        if (!accepted[0]) throttled.increment();
+        return accepted[0];
+    }
+
+    /** Sending a message ends typing without waiting for the TTL. */
+    public void stopped(long chatId, boolean direct, long userId) {
+        rooms.computeIfPresent(new Room(chatId, direct), (key, room) -> {
+            if (room.typists.remove(userId) != null) room.changed = true;
+            return room;
+        });
+    }
+
+    @Scheduled(fixedRateString = "${azcord.typing.tick-ms:1000}")
+    public void tick() {
+        long now = clock.getAsLong();
+        List<TypingSnapshotDTO> snapshots = new ArrayList<>();
+        for (Room key : rooms.keySet()) {
+            rooms.computeIfPresent(key, (k, room) -> {
+                if (room.typists.values().removeIf(typist -> now - typist.acceptedAt >= ttlMillis)) {
+                    room.changed = true;
+                }
+                // The periodic re-send is what tells clients this node is still there
+                boolean refresh = !room.typists.isEmpty() && now - room.publishedAt >= ttlMillis;
+                if (room.changed || refresh) {
+                    room.changed = false;
+                    room.publishedAt = now;
+                    snapshots.add(snapshot(k, room));
+                }
+                return room.typists.isEmpty() ? null : room;
+            });
+        }
+        // Sent outside the map so a slow broker never holds up typing events
+        for (TypingSnapshotDTO snapshot : snapshots) {
+            broker.convertAndSend(new Room(snapshot.chatId(), snapshot.direct()).destination(), snapshot);
+        }
+    }
+
+    private TypingSnapshotDTO snapshot(Room room, RoomState state) {
+        List<TypingSnapshotDTO.Typist> typists = new ArrayList<>(state.typists.size());
+        state.typists.forEach((userId, typist) -> typists.add(new TypingSnapshotDTO.Typist(userId, typist.username)));
+        typists.sort(Comparator.comparing(TypingSnapshotDTO.Typist::username, String.CASE_INSENSITIVE_ORDER));
+        return new TypingSnapshotDTO(nodeId, room.chatId(), room.direct(), typists);
+    }
+}
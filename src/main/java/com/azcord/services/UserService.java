@@ -1,6 +1,7 @@
 package com.azcord.services;
 
 import java.io.IOException;
+import java.security.Principal;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -12,6 +13,7 @@ import com.azcord.dto.UserSimpleDTO;
 import com.azcord.exceptions.UserNotFoundException;
 import com.azcord.models.User;
 import com.azcord.repositories.UserRepository;
+import com.azcord.security.JwtPrincipal;
 import com.azcord.services.MapperUtil;
 
 import jakarta.transaction.Transactional;
@@ -28,6 +30,21 @@ public class UserService {
     @Autowired
     private FileStorageService fileStorageService;
 
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private MessageTailCache messageTailCache;
+
+    @Autowired
+    private PermissionCache permissionCache;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private UsernameIndex usernameIndex;
+
     public User register(String username,String email, String password){
 
         if(userRepository.findByUsername(username).isPresent()){
@@ -42,7 +59,9 @@ public class UserService {
         user.setUsername(username);
         user.setPassword(encoder.encode(password)); 
 
-        return userRepository.save(user); 
+        User saved = userRepository.save(user);
+        usernameIndex.userSaved(saved.getId(), saved.getUsername(), saved.getAvatarUrl(), saved.getBio());
+        return saved;
     }
 
     public User validateCredentials(String username, String password){
@@ -73,9 +92,29 @@ public class UserService {
      * Returns the ID of a user given their username
      */
     public Long idOf(String username) {
-        return userRepository.findByUsername(username)
-            .orElseThrow(() -> new UserNotFoundException("User " + username + " not found"))
-            .getId();
+        Long userId = userRepository.findIdByUsername(username); // not the entity, which loads every role
+        if (userId == null) {
+            throw new UserNotFoundException("User " + username + " not found");
+        }
+        return userId;
+    }
+
+    /**
+     * Returns the ID of the authenticated user, straight from the JWT principal when there is one
+     */
+    public Long idOf(Principal principal) {
+        return principalOf(principal).userId();
+    }
+
+    /**
+     * Returns the JWT principal behind a request / STOMP principal, looking the user up only if it has none
+     */
+    public JwtPrincipal principalOf(Principal principal) {
+        JwtPrincipal jwtPrincipal = JwtPrincipal.from(principal);
+        if (jwtPrincipal != null) {
+            return jwtPrincipal;
+        }
+        return new JwtPrincipal(idOf(principal.getName()), principal.getName(), null);
     }
 
 @Transactional
@@ -97,10 +136,16 @@ public UserSimpleDTO updateUserProfile(String currentUsername, String newUsernam
 
     if (avatar != null && !avatar.isEmpty()) {
         String avatarUrl = fileStorageService.storePublicFile(avatar); // Simplified call
+        fileStorageService.releasePublicFile(user.getAvatarUrl()); // old avatar may now be unreferenced
         user.setAvatarUrl(avatarUrl);
+        thumbnailService.generateAsyncForUrl(avatarUrl);
     }
 
     User savedUser = userRepository.save(user);
+    messageTailCache.invalidateAll(); // cached messages embed the old name / avatar; dropped on commit
+    permissionCache.evictUser(currentUsername); // permissions are cached by username
+    jwtService.evictUser(currentUsername); // old-name tokens must be re-verified
+    usernameIndex.userSaved(savedUser.getId(), savedUser.getUsername(), savedUser.getAvatarUrl(), savedUser.getBio());
 
     return MapperUtil.toSimple(savedUser);
 }
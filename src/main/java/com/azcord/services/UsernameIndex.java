@@ -0,0 +1,215 @@
+package com.azcord.services;
+
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.dto.UserSimpleDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory prefix index of usernames for user search and @mention autocomplete, one
+ * sorted map over everyone plus one per server over its members. Keys are the case-folded
+ * username followed by the user id, so a prefix query is a range scan that stops after
+ * the first few entries instead of a LIKE over the user table.
+ *
+ * Built from a streamed scan of users and memberships before the app takes traffic, then
+ * kept current by the register, profile, join and server-delete paths once they commit,
+ * on this node directly and on peers through {@link ClusterInvalidations}; a peer reloads
+ * a changed user's row rather than trusting values sent over the bus.
+ */
+@Service
+public class UsernameIndex implements SmartInitializingSingleton {
+    private static final Logger logger = LoggerFactory.getLogger(UsernameIndex.class);
+
+    public static final int MAX_RESULTS = 10;
+
+    private static final char KEY_SEPARATOR = '\u0000';
+    private static final int SCAN_FETCH_SIZE = 1000;
+    private static final String CLUSTER_CACHE = "usernames";
+
+    private record Entry(long id, String username, String avatarUrl, String bio) {
+        String key() {
+            return fold(username) + KEY_SEPARATOR + id;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ClusterInvalidations clusterInvalidations;
+
+    private final Map<Long, Entry> users = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Long> everyone = new ConcurrentSkipListMap<>();
+    // serverId -> key -> userId, and the reverse for renames
+    private final Map<Long, ConcurrentSkipListMap<String, Long>> members = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> serversOfUser = new ConcurrentHashMap<>();
+
+    public UsernameIndex(JdbcTemplate jdbcTemplate, ClusterInvalidations clusterInvalidations) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clusterInvalidations = clusterInvalidations;
+        clusterInvalidations.register(CLUSTER_CACHE, this::applyFromPeer, this::rebuild);
+    }
+
+    // Runs after the schema exists but before the web server starts, so no update is missed
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    /** Reloads everything from the database. */
+    public synchronized void rebuild() {
+        long started = System.nanoTime();
+        users.clear();
+        everyone.clear();
+        members.clear();
+        serversOfUser.clear();
+        JdbcTemplate scan = new JdbcTemplate(jdbcTemplate.getDataSource());
+        scan.setFetchSize(SCAN_FETCH_SIZE);
+        scan.query("SELECT id, username, avatar_url, bio FROM user", rs -> {
+            putUser(new Entry(rs.getLong("id"), rs.getString("username"), rs.getString("avatar_url"), rs.getString("bio")));
+        });
+        scan.query("SELECT server_id, user_id FROM server_users", rs -> {
+            putMember(rs.getLong("server_id"), rs.getLong("user_id"));
+        });
+        logger.info("Username index built: {} users, {} servers in {} ms",
+                users.size(), members.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /** Up to {@code limit} users whose name starts with {@code prefix}, ignoring case. */
+    public List<UserSimpleDTO> search(String prefix, int limit) {
+        String folded = fold(prefix == null ? "" : prefix.trim());
+        if (folded.isEmpty()) return List.of();
+        return collect(everyone, folded, limit);
+    }
+
+    /** Like {@link #search} over one server's members; an empty prefix lists the first few. */
+    public List<UserSimpleDTO> searchMembers(long serverId, String prefix, int limit) {
+        ConcurrentSkipListMap<String, Long> index = members.get(serverId);
+        if (index == null) return List.of();
+        return collect(index, fold(prefix == null ? "" : prefix.trim()), limit);
+    }
+
+    public boolean isMember(long serverId, long userId) {
+        Set<Long> servers = serversOfUser.get(userId);
+        return servers != null && servers.contains(serverId);
+    }
+
+    public void userSaved(long userId, String username, String avatarUrl, String bio) {
+        afterCommit(() -> putUser(new Entry(userId, username, avatarUrl, bio)), "user:" + userId);
+    }
+
+    public void memberAdded(long serverId, long userId) {
+        afterCommit(() -> putMember(serverId, userId), "member-added:" + serverId + ":" + userId);
+    }
+
+    public void memberRemoved(long serverId, long userId) {
+        afterCommit(() -> removeMember(serverId, userId), "member-removed:" + serverId + ":" + userId);
+    }
+
+    public void serverDeleted(long serverId) {
+        afterCommit(() -> removeServer(serverId), "server-deleted:" + serverId);
+    }
+
+    private void applyFromPeer(String key) {
+        String[] parts = key.split(":");
+        long id = Long.parseLong(parts[1]);
+        switch (parts[0]) {
+            case "user" -> jdbcTemplate.query("SELECT id, username, avatar_url, bio FROM user WHERE id = ?", rs -> {
+                putUser(new Entry(rs.getLong("id"), rs.getString("username"), rs.getString("avatar_url"), rs.getString("bio")));
+            }, id);
+            case "member-added" -> putMember(id, Long.parseLong(parts[2]));
+            case "member-removed" -> removeMember(id, Long.parseLong(parts[2]));
+            case "server-deleted" -> removeServer(id);
+            default -> throw new IllegalArgumentException("Unknown username index change " + key);
+        }
+    }
+
+    private List<UserSimpleDTO> collect(ConcurrentSkipListMap<String, Long> index, String folded, int limit) {
+        NavigableMap<String, Long> range = folded.isEmpty()
+                ? index
+                : index.subMap(folded, true, folded + Character.MAX_VALUE, false);
+        List<UserSimpleDTO> result = new ArrayList<>(Math.min(limit, MAX_RESULTS));
+        for (Map.Entry<String, Long> hit : range.entrySet()) {
+            if (result.size() >= limit) break;
+            Entry entry = users.get(hit.getValue());
+            // A key left behind by a rename that is still being applied
+            if (entry == null || !entry.key().equals(hit.getKey())) continue;
+            result.add(new UserSimpleDTO(entry.id(), entry.username(), entry.avatarUrl(), entry.bio()));
+        }
+        return result;
+    }
+
+    private synchronized void putUser(Entry entry) {
+        Entry previous = users.put(entry.id(), entry);
+        String key = entry.key();
+        if (previous != null && !previous.key().equals(key)) {
+            String oldKey = previous.key();
+            everyone.remove(oldKey);
+            for (Long serverId : serversOfUser.getOrDefault(entry.id(), Set.of())) {
+                ConcurrentSkipListMap<String, Long> index = members.get(serverId);
+                if (index == null) continue;
+                index.remove(oldKey);
+                index.put(key, entry.id());
+            }
+        }
+        everyone.put(key, entry.id());
+    }
+
+    private synchronized void putMember(long serverId, long userId) {
+        serversOfUser.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(serverId);
+        ConcurrentSkipListMap<String, Long> index = members.computeIfAbsent(serverId, id -> new ConcurrentSkipListMap<>());
+        Entry entry = users.get(userId);
+        if (entry != null) index.put(entry.key(), userId);
+    }
+
+    private synchronized void removeMember(long serverId, long userId) {
+        Set<Long> servers = serversOfUser.get(userId);
+        if (servers != null) servers.remove(serverId);
+        ConcurrentSkipListMap<String, Long> index = members.get(serverId);
+        Entry entry = users.get(userId);
+        if (index != null && entry != null) index.remove(entry.key());
+    }
+
+    private synchronized void removeServer(long serverId) {
+        ConcurrentSkipListMap<String, Long> index = members.remove(serverId);
+        if (index == null) return;
+        for (Long userId : index.values()) {
+            Set<Long> servers = serversOfUser.get(userId);
+            if (servers != null) servers.remove(serverId);
+        }
+    }
+
+    /** NFKC and lower case, so "Ａlice" and "alice" match the same prefixes. */
+    static String fold(String value) {
+        return Normalizer.normalize(value, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    private void afterCommit(Runnable action, String clusterKey) {
+        Runnable everywhere = () -> {
+            action.run();
+            clusterInvalidations.publish(CLUSTER_CACHE, clusterKey);
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            everywhere.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                everywhere.run();
+            }
+        });
+    }
+}
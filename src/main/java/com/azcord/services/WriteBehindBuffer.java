@@ -0,0 +1,135 @@
+package com.azcord.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Collects frequent "latest value wins" updates in memory and hands them to a writer in
+ * one batch every flush interval. Updates to the same key in between collapse into one,
+ * so a busy row is written at most once per interval no matter how many updates it gets.
+ *
+ * Values not yet written are readable through {@link #pending}, including while a flush
+ * is in progress. A failed batch is merged back and retried on the next flush.
+ */
+public class WriteBehindBuffer<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private final String name;
+    private final BinaryOperator<V> merge;
+    private final Consumer<Map<K, V>> writer;
+    private final ConcurrentHashMap<K, V> pending = new ConcurrentHashMap<>();
+    // The batch being written right now; still visible to readers until it lands
+    private volatile Map<K, V> inFlight = Collections.emptyMap();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param merge   Combines an older and a newer value for the same key, e.g. the later timestamp.
+     * @param writer  Persists one batch; throwing keeps the batch for the next attempt.
+     */
+    public WriteBehindBuffer(String name, BinaryOperator<V> merge, Consumer<Map<K, V>> writer,
+                             long flushIntervalMillis, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.merge = merge;
+        this.writer = writer;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        Gauge.builder("azcord.writebehind.pending", pending, Map::size)
+                .tag("buffer", name)
+                .register(meterRegistry);
+    }
+
+    public void record(K key, V value) {
+        pending.merge(key, value, merge);
+    }
+
+    /** The newest value recorded for the key that may not be in the database yet. */
+    public Optional<V> pending(K key) {
+        V queued = pending.get(key);
+        V writing = inFlight.get(key);
+        if (queued == null) return Optional.ofNullable(writing);
+        if (writing == null) return Optional.of(queued);
+        return Optional.of(merge.apply(writing, queued));
+    }
+
+    /** Number of keys waiting to be written. */
+    public int size() {
+        return pending.size();
+    }
+
+    /** The keys waiting to be written, as of now. */
+    public Set<K> pendingKeys() {
+        return new HashSet<>(pending.keySet());
+    }
+
+    /** Writes everything recorded so far; called by the timer and on shutdown. */
+    public synchronized void flush() {
+        write(pending.keySet());
+    }
+
+    /** Writes only the given keys, e.g. the ones a read is about to order by. */
+    public synchronized void flush(Collection<K> keys) {
+        write(keys);
+    }
+
+    // Called holding the monitor
+    private void write(Collection<K> keys) {
+        if (pending.isEmpty()) return;
+        Map<K, V> batch = new HashMap<>();
+        for (K key : keys) {
+            V value = pending.remove(key);
+            if (value != null) {
+                batch.put(key, value);
+            }
+        }
+        if (batch.isEmpty()) return;
+        inFlight = batch;
+        try {
+            writer.accept(batch);
+        } catch (RuntimeException e) {
+            batch.forEach(this::record); // newer values recorded meanwhile still win
+            throw e;
+        } finally {
+            inFlight = Collections.emptyMap();
+        }
+    }
+
+    /** Stops the timer and writes what is left. */
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.warn("Write-behind flush of {} failed, {} keys kept for retry: {}", name, pending.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.azcord.broker.OutboundLane;
+import com.azcord.services.BroadcastOutbox;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BroadcastOutboxTests {
+
+    private static final int EVENTS = 500;
+
+    private SimpMessagingTemplate template;
+    private BroadcastOutbox outbox;
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(EVENTS * 2);
+
+    @BeforeEach
+    void setUp() {
+        template = mock(SimpMessagingTemplate.class);
+        doAnswer(inv -> {
+            sent.add(inv.getArgument(0) + "#" + inv.getArgument(1));
+            done.countDown();
+            return null;
+        }).when(template).convertAndSend(anyString(), any(Object.class));
+        // Events are fed straight to the after-commit listener, as Spring would once committed
+        ApplicationEventPublisher publisher = event -> outbox.onCommitted((BroadcastOutbox.BroadcastEvent) event);
+        outbox = new BroadcastOutbox(publisher, template, new SimpleMeterRegistry(), 4, 16);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        outbox.shutdown();
+    }
+
+    @Test
+    void keepsPerDestinationOrder() throws Exception {
+        for (int i = 0; i < EVENTS; i++) {
+            outbox.send("/topic/channels/1/messages", i);
+            outbox.send("/topic/channels/2/messages", i);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        for (String destination : List.of("/topic/channels/1/messages", "/topic/channels/2/messages")) {
+            List<String> forDestination = sent.stream().filter(s -> s.startsWith(destination + "#")).toList();
+            assertEquals(EVENTS, forDestination.size());
+            for (int i = 0; i < EVENTS; i++) {
+                assertEquals(destination + "#" + i, forDestination.get(i));
+            }
+        }
+    }
+
+    @Test
+    void aCoalesceKeyTravelsAsAHeader() {
+        outbox.send("/topic/channels/1/messages/reactions/updated", "delta", "7 👍");
+        verify(template, timeout(5000)).convertAndSend("/topic/channels/1/messages/reactions/updated", (Object) "delta",
+                Map.<String, Object>of(OutboundLane.COALESCE_HEADER, "7 👍"));
+    }
+}
@@ -0,0 +1,167 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.azcord.models.ChatType;
+import com.azcord.models.DirectMessageChat;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.services.ChatActivityTracker;
+import com.azcord.services.WriteBehindBuffer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-activity;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ChatActivityTrackerTests {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DirectMessageChatRepository chats;
+
+    private ChatActivityTracker tracker;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        // Long interval so only the explicit flushes below write anything
+        tracker = new ChatActivityTracker(jdbcTemplate, transactionManager,
+                meterRegistry, 60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        tracker.shutdown();
+        chats.deleteAll();
+    }
+
+    @Test
+    void bumpsAreVisibleBeforeTheyAreWritten() {
+        LocalDateTime stored = LocalDateTime.now().minusDays(1).withNano(0);
+        DirectMessageChat chat = chat(stored);
+
+        tracker.touch(chat.getId());
+
+        assertEquals(1, tracker.pendingCount());
+        assertTrue(tracker.lastActivity(chat.getId(), stored).isAfter(stored));
+        assertEquals(stored, storedActivity(chat.getId()));
+        assertEquals(1.0, meterRegistry.get("azcord.writebehind.pending").tag("buffer", "chat-activity").gauge().value());
+    }
+
+    @Test
+    void flushWritesEveryChatInOneBatch() {
+        LocalDateTime stored = LocalDateTime.now().minusDays(1).withNano(0);
+        DirectMessageChat first = chat(stored);
+        DirectMessageChat second = chat(null);
+        DirectMessageChat untouched = chat(stored);
+
+        for (int i = 0; i < 50; i++) {
+            tracker.touch(first.getId());
+        }
+        tracker.touch(second.getId());
+        assertEquals(2, tracker.pendingCount());
+
+        tracker.flush();
+
+        assertEquals(0, tracker.pendingCount());
+        assertTrue(storedActivity(first.getId()).isAfter(stored));
+        assertNotNull(storedActivity(second.getId()));
+        assertEquals(stored, storedActivity(untouched.getId()));
+    }
+
+    @Test
+    void flushNeverMovesActivityBackwards() {
+        LocalDateTime future = LocalDateTime.now().plusHours(1).withNano(0);
+        DirectMessageChat chat = chat(future);
+
+        tracker.touch(chat.getId());
+        tracker.flush();
+
+        assertEquals(future, storedActivity(chat.getId()));
+    }
+
+    @Test
+    void shutdownWritesWhatIsLeft() {
+        LocalDateTime stored = LocalDateTime.now().minusDays(1).withNano(0);
+        DirectMessageChat chat = chat(stored);
+
+        tracker.touch(chat.getId());
+        tracker.shutdown();
+
+        assertTrue(storedActivity(chat.getId()).isAfter(stored));
+    }
+
+    @Test
+    void bufferCoalescesAndRetriesFailedBatches() {
+        List<Map<String, Integer>> writes = new ArrayList<>();
+        boolean[] fail = {true};
+        WriteBehindBuffer<String, Integer> buffer = new WriteBehindBuffer<>("test", Math::max, batch -> {
+            if (fail[0]) throw new IllegalStateException("database down");
+            writes.add(new HashMap<>(batch));
+        }, 60_000, meterRegistry);
+        try {
+            buffer.record("a", 1);
+            buffer.record("a", 3);
+            buffer.record("a", 2);
+            buffer.record("b", 7);
+            assertEquals(Optional.of(3), buffer.pending("a"));
+
+            assertThrows(IllegalStateException.class, buffer::flush);
+            assertEquals(2, buffer.size());
+            assertEquals(Optional.of(3), buffer.pending("a"));
+
+            buffer.record("a", 5);
+            fail[0] = false;
+            buffer.flush();
+
+            assertEquals(List.of(Map.of("a", 5, "b", 7)), writes);
+            assertEquals(Optional.empty(), buffer.pending("a"));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private DirectMessageChat chat(LocalDateTime lastActivityAt) {
+        DirectMessageChat chat = new DirectMessageChat();
+        chat.setChatType(ChatType.GROUP_DIRECT_MESSAGE);
+        chat.setName("group");
+        chat.setLastActivityAt(lastActivityAt);
+        return chats.save(chat);
+    }
+
+    private LocalDateTime storedActivity(Long chatId) {
+        return jdbcTemplate.queryForObject("SELECT last_activity_at FROM direct_message_chats WHERE id = ?",
+                LocalDateTime.class, chatId);
+    }
+}
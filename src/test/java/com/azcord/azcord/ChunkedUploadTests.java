@@ -0,0 +1,203 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.azcord.config.FileStorageProperties;
+import com.azcord.dto.CreateUploadDTO;
+import com.azcord.dto.UploadSessionDTO;
+import com.azcord.exceptions.ForbiddenAccessException;
+import com.azcord.exceptions.InvalidUploadException;
+import com.azcord.models.UploadStatus;
+import com.azcord.models.User;
+import com.azcord.repositories.FileBlobRepository;
+import com.azcord.repositories.UploadSessionRepository;
+import com.azcord.repositories.UserRepository;
+import com.azcord.services.ChunkedUploadService;
+import com.azcord.services.ContentAddressedFileStorageService;
+import com.azcord.services.StagedFile;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-uploads;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // the service runs its own transactions
+class ChunkedUploadTests {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @TempDir
+    Path uploadDir;
+
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileBlobRepository blobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ContentAddressedFileStorageService storage;
+    private ChunkedUploadService uploads;
+    private TransactionTemplate transactionTemplate;
+    private final byte[] content = new byte[CHUNK_SIZE * 2 + 100];
+    private Long alice;
+    private Long mallory;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setUploadDir(uploadDir.toString());
+        storage = new ContentAddressedFileStorageService(properties, blobRepository, transactionManager);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        uploads = new ChunkedUploadService(uploadSessionRepository, userRepository, storage, transactionTemplate,
+                properties, CHUNK_SIZE, 1_000_000, 24, 2);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        new Random(42).nextBytes(content);
+        alice = saveUser("alice");
+        mallory = saveUser("mallory");
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        uploadSessionRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void chunksArriveOutOfOrderAndResumeAfterAFailedOne() throws Exception {
+        UploadSessionDTO session = uploads.create(request(sha256(content)), alice);
+        assertEquals(3, session.getChunkCount());
+        assertEquals(List.of(0, 1, 2), session.getMissingChunks());
+
+        put(session, 2);
+        // A chunk that was cut short is rejected and stays missing
+        byte[] truncated = Arrays.copyOf(chunk(0), 10);
+        assertThrows(InvalidUploadException.class, () ->
+                uploads.writeChunk(session.getUploadId(), 0, sha256(chunk(0)), new ByteArrayInputStream(truncated), alice));
+        // As does one whose bytes do not match its checksum
+        assertThrows(InvalidUploadException.class, () ->
+                uploads.writeChunk(session.getUploadId(), 1, sha256(chunk(0)), new ByteArrayInputStream(chunk(1)), alice));
+        assertThrows(InvalidUploadException.class, () -> uploads.complete(session.getUploadId(), alice));
+
+        UploadSessionDTO resumed = uploads.getSession(session.getUploadId(), alice);
+        assertEquals(List.of(0, 1), resumed.getMissingChunks());
+        put(session, 0);
+        put(session, 1);
+        put(session, 1); // resent after a lost response
+
+        UploadSessionDTO completed = uploads.complete(session.getUploadId(), alice);
+        assertEquals(UploadStatus.COMPLETE, completed.getStatus());
+        assertTrue(completed.getFileUrl().endsWith("/api/files/" + sha256(content) + ".bin"));
+        assertEquals(completed.getFileUrl(), uploads.complete(session.getUploadId(), alice).getFileUrl());
+
+        List<StagedFile> staged = transactionTemplate.execute(status ->
+                uploads.consume(List.of(session.getUploadId()), alice));
+        assertEquals(1, staged.size());
+        assertEquals("video.bin", staged.get(0).originalFileName());
+        assertFalse(uploadSessionRepository.existsById(session.getUploadId()));
+
+        storage.promoteStaged(staged.get(0).stagingName());
+        assertArrayEquals(content, Files.readAllBytes(storage.locate(staged.get(0).storedFileName())));
+    }
+
+    @Test
+    void wholeFileChecksumIsCheckedOnCompletion() throws Exception {
+        UploadSessionDTO session = uploads.create(request(sha256(new byte[] {1})), alice);
+        for (int i = 0; i < 3; i++) {
+            put(session, i);
+        }
+
+        assertThrows(InvalidUploadException.class, () -> uploads.complete(session.getUploadId(), alice));
+        assertEquals(UploadStatus.UPLOADING, uploads.getSession(session.getUploadId(), alice).getStatus());
+    }
+
+    @Test
+    void uploadsBelongToTheirOwner() throws Exception {
+        UploadSessionDTO session = uploads.create(request(null), alice);
+
+        assertThrows(ForbiddenAccessException.class, () -> uploads.getSession(session.getUploadId(), mallory));
+        assertThrows(ForbiddenAccessException.class, () ->
+                uploads.writeChunk(session.getUploadId(), 0, sha256(chunk(0)), new ByteArrayInputStream(chunk(0)), mallory));
+
+        uploads.abort(session.getUploadId(), alice);
+        assertFalse(uploadSessionRepository.existsById(session.getUploadId()));
+        assertFalse(Files.exists(uploadDir.resolve(".chunks").resolve(session.getUploadId() + ".part")));
+    }
+
+    @Test
+    void openSessionsAreCappedPerUser() {
+        UploadSessionDTO first = uploads.create(request(null), alice);
+        uploads.create(request(null), alice);
+
+        assertThrows(InvalidUploadException.class, () -> uploads.create(request(null), alice));
+        uploads.create(request(null), mallory);
+
+        uploads.abort(first.getUploadId(), alice);
+        uploads.create(request(null), alice);
+    }
+
+    private void put(UploadSessionDTO session, int index) throws Exception {
+        byte[] chunk = chunk(index);
+        uploads.writeChunk(session.getUploadId(), index, sha256(chunk), new ByteArrayInputStream(chunk), alice);
+    }
+
+    private byte[] chunk(int index) {
+        return Arrays.copyOfRange(content, index * CHUNK_SIZE, Math.min(content.length, (index + 1) * CHUNK_SIZE));
+    }
+
+    private CreateUploadDTO request(String sha256) {
+        CreateUploadDTO request = new CreateUploadDTO();
+        request.setFileName("video.bin");
+        request.setContentType("application/octet-stream");
+        request.setSize(content.length);
+        request.setSha256(sha256);
+        return request;
+    }
+
+    private Long saveUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        user.setPassword("secret");
+        return userRepository.save(user).getId();
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
@@ -0,0 +1,174 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.azcord.broker.ClusterBrokerRelay;
+import com.azcord.broker.ClusterFrame;
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.broker.LocalSubscriptionRegistry;
+import com.azcord.broker.TcpClusterBus;
+
+/**
+ * Two nodes talking over loopback TCP, each with a stand-in broker channel that
+ * records what its local simple broker would have received.
+ */
+class ClusterBrokerRelayTests {
+
+    private static final String WATCHED = "/topic/channels/1/messages";
+    private static final String SECRET = "test-cluster-secret";
+
+    private Node a;
+    private Node b;
+
+    @BeforeEach
+    void startCluster() throws Exception {
+        a = new Node(List.of());
+        b = new Node(List.of(new InetSocketAddress("127.0.0.1", a.bus.getLocalPort())));
+        a.bus.addPeer(new InetSocketAddress("127.0.0.1", b.bus.getLocalPort()));
+        await(() -> a.bus.getPeers().contains(b.bus.getNodeId()) && b.bus.getPeers().contains(a.bus.getNodeId()));
+    }
+
+    @AfterEach
+    void stopCluster() {
+        a.relay.stop();
+        b.relay.stop();
+    }
+
+    @Test
+    void forwardsOnlyDestinationsThePeerSubscribesTo() throws Exception {
+        b.registry.subscribe("session-1", "sub-0", WATCHED);
+        await(() -> a.relay.isInterested(b.bus.getNodeId(), WATCHED));
+
+        a.publish("/topic/channels/2/messages", "unwatched");
+        a.publish(WATCHED, "hello");
+
+        Message<?> received = b.received.poll(5, TimeUnit.SECONDS);
+        assertEquals(WATCHED, SimpMessageHeaderAccessor.getDestination(received.getHeaders()));
+        assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), (byte[]) received.getPayload());
+        // Delivered locally on B, but never sent back around to A
+        b.relay.preSend(received, b.channel);
+        assertTrue(a.received.isEmpty());
+
+        b.registry.removeSession("session-1");
+        await(() -> !a.relay.isInterested(b.bus.getNodeId(), WATCHED));
+    }
+
+    @Test
+    void broadcastsUnresolvedUserMessagesToEveryPeer() throws Exception {
+        a.publish(ClusterBrokerRelay.USER_BROADCAST_DESTINATION, "for bob");
+        Message<?> received = b.received.poll(5, TimeUnit.SECONDS);
+        assertEquals(ClusterBrokerRelay.USER_BROADCAST_DESTINATION,
+                SimpMessageHeaderAccessor.getDestination(received.getHeaders()));
+        assertTrue(SimpMessageHeaderAccessor.getSessionId(received.getHeaders()) != null);
+    }
+
+    @Test
+    void invalidationsReachEveryPeerAndAReconnectResetsTheCaches() throws Exception {
+        BlockingQueue<String> keys = new LinkedBlockingQueue<>();
+        AtomicInteger resets = new AtomicInteger();
+        b.invalidations.register("permissions", keys::add, resets::incrementAndGet);
+        a.invalidations.register("permissions", key -> { throw new AssertionError("sent back to its origin"); }, () -> { });
+
+        a.invalidations.publish("permissions", "server:7");
+        a.invalidations.publish("usernames", "user:1"); // no such cache on B
+        assertEquals("server:7", keys.poll(5, TimeUnit.SECONDS));
+
+        Node c = new Node(List.of(new InetSocketAddress("127.0.0.1", b.bus.getLocalPort())));
+        try {
+            b.bus.addPeer(new InetSocketAddress("127.0.0.1", c.bus.getLocalPort()));
+            await(() -> resets.get() == 1);
+        } finally {
+            c.relay.stop();
+        }
+    }
+
+    @Test
+    void aNodeWithoutTheSecretIsNotLetIn() throws Exception {
+        Node stranger = new Node(List.of(new InetSocketAddress("127.0.0.1", a.bus.getLocalPort())), "guessed");
+        try {
+            Thread.sleep(500);
+            assertTrue(stranger.bus.getPeers().isEmpty());
+            assertEquals(1, a.bus.getPeers().size());
+        } finally {
+            stranger.relay.stop();
+        }
+    }
+
+    @Test
+    void aPeerPosingAsTheNodeGetsNoAnswerToReflect() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", a.bus.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            ClusterFrame hello = ClusterFrame.readFrom(in);
+            ClusterFrame.hello(a.bus.getNodeId(), hello.headers().get(ClusterFrame.NONCE_HEADER)).writeTo(out);
+            out.flush();
+
+            // A would have answered with an AUTH frame; it hangs up instead
+            assertThrows(EOFException.class, () -> ClusterFrame.readFrom(in));
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Cluster did not converge in time");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static final class Node {
+        final TcpClusterBus bus;
+        final LocalSubscriptionRegistry registry = new LocalSubscriptionRegistry();
+        final BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+        final MessageChannel channel = (message, timeout) -> received.add(message);
+        final ClusterInvalidations invalidations;
+        final ClusterBrokerRelay relay;
+
+        Node(List<InetSocketAddress> peers) {
+            this(peers, SECRET);
+        }
+
+        Node(List<InetSocketAddress> peers, String secret) {
+            bus = new TcpClusterBus("127.0.0.1", 0, peers, secret);
+            invalidations = new ClusterInvalidations(bus);
+            relay = new ClusterBrokerRelay(bus, registry, channel, invalidations);
+            relay.start();
+        }
+
+        void publish(String destination, String payload) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setDestination(destination);
+            relay.preSend(MessageBuilder.createMessage(payload.getBytes(StandardCharsets.UTF_8),
+                    accessor.getMessageHeaders()), channel);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.azcord.config.FileStorageProperties;
+import com.azcord.repositories.FileBlobRepository;
+import com.azcord.services.ContentAddressedFileStorageService;
+import com.azcord.services.StagedFile;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-blobs;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // the store commits and reclaims on its own
+class ContentAddressedStorageTests {
+
+    private static final byte[] MEME = "the same meme, posted again".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path uploadDir;
+
+    @Autowired
+    private FileBlobRepository blobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ContentAddressedFileStorageService storage;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setUploadDir(uploadDir.toString());
+        storage = new ContentAddressedFileStorageService(properties, blobRepository, transactionManager);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        blobRepository.deleteAll();
+    }
+
+    @Test
+    void identicalUploadsShareOneBlobUntilTheLastReferenceGoes() throws Exception {
+        String first = storage.storePublicFile(new MockMultipartFile("avatar", "a.PNG", "image/png", MEME));
+        String second = storage.storePublicFile(new MockMultipartFile("avatar", "b.png", "image/png", MEME));
+
+        assertEquals(first, second);
+        String storedName = first.substring(first.lastIndexOf('/') + 1);
+        String hash = storedName.substring(0, 64);
+        assertTrue(storedName.endsWith(".png"));
+        Path blob = storage.locate(storedName);
+        assertEquals(uploadDir.resolve("blobs").resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash),
+                blob);
+        assertEquals(1, countBlobFiles());
+        assertEquals(2, blobRepository.findById(hash).orElseThrow().getRefCount());
+
+        storage.releasePublicFile(first);
+        assertTrue(Files.exists(blob));
+        assertEquals(1, blobRepository.findById(hash).orElseThrow().getRefCount());
+
+        storage.deleteFile(storedName);
+        assertFalse(Files.exists(blob));
+        assertFalse(blobRepository.existsById(hash));
+    }
+
+    @Test
+    void concurrentStagingOfTheSameBytesStoresThemOnce() throws Exception {
+        List<StagedFile> staged = storage.stageFiles(List.of(
+                new MockMultipartFile("files", "x.gif", "image/gif", MEME),
+                new MockMultipartFile("files", "y.gif", "image/gif", MEME)));
+
+        assertEquals(staged.get(0).storedFileName(), staged.get(1).storedFileName());
+        assertNotEquals(staged.get(0).stagingName(), staged.get(1).stagingName());
+        assertEquals(staged.get(0).storedFileName(), storage.storedNameOfStaged(staged.get(0).stagingName()));
+
+        storage.promoteStaged(staged.get(0).stagingName());
+        storage.promoteStaged(staged.get(1).stagingName());
+        assertEquals(1, countBlobFiles());
+        assertEquals(MEME.length, Files.size(storage.locate(staged.get(0).storedFileName())));
+        try (Stream<Path> leftovers = Files.list(uploadDir.resolve(".staging"))) {
+            assertEquals(0, leftovers.count());
+        }
+    }
+
+    @Test
+    void onlyBlobsReferencedAsPublicFilesArePublic() throws Exception {
+        StagedFile attachment = storage.stageFiles(List.of(new MockMultipartFile("files", "x.gif", "image/gif", MEME))).get(0);
+        storage.toAttachment(attachment, null);
+        storage.promoteStaged(attachment.stagingName());
+
+        assertNull(storage.locatePublic(attachment.storedFileName()));
+        assertNull(storage.locatePublic("legacy-upload.png"));
+
+        String avatar = storage.storePublicFile(new MockMultipartFile("avatar", "a.gif", "image/gif", MEME));
+        assertEquals(storage.locate(attachment.storedFileName()), storage.locatePublic(attachment.storedFileName()));
+
+        storage.releasePublicFile(avatar);
+        assertNull(storage.locatePublic(attachment.storedFileName()));
+        assertEquals(1, blobRepository.findById(attachment.storedFileName().substring(0, 64)).orElseThrow().getRefCount());
+    }
+
+    @Test
+    void aRolledBackProfileUpdateLeavesNoBlobBehind() throws Exception {
+        String url = new TransactionTemplate(transactionManager).execute(status -> {
+            try {
+                String stored = storage.storePublicFile(new MockMultipartFile("avatar", "a.png", "image/png", MEME));
+                assertEquals(0, countBlobFiles()); // not before the caller commits
+                status.setRollbackOnly();
+                return stored;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertEquals(0, countBlobFiles());
+        assertFalse(blobRepository.existsById(url.substring(url.lastIndexOf('/') + 1, url.lastIndexOf('/') + 65)));
+        try (Stream<Path> leftovers = Files.list(uploadDir.resolve(".staging"))) {
+            assertEquals(0, leftovers.count());
+        }
+    }
+
+    @Test
+    void concurrentFirstUploadsOfTheSameBytesCountEveryReference() throws Exception {
+        int uploads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(uploads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<String>> urls = new ArrayList<>();
+            for (int i = 0; i < uploads; i++) {
+                urls.add(pool.submit(() -> {
+                    start.await();
+                    return storage.storePublicFile(new MockMultipartFile("avatar", "a.png", "image/png", MEME));
+                }));
+            }
+            start.countDown();
+            String url = null;
+            for (Future<String> future : urls) {
+                url = future.get(10, TimeUnit.SECONDS);
+            }
+            String hash = url.substring(url.lastIndexOf('/') + 1, url.lastIndexOf('/') + 65);
+            assertEquals(uploads, blobRepository.findById(hash).orElseThrow().getRefCount());
+            assertEquals(uploads, blobRepository.findById(hash).orElseThrow().getPublicRefs());
+            assertEquals(1, countBlobFiles());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private long countBlobFiles() throws Exception {
+        try (Stream<Path> files = Files.walk(uploadDir.resolve("blobs"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
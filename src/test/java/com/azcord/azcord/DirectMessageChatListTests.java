@@ -0,0 +1,281 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.azcord.broker.SubscriptionGuard;
+import com.azcord.dto.DirectMessageChatDTO;
+import com.azcord.dto.DirectMessageChatPageDTO;
+import com.azcord.exceptions.InvalidCursorException;
+import com.azcord.models.ChatType;
+import com.azcord.models.DirectMessageChat;
+import com.azcord.models.Message;
+import com.azcord.models.User;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.MessageRepository;
+import com.azcord.repositories.UserRepository;
+import com.azcord.services.BroadcastOutbox;
+import com.azcord.services.ChatActivityTracker;
+import com.azcord.services.ChatService;
+import com.azcord.services.FileStorageService;
+import com.azcord.services.MessageMapper;
+import com.azcord.services.MessageService;
+import com.azcord.services.ReadStateService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * The DM list must cost the same number of statements however many chats a user has,
+ * and page by last activity without skipping or repeating chats.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-dm-list;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.show-sql=false",
+        "azcord.chat-activity.flush-ms=60000"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ChatService.class, MessageMapper.class, ChatActivityTracker.class, ReadStateService.class,
+        DirectMessageChatListTests.Metrics.class})
+class DirectMessageChatListTests {
+
+    // user check + chat page + participants + last messages + their senders, attachments, reactions
+    // + unread counters and read states
+    private static final long MAX_STATEMENTS_PER_LIST = 9;
+    private static final int CHATS = 30;
+
+    @TestConfiguration
+    static class Metrics {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @MockBean
+    private MessageService messageService;
+
+    @MockBean
+    private BroadcastOutbox broadcastOutbox;
+
+    @MockBean
+    private SubscriptionGuard subscriptionGuard;
+
+    @MockBean
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    @Autowired
+    private ChatActivityTracker chatActivityTracker;
+
+    @Autowired
+    private DirectMessageChatRepository chats;
+
+    @Autowired
+    private MessageRepository messages;
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate tx;
+    private User viewer;
+    private final List<Long> chatIdsByActivity = new ArrayList<>(); // newest first
+
+    @BeforeEach
+    void seed() {
+        when(messageService.mapMessagesToDTOs(anyList()))
+                .thenAnswer(invocation -> messageMapper.toDTOs(invocation.getArgument(0)));
+        tx = new TransactionTemplate(transactionManager);
+        tx.executeWithoutResult(status -> {
+            viewer = users.save(user("viewer"));
+            LocalDateTime base = LocalDateTime.now().minusDays(1).withNano(0);
+            for (int i = 0; i < CHATS; i++) {
+                User friend = users.save(user("friend" + i));
+                DirectMessageChat chat = new DirectMessageChat();
+                chat.setChatType(ChatType.DIRECT_MESSAGE);
+                chat.getParticipants().add(viewer);
+                chat.getParticipants().add(friend);
+                // Pairs share a timestamp so the id tie-break is exercised
+                chat.setLastActivityAt(base.plusMinutes(i / 2));
+                chat = chats.save(chat);
+                for (int m = 0; m < 2; m++) {
+                    Message message = new Message();
+                    message.setSender(m == 0 ? viewer : friend);
+                    message.setDirectMessageChat(chat);
+                    message.setContent("hello " + i + "/" + m);
+                    message = messages.save(message);
+                    chats.advanceLastMessageId(chat.getId(), message.getId());
+                }
+                chatIdsByActivity.add(0, chat.getId());
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        chatActivityTracker.flush();
+        messages.deleteAll();
+        chats.deleteAll();
+        users.deleteAll();
+    }
+
+    @Test
+    void listCostsConstantStatements() {
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+
+        List<DirectMessageChatDTO> list = chatService.getUserDirectMessageChats(viewer.getId());
+
+        assertEquals(CHATS, list.size());
+        assertTrue(stats.getPrepareStatementCount() <= MAX_STATEMENTS_PER_LIST,
+                "Listing " + CHATS + " chats cost " + stats.getPrepareStatementCount() + " statements");
+        for (DirectMessageChatDTO dto : list) {
+            assertEquals(2, dto.getParticipants().size());
+            assertTrue(dto.getName().startsWith("friend"));
+            assertNotNull(dto.getLastMessage());
+            assertTrue(dto.getLastMessage().getContent().endsWith("/1"));
+        }
+    }
+
+    @Test
+    void pagesFollowActivityWithoutGapsOrRepeats() {
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            DirectMessageChatPageDTO page = chatService.getUserDirectMessageChatPage(viewer.getId(), cursor, 7);
+            page.getChats().forEach(dto -> seen.add(dto.getId()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(5, pages);
+        assertEquals(chatIdsByActivity, seen);
+        assertThrows(InvalidCursorException.class,
+                () -> chatService.getUserDirectMessageChatPage(viewer.getId(), "not-a-cursor", 7));
+    }
+
+    @Test
+    void pendingActivityIsFlushedBeforeListing() {
+        Long oldest = chatIdsByActivity.get(CHATS - 1);
+        chatActivityTracker.touch(oldest);
+
+        DirectMessageChatPageDTO page = chatService.getUserDirectMessageChatPage(viewer.getId(), null, 3);
+
+        assertEquals(oldest, page.getChats().get(0).getId());
+    }
+
+    @Test
+    void listingLeavesOtherUsersBumpsPending() {
+        Long oldest = chatIdsByActivity.get(CHATS - 1);
+        chatActivityTracker.touch(oldest);
+        chatActivityTracker.touch(Long.MAX_VALUE); // a chat the viewer is not in
+
+        chatService.getUserDirectMessageChatPage(viewer.getId(), null, 3);
+
+        assertEquals(Set.of(Long.MAX_VALUE), chatActivityTracker.pendingChatIds());
+        chatActivityTracker.flush();
+    }
+
+    @Test
+    void lastMessagePointerMovesForwardAndBackOnDelete() {
+        Long chatId = chatIdsByActivity.get(0);
+        List<Long> ids = messageIds(chatId);
+        Long newest = ids.get(ids.size() - 1);
+        Long older = ids.get(0);
+
+        tx.executeWithoutResult(status -> assertEquals(0, chats.advanceLastMessageId(chatId, older)));
+        assertEquals(newest, pointer(chatId));
+
+        tx.executeWithoutResult(status -> {
+            messages.deleteById(newest);
+            chats.retreatLastMessageId(chatId, newest);
+        });
+        assertEquals(older, pointer(chatId));
+
+        tx.executeWithoutResult(status -> {
+            messages.deleteById(older);
+            chats.retreatLastMessageId(chatId, older);
+        });
+        assertNull(pointer(chatId));
+    }
+
+    @Test
+    void backfillPointsOldChatsAtTheirNewestMessage() {
+        jdbcTemplate.update("UPDATE direct_message_chats SET last_message_id = NULL, last_activity_at = NULL");
+
+        chatService.backfillChatListColumns();
+
+        Set<Long> withoutPointer = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT id FROM direct_message_chats WHERE last_message_id IS NULL OR last_activity_at IS NULL", Long.class));
+        assertTrue(withoutPointer.isEmpty());
+        Long chatId = chatIdsByActivity.get(0);
+        List<Long> ids = messageIds(chatId);
+        assertEquals(ids.get(ids.size() - 1), pointer(chatId));
+    }
+
+    private List<Long> messageIds(Long chatId) {
+        return jdbcTemplate.queryForList(
+                "SELECT id FROM messages WHERE direct_message_chat_id = ? ORDER BY id", Long.class, chatId);
+    }
+
+    private Long pointer(Long chatId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT last_message_id FROM direct_message_chats WHERE id = ?", Long.class, chatId);
+    }
+
+    private static User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@azcord.test");
+        user.setPassword("x");
+        return user;
+    }
+}
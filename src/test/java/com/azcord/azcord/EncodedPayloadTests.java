@@ -0,0 +1,147 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.util.MimeTypeUtils;
+
+import com.azcord.config.EncodedPayloadHttpMessageConverter;
+import com.azcord.config.EncodedPayloadMessageConverter;
+import com.azcord.dto.AttachmentDTO;
+import com.azcord.dto.MessageDTO;
+import com.azcord.dto.UserSimpleDTO;
+import com.azcord.models.MessageType;
+import com.azcord.services.EncodedPayload;
+import com.azcord.services.PayloadEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class EncodedPayloadTests {
+
+    private ObjectMapper objectMapper;
+    private PayloadEncoder encoder;
+    private MessageChannel brokerChannel;
+    private SimpMessagingTemplate template;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        encoder = new PayloadEncoder(objectMapper);
+        brokerChannel = mock(MessageChannel.class);
+        when(brokerChannel.send(any())).thenReturn(true);
+        MappingJackson2MessageConverter jackson = new MappingJackson2MessageConverter();
+        jackson.setObjectMapper(objectMapper);
+        // Same order WebSocketConfig sets up: encoded payloads first, Jackson for everything else
+        List<MessageConverter> converters = List.of(new EncodedPayloadMessageConverter(), jackson);
+        template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(new CompositeMessageConverter(converters));
+    }
+
+    @Test
+    void stompFrameCarriesTheEncodedBuffer() throws Exception {
+        EncodedPayload<MessageDTO> encoded = encoder.encode(message(1L));
+        assertArrayEquals(objectMapper.writeValueAsBytes(encoded.value()), encoded.json());
+
+        template.convertAndSend("/topic/channels/1/messages", encoded);
+
+        Message<?> sent = lastSent();
+        assertSame(encoded.json(), sent.getPayload());
+        assertEquals(MimeTypeUtils.APPLICATION_JSON, sent.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+    }
+
+    @Test
+    void restResponseWritesTheSameBytes() throws Exception {
+        EncodedPayload<MessageDTO> encoded = encoder.encode(message(2L));
+        EncodedPayloadHttpMessageConverter converter = new EncodedPayloadHttpMessageConverter();
+        MockHttpOutputMessage response = new MockHttpOutputMessage();
+
+        converter.write(encoded, MediaType.APPLICATION_JSON, response);
+
+        assertArrayEquals(encoded.json(), response.getBodyAsBytes());
+        assertEquals(encoded.json().length, response.getHeaders().getContentLength());
+        assertEquals(MediaType.APPLICATION_JSON, response.getHeaders().getContentType());
+    }
+
+    @Test
+    void otherPayloadsStillGoThroughJackson() throws Exception {
+        template.convertAndSend("/topic/users/updated", Map.of("id", 3));
+        assertArrayEquals(objectMapper.writeValueAsBytes(Map.of("id", 3)), (byte[]) lastSent().getPayload());
+
+        // Serialized by anything else, an encoded payload is just its value
+        EncodedPayload<MessageDTO> encoded = encoder.encode(message(4L));
+        assertArrayEquals(encoded.json(), objectMapper.writeValueAsBytes(encoded));
+    }
+
+    /**
+     * Cost of one encode against the two (REST reply + broadcast) it replaces. Opt-in:
+     * mvn test -Dtest=EncodedPayloadTests -Dazcord.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "azcord.benchmark", matches = "true")
+    void benchmarkEncodeCost() throws Exception {
+        MessageDTO dto = message(5L);
+        int rounds = Integer.getInteger("azcord.benchmark.rounds", 200_000);
+        long encodedOnce = time(rounds, () -> encoder.encode(dto));
+        long encodedTwice = time(rounds, () -> {
+            objectMapper.writeValueAsBytes(dto);
+            objectMapper.writeValueAsBytes(dto);
+        });
+        System.out.printf("Encode benchmark, %d bytes per message%n", encoder.encode(dto).json().length);
+        System.out.printf("  encode once  %8.0f ns/op%n", (double) encodedOnce / rounds);
+        System.out.printf("  encode twice %8.0f ns/op%n", (double) encodedTwice / rounds);
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    private static long time(int rounds, Op op) throws Exception {
+        for (int i = 0; i < rounds; i++) op.run(); // warm-up
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) op.run();
+        return System.nanoTime() - start;
+    }
+
+    private Message<?> lastSent() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArgumentCaptor<Message<?>> captor = (ArgumentCaptor) ArgumentCaptor.forClass(Message.class);
+        verify(brokerChannel, atLeastOnce()).send(captor.capture());
+        List<Message<?>> sent = captor.getAllValues();
+        return sent.get(sent.size() - 1);
+    }
+
+    private static MessageDTO message(Long id) {
+        List<AttachmentDTO> attachments = new ArrayList<>();
+        attachments.add(new AttachmentDTO(9L, "cat.png", "/uploads/cat.png", "image/png", 2048L,
+                MessageType.IMAGE, LocalDateTime.of(2025, 5, 1, 12, 0)));
+        UserSimpleDTO sender = new UserSimpleDTO();
+        sender.setId(1L);
+        sender.setUsername("alice");
+        return new MessageDTO(id, sender, "hello there, general kenobi", MessageType.TEXT,
+                LocalDateTime.of(2025, 5, 1, 12, 0), null, false, 1L, null, attachments, Map.of("👍", 3), null);
+    }
+}
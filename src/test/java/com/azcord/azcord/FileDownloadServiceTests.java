@@ -0,0 +1,101 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.azcord.services.FileDownloadService;
+import com.azcord.services.ThumbnailService;
+
+class FileDownloadServiceTests {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @TempDir
+    Path dir;
+
+    private final FileDownloadService service = new FileDownloadService();
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = dir.resolve("3f2b8a4e-1c2d-4e5f-8a9b-0c1d2e3f4a5b.txt");
+        Files.writeString(file, CONTENT);
+    }
+
+    @Test
+    void servesWholeFileWithValidators() throws Exception {
+        MockHttpServletResponse response = get(null);
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+        assertEquals("public, max-age=31536000, immutable", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+
+        MockHttpServletRequest conditional = request(null);
+        conditional.addHeader(HttpHeaders.IF_NONE_MATCH, response.getHeader(HttpHeaders.ETAG));
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        service.serve(file, conditional, notModified);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+    }
+
+    @Test
+    void servesSingleAndMultipleRanges() throws Exception {
+        MockHttpServletResponse single = get("bytes=2-5");
+        assertEquals(206, single.getStatus());
+        assertEquals("bytes 2-5/20", single.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals("2345".getBytes(StandardCharsets.US_ASCII), single.getContentAsByteArray());
+
+        MockHttpServletResponse multi = get("bytes=0-1,-3");
+        assertEquals(206, multi.getStatus());
+        assertTrue(multi.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = multi.getContentAsString();
+        assertTrue(body.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 17-19/20\r\n\r\nhij\r\n"));
+        assertEquals(body.length(), multi.getContentLengthLong());
+    }
+
+    @Test
+    void rejectsUnsatisfiableRange() throws Exception {
+        MockHttpServletResponse response = get("bytes=50-60");
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void resizedVariantsAreImmutableToo() throws Exception {
+        String hash = "a".repeat(64);
+        MockHttpServletResponse variant = new MockHttpServletResponse();
+        service.serve(file, ThumbnailService.variantName(hash + ".png", 256), request(null), variant);
+        assertEquals("public, max-age=31536000, immutable", variant.getHeader(HttpHeaders.CACHE_CONTROL));
+
+        MockHttpServletResponse legacy = new MockHttpServletResponse();
+        service.serve(file, "avatar.png.256.png", request(null), legacy);
+        assertEquals("no-cache", legacy.getHeader(HttpHeaders.CACHE_CONTROL));
+    }
+
+    private MockHttpServletResponse get(String range) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(file, request(range), response);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/x");
+        if (range != null) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        return request;
+    }
+}
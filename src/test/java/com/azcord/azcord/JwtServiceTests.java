@@ -0,0 +1,78 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.azcord.models.User;
+import com.azcord.repositories.UserRepository;
+import com.azcord.security.JwtPrincipal;
+import com.azcord.services.JwtService;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+class JwtServiceTests {
+
+    private static final String SECRET = "test-secret";
+
+    private JwtService jwtService;
+    private UserRepository userRepository;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = new JwtService();
+        userRepository = mock(UserRepository.class);
+        ReflectionTestUtils.setField(jwtService, "SECRET_KEY", SECRET);
+        ReflectionTestUtils.setField(jwtService, "verifiedCacheTtlMs", 60_000L);
+        ReflectionTestUtils.setField(jwtService, "userRepository", userRepository);
+        when(userRepository.findIdByUsername("alice")).thenReturn(7L);
+        when(userRepository.findIdByUsername("bob")).thenReturn(null);
+    }
+
+    @Test
+    void verifiedTokenYieldsPrincipalAndIsCached() {
+        User alice = new User();
+        alice.setUsername("alice");
+        String token = jwtService.createJWT(alice);
+
+        JwtPrincipal first = jwtService.authenticate(token);
+        JwtPrincipal second = jwtService.authenticate(token);
+
+        assertEquals(7L, first.userId());
+        assertEquals("alice", first.getName());
+        assertEquals(first, second);
+        verify(userRepository, times(1)).findIdByUsername("alice");
+
+        jwtService.evictUser("alice");
+        jwtService.authenticate(token);
+        verify(userRepository, times(2)).findIdByUsername("alice");
+    }
+
+    @Test
+    void rejectsExpiredForeignAndOrphanedTokens() {
+        String expired = Jwts.builder().setSubject("alice")
+                .setExpiration(new Date(System.currentTimeMillis() - 1000))
+                .signWith(SignatureAlgorithm.HS256, SECRET).compact();
+        String foreign = Jwts.builder().setSubject("alice")
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(SignatureAlgorithm.HS256, "other-secret").compact();
+        String orphan = Jwts.builder().setSubject("bob")
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(SignatureAlgorithm.HS256, SECRET).compact();
+
+        assertNull(jwtService.authenticate(expired));
+        assertNull(jwtService.authenticate(foreign));
+        assertNull(jwtService.authenticate(orphan));
+        assertNull(jwtService.authenticate("not-a-jwt"));
+    }
+}
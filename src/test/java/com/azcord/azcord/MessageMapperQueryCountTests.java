@@ -0,0 +1,151 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import com.azcord.dto.MessageDTO;
+import com.azcord.models.Attachment;
+import com.azcord.models.Channel;
+import com.azcord.models.Message;
+import com.azcord.models.MessageReaction;
+import com.azcord.models.MessageReactionCount;
+import com.azcord.models.MessageType;
+import com.azcord.models.User;
+import com.azcord.repositories.MessageRepository;
+import com.azcord.services.MessageMapper;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Guards against N+1 regressions in history pages: mapping a page of messages
+ * must cost the same number of statements whatever the page size.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(MessageMapper.class)
+class MessageMapperQueryCountTests {
+
+    // page query + count query + senders + reply previews + attachments + reactions
+    private static final long MAX_STATEMENTS_PER_PAGE = 6;
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private MessageMapper messageMapper;
+
+    private Long channelId;
+
+    @BeforeEach
+    void seed() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            User u = new User();
+            u.setUsername("user" + i);
+            u.setEmail("user" + i + "@azcord.test");
+            u.setPassword("x");
+            em.persist(u);
+            users.add(u);
+        }
+        Channel channel = new Channel();
+        channel.setName("general");
+        em.persist(channel);
+        channelId = channel.getId();
+
+        Message previous = null;
+        for (int i = 0; i < 60; i++) {
+            Message m = new Message();
+            m.setSender(users.get(i % users.size()));
+            m.setChannel(channel);
+            m.setContent("message number " + i + " with enough text to be trimmed in reply previews");
+            m.setParentMessage(previous);
+            em.persist(m);
+
+            Attachment att = new Attachment();
+            att.setMessage(m);
+            att.setFileName("file" + i + ".png");
+            att.setFileUrl("/api/files/file" + i + ".png");
+            att.setMimeType("image/png");
+            att.setAttachmentType(MessageType.IMAGE);
+            em.persist(att);
+
+            for (int r = 0; r < 3; r++) {
+                em.persist(new MessageReaction(m, users.get((i + r) % users.size()), "👍"));
+            }
+            em.persist(new MessageReactionCount(m.getId(), "👍", 3));
+            previous = m;
+        }
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    void historyPageCostsConstantStatements() {
+        long small = statementsForPage(5);
+        long large = statementsForPage(50);
+
+        assertTrue(large <= MAX_STATEMENTS_PER_PAGE,
+                "A 50-message page cost " + large + " statements, expected at most " + MAX_STATEMENTS_PER_PAGE);
+        assertEquals(small, large, "Statement count must not grow with page size");
+    }
+
+    @Test
+    void batchMappingMatchesMessageContents() {
+        Page<Message> page = messageRepository.findByChannelIdOrderByCreatedAtDesc(channelId,
+                PageRequest.of(0, 10, Sort.by("createdAt").descending()));
+        List<MessageDTO> dtos = messageMapper.toDTOPage(page).getContent();
+
+        assertEquals(10, dtos.size());
+        for (MessageDTO dto : dtos) {
+            assertNotNull(dto.getSender().getUsername());
+            assertEquals(1, dto.getAttachments().size());
+            assertEquals(3, dto.getReactionCounts().get("👍"));
+            assertNull(dto.getMyReactions()); // reactors are paged separately, never embedded
+            assertNotNull(dto.getRepliedTo());
+            assertEquals(dto.getParentMessageId(), dto.getRepliedTo().getId());
+            assertTrue(dto.getRepliedTo().getContentSnippet().length() <= 50);
+        }
+    }
+
+    private long statementsForPage(int size) {
+        em.clear();
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+
+        Page<Message> page = messageRepository.findByChannelIdOrderByCreatedAtDesc(channelId,
+                PageRequest.of(0, size, Sort.by("createdAt").descending()));
+        Page<MessageDTO> dtos = messageMapper.toDTOPage(page);
+        assertEquals(size, dtos.getNumberOfElements());
+
+        return stats.getPrepareStatementCount();
+    }
+}
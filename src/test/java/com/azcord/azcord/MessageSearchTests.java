@@ -0,0 +1,397 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.azcord.dto.MessageDTO;
+import com.azcord.dto.MessageSliceDTO;
+import com.azcord.exceptions.ForbiddenAccessException;
+import com.azcord.exceptions.InvalidSearchQueryException;
+import com.azcord.models.Attachment;
+import com.azcord.models.Channel;
+import com.azcord.models.ChatType;
+import com.azcord.models.DirectMessageChat;
+import com.azcord.models.Message;
+import com.azcord.models.MessageType;
+import com.azcord.models.Server;
+import com.azcord.models.User;
+import com.azcord.repositories.ChannelRepository;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.MessageRepository;
+import com.azcord.repositories.ServerRepository;
+import com.azcord.repositories.UserRepository;
+import com.azcord.search.IndexQuery;
+import com.azcord.search.IndexedMessage;
+import com.azcord.search.MessageSearchIndex;
+import com.azcord.services.MessageMapper;
+import com.azcord.services.MessageSearchService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-search;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "azcord.search.flush-ms=60000",
+        "azcord.search.max-segments=3"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({MessageSearchService.class, MessageSearchIndex.class, MessageMapper.class, MessageSearchTests.Metrics.class})
+class MessageSearchTests {
+
+    private static final Path INDEX_DIR;
+
+    static {
+        try {
+            INDEX_DIR = Files.createTempDirectory("azcord-search");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void indexDir(DynamicPropertyRegistry registry) {
+        registry.add("azcord.search.index-dir", INDEX_DIR::toString);
+    }
+
+    @TestConfiguration
+    static class Metrics {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    private MessageSearchService searchService;
+
+    @Autowired
+    private MessageSearchIndex searchIndex;
+
+    @Autowired
+    private MessageRepository messages;
+
+    @Autowired
+    private ChannelRepository channels;
+
+    @Autowired
+    private DirectMessageChatRepository dmChats;
+
+    @Autowired
+    private ServerRepository servers;
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate tx;
+    private User alice;
+    private User bob;
+    private User carol; // not in the server
+    private Server server;
+    private Channel general;
+    private Channel ops;
+    private DirectMessageChat dm;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+        tx.executeWithoutResult(status -> {
+            alice = users.save(user("alice"));
+            bob = users.save(user("bob"));
+            carol = users.save(user("carol"));
+            server = new Server();
+            server.setName("guild-" + System.nanoTime());
+            server.getUsers().add(alice);
+            server.getUsers().add(bob);
+            server = servers.save(server);
+            general = channels.save(channel("general"));
+            ops = channels.save(channel("ops"));
+            dm = new DirectMessageChat();
+            dm.setChatType(ChatType.DIRECT_MESSAGE);
+            dm.getParticipants().add(alice);
+            dm.getParticipants().add(carol);
+            dm = dmChats.save(dm);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        messages.deleteAll();
+        channels.deleteAll();
+        dmChats.deleteAll();
+        servers.deleteAll();
+        users.deleteAll();
+    }
+
+    @Test
+    void matchesWordsPrefixesAndFilters() {
+        Message deploy = send(alice, general, "Deploying the staging cluster now");
+        Message report = send(bob, ops, "Staging report attached", true);
+        send(bob, general, "lunch anyone?");
+        send(alice, dm, "the staging password is in the vault");
+
+        assertEquals(List.of(report.getId(), deploy.getId()), ids(searchServer("staging")));
+        assertEquals(List.of(deploy.getId()), ids(searchServer("DEPLOY*")));
+        assertEquals(List.of(deploy.getId()), ids(searchServer("staging from:alice")));
+        assertEquals(List.of(report.getId()), ids(searchServer("staging in:#ops")));
+        assertEquals(List.of(report.getId()), ids(searchServer("has:attachment")));
+        assertTrue(ids(searchServer("staging from:nobody")).isEmpty());
+        assertTrue(ids(searchServer("vault")).isEmpty()); // DMs are not part of the server
+
+        assertEquals(1, ids(searchService.searchDirectMessageChat(dm.getId(), "vault", null, 25, "carol")).size());
+    }
+
+    @Test
+    void filtersOnTheDaySent() {
+        Message old = send(alice, general, "quarterly numbers");
+        Message recent = send(alice, general, "quarterly numbers again");
+        LocalDateTime longAgo = LocalDate.of(2020, 1, 15).atTime(12, 0);
+        jdbcTemplate.update("UPDATE messages SET created_at = ? WHERE id = ?", longAgo, old.getId());
+        searchIndex.messageEdited(new IndexedMessage(old.getId(), MessageSearchIndex.serverScope(server.getId()),
+                general.getId(), alice.getId(), IndexedMessage.toMillis(longAgo), false, old.getContent()));
+
+        assertEquals(List.of(old.getId()), ids(searchServer("quarterly before:2020-01-16")));
+        assertEquals(List.of(recent.getId()), ids(searchServer("quarterly after:2020-01-15")));
+        assertTrue(ids(searchServer("quarterly before:2020-01-15")).isEmpty());
+    }
+
+    @Test
+    void pagesThroughHitsAcrossSegmentsWithoutGapsOrRepeats() {
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            expected.add(0, send(i % 2 == 0 ? alice : bob, general, "incident update " + i).getId());
+            if (i % 5 == 4) searchIndex.flush(); // hits come from several segments and the buffer
+        }
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            MessageSliceDTO page = searchService.searchServer(server.getId(), "incident", cursor, 10, "bob");
+            seen.addAll(ids(page));
+            cursor = page.getOlderCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    void editsAndDeletesAreReflectedAndSurviveARestart() throws IOException {
+        Message edited = send(alice, general, "meet at noon");
+        Message deleted = send(bob, general, "noon is fine");
+        searchIndex.flush();
+
+        tx.executeWithoutResult(status -> {
+            Message message = messages.findById(edited.getId()).orElseThrow();
+            message.setContent("meet at three");
+            searchIndex.messageEdited(IndexedMessage.of(messages.save(message)));
+        });
+        searchIndex.messageDeleted(MessageSearchIndex.serverScope(server.getId()), deleted.getId());
+        messages.deleteById(deleted.getId());
+
+        assertTrue(ids(searchServer("noon")).isEmpty());
+        assertEquals(List.of(edited.getId()), ids(searchServer("three")));
+
+        // Enough flushes to force a merge, then a second index over the same files
+        for (int i = 0; i < 4; i++) {
+            send(alice, general, "filler " + i);
+            searchIndex.flush();
+        }
+        MessageSearchIndex reopened = new MessageSearchIndex(jdbcTemplate, new SimpleMeterRegistry(),
+                INDEX_DIR.toString(), 60_000, 5000, 3);
+        try {
+            String scope = MessageSearchIndex.serverScope(server.getId());
+            assertTrue(reopened.search(scope, query("noon")).isEmpty());
+            assertEquals(List.of(edited.getId()), reopened.search(scope, query("three")));
+            assertEquals(4, reopened.search(scope, query("filler")).size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void catchUpIndexesMessagesTheIndexMissed() throws IOException {
+        Message missed = tx.execute(status -> {
+            Message message = new Message();
+            message.setSender(bob);
+            message.setChannel(general);
+            message.setContent("sent while the search node was down");
+            return messages.save(message); // No index call
+        });
+
+        Path emptyDir = Files.createTempDirectory("azcord-search-rebuild");
+        MessageSearchIndex rebuilt = new MessageSearchIndex(jdbcTemplate, new SimpleMeterRegistry(),
+                emptyDir.toString(), 60_000, 5000, 3);
+        try {
+            rebuilt.catchUp();
+            assertEquals(List.of(missed.getId()),
+                    rebuilt.search(MessageSearchIndex.serverScope(server.getId()), query("down")));
+            assertTrue(Files.exists(emptyDir.resolve("checkpoint")));
+        } finally {
+            rebuilt.close();
+        }
+    }
+
+    @Test
+    void checksAccessAndQuerySyntax() {
+        send(alice, general, "members only");
+
+        assertThrows(ForbiddenAccessException.class,
+                () -> searchService.searchServer(server.getId(), "members", null, 25, "carol"));
+        assertThrows(ForbiddenAccessException.class,
+                () -> searchService.searchDirectMessageChat(dm.getId(), "members", null, 25, "bob"));
+        assertThrows(InvalidSearchQueryException.class, () -> searchServer("   "));
+        assertThrows(InvalidSearchQueryException.class, () -> searchServer("a*"));
+        assertThrows(InvalidSearchQueryException.class, () -> searchServer("x before:yesterday"));
+        assertThrows(InvalidSearchQueryException.class, () -> searchServer("after:2024-01-01"));
+        assertNull(searchServer("members").getOlderCursor());
+    }
+
+    /**
+     * Indexed search against the LIKE query it replaces. Opt-in, since it seeds a large table:
+     * mvn test -Dtest=MessageSearchTests -Dazcord.benchmark=true [-Dazcord.benchmark.messages=200000]
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "azcord.benchmark", matches = "true")
+    void benchmarkAgainstLikeQuery() {
+        int count = Integer.getInteger("azcord.benchmark.messages", 200_000);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) vocabulary[i] = "word" + i;
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0; w < 12; w++) {
+                // Zipf-ish: low-numbered words are common, high-numbered ones rare
+                int index = (int) Math.min(vocabulary.length - 1, Math.abs(random.nextGaussian()) * 600);
+                content.append(vocabulary[index]).append(' ');
+            }
+            rows.add(new Object[]{alice.getId(), general.getId(), content.toString(), LocalDateTime.now(), "TEXT"});
+            if (rows.size() == 5000 || i == count - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO messages (sender_id, channel_id, content, created_at, message_type, edited) " +
+                        "VALUES (?, ?, ?, ?, ?, false)", rows);
+                rows.clear();
+            }
+        }
+        long indexStart = System.nanoTime();
+        searchIndex.catchUp();
+        long indexMillis = (System.nanoTime() - indexStart) / 1_000_000;
+
+        String[] queries = {"word5", "word120", "word900", "word2500", "word5 word120"};
+        String scope = MessageSearchIndex.serverScope(server.getId());
+        System.out.printf("Search benchmark over %d messages (index built in %d ms)%n", count, indexMillis);
+        for (String q : queries) {
+            String[] words = q.split(" ");
+            long likeNanos = time(() -> messages.searchMessages(general.getId(), null, words[0], PageRequest.of(0, 25)));
+            long indexNanos = time(() -> searchIndex.search(scope, query(q)));
+            System.out.printf("  %-14s LIKE %8.2f ms   index %8.3f ms%n", q, likeNanos / 1e6, indexNanos / 1e6);
+        }
+    }
+
+    private static long time(Runnable query) {
+        for (int i = 0; i < 3; i++) query.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long start = System.nanoTime();
+            query.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static IndexQuery query(String words) {
+        return new IndexQuery(List.of(words.split(" ")), List.of(), Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 25);
+    }
+
+    private MessageSliceDTO searchServer(String q) {
+        return searchService.searchServer(server.getId(), q, null, 25, "alice");
+    }
+
+    private static List<Long> ids(MessageSliceDTO slice) {
+        return slice.getMessages().stream().map(MessageDTO::getId).toList();
+    }
+
+    private Message send(User sender, Object target, String content) {
+        return send(sender, target, content, false);
+    }
+
+    private Message send(User sender, Object target, String content, boolean withAttachment) {
+        return tx.execute(status -> {
+            Message message = new Message();
+            message.setSender(sender);
+            message.setContent(content);
+            if (target instanceof Channel c) {
+                message.setChannel(c);
+            } else {
+                message.setDirectMessageChat((DirectMessageChat) target);
+            }
+            if (withAttachment) {
+                Attachment attachment = new Attachment();
+                attachment.setFileName("report.pdf");
+                attachment.setFileUrl("/uploads/report.pdf");
+                attachment.setMimeType("application/pdf");
+                attachment.setAttachmentType(MessageType.FILE);
+                attachment.setMessage(message);
+                message.getAttachments().add(attachment);
+            }
+            message = messages.save(message);
+            searchIndex.messageCreated(IndexedMessage.of(message));
+            return message;
+        });
+    }
+
+    private Channel channel(String name) {
+        Channel channel = new Channel();
+        channel.setName(name);
+        channel.setServer(server);
+        return channel;
+    }
+
+    private static User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@azcord.test");
+        user.setPassword("x");
+        return user;
+    }
+}
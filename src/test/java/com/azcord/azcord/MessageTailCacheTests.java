@@ -0,0 +1,149 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.broker.LocalClusterBus;
+import com.azcord.dto.MessageDTO;
+import com.azcord.services.MessageTailCache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class MessageTailCacheTests {
+
+    private static final String KEY = MessageTailCache.channelKey(1L);
+
+    private SimpleMeterRegistry registry;
+    private MessageTailCache cache;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        cache = new MessageTailCache(10, 2, registry, new ClusterInvalidations(new LocalClusterBus()));
+    }
+
+    @Test
+    void servesNewestAndOlderWindowsOnlyWhenTheyFit() {
+        assertTrue(cache.read(KEY, null, 5).isEmpty());
+        cache.prime(KEY, cache.generation(KEY), messages(20, 11), false);
+
+        MessageTailCache.Window newest = cache.read(KEY, null, 5).orElseThrow();
+        assertEquals(List.of(20L, 19L, 18L, 17L, 16L), ids(newest.messages()));
+        assertTrue(newest.hasOlder());
+
+        assertEquals(List.of(15L, 14L), ids(cache.read(KEY, 16L, 2).orElseThrow().messages()));
+        // Only 11..15 are cached below 16 and the tail is not the whole history
+        assertTrue(cache.read(KEY, 16L, 8).isEmpty());
+
+        assertEquals(2.0, registry.get("azcord.history.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(2.0, registry.get("azcord.history.cache.requests").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void completeTailAnswersShortHistories() {
+        cache.prime(KEY, cache.generation(KEY), messages(3, 1), true);
+        MessageTailCache.Window window = cache.read(KEY, null, 50).orElseThrow();
+        assertEquals(3, window.messages().size());
+        assertFalse(window.hasOlder());
+    }
+
+    @Test
+    void appliesWritesAndTrimsToCapacity() {
+        cache.prime(KEY, cache.generation(KEY), messages(10, 1), true);
+        cache.messageCreated(message(11));
+        cache.messageDeleted(KEY, 10L);
+
+        MessageDTO edited = message(9);
+        edited.setContent("edited");
+        cache.messageEdited(edited);
+
+        List<MessageDTO> window = cache.read(KEY, null, 3).orElseThrow().messages();
+        assertEquals(List.of(11L, 9L, 8L), ids(window));
+        assertEquals("edited", window.get(1).getContent());
+        // Message 1 fell off when 11 was added, so the tail no longer covers everything
+        assertTrue(cache.read(KEY, null, 10).isEmpty());
+    }
+
+    @Test
+    void dropsPrimeThatRacedAWrite() {
+        long generation = cache.generation(KEY);
+        cache.messageCreated(message(21));
+        cache.prime(KEY, generation, messages(20, 11), false);
+        assertTrue(cache.read(KEY, null, 1).isEmpty());
+    }
+
+    @Test
+    void appliesReactionCountsWithoutTouchingHandedOutDTOs() {
+        cache.prime(KEY, cache.generation(KEY), messages(3, 1), true);
+        MessageDTO before = cache.read(KEY, null, 3).orElseThrow().messages().get(1);
+
+        cache.reactionCountChanged(KEY, 2L, "👍", 4);
+        cache.reactionCountChanged(KEY, 2L, "🎉", 1);
+        cache.reactionCountChanged(KEY, 2L, "🎉", 0);
+
+        MessageDTO after = cache.read(KEY, null, 3).orElseThrow().messages().get(1);
+        assertEquals(Map.of("👍", 4), after.getReactionCounts());
+        assertNull(before.getReactionCounts());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedTargets() {
+        String second = MessageTailCache.channelKey(2L);
+        String third = MessageTailCache.channelKey(3L);
+        cache.prime(KEY, cache.generation(KEY), messages(3, 1), true);
+        cache.prime(second, cache.generation(second), messages(3, 1), true);
+        cache.read(KEY, null, 1);
+        cache.prime(third, cache.generation(third), messages(3, 1), true);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.read(KEY, null, 1).isPresent());
+        assertTrue(cache.read(second, null, 1).isEmpty());
+    }
+
+    @Test
+    void invalidateAllWaitsForTheCommit() {
+        cache.prime(KEY, cache.generation(KEY), messages(3, 1), true);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.invalidateAll();
+            assertTrue(cache.read(KEY, null, 1).isPresent());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(0, cache.size());
+    }
+
+    private static List<MessageDTO> messages(long newestId, long oldestId) {
+        List<MessageDTO> result = new ArrayList<>();
+        for (long id = newestId; id >= oldestId; id--) {
+            result.add(message(id));
+        }
+        return result;
+    }
+
+    private static MessageDTO message(long id) {
+        MessageDTO dto = new MessageDTO();
+        dto.setId(id);
+        dto.setChannelId(1L);
+        dto.setContent("message " + id);
+        return dto;
+    }
+
+    private static List<Long> ids(List<MessageDTO> messages) {
+        return messages.stream().map(MessageDTO::getId).toList();
+    }
+}
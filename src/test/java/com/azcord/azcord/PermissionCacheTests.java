@@ -0,0 +1,115 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.broker.LocalClusterBus;
+import com.azcord.models.Permission;
+import com.azcord.models.Role;
+import com.azcord.models.Server;
+import com.azcord.models.User;
+import com.azcord.services.PermissionCache;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({PermissionCache.class, ClusterInvalidations.class, LocalClusterBus.class})
+class PermissionCacheTests {
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    @Autowired
+    private PermissionCache permissionCache;
+
+    private Long serverId;
+    private Role moderator;
+
+    @BeforeEach
+    void seed() {
+        Server server = new Server();
+        server.setName("guild");
+        em.persist(server);
+        serverId = server.getId();
+
+        moderator = role(server, "Moderator", Permission.MANAGE_MESSAGES, Permission.KICK_MEMBERS);
+        Role admin = role(server, "Owner", Permission.ADMINISTRATOR);
+        user("mod", moderator);
+        user("owner", admin);
+        user("member");
+        em.flush();
+        em.clear();
+    }
+
+    @Test
+    void evaluatesRolesIntoBitmask() {
+        assertEquals(PermissionCache.maskOf(Set.of(Permission.MANAGE_MESSAGES, Permission.KICK_MEMBERS)),
+                permissionCache.maskFor(serverId, "mod"));
+        assertTrue(permissionCache.has(serverId, "mod", Permission.KICK_MEMBERS));
+        assertFalse(permissionCache.has(serverId, "mod", Permission.MANAGE_ROLES));
+        assertTrue(permissionCache.has(serverId, "owner", Permission.MANAGE_ROLES));
+        assertFalse(permissionCache.has(serverId, "member", Permission.SEND_MESSAGES));
+    }
+
+    @Test
+    void repeatedChecksHitTheCacheUntilEvicted() {
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+        for (int i = 0; i < 10; i++) {
+            permissionCache.has(serverId, "mod", Permission.MANAGE_MESSAGES);
+        }
+        assertEquals(1, stats.getPrepareStatementCount());
+
+        Role role = em.find(Role.class, moderator.getId());
+        role.getPermissions().add(Permission.MANAGE_ROLES);
+        em.flush();
+        assertFalse(permissionCache.has(serverId, "mod", Permission.MANAGE_ROLES));
+
+        permissionCache.evictServer(serverId);
+        assertTrue(permissionCache.has(serverId, "mod", Permission.MANAGE_ROLES));
+    }
+
+    private Role role(Server server, String name, Permission... permissions) {
+        Role role = new Role();
+        role.setName(name);
+        role.setServer(server);
+        role.setPermissions(new HashSet<>(List.of(permissions)));
+        em.persist(role);
+        return role;
+    }
+
+    private void user(String name, Role... roles) {
+        User u = new User();
+        u.setUsername(name);
+        u.setEmail(name + "@azcord.test");
+        u.setPassword("x");
+        u.setRoles(new ArrayList<>(List.of(roles)));
+        em.persist(u);
+    }
+}
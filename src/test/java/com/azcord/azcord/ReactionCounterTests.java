@@ -0,0 +1,119 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import com.azcord.models.Channel;
+import com.azcord.models.Message;
+import com.azcord.models.MessageReaction;
+import com.azcord.models.User;
+import com.azcord.repositories.MessageReactionCountRepository;
+import com.azcord.repositories.MessageReactionRepository;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-reactions;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ReactionCounterTests {
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private MessageReactionCountRepository counts;
+
+    @Autowired
+    private MessageReactionRepository reactions;
+
+    private Message message;
+    private final List<User> users = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 5; i++) {
+            User user = new User();
+            user.setUsername("reactor" + i);
+            user.setEmail("reactor" + i + "@example.com");
+            user.setPassword("secret");
+            users.add(em.persist(user));
+        }
+        Channel channel = new Channel();
+        channel.setName("news");
+        em.persist(channel);
+        message = new Message();
+        message.setSender(users.get(0));
+        message.setChannel(channel);
+        message.setContent("big news");
+        em.persist(message);
+        em.flush();
+    }
+
+    @Test
+    void countersUpsertAndDisappearAtZero() {
+        counts.increment(message.getId(), "👍");
+        counts.increment(message.getId(), "👍");
+        counts.increment(message.getId(), "🎉");
+        assertEquals(Optional.of(2L), counts.findCount(message.getId(), "👍"));
+
+        counts.decrement(message.getId(), "🎉");
+        counts.deleteIfZero(message.getId(), "🎉");
+        counts.decrement(message.getId(), "👍");
+        counts.deleteIfZero(message.getId(), "👍");
+
+        assertTrue(counts.findCount(message.getId(), "🎉").isEmpty());
+        assertEquals(Optional.of(1L), counts.findCount(message.getId(), "👍"));
+        // Never goes negative
+        counts.decrement(message.getId(), "🎉");
+        assertTrue(counts.findCount(message.getId(), "🎉").isEmpty());
+    }
+
+    @Test
+    void backfillsFromExistingReactionsAndPagesReactors() {
+        for (User user : users) {
+            em.persist(new MessageReaction(message, user, "❤️"));
+        }
+        em.flush();
+
+        assertEquals(1, counts.backfillFromReactions());
+        assertEquals(Optional.of(5L), counts.findCount(message.getId(), "❤️"));
+
+        List<MessageReactionRepository.ReactorRow> first = reactions.findReactorPage(message.getId(), "❤️", 0L, PageRequest.of(0, 2));
+        List<MessageReactionRepository.ReactorRow> second = reactions.findReactorPage(message.getId(), "❤️",
+                first.get(1).getReactionId(), PageRequest.of(0, 10));
+        assertEquals(List.of("reactor0", "reactor1"), first.stream().map(MessageReactionRepository.ReactorRow::getUsername).toList());
+        assertEquals(3, second.size());
+        assertEquals("reactor2", second.get(0).getUsername());
+    }
+
+    @Test
+    void channelDeleteClearsItsCountersOnly() {
+        Channel other = new Channel();
+        other.setName("offtopic");
+        em.persist(other);
+        Message elsewhere = new Message();
+        elsewhere.setSender(users.get(1));
+        elsewhere.setChannel(other);
+        elsewhere.setContent("unrelated");
+        em.persist(elsewhere);
+        counts.increment(message.getId(), "👍");
+        counts.increment(elsewhere.getId(), "👍");
+
+        assertEquals(1, counts.deleteByChannelId(message.getChannel().getId()));
+        assertTrue(counts.findCount(message.getId(), "👍").isEmpty());
+        assertEquals(Optional.of(1L), counts.findCount(elsewhere.getId(), "👍"));
+    }
+}
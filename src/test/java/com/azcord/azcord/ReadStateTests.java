@@ -0,0 +1,274 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.azcord.dto.ReadAckDTO;
+import com.azcord.dto.ReadStateDTO;
+import com.azcord.exceptions.ForbiddenAccessException;
+import com.azcord.exceptions.InvalidMessageTargetException;
+import com.azcord.models.Channel;
+import com.azcord.models.ChatType;
+import com.azcord.models.DirectMessageChat;
+import com.azcord.models.Message;
+import com.azcord.models.Server;
+import com.azcord.models.User;
+import com.azcord.repositories.ChannelRepository;
+import com.azcord.repositories.ConversationCounterRepository;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.MessageRepository;
+import com.azcord.repositories.ReadStateRepository;
+import com.azcord.repositories.ServerRepository;
+import com.azcord.repositories.UserRepository;
+import com.azcord.services.BroadcastOutbox;
+import com.azcord.services.ReadStateService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-read-states;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ReadStateTests {
+
+    @Autowired
+    private ConversationCounterRepository counters;
+
+    @Autowired
+    private ReadStateRepository readStates;
+
+    @Autowired
+    private MessageRepository messages;
+
+    @Autowired
+    private ChannelRepository channels;
+
+    @Autowired
+    private DirectMessageChatRepository dmChats;
+
+    @Autowired
+    private ServerRepository servers;
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate tx;
+    private BroadcastOutbox outbox;
+    private ReadStateService service;
+    private User alice;
+    private User bob;
+    private User carol; // not in the server
+    private Channel channel;
+    private DirectMessageChat dm;
+
+    @BeforeEach
+    void setUp() {
+        tx = new TransactionTemplate(transactionManager);
+        outbox = mock(BroadcastOutbox.class);
+        service = new ReadStateService(counters, readStates, messages, channels, dmChats, users, outbox,
+                jdbcTemplate, transactionManager, new SimpleMeterRegistry(), 60_000);
+        tx.executeWithoutResult(status -> {
+            alice = users.save(user("alice"));
+            bob = users.save(user("bob"));
+            carol = users.save(user("carol"));
+            Server server = new Server();
+            server.setName("guild");
+            server.getUsers().add(alice);
+            server.getUsers().add(bob);
+            server = servers.save(server);
+            channel = new Channel();
+            channel.setName("general");
+            channel.setServer(server);
+            channel = channels.save(channel);
+            dm = new DirectMessageChat();
+            dm.setChatType(ChatType.DIRECT_MESSAGE);
+            dm.getParticipants().add(alice);
+            dm.getParticipants().add(bob);
+            dm = dmChats.save(dm);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        messages.deleteAll();
+        readStates.deleteAll();
+        counters.deleteAll();
+        channels.deleteAll();
+        dmChats.deleteAll();
+        servers.deleteAll();
+        users.deleteAll();
+    }
+
+    @Test
+    void sendingCountsUnreadAndMentions() {
+        send(alice, channel, "hello");
+        send(alice, channel, "@bob and @carol, look");
+        send(alice, channel, "@alice talking to myself");
+        service.flushAcks();
+
+        ReadStateDTO bobs = channelState("bob");
+        assertEquals(3, bobs.getUnreadCount());
+        assertEquals(1, bobs.getMentionCount());
+        assertNull(bobs.getLastReadMessageId());
+
+        // The sender has read their own messages, and mentions of non-members are dropped
+        ReadStateDTO alices = channelState("alice");
+        assertEquals(0, alices.getUnreadCount());
+        assertEquals(0, alices.getMentionCount());
+        assertEquals(0, readStates.findByUserId(carol.getId()).size());
+    }
+
+    @Test
+    void acksAreCoalescedAndVisibleBeforeTheyAreWritten() {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sent.add(send(alice, channel, "message " + i));
+        }
+        Message direct = send(alice, dm, "psst @bob");
+        service.flushAcks();
+
+        for (Message message : sent) {
+            service.ack(ack(channel.getId(), null, message.getId()), "bob");
+        }
+        service.ack(ack(null, dm.getId(), direct.getId()), "bob");
+        assertEquals(2, service.pendingAckCount());
+
+        ReadStateDTO pendingChannel = channelState("bob");
+        assertEquals(0, pendingChannel.getUnreadCount());
+        assertEquals(sent.get(4).getId(), pendingChannel.getLastReadMessageId());
+
+        service.flushAcks();
+
+        assertEquals(0, service.pendingAckCount());
+        assertEquals(2, readStates.findByUserId(bob.getId()).size());
+        ReadStateDTO dmState = dmState("bob");
+        assertEquals(0, dmState.getUnreadCount());
+        assertEquals(0, dmState.getMentionCount());
+        verify(outbox, times(2)).sendToUser(eq("bob"), eq(ReadStateService.READ_STATE_QUEUE), any(ReadStateDTO.class));
+    }
+
+    @Test
+    void partialAckCountsTheRestAndKeepsLaterMentions() {
+        send(alice, channel, "@bob one");
+        Message second = send(alice, channel, "two");
+        send(alice, channel, "@bob three");
+        send(alice, channel, "four");
+
+        service.ack(ack(channel.getId(), null, second.getId()), "bob");
+        service.flushAcks();
+
+        ReadStateDTO state = channelState("bob");
+        assertEquals(2, state.getUnreadCount());
+        assertEquals(2, state.getMentionCount()); // cleared only once the newest mention is read
+        assertEquals(second.getId(), state.getLastReadMessageId());
+
+        send(alice, channel, "five");
+        assertEquals(3, channelState("bob").getUnreadCount());
+
+        // An older ack arriving late never moves the position back
+        service.ack(ack(channel.getId(), null, second.getId() - 1), "bob");
+        service.flushAcks();
+        assertEquals(second.getId(), channelState("bob").getLastReadMessageId());
+        assertEquals(3, channelState("bob").getUnreadCount());
+    }
+
+    @Test
+    void anAckPastTheNewestMessageIsClamped() {
+        Message newest = send(alice, channel, "hi");
+        service.ack(ack(channel.getId(), null, newest.getId() + 1_000), "bob");
+        assertEquals(newest.getId(), channelState("bob").getLastReadMessageId());
+        service.flushAcks();
+
+        assertEquals(newest.getId(), channelState("bob").getLastReadMessageId());
+        send(alice, channel, "still unread");
+        assertEquals(1, channelState("bob").getUnreadCount());
+    }
+
+    @Test
+    void acksAreCheckedBeforeTheyAreQueued() {
+        Message message = send(alice, channel, "hi");
+
+        assertThrows(ForbiddenAccessException.class,
+                () -> service.ack(ack(channel.getId(), null, message.getId()), "carol"));
+        assertThrows(ForbiddenAccessException.class,
+                () -> service.ack(ack(null, dm.getId(), message.getId()), "carol"));
+        assertThrows(InvalidMessageTargetException.class,
+                () -> service.ack(ack(channel.getId(), dm.getId(), message.getId()), "bob"));
+        assertEquals(1, service.pendingAckCount()); // only alice's own ack
+        assertTrue(service.getReadStates("carol").isEmpty());
+    }
+
+    private Message send(User sender, Object target, String content) {
+        return tx.execute(status -> {
+            Message message = new Message();
+            message.setSender(sender);
+            message.setContent(content);
+            if (target instanceof Channel c) {
+                message.setChannel(c);
+            } else {
+                message.setDirectMessageChat((DirectMessageChat) target);
+            }
+            message = messages.save(message);
+            service.messageSent(message, sender.getId(), sender.getUsername());
+            return message;
+        });
+    }
+
+    private ReadStateDTO channelState(String username) {
+        return service.getReadStates(username).stream()
+                .filter(s -> Long.valueOf(channel.getId()).equals(s.getChannelId())).findFirst().orElseThrow();
+    }
+
+    private ReadStateDTO dmState(String username) {
+        return service.getReadStates(username).stream()
+                .filter(s -> dm.getId().equals(s.getDirectMessageChatId())).findFirst().orElseThrow();
+    }
+
+    private static ReadAckDTO ack(Long channelId, Long dmChatId, Long messageId) {
+        ReadAckDTO dto = new ReadAckDTO();
+        dto.setChannelId(channelId);
+        dto.setDirectMessageChatId(dmChatId);
+        dto.setMessageId(messageId);
+        return dto;
+    }
+
+    private static User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@azcord.test");
+        user.setPassword("x");
+        return user;
+    }
+}
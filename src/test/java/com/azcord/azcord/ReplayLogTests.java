@@ -0,0 +1,221 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.azcord.broker.ReplayLog;
+import com.azcord.dto.ReplayDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReplayLogTests {
+
+    private static final String MESSAGES = "/topic/channels/7/messages";
+
+    private ReplayLog log;
+
+    @BeforeEach
+    void setUp() {
+        log = new ReplayLog(5, 1024, 3, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void stampsIncreasingSeqPerDestination() {
+        Message<?> first = publish(MESSAGES, "{\"n\":1}");
+        Message<?> second = publish(MESSAGES, "{\"n\":2}");
+        Message<?> other = publish("/topic/dm/3/messages", "{\"n\":1}");
+
+        assertEquals("1", header(first, ReplayLog.SEQ_HEADER));
+        assertEquals("2", header(second, ReplayLog.SEQ_HEADER));
+        assertEquals("1", header(other, ReplayLog.SEQ_HEADER));
+        assertEquals(header(first, ReplayLog.STREAM_HEADER), header(second, ReplayLog.STREAM_HEADER));
+        assertNotEquals(header(first, ReplayLog.STREAM_HEADER), header(other, ReplayLog.STREAM_HEADER));
+    }
+
+    @Test
+    void leavesTypingAndOtherTopicsAlone() {
+        Message<?> typing = message("/topic/channels/7/typing", "{}");
+        Message<?> users = message("/topic/users/updated", "{}");
+
+        assertSame(typing, log.preSend(typing, null));
+        assertSame(users, log.preSend(users, null));
+        assertEquals(0, log.destinationCount());
+    }
+
+    @Test
+    void replaysWhatWasMissed() {
+        String stream = header(publish(MESSAGES, "{\"n\":1}"), ReplayLog.STREAM_HEADER);
+        publish(MESSAGES, "{\"n\":2}");
+        publish(MESSAGES, "{\"n\":3}");
+
+        ReplayLog.Replay replay = log.since(MESSAGES, stream, 1);
+
+        assertFalse(replay.refetch());
+        assertEquals(3, replay.lastSeq());
+        assertEquals(List.of(2L, 3L), replay.events().stream().map(ReplayLog.Event::seq).toList());
+        assertEquals("{\"n\":3}", new String(replay.events().get(1).payload(), StandardCharsets.UTF_8));
+        assertTrue(log.since(MESSAGES, stream, 3).events().isEmpty());
+        assertFalse(log.since(MESSAGES, stream, 3).refetch());
+    }
+
+    @Test
+    void asksForARefetchOnceTheGapIsNoLongerKept() {
+        String stream = header(publish(MESSAGES, "{\"n\":0}"), ReplayLog.STREAM_HEADER);
+        for (int i = 1; i < 8; i++) {
+            publish(MESSAGES, "{\"n\":" + i + "}");
+        }
+
+        // Five events kept: 4..8
+        assertTrue(log.since(MESSAGES, stream, 2).refetch());
+        assertEquals(5, log.since(MESSAGES, stream, 3).events().size());
+        // Unknown numbering, or a seq from the future
+        assertTrue(log.since(MESSAGES, "elsewhere.1", 7).refetch());
+        assertTrue(log.since(MESSAGES, stream, 9).refetch());
+        assertTrue(log.since(MESSAGES, null, 0).refetch());
+    }
+
+    @Test
+    void keepsWithinTheByteBudget() {
+        String stream = header(publish(MESSAGES, "{\"big\":\"" + "x".repeat(600) + "\"}"), ReplayLog.STREAM_HEADER);
+        publish(MESSAGES, "{\"big\":\"" + "y".repeat(600) + "\"}");
+
+        assertTrue(log.since(MESSAGES, stream, 0).refetch());
+        assertEquals(1, log.since(MESSAGES, stream, 1).events().size());
+    }
+
+    @Test
+    void evictedDestinationsStartANewStream() {
+        String stream = header(publish(MESSAGES, "{}"), ReplayLog.STREAM_HEADER);
+        for (int i = 0; i < 3; i++) {
+            publish("/topic/channels/" + (100 + i) + "/messages", "{}");
+        }
+
+        ReplayLog.Replay replay = log.since(MESSAGES, stream, 1);
+        assertTrue(replay.refetch());
+        assertNull(replay.stream());
+
+        String next = header(publish(MESSAGES, "{}"), ReplayLog.STREAM_HEADER);
+        assertNotEquals(stream, next);
+        assertEquals(3, log.destinationCount());
+    }
+
+    @Test
+    void eachSessionGetsSeqInOrderUnderConcurrentBroadcasts() throws Exception {
+        int publishers = 4;
+        int perPublisher = 200;
+        List<String> sessions = List.of("s1", "s2", "s3");
+
+        // The broker as WebSocketConfig sets it up: a pooled outbound channel, publish order kept
+        ThreadPoolTaskExecutor outboundPool = new ThreadPoolTaskExecutor();
+        outboundPool.setCorePoolSize(16);
+        outboundPool.setMaxPoolSize(16);
+        outboundPool.initialize();
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel(outboundPool);
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        brokerChannel.addInterceptor(log);
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(clientInbound, clientOutbound,
+                brokerChannel, List.of("/topic"));
+        broker.setPreservePublishOrder(true);
+        broker.start();
+
+        Map<String, List<Long>> received = new ConcurrentHashMap<>();
+        CountDownLatch delivered = new CountDownLatch(publishers * perPublisher * sessions.size());
+        clientOutbound.subscribe(message -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) return;
+            // Uneven write times, like slow and fast sockets
+            if (ThreadLocalRandom.current().nextInt(10) == 0) Thread.onSpinWait();
+            received.computeIfAbsent(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()),
+                    s -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Long.parseLong(header(message, ReplayLog.SEQ_HEADER)));
+            delivered.countDown();
+        });
+        for (String session : sessions) {
+            SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+            connect.setSessionId(session);
+            clientInbound.send(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+            SimpMessageHeaderAccessor subscribe = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+            subscribe.setSessionId(session);
+            subscribe.setSubscriptionId("sub-0");
+            subscribe.setDestination(MESSAGES);
+            clientInbound.send(MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()));
+        }
+
+        ExecutorService publishing = Executors.newFixedThreadPool(publishers);
+        try {
+            for (int p = 0; p < publishers; p++) {
+                publishing.submit(() -> {
+                    for (int i = 0; i < perPublisher; i++) {
+                        brokerChannel.send(message(MESSAGES, "{}"));
+                    }
+                });
+            }
+            assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        } finally {
+            publishing.shutdownNow();
+            broker.stop();
+            outboundPool.shutdown();
+        }
+
+        for (String session : sessions) {
+            List<Long> seqs = received.get(session);
+            assertEquals(publishers * perPublisher, seqs.size());
+            for (int i = 0; i < seqs.size(); i++) {
+                assertEquals(i + 1, seqs.get(i), "session " + session + " got seq out of order");
+            }
+        }
+    }
+
+    @Test
+    void replayedPayloadsAreEmbeddedAsJson() throws Exception {
+        ReplayDTO dto = new ReplayDTO(MESSAGES, "s.1", 2, false, List.of(new ReplayDTO.Event(2, "{\"id\":42}")));
+
+        String json = new ObjectMapper().writeValueAsString(dto);
+
+        assertTrue(json.contains("\"payload\":{\"id\":42}"), json);
+    }
+
+    private Message<?> publish(String destination, String body) {
+        Message<?> stamped = log.preSend(message(destination, body), null);
+        log.afterSendCompletion(stamped, null, true, null);
+        return stamped;
+    }
+
+    private static Message<byte[]> message(String destination, String body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static String header(Message<?> message, String name) {
+        return SimpMessageHeaderAccessor.wrap(message).getFirstNativeHeader(name);
+    }
+}
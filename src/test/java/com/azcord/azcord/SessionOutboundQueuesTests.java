@@ -0,0 +1,244 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import com.azcord.broker.OutboundLane;
+import com.azcord.broker.PrioritizedSession;
+import com.azcord.broker.SessionOutboundQueues;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SessionOutboundQueuesTests {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SessionOutboundQueues queues;
+    private WebSocketHandler handler;
+    private WebSocketHandler decorated;
+    private final List<String> written = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseWrites = new CountDownLatch(1);
+    private WebSocketSession socket;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        // messages 3, edits 3, reactions 2, ephemeral 2; 1 KB per session; 200 ms send time limit
+        queues = new SessionOutboundQueues(meterRegistry, 3, 3, 2, 2, 1, 1024, 200);
+        handler = mock(WebSocketHandler.class);
+        decorated = queues.decorate(handler);
+        socket = mock(WebSocketSession.class);
+        when(socket.getId()).thenReturn("s1");
+        // The client is slow: every write waits until the test lets it through
+        doAnswer(inv -> {
+            firstWriteStarted.countDown();
+            releaseWrites.await(5, TimeUnit.SECONDS);
+            written.add(((TextMessage) inv.getArgument(0)).getPayload().split("\n")[1]);
+            return null;
+        }).when(socket).sendMessage(any());
+        decorated.afterConnectionEstablished(socket);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseWrites.countDown();
+        queues.shutdown();
+    }
+
+    @Test
+    void higherLanesOvertakeQueuedLowerOnes() throws Exception {
+        PrioritizedSession session = blockedSession();
+        session.sendMessage(frame("/topic/channels/1/typing"));
+        session.sendMessage(frame("/topic/channels/1/messages/reactions/updated"));
+        session.sendMessage(frame("/topic/channels/1/messages/updated"));
+        session.sendMessage(frame("/topic/channels/1/messages"));
+        assertEquals(4, session.queuedFrames());
+
+        releaseWrites.countDown();
+        awaitWritten(5);
+        assertEquals(List.of("destination:/topic/channels/1/messages",
+                "destination:/topic/channels/1/messages/updated",
+                "destination:/topic/channels/1/messages/reactions/updated",
+                "destination:/topic/channels/1/typing"), written);
+    }
+
+    @Test
+    void typingKeepsOnlyTheLatestSnapshotPerChat() throws Exception {
+        PrioritizedSession session = blockedSession();
+        for (int i = 0; i < 5; i++) {
+            session.sendMessage(frame("/topic/channels/1/typing"));
+            session.sendMessage(frame("/topic/dm/2/typing"));
+        }
+        assertEquals(2, session.queuedFrames(OutboundLane.EPHEMERAL));
+        assertEquals(8.0, meterRegistry.counter("azcord.websocket.outbound.coalesced").count());
+    }
+
+    @Test
+    void reactionsKeepOnlyTheLatestPerMessageAndEmoji() throws Exception {
+        PrioritizedSession session = blockedSession();
+        for (int i = 0; i < 5; i++) {
+            session.sendMessage(frame("/topic/channels/1/messages/reactions/updated", "7 👍"));
+            session.sendMessage(frame("/topic/channels/1/messages/reactions/updated", "8 👍"));
+        }
+        assertEquals(2, session.queuedFrames(OutboundLane.REACTIONS));
+        assertEquals(8.0, meterRegistry.counter("azcord.websocket.outbound.coalesced").count());
+        assertEquals(0.0, meterRegistry.counter("azcord.websocket.outbound.dropped", "lane", "reactions").count());
+    }
+
+    @Test
+    void aReactionIsNeverDroppedForAnotherMessage() throws Exception {
+        PrioritizedSession session = blockedSession();
+        session.sendMessage(frame("/topic/channels/1/messages/reactions/updated", "7 👍"));
+        session.sendMessage(frame("/topic/channels/1/messages/reactions/updated", "8 👍"));
+        assertThrows(SessionLimitExceededException.class,
+                () -> session.sendMessage(frame("/topic/channels/1/messages/reactions/updated", "9 👍")));
+        assertEquals(1.0, meterRegistry.counter("azcord.websocket.outbound.overflowed").count());
+    }
+
+    @Test
+    void profileUpdatesKeepTheLatestPerUserAndShedTypingForRoom() throws Exception {
+        PrioritizedSession session = blockedSession();
+        session.sendMessage(frame("/topic/channels/1/typing"));
+        for (int i = 0; i < 3; i++) {
+            session.sendMessage(frame("/topic/users/updated", "5"));
+        }
+        session.sendMessage(frame("/topic/users/updated", "6"));
+        assertEquals(2, session.queuedFrames(OutboundLane.EPHEMERAL));
+        assertEquals(2.0, meterRegistry.counter("azcord.websocket.outbound.coalesced").count());
+        assertEquals(1.0, meterRegistry.counter("azcord.websocket.outbound.dropped", "lane", "ephemeral").count());
+    }
+
+    @Test
+    void theByteBudgetShedsTypingThenClosesTheSession() throws Exception {
+        PrioritizedSession session = blockedSession();
+        session.sendMessage(frame("/topic/channels/1/typing"));
+        session.sendMessage(new TextMessage("MESSAGE\ndestination:/topic/channels/1/messages\n\n"
+                + "x".repeat(950) + "\u0000"));
+        assertEquals(1, session.queuedFrames());
+        assertEquals(1.0, meterRegistry.counter("azcord.websocket.outbound.dropped", "lane", "ephemeral").count());
+
+        SessionLimitExceededException e = assertThrows(SessionLimitExceededException.class,
+                () -> session.sendMessage(frame("/topic/channels/1/messages")));
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE, e.getStatus());
+    }
+
+    @Test
+    void overflowingTheMessageLaneClosesTheSession() throws Exception {
+        PrioritizedSession session = blockedSession();
+        for (int i = 0; i < 3; i++) {
+            session.sendMessage(frame("/topic/channels/1/messages"));
+        }
+        SessionLimitExceededException e = assertThrows(SessionLimitExceededException.class,
+                () -> session.sendMessage(frame("/topic/channels/1/messages")));
+        assertEquals(CloseStatus.SESSION_NOT_RELIABLE, e.getStatus());
+    }
+
+    @Test
+    void aStalledWriteClosesTheSession() throws Exception {
+        PrioritizedSession session = blockedSession();
+        Thread.sleep(300);
+        assertThrows(SessionLimitExceededException.class, () -> session.sendMessage(frame("/topic/channels/1/typing")));
+        assertEquals(1.0, meterRegistry.counter("azcord.websocket.outbound.overflowed").count());
+    }
+
+    @Test
+    void queueDepthIsPublishedPerSession() throws Exception {
+        PrioritizedSession session = blockedSession();
+        session.sendMessage(frame("/topic/channels/1/messages"));
+        session.sendMessage(frame("/topic/channels/1/typing"));
+        assertEquals(2.0, meterRegistry.get("azcord.websocket.session.queued").tag("session", "s1").gauge().value());
+
+        decorated.afterConnectionClosed(socket, CloseStatus.NORMAL);
+        assertNull(meterRegistry.find("azcord.websocket.session.queued").tag("session", "s1").gauge());
+        assertNull(queues.session("s1"));
+        assertEquals(0, session.queuedFrames());
+    }
+
+    @Test
+    void closeWritesTheQueuedErrorFrameFirst() throws Exception {
+        PrioritizedSession session = blockedSession();
+        session.sendMessage(new TextMessage("ERROR\nmessage:Access denied\n\n\u0000"));
+
+        Thread closer = new Thread(() -> {
+            try {
+                session.close(CloseStatus.PROTOCOL_ERROR);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        closer.start();
+        releaseWrites.countDown();
+        closer.join(5000);
+
+        assertTrue(written.contains("message:Access denied"));
+        Mockito.verify(socket).close(CloseStatus.PROTOCOL_ERROR);
+    }
+
+    @Test
+    void aFailedWriteClosesTheSocket() throws Exception {
+        WebSocketSession broken = mock(WebSocketSession.class);
+        when(broken.getId()).thenReturn("s2");
+        doThrow(new IOException("Broken pipe")).when(broken).sendMessage(any());
+        decorated.afterConnectionEstablished(broken);
+        ArgumentCaptor<WebSocketSession> captor = ArgumentCaptor.forClass(WebSocketSession.class);
+        Mockito.verify(handler, Mockito.times(2)).afterConnectionEstablished(captor.capture());
+
+        captor.getAllValues().get(1).sendMessage(frame("/topic/channels/1/messages"));
+        Mockito.verify(broken, Mockito.timeout(5000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    // The handler was given the prioritized session; one frame is written and stuck on the slow client
+    private PrioritizedSession blockedSession() throws Exception {
+        ArgumentCaptor<WebSocketSession> captor = ArgumentCaptor.forClass(WebSocketSession.class);
+        Mockito.verify(handler).afterConnectionEstablished(captor.capture());
+        PrioritizedSession session = (PrioritizedSession) captor.getValue();
+        assertNotNull(session);
+        session.sendMessage(new TextMessage("CONNECTED\nversion:1.2\n\n\u0000"));
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+        return session;
+    }
+
+    private void awaitWritten(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (written.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        written.remove(0); // the CONNECTED frame
+    }
+
+    private static WebSocketMessage<?> frame(String destination) {
+        return new TextMessage("MESSAGE\ndestination:" + destination + "\ncontent-type:application/json\n"
+                + "subscription:sub-0\nmessage-id:1\n\n{}\u0000");
+    }
+
+    private static WebSocketMessage<?> frame(String destination, String coalesceKey) {
+        return new TextMessage("MESSAGE\ndestination:" + destination + "\ncoalesce-key:" + coalesceKey
+                + "\ncontent-type:application/json\nsubscription:sub-0\nmessage-id:1\n\n{}\u0000");
+    }
+}
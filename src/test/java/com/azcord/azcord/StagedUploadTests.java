@@ -0,0 +1,78 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.azcord.config.FileStorageProperties;
+import com.azcord.services.LocalFileStorageService;
+import com.azcord.services.StagedFile;
+
+class StagedUploadTests {
+
+    @TempDir
+    Path uploadDir;
+
+    private LocalFileStorageService storage;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setUploadDir(uploadDir.toString());
+        storage = new LocalFileStorageService(properties);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void stagedFilesOnlyBecomeVisibleWhenPromoted() throws Exception {
+        List<StagedFile> staged = storage.stageFiles(List.of(
+                new MockMultipartFile("files", "cat.png", "image/png", new byte[] {1, 2, 3}),
+                new MockMultipartFile("files", "empty.txt", "text/plain", new byte[0])));
+
+        assertEquals(1, staged.size());
+        StagedFile file = staged.get(0);
+        assertEquals(3, file.size());
+        assertTrue(file.fileUrl().endsWith("/api/files/" + file.storedFileName()));
+        assertFalse(Files.exists(uploadDir.resolve(file.storedFileName())));
+
+        storage.promoteStaged(file.storedFileName());
+        assertTrue(Files.exists(uploadDir.resolve(file.storedFileName())));
+        assertTrue(storage.findStaleStaged(Duration.ZERO).isEmpty());
+    }
+
+    @Test
+    void onlyOldStagedFilesAreReportedStale() throws Exception {
+        String old = storage.stageFiles(List.of(new MockMultipartFile("files", "a.bin", null, new byte[] {1})))
+                .get(0).storedFileName();
+        String fresh = storage.stageFiles(List.of(new MockMultipartFile("files", "b.bin", null, new byte[] {2})))
+                .get(0).storedFileName();
+        Files.setLastModifiedTime(uploadDir.resolve(".staging").resolve(old),
+                FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+
+        assertEquals(List.of(old), storage.findStaleStaged(Duration.ofHours(1)));
+
+        storage.discardStaged(old);
+        assertEquals(List.of(fresh), storage.findStaleStaged(Duration.ZERO));
+    }
+}
@@ -0,0 +1,266 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.broker.LocalClusterBus;
+import com.azcord.broker.LocalSubscriptionRegistry;
+import com.azcord.broker.SubscriptionGuard;
+import com.azcord.dto.SubscriptionRevokedDTO;
+import com.azcord.models.Channel;
+import com.azcord.models.ChatType;
+import com.azcord.models.DirectMessageChat;
+import com.azcord.models.Server;
+import com.azcord.models.User;
+import com.azcord.repositories.ChannelRepository;
+import com.azcord.repositories.DirectMessageChatRepository;
+import com.azcord.repositories.ServerRepository;
+import com.azcord.repositories.UserRepository;
+import com.azcord.security.JwtPrincipal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-subscription-guard;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class SubscriptionGuardTests {
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private ServerRepository servers;
+
+    @Autowired
+    private ChannelRepository channels;
+
+    @Autowired
+    private DirectMessageChatRepository dmChats;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private JdbcTemplate jdbc;
+    private MessageChannel brokerChannel;
+    private SimpMessagingTemplate messagingTemplate;
+    private SubscriptionGuard guard;
+    private User alice;
+    private User bob;
+    private User carol; // in the group DM, not in the server
+    private Server server;
+    private Channel channel;
+    private DirectMessageChat group;
+
+    @BeforeEach
+    void setUp() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            alice = users.save(user("alice"));
+            bob = users.save(user("bob"));
+            carol = users.save(user("carol"));
+            Server s = new Server();
+            s.setName("guild");
+            s.getUsers().add(alice);
+            s.getUsers().add(bob);
+            server = servers.save(s);
+            Channel c = new Channel();
+            c.setName("general");
+            c.setServer(server);
+            channel = channels.save(c);
+            DirectMessageChat dm = new DirectMessageChat();
+            dm.setChatType(ChatType.GROUP_DIRECT_MESSAGE);
+            dm.getParticipants().add(alice);
+            dm.getParticipants().add(carol);
+            group = dmChats.save(dm);
+        });
+        jdbc = spy(jdbcTemplate);
+        brokerChannel = mock(MessageChannel.class);
+        when(brokerChannel.send(any())).thenReturn(true);
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        guard = new SubscriptionGuard(jdbc, new LocalSubscriptionRegistry(), brokerChannel, messagingTemplate,
+                new SimpleMeterRegistry(), new ClusterInvalidations(new LocalClusterBus()), 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dmChats.deleteAll();
+        channels.deleteAll();
+        servers.deleteAll();
+        users.deleteAll();
+    }
+
+    @Test
+    void channelTopicsNeedServerMembership() {
+        subscribe("s1", "sub-1", alice, channelTopic());
+        assertThrows(AccessDeniedException.class, () -> subscribe("s3", "sub-1", carol, channelTopic()));
+        assertThrows(AccessDeniedException.class, () -> subscribe("s1", "sub-2", alice, "/topic/channels/999999/messages"));
+        assertDoesNotThrow(() -> subscribe("s1", "sub-3", alice, "/topic/users/updated"));
+    }
+
+    @Test
+    void cacheHitsNeverQueryTheDatabase() {
+        subscribe("s1", "sub-1", alice, channelTopic());
+        subscribe("s1", "sub-2", alice, "/topic/dm/" + group.getId() + "/messages");
+        clearInvocations(jdbc);
+
+        subscribe("s2", "sub-1", bob, channelTopic());
+        subscribe("s1", "sub-3", alice, channelTopic() + "/updated");
+        subscribe("s4", "sub-1", carol, "/topic/dm/" + group.getId() + "/typing");
+        assertThrows(AccessDeniedException.class, () -> subscribe("s3", "sub-1", carol, channelTopic()));
+
+        verify(jdbc, never()).queryForList(anyString(), eq(Long.class), anyLong());
+        assertEquals(5, guard.grantCount());
+    }
+
+    @Test
+    void dmTopicsNeedParticipation() {
+        String topic = "/topic/dm/" + group.getId() + "/messages";
+        subscribe("s3", "sub-1", carol, topic);
+        assertThrows(AccessDeniedException.class, () -> subscribe("s2", "sub-1", bob, topic));
+    }
+
+    @Test
+    void patternsAndDirectPublishingAreRefused() {
+        assertThrows(AccessDeniedException.class, () -> subscribe("s1", "sub-1", alice, "/topic/channels/*/messages"));
+        assertThrows(AccessDeniedException.class, () -> subscribe("s1", "sub-2", alice, "/topic/**"));
+        assertThrows(AccessDeniedException.class,
+                () -> subscribe("s1", "sub-3", alice, "/topic/unresolved-user-destination"));
+        assertThrows(AccessDeniedException.class, () -> send("s1", alice, channelTopic()));
+        assertDoesNotThrow(() -> send("s1", alice, "/app/chat.sendMessage"));
+    }
+
+    @Test
+    void leavingAGroupDmDropsTheLiveSubscription() {
+        String topic = "/topic/dm/" + group.getId() + "/messages";
+        subscribe("s1", "sub-1", alice, topic);
+        subscribe("s3", "sub-7", carol, topic);
+
+        jdbcTemplate.update("DELETE FROM direct_message_chat_participants WHERE chat_id = ? AND user_id = ?",
+                group.getId(), carol.getId());
+        guard.participantRemoved(group.getId(), carol.getId());
+
+        Message<?> unsubscribe = lastBrokerMessage();
+        assertEquals(SimpMessageType.UNSUBSCRIBE, SimpMessageHeaderAccessor.getMessageType(unsubscribe.getHeaders()));
+        assertEquals("s3", SimpMessageHeaderAccessor.getSessionId(unsubscribe.getHeaders()));
+        assertEquals("sub-7", SimpMessageHeaderAccessor.getSubscriptionId(unsubscribe.getHeaders()));
+        verify(messagingTemplate).convertAndSendToUser(eq("carol"), eq(SubscriptionGuard.REVOKED_QUEUE),
+                eq(new SubscriptionRevokedDTO(topic, "sub-7")), any(Map.class));
+        assertEquals(1, guard.grantCount());
+        assertThrows(AccessDeniedException.class, () -> subscribe("s3", "sub-8", carol, topic));
+    }
+
+    @Test
+    void joiningRefreshesTheCachedMembers() {
+        assertThrows(AccessDeniedException.class, () -> subscribe("s3", "sub-1", carol, channelTopic()));
+
+        jdbcTemplate.update("INSERT INTO server_users (server_id, user_id) VALUES (?, ?)", server.getId(), carol.getId());
+        guard.memberAdded(server.getId());
+
+        assertDoesNotThrow(() -> subscribe("s3", "sub-1", carol, channelTopic()));
+    }
+
+    @Test
+    void deletingAServerRevokesEveryChannelSubscription() {
+        subscribe("s1", "sub-1", alice, channelTopic());
+        subscribe("s2", "sub-1", bob, channelTopic());
+        subscribe("s1", "sub-2", alice, "/topic/dm/" + group.getId() + "/messages");
+
+        guard.serverDeleted(server.getId());
+
+        verify(brokerChannel, times(2)).send(any());
+        assertEquals(1, guard.grantCount());
+    }
+
+    @Test
+    void unsubscribeAndDisconnectForgetGrants() {
+        subscribe("s1", "sub-1", alice, channelTopic());
+        subscribe("s1", "sub-2", alice, channelTopic() + "/updated");
+        guard.preSend(frame(SimpMessageType.UNSUBSCRIBE, "s1", "sub-1", null, alice), null);
+        assertEquals(1, guard.grantCount());
+        guard.preSend(frame(SimpMessageType.DISCONNECT, "s1", null, null, alice), null);
+        assertEquals(0, guard.grantCount());
+
+        guard.serverDeleted(server.getId());
+        verify(brokerChannel, never()).send(any());
+    }
+
+    private String channelTopic() {
+        return "/topic/channels/" + channel.getId() + "/messages";
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, User user, String destination) {
+        guard.preSend(frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination, user), null);
+    }
+
+    private void send(String sessionId, User user, String destination) {
+        guard.preSend(frame(SimpMessageType.MESSAGE, sessionId, null, destination, user), null);
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId,
+                                         String destination, User user) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setUser(new JwtPrincipal(user.getId(), user.getUsername(), null));
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private Message<?> lastBrokerMessage() {
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.captor();
+        verify(brokerChannel, atLeastOnce()).send(captor.capture());
+        List<Message<?>> sent = captor.getAllValues();
+        return sent.get(sent.size() - 1);
+    }
+
+    private static User user(String name) {
+        User user = new User();
+        user.setUsername(name);
+        user.setEmail(name + "@example.com");
+        user.setPassword("x");
+        return user;
+    }
+}
@@ -0,0 +1,85 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.azcord.services.FileStorageService;
+import com.azcord.services.ThumbnailService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ThumbnailServiceTests {
+
+    @TempDir
+    Path dir;
+
+    private ThumbnailService service;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.locate(anyString())).thenAnswer(invocation -> dir.resolve(invocation.<String>getArgument(0)));
+        service = new ThumbnailService(storage, new SimpleMeterRegistry(), 1, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void downscalesToLongestSideKeepingAspectRatio() throws Exception {
+        write("photo.jpg", 2000, 1000, "jpg");
+
+        Path variant = service.getOrCreate("photo.jpg", 256);
+
+        assertEquals(dir.resolve("photo.jpg.256.jpg"), variant);
+        BufferedImage image = ImageIO.read(variant.toFile());
+        assertEquals(256, image.getWidth());
+        assertEquals(128, image.getHeight());
+    }
+
+    @Test
+    void neverUpscalesAndKeepsAlphaForPng() throws Exception {
+        write("icon.png", 40, 30, "png");
+
+        Path variant = service.getOrCreate("icon.png", 1024);
+
+        assertEquals("icon.png.1024.png", variant.getFileName().toString());
+        BufferedImage image = ImageIO.read(variant.toFile());
+        assertEquals(40, image.getWidth());
+        assertEquals(30, image.getHeight());
+        assertTrue(image.getColorModel().hasAlpha());
+    }
+
+    @Test
+    void rejectsUnknownSizesAndNonImages() throws Exception {
+        write("photo.jpg", 100, 100, "jpg");
+
+        assertNull(service.getOrCreate("photo.jpg", 100));
+        assertNull(service.getOrCreate("notes.txt", 64));
+        assertEquals(Map.of(), ThumbnailService.variantUrls("/api/files/notes.txt"));
+        assertEquals("/api/files/photo.jpg?size=64", ThumbnailService.variantUrls("/api/files/photo.jpg").get(64));
+    }
+
+    private void write(String name, int width, int height, String format) throws Exception {
+        int type = "png".equals(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        ImageIO.write(new BufferedImage(width, height, type), format, dir.resolve(name).toFile());
+    }
+}
@@ -0,0 +1,134 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.azcord.dto.TypingSnapshotDTO;
+import com.azcord.services.TypingTracker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TypingTrackerTests {
+
+    private static final String CHANNEL_TOPIC = "/topic/channels/7/typing";
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private SimpMessagingTemplate broker;
+    private SimpleMeterRegistry meterRegistry;
+    private TypingTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        broker = mock(SimpMessagingTemplate.class);
+        meterRegistry = new SimpleMeterRegistry();
+        tracker = new TypingTracker(broker, meterRegistry, "node-a", 3000, 6000, now::get);
+    }
+
+    @Test
+    void burstOfEventsBecomesOneSnapshotPerTick() {
+        assertTrue(tracker.typing(7, false, 1, "alice"));
+        assertTrue(tracker.typing(7, false, 2, "bob"));
+        for (int i = 0; i < 20; i++) {
+            now.addAndGet(100);
+            tracker.typing(7, false, 1, "alice");
+        }
+        tracker.tick();
+
+        assertEquals(List.of("alice", "bob"), usernames(lastSnapshot(CHANNEL_TOPIC)));
+        assertEquals(20.0, meterRegistry.counter("azcord.typing.throttled").count());
+    }
+
+    @Test
+    void unchangedTypistsPublishNothing() {
+        tracker.typing(7, false, 1, "alice");
+        tracker.tick();
+        clearInvocations(broker);
+
+        now.addAndGet(3000);
+        assertTrue(tracker.typing(7, false, 1, "alice")); // refreshes the expiry only
+        tracker.tick();
+        now.addAndGet(1000);
+        tracker.tick();
+
+        verify(broker, never()).convertAndSend(anyString(), any(Object.class));
+    }
+
+    @Test
+    void snapshotsNameTheirNodeAndAreResentWhileAnyoneTypes() {
+        tracker.typing(7, false, 1, "alice");
+        tracker.tick();
+        assertEquals("node-a", lastSnapshot(CHANNEL_TOPIC).node());
+        clearInvocations(broker);
+
+        for (int i = 0; i < 2; i++) {
+            now.addAndGet(3000);
+            tracker.typing(7, false, 1, "alice");
+            tracker.tick();
+        }
+        assertEquals(List.of("alice"), usernames(lastSnapshot(CHANNEL_TOPIC)));
+    }
+
+    @Test
+    void typistsExpireAfterTheTtl() {
+        tracker.typing(7, false, 1, "alice");
+        tracker.tick();
+        clearInvocations(broker);
+
+        now.addAndGet(5999);
+        tracker.tick();
+        verify(broker, never()).convertAndSend(anyString(), any(Object.class));
+
+        now.addAndGet(1);
+        tracker.tick();
+        assertTrue(lastSnapshot(CHANNEL_TOPIC).typists().isEmpty());
+    }
+
+    @Test
+    void sendingAMessageStopsTyping() {
+        tracker.typing(9, true, 1, "alice");
+        tracker.typing(9, true, 2, "bob");
+        tracker.tick();
+
+        tracker.stopped(9, true, 1);
+        tracker.tick();
+
+        TypingSnapshotDTO snapshot = lastSnapshot("/topic/dm/9/typing");
+        assertTrue(snapshot.direct());
+        assertEquals(List.of("bob"), usernames(snapshot));
+    }
+
+    @Test
+    void throttleIsPerUserAndChat() {
+        assertTrue(tracker.typing(7, false, 1, "alice"));
+        assertTrue(tracker.typing(8, false, 1, "alice"));
+        assertTrue(tracker.typing(7, true, 1, "alice"));
+        assertFalse(tracker.typing(7, false, 1, "alice"));
+    }
+
+    private TypingSnapshotDTO lastSnapshot(String destination) {
+        ArgumentCaptor<TypingSnapshotDTO> captor = ArgumentCaptor.forClass(TypingSnapshotDTO.class);
+        verify(broker, atLeastOnce()).convertAndSend(eq(destination), captor.capture());
+        return captor.getValue();
+    }
+
+    private static List<String> usernames(TypingSnapshotDTO snapshot) {
+        return snapshot.typists().stream().map(TypingSnapshotDTO.Typist::username).toList();
+    }
+}
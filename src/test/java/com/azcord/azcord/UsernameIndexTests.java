@@ -0,0 +1,165 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.azcord.broker.ClusterInvalidations;
+import com.azcord.broker.LocalClusterBus;
+import com.azcord.dto.UserSimpleDTO;
+import com.azcord.models.Server;
+import com.azcord.models.User;
+import com.azcord.repositories.ServerRepository;
+import com.azcord.repositories.UserRepository;
+import com.azcord.services.UsernameIndex;
+
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-username-index;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({UsernameIndex.class, ClusterInvalidations.class, LocalClusterBus.class})
+class UsernameIndexTests {
+
+    @Autowired
+    private UsernameIndex index;
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private ServerRepository servers;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private User alice;
+    private User albert;
+    private User bob;
+    private Server server;
+
+    @BeforeEach
+    void setUp() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            alice = users.save(user("Alice"));
+            albert = users.save(user("albert"));
+            bob = users.save(user("bob"));
+            Server s = new Server();
+            s.setName("guild");
+            s.getUsers().add(alice);
+            s.getUsers().add(bob);
+            server = servers.save(s);
+        });
+        index.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        servers.deleteAll();
+        users.deleteAll();
+    }
+
+    @Test
+    void findsUsersByPrefixIgnoringCase() {
+        assertEquals(List.of("albert", "Alice"), names(index.search("AL", 10)));
+        assertEquals(List.of("Alice"), names(index.search("ali", 10)));
+        assertEquals(List.of("albert"), names(index.search("al", 1)));
+        assertTrue(index.search("lic", 10).isEmpty(), "prefix, not substring");
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    void memberSearchIsScopedToTheServer() {
+        assertEquals(List.of("Alice"), names(index.searchMembers(server.getId(), "al", 10)));
+        assertEquals(List.of("Alice", "bob"), names(index.searchMembers(server.getId(), "", 10)));
+        assertTrue(index.isMember(server.getId(), bob.getId()));
+        assertFalse(index.isMember(server.getId(), albert.getId()));
+
+        index.memberAdded(server.getId(), albert.getId());
+        assertEquals(List.of("albert", "Alice"), names(index.searchMembers(server.getId(), "al", 10)));
+
+        index.memberRemoved(server.getId(), alice.getId());
+        assertEquals(List.of("albert"), names(index.searchMembers(server.getId(), "al", 10)));
+        assertFalse(index.isMember(server.getId(), alice.getId()));
+    }
+
+    @Test
+    void renameMovesTheUserEverywhere() {
+        index.userSaved(bob.getId(), "Robert", "/avatar.png", "hi");
+
+        assertTrue(index.search("bob", 10).isEmpty());
+        UserSimpleDTO robert = index.search("rob", 10).get(0);
+        assertEquals(bob.getId(), robert.getId());
+        assertEquals("/avatar.png", robert.getAvatarUrl());
+        assertEquals(List.of("Robert"), names(index.searchMembers(server.getId(), "r", 10)));
+        assertTrue(index.searchMembers(server.getId(), "b", 10).isEmpty());
+    }
+
+    @Test
+    void updatesWaitForTheCommitAndAreDroppedOnRollback() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.executeWithoutResult(status -> {
+            index.userSaved(999L, "alfred", null, null);
+            assertEquals(List.of("albert", "Alice"), names(index.search("al", 10)));
+        });
+        assertEquals(List.of("albert", "alfred", "Alice"), names(index.search("al", 10)));
+
+        tx.executeWithoutResult(status -> {
+            index.userSaved(998L, "alan", null, null);
+            status.setRollbackOnly();
+        });
+        assertEquals(List.of("albert", "alfred", "Alice"), names(index.search("al", 10)));
+    }
+
+    @Test
+    void deletedServerHasNoMembers() {
+        index.serverDeleted(server.getId());
+
+        assertTrue(index.searchMembers(server.getId(), "", 10).isEmpty());
+        assertFalse(index.isMember(server.getId(), alice.getId()));
+        assertEquals(List.of("Alice"), names(index.search("ali", 10)));
+    }
+
+    @Test
+    void rebuildReadsUsersAndMemberships() {
+        UsernameIndex fresh = new UsernameIndex(jdbcTemplate, new ClusterInvalidations(new LocalClusterBus()));
+        fresh.rebuild();
+
+        assertEquals(List.of("albert", "Alice"), names(fresh.search("a", 10)));
+        assertEquals(List.of("bob"), names(fresh.search("B", 10)));
+        assertEquals(List.of("Alice", "bob"), names(fresh.searchMembers(server.getId(), "", 10)));
+        assertTrue(fresh.isMember(server.getId(), alice.getId()));
+    }
+
+    private static List<String> names(List<UserSimpleDTO> dtos) {
+        return dtos.stream().map(UserSimpleDTO::getUsername).toList();
+    }
+
+    private static User user(String name) {
+        User user = new User();
+        user.setUsername(name);
+        user.setEmail(name + "@example.com");
+        user.setPassword("x");
+        return user;
+    }
+}
@@ -0,0 +1,139 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import com.azcord.AzcordApplication;
+import com.azcord.models.User;
+import com.azcord.repositories.UserRepository;
+import com.azcord.services.JwtService;
+
+/**
+ * Connection setup and broadcast throughput, SockJS /ws against native /ws-native, on a
+ * real server. Opt-in, since it opens hundreds of sockets:
+ * mvn test -Dtest=WebSocketEndpointLoadTests -Dazcord.benchmark=true
+ *   [-Dazcord.benchmark.clients=200] [-Dazcord.benchmark.broadcasts=200]
+ */
+@EnabledIfSystemProperty(named = "azcord.benchmark", matches = "true")
+@SpringBootTest(classes = AzcordApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:azcord-websocket-load;MODE=MySQL;NON_KEYWORDS=USER,VALUE",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false",
+        "logging.level.org.springframework.security=WARN",
+        "azcord.search.index-dir=target/load-test-index",
+        "file.upload-dir=target/load-test-uploads"
+})
+class WebSocketEndpointLoadTests {
+
+    private static final String TOPIC = "/topic/users/updated";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    private WebSocketHttpHeaders handshakeHeaders;
+
+    @BeforeEach
+    void setUp() {
+        User user = users.findByUsername("loadtest").orElseGet(() -> {
+            User u = new User();
+            u.setUsername("loadtest");
+            u.setEmail("loadtest@example.com");
+            u.setPassword("x");
+            return users.save(u);
+        });
+        handshakeHeaders = new WebSocketHttpHeaders();
+        handshakeHeaders.add("Authorization", "Bearer " + jwtService.createJWT(user));
+    }
+
+    @Test
+    void sockJsAgainstNative() throws Exception {
+        int clients = Integer.getInteger("azcord.benchmark.clients", 200);
+        int broadcasts = Integer.getInteger("azcord.benchmark.broadcasts", 200);
+        StandardWebSocketClient webSocketClient = new StandardWebSocketClient();
+        SockJsClient sockJsClient = new SockJsClient(List.of(new WebSocketTransport(webSocketClient)));
+
+        run("warm-up", webSocketClient, "ws://localhost:" + port + "/ws-native", 10, 10);
+        System.out.printf("WebSocket endpoints, %d clients x %d broadcasts%n", clients, broadcasts);
+        run("SockJS /ws", sockJsClient, "http://localhost:" + port + "/ws", clients, broadcasts);
+        run("native /ws-native", webSocketClient, "ws://localhost:" + port + "/ws-native", clients, broadcasts);
+    }
+
+    private void run(String label, WebSocketClient transport, String url, int clients, int broadcasts) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(transport);
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        CountDownLatch delivered = new CountDownLatch(clients * broadcasts);
+        List<StompSession> sessions = new ArrayList<>();
+
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            StompSession session = stompClient.connectAsync(url, handshakeHeaders, new StompSessionHandlerAdapter() {})
+                    .get(10, TimeUnit.SECONDS);
+            session.subscribe(TOPIC, new StompFrameHandler() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return byte[].class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    delivered.countDown();
+                }
+            });
+            sessions.add(session);
+        }
+        long connectNanos = System.nanoTime() - connectStart;
+        Thread.sleep(500); // let the last SUBSCRIBE frames reach the broker
+
+        long sendStart = System.nanoTime();
+        for (int i = 0; i < broadcasts; i++) {
+            messagingTemplate.convertAndSend(TOPIC, new Broadcast(i, "load test broadcast number " + i));
+        }
+        boolean complete = delivered.await(60, TimeUnit.SECONDS);
+        long deliverNanos = System.nanoTime() - sendStart;
+        sessions.forEach(StompSession::disconnect);
+
+        assertTrue(complete, label + ": " + delivered.getCount() + " frames not delivered");
+        if (!label.equals("warm-up")) {
+            System.out.printf("  %-18s connect %7.2f ms/client   deliver %9.0f frames/s%n", label,
+                    connectNanos / 1e6 / clients, clients * (double) broadcasts / (deliverNanos / 1e9));
+        }
+    }
+
+    record Broadcast(int seq, String text) {}
+}
@@ -0,0 +1,175 @@
+package com.azcord.azcord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+
+import com.azcord.broker.WireFormatNegotiator;
+import com.azcord.dto.AttachmentDTO;
+import com.azcord.dto.MessageDTO;
+import com.azcord.dto.ReactionDeltaDTO;
+import com.azcord.dto.TypingSnapshotDTO;
+import com.azcord.dto.UserSimpleDTO;
+import com.azcord.models.MessageType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WireFormatNegotiatorTests {
+
+    private ObjectMapper json;
+    private ObjectMapper cbor;
+    private WireFormatNegotiator negotiator;
+    private ChannelInterceptor outbound;
+
+    @BeforeEach
+    void setUp() {
+        json = Jackson2ObjectMapperBuilder.json().build();
+        cbor = Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+        negotiator = new WireFormatNegotiator(new SimpleMeterRegistry());
+        outbound = negotiator.outbound();
+    }
+
+    @Test
+    void negotiatedSessionsGetBinaryCbor() throws Exception {
+        connect("s1", true, "application/cbor, application/json");
+        byte[] body = json.writeValueAsBytes(message(1L));
+
+        Message<?> sent = outbound.preSend(frame("s1", body), null);
+
+        assertEquals(MimeTypeUtils.APPLICATION_OCTET_STREAM, sent.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+        assertEquals("cbor", NativeMessageHeaderAccessor.getFirstNativeHeader(WireFormatNegotiator.FORMAT_HEADER, sent.getHeaders()));
+        assertEquals(json.readTree(body), cbor.readTree((byte[]) sent.getPayload()));
+        assertTrue(((byte[]) sent.getPayload()).length < body.length);
+    }
+
+    @Test
+    void sockJsAndJsonSessionsAreLeftAlone() throws Exception {
+        connect("sockjs", false, "application/cbor");
+        connect("plain", true, null);
+        assertFalse(negotiator.isCbor("sockjs"));
+        assertFalse(negotiator.isCbor("plain"));
+
+        Message<byte[]> frame = frame("sockjs", json.writeValueAsBytes(message(2L)));
+        assertSame(frame, outbound.preSend(frame, null));
+    }
+
+    @Test
+    void fanOutTranscodesOncePerPayload() throws Exception {
+        connect("s1", true, "application/cbor");
+        connect("s2", true, "application/cbor");
+        byte[] body = json.writeValueAsBytes(message(3L));
+
+        Object first = outbound.preSend(frame("s1", body), null).getPayload();
+        Object second = outbound.preSend(frame("s2", body), null).getPayload();
+
+        assertSame(first, second);
+    }
+
+    @Test
+    void disconnectForgetsTheFormat() {
+        connect("s1", true, "application/cbor");
+        assertTrue(negotiator.isCbor("s1"));
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+        accessor.setSessionId("s1");
+        negotiator.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+        assertFalse(negotiator.isCbor("s1"));
+    }
+
+    /**
+     * Payload size and encode/decode time, JSON against CBOR. Opt-in:
+     * mvn test -Dtest=WireFormatNegotiatorTests -Dazcord.benchmark=true
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "azcord.benchmark", matches = "true")
+    void benchmarkAgainstJson() throws Exception {
+        Map<String, Object> deleted = new HashMap<>();
+        deleted.put("messageId", 42L);
+        deleted.put("deletedBy", "alice");
+        Map<String, Object> payloads = new LinkedHashMap<>();
+        payloads.put("MessageDTO", message(4L));
+        payloads.put("TypingSnapshotDTO", new TypingSnapshotDTO("node-a", 7L, false,
+                List.of(new TypingSnapshotDTO.Typist(1L, "alice"), new TypingSnapshotDTO.Typist(2L, "bob"))));
+        payloads.put("ReactionDeltaDTO", new ReactionDeltaDTO(42L, "👍", 3, 1L, true));
+        payloads.put("delete event", deleted);
+        int rounds = Integer.getInteger("azcord.benchmark.rounds", 100_000);
+
+        System.out.println("Wire format benchmark (bytes, encode ns/op, decode ns/op)");
+        for (Map.Entry<String, Object> entry : payloads.entrySet()) {
+            Object value = entry.getValue();
+            Class<?> type = value.getClass();
+            byte[] jsonBytes = json.writeValueAsBytes(value);
+            byte[] cborBytes = cbor.writeValueAsBytes(value);
+            long jsonEncode = time(rounds, () -> json.writeValueAsBytes(value));
+            long cborEncode = time(rounds, () -> cbor.writeValueAsBytes(value));
+            long jsonDecode = time(rounds, () -> json.readValue(jsonBytes, type));
+            long cborDecode = time(rounds, () -> cbor.readValue(cborBytes, type));
+            System.out.printf("  %-18s JSON %5d B %6d %6d   CBOR %5d B %6d %6d%n", entry.getKey(),
+                    jsonBytes.length, jsonEncode / rounds, jsonDecode / rounds,
+                    cborBytes.length, cborEncode / rounds, cborDecode / rounds);
+        }
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    private static long time(int rounds, Op op) throws Exception {
+        for (int i = 0; i < rounds; i++) op.run(); // warm-up
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) op.run();
+        return System.nanoTime() - start;
+    }
+
+    private void connect(String sessionId, boolean binaryFrames, String accept) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        Map<String, Object> attributes = new HashMap<>();
+        if (binaryFrames) attributes.put(WireFormatNegotiator.BINARY_FRAMES_ATTRIBUTE, Boolean.TRUE);
+        accessor.setSessionAttributes(attributes);
+        if (accept != null) accessor.setNativeHeader(WireFormatNegotiator.ACCEPT_HEADER, accept);
+        negotiator.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+    }
+
+    private static Message<byte[]> frame(String sessionId, byte[] body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/topic/channels/1/messages");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+    }
+
+    private static MessageDTO message(Long id) {
+        UserSimpleDTO sender = new UserSimpleDTO();
+        sender.setId(1L);
+        sender.setUsername("alice");
+        AttachmentDTO attachment = new AttachmentDTO(9L, "cat.png", "/uploads/cat.png", "image/png", 2048L,
+                MessageType.IMAGE, LocalDateTime.of(2025, 5, 1, 12, 0));
+        return new MessageDTO(id, sender, "hello there, general kenobi", MessageType.TEXT,
+                LocalDateTime.of(2025, 5, 1, 12, 0), null, false, 1L, null, List.of(attachment), Map.of("👍", 3), null);
+    }
+}